@@ -46,6 +46,7 @@ import org.unitime.banner.model.BannerCampusOverride;
 import org.unitime.banner.model.BannerConfig;
 import org.unitime.banner.model.BannerCourse;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionIndex;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.dao.BannerConfigDAO;
 import org.unitime.banner.model.dao.BannerCourseDAO;
@@ -431,6 +432,7 @@ public class BannerOfferingModifyAction extends Action {
 			} 
 			if (changed){
 				hibSession.update(bs);
+				BannerSectionIndex.update(bs, hibSession);
 			}
 		}
     }
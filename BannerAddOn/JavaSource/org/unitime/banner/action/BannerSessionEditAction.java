@@ -35,6 +35,8 @@ import org.hibernate.Transaction;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.unitime.banner.form.BannerSessionEditForm;
+import org.unitime.banner.model.BannerCrnClassCache;
+import org.unitime.banner.model.BannerSectionIndex;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.dao.BannerSessionDAO;
 import org.unitime.timetable.model.ChangeLog;
@@ -196,6 +198,8 @@ public class BannerSessionEditAction extends SpringAwareLookupDispatchAction {
                     null);
             
             tx.commit() ;
+            BannerSectionIndex.clear();
+            BannerCrnClassCache.clear();
         } catch (Exception e) {
             if (tx!=null) tx.rollback();
             throw e;
@@ -42,6 +42,7 @@ import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.BannerTermCrnProperties;
 import org.unitime.banner.model.dao.BannerSessionDAO;
 import org.unitime.banner.model.dao.BannerTermCrnPropertiesDAO;
+import org.unitime.banner.util.BannerCrnBlockAllocator;
 import org.unitime.timetable.model.ChangeLog;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.security.SessionContext;
@@ -214,6 +215,7 @@ public class BannerTermCrnPropertiesEditAction extends SpringAwareLookupDispatch
                     null);
             
             tx.commit() ;
+            BannerCrnBlockAllocator.clear();
         } catch (Exception e) {
             if (tx!=null) tx.rollback();
             throw e;
@@ -205,6 +205,7 @@ public class BannerStudentUpdateConnector extends ApiConnector {
 			qi.setPostDate(new Date());
 			qi.setStatus(QueueIn.STATUS_READY);
 			qi.setXml(document);
+			qi.updateMetadata();
 			QueueInDAO.getInstance().save(qi);
 		} else {
 			try {
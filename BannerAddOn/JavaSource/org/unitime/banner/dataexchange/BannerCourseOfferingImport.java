@@ -28,6 +28,7 @@ import org.hibernate.Transaction;
 import org.unitime.banner.model.BannerConfig;
 import org.unitime.banner.model.BannerCourse;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionIndex;
 import org.unitime.banner.model.BannerSectionToClass;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.dao.BannerConfigDAO;
@@ -306,6 +307,7 @@ public class BannerCourseOfferingImport extends BaseCourseOfferingImport {
 					changed = true;
 				}
 				workingSession.update(bs);
+				BannerSectionIndex.update(bs, workingSession);
 				if (usedNewSessionAsWorkingSession){
 					workingSession.flush();
 					workingSession.close();
@@ -36,6 +36,7 @@ import org.dom4j.Element;
 import org.hibernate.Session;
 import org.unitime.banner.interfaces.ExternalBannerSessionElementHelperInterface;
 import org.unitime.banner.model.BannerCohortRestriction;
+import org.unitime.banner.model.BannerInstrMethodCohortRestriction;
 import org.unitime.banner.model.BannerSection;
 import org.unitime.banner.model.BannerSectionToClass;
 import org.unitime.banner.model.BannerSession;
@@ -68,6 +69,7 @@ public class BannerMessage {
 	private CourseOffering courseOffering;
 	private CourseCreditUnitConfig courseCreditUnitConfig;
 	private Class_ clazz;
+	private BannerSectionPrefetch prefetch;
 	
     private static SimpleDateFormat sDateFormat = new SimpleDateFormat("MM/dd/yyyy");
 	private static ExternalBannerSessionElementHelperInterface externalSessionElementHelper;
@@ -220,7 +222,8 @@ public class BannerMessage {
 	}
 
 	private void createCohortRestrictionXml(BannerSection bannerSection, Session hibSession, Element sectionElement) {
-		ArrayList<BannerCohortRestriction> cohortRestrictions = bannerSection.getAllBannerCohortRestrictions(hibSession);
+		ArrayList<BannerInstrMethodCohortRestriction> imRestrictions = (prefetch == null ? null : prefetch.getInstrMethodCohortRestrictions(bannerSection, hibSession));
+		ArrayList<BannerCohortRestriction> cohortRestrictions = (imRestrictions == null ? bannerSection.getAllBannerCohortRestrictions(hibSession) : bannerSection.getAllBannerCohortRestrictions(imRestrictions));
 		if (cohortRestrictions.isEmpty()) {
 			return;
 		}
@@ -470,6 +473,12 @@ public class BannerMessage {
 	
 	@SuppressWarnings("unchecked")
 	private TreeSet<Integer> getCrossListedCrns(BannerSection bannerSection, Session hibSession){
+		if (prefetch != null){
+			TreeSet<Integer> prefetched = prefetch.getCrossListedCrns(bannerSection);
+			if (prefetched != null && bannerSection.isCrossListedSection(hibSession)){
+				return(prefetched);
+			}
+		}
 		TreeSet<Integer> ts = new TreeSet<Integer>();
 		Session querySession = hibSession;
 		if (querySession == null){
@@ -554,6 +563,17 @@ public class BannerMessage {
 	public void setDocument(Document document) {
 		this.document = document;
 	}
+
+	public BannerSectionPrefetch getPrefetch() {
+		return prefetch;
+	}
+
+	/**
+	 * Use data loaded in bulk by {@link BannerSectionPrefetch} when the sections are added into the message.
+	 */
+	public void setPrefetch(BannerSectionPrefetch prefetch) {
+		this.prefetch = prefetch;
+	}
 	
 	public static class BannerMessageContext {
 		private int iCourseNumberLength;
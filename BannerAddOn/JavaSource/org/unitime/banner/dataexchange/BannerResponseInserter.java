@@ -0,0 +1,177 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.dataexchange;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.hibernate.Session;
+import org.hibernate.dialect.Oracle8iDialect;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.jdbc.Work;
+import org.hibernate.persister.entity.AbstractEntityPersister;
+import org.unitime.banner.model.BannerResponse;
+import org.unitime.timetable.model.dao._RootDAO;
+
+/**
+ * Inserts Banner responses into the banner_response table using JDBC batches, independently of the <code>hibernate.jdbc.batch_size</code>
+ * setting (which is not set by default, so the responses saved through the Hibernate session were inserted one by one).<br>
+ * <br>
+ * The responses are collected and every batch is written using one prepared statement in the connection (and the transaction) of the
+ * given session. On Oracle, the unique ids of a batch are taken from the banner_response_seq sequence in one query; on other databases they are
+ * generated one by one using the identifier generator of the BannerResponse mapping. The inserted responses are not attached to the session.
+ */
+public class BannerResponseInserter {
+	protected static String sSequence = "banner_response_seq";
+	private static final String[] sColumns = new String[] {
+		"uniqueid", "seqno", "activity_date", "term_code", "crn", "subj_code", "crse_numb", "seq_numb", "xlst_group", "external_id",
+		"action", "type", "message", "packet_id", "queue_id", "session_id", "banner_section_id", "subject_area_id", "campus"
+	};
+
+	private int iBatchSize;
+	private List<BannerResponse> iPending = new ArrayList<BannerResponse>();
+
+	/**
+	 * @param batchSize number of responses that are inserted in one JDBC batch, 0 to insert all responses when {@link BannerResponseInserter#flush(Session)} is called
+	 */
+	public BannerResponseInserter(int batchSize) {
+		iBatchSize = batchSize;
+	}
+
+	/**
+	 * Add a response, the pending responses are inserted when the batch is full.
+	 */
+	public void add(BannerResponse response, Session hibSession) {
+		iPending.add(response);
+		if (iBatchSize > 0 && iPending.size() >= iBatchSize)
+			flush(hibSession);
+	}
+
+	/**
+	 * Insert the pending responses.
+	 */
+	public void flush(final Session hibSession) {
+		if (iPending.isEmpty()) return;
+		hibSession.doWork(new Work() {
+			@Override
+			public void execute(Connection connection) throws SQLException {
+				assignIds(hibSession, connection);
+				insert(hibSession, connection);
+			}
+		});
+		iPending.clear();
+	}
+
+	/**
+	 * Drop the pending responses (e.g., when the transaction is rolled back).
+	 */
+	public void clear() {
+		iPending.clear();
+	}
+
+	protected void assignIds(Session hibSession, Connection connection) throws SQLException {
+		SessionFactoryImplementor factory = (SessionFactoryImplementor)hibSession.getSessionFactory();
+		if (factory.getDialect() instanceof Oracle8iDialect) {
+			String schema = _RootDAO.getConfiguration().getProperty("default_schema");
+			PreparedStatement stmt = connection.prepareStatement(
+					"select " + (schema == null || schema.isEmpty() ? "" : schema + ".") + sSequence + ".nextval from dual connect by level <= ?");
+			try {
+				stmt.setInt(1, iPending.size());
+				ResultSet rs = stmt.executeQuery();
+				try {
+					for (BannerResponse response: iPending) {
+						if (!rs.next()) throw new SQLException("Failed to allocate " + iPending.size() + " unique ids from " + sSequence + ".");
+						response.setUniqueId(rs.getLong(1));
+					}
+				} finally {
+					rs.close();
+				}
+			} finally {
+				stmt.close();
+			}
+		} else {
+			for (BannerResponse response: iPending)
+				response.setUniqueId(((Number)factory.getIdentifierGenerator(BannerResponse.class.getName()).generate((SessionImplementor)hibSession, response)).longValue());
+		}
+	}
+
+	protected void insert(Session hibSession, Connection connection) throws SQLException {
+		String table = ((AbstractEntityPersister)hibSession.getSessionFactory().getClassMetadata(BannerResponse.class)).getTableName();
+		StringBuffer columns = new StringBuffer(), values = new StringBuffer();
+		for (String column: sColumns) {
+			if (columns.length() > 0) { columns.append(", "); values.append(", "); }
+			columns.append(column); values.append("?");
+		}
+		PreparedStatement stmt = connection.prepareStatement("insert into " + table + " (" + columns + ") values (" + values + ")");
+		try {
+			for (BannerResponse response: iPending) {
+				int idx = 1;
+				setLong(stmt, idx++, response.getUniqueId());
+				setInteger(stmt, idx++, response.getSequenceNumber());
+				if (response.getActivityDate() == null)
+					stmt.setNull(idx++, Types.TIMESTAMP);
+				else
+					stmt.setTimestamp(idx++, new Timestamp(response.getActivityDate().getTime()));
+				stmt.setString(idx++, response.getTermCode());
+				stmt.setString(idx++, response.getCrn());
+				stmt.setString(idx++, response.getSubjectCode());
+				stmt.setString(idx++, response.getCourseNumber());
+				stmt.setString(idx++, response.getSectionNumber());
+				stmt.setString(idx++, response.getXlstGroup());
+				stmt.setString(idx++, response.getExternalId());
+				stmt.setString(idx++, response.getAction());
+				stmt.setString(idx++, response.getType());
+				stmt.setString(idx++, response.getMessage());
+				stmt.setString(idx++, response.getPacketId());
+				setLong(stmt, idx++, response.getQueueId());
+				setLong(stmt, idx++, response.getSession() == null ? null : response.getSession().getUniqueId());
+				setLong(stmt, idx++, response.getBannerSection() == null ? null : response.getBannerSection().getUniqueId());
+				setLong(stmt, idx++, response.getSubjectArea() == null ? null : response.getSubjectArea().getUniqueId());
+				stmt.setString(idx++, response.getCampus());
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+		} finally {
+			stmt.close();
+		}
+	}
+
+	private static void setLong(PreparedStatement stmt, int idx, Long value) throws SQLException {
+		if (value == null)
+			stmt.setNull(idx, Types.BIGINT);
+		else
+			stmt.setLong(idx, value);
+	}
+
+	private static void setInteger(PreparedStatement stmt, int idx, Integer value) throws SQLException {
+		if (value == null)
+			stmt.setNull(idx, Types.INTEGER);
+		else
+			stmt.setInt(idx, value);
+	}
+}
@@ -19,14 +19,25 @@
 */
 package org.unitime.banner.dataexchange;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
+import org.dom4j.Attribute;
 import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
 import org.unitime.banner.dataexchange.BannerMessage.BannerMessageAction;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionClasses;
 import org.unitime.banner.model.BannerSession;
+import org.unitime.banner.queueprocessor.util.ClobTools;
+import org.unitime.banner.util.BannerMessageIdGenerator;
 import org.unitime.timetable.dataexchange.BaseExport;
 import org.unitime.timetable.model.Session;
 
@@ -50,14 +61,18 @@ public class BannerSectionAuditExport extends BaseExport {
 	@Override
 	public void saveXml(Document document, Session session,
 			Properties parameters) throws Exception {
-		beginTransaction();
-		BannerMessage bm = new BannerMessage(session, BannerMessageAction.AUDIT, false, getHibSession(), document);
-		addAllBannerSections(bm, BannerMessageAction.AUDIT, session);
-		commitTransaction();
-		beginTransaction();
-		addAllBannerCrossLists(bm, BannerMessageAction.AUDIT, session);
-		commitTransaction();
-	
+		BannerSectionClasses.open(getHibSession());
+		try {
+			beginTransaction();
+			BannerMessage bm = new BannerMessage(session, BannerMessageAction.AUDIT, false, getHibSession(), document);
+			addAllBannerSections(bm, BannerMessageAction.AUDIT, session);
+			commitTransaction();
+			beginTransaction();
+			addAllBannerCrossLists(bm, BannerMessageAction.AUDIT, session);
+			commitTransaction();
+		} finally {
+			BannerSectionClasses.close(getHibSession());
+		}
 	}
 	
 	private void addAllBannerSections(BannerMessage bannerMessage, BannerMessageAction action, Session session){
@@ -112,4 +127,139 @@ public class BannerSectionAuditExport extends BaseExport {
 
 	}
 
+	/**
+	 * Split an AUDIT packet into a sequence of smaller SCHEDULE packets, each with at most the given number of sections
+	 * and (approximately) the given number of characters (zero means no limit).<br>
+	 * Sections of the same cross-list are kept in the same packet, followed by the cross-list element, so that the packets
+	 * can be processed independently of each other. Each packet gets its own PACKET_ID, all packets share the BATCH_ID
+	 * (the PACKET_ID of the original packet) and are numbered using the CHUNK and CHUNKS attributes.
+	 */
+	public static List<Document> splitIntoChunks(Document document, int maxSections, long maxSize) {
+		List<Document> chunks = new ArrayList<Document>();
+		Element root = document.getRootElement();
+		if (maxSections <= 0 && maxSize <= 0) {
+			chunks.add(document);
+			return chunks;
+		}
+
+		List<List<Element>> units = groupWithCrossLists(root);
+
+		// fill in the chunks
+		String batchId = root.attributeValue("PACKET_ID");
+		Element chunk = null;
+		int nrSections = 0;
+		long size = 0;
+		for (List<Element> unit: units) {
+			long unitSize = 0;
+			int unitSections = 0;
+			for (Element e: unit) {
+				if ("SECTION".equals(e.getName())) unitSections ++;
+				if (maxSize > 0) unitSize += ClobTools.elementSize(e);
+			}
+			if (chunk != null && nrSections > 0 &&
+					((maxSections > 0 && nrSections + unitSections > maxSections) || (maxSize > 0 && size + unitSize > maxSize))) {
+				chunk = null;
+			}
+			if (chunk == null) {
+				Document chunkDocument = DocumentHelper.createDocument();
+				chunk = chunkDocument.addElement(root.getName());
+				for (Iterator<?> i = root.attributeIterator(); i.hasNext(); ) {
+					Attribute attribute = (Attribute)i.next();
+					chunk.addAttribute(attribute.getName(), attribute.getValue());
+				}
+				chunk.addAttribute("PACKET_ID", BannerMessageIdGenerator.nextMessageId().toString());
+				chunk.addAttribute("BATCH_ID", batchId);
+				chunks.add(chunkDocument);
+				nrSections = 0; size = 0;
+			}
+			for (Element e: unit)
+				chunk.add(e.createCopy());
+			nrSections += unitSections;
+			size += unitSize;
+		}
+		for (int i = 0; i < chunks.size(); i++) {
+			Element chunkRoot = chunks.get(i).getRootElement();
+			chunkRoot.addAttribute("CHUNK", String.valueOf(i + 1));
+			chunkRoot.addAttribute("CHUNKS", String.valueOf(chunks.size()));
+		}
+		return chunks;
+	}
+
+	/**
+	 * Group the sections of a packet with their cross-lists (union-find over the units of sections sharing a CRN): each group contains
+	 * the sections of the cross-lists that share a member, followed by the cross-list elements. Cross-lists without any member in the
+	 * packet are put in a group of their own (the last one).
+	 */
+	static List<List<Element>> groupWithCrossLists(Element root) {
+		List<Element> sections = new ArrayList<Element>();
+		List<Integer> unitOfSection = new ArrayList<Integer>();
+		Map<String, Integer> unitByCrn = new HashMap<String, Integer>();
+		int nrUnits = 0;
+		for (Iterator<?> i = root.elementIterator("SECTION"); i.hasNext(); ) {
+			Element section = (Element)i.next();
+			String crn = section.attributeValue("CRN", "");
+			Integer unit = (crn.isEmpty() ? null : unitByCrn.get(crn));
+			if (unit == null) {
+				unit = nrUnits++;
+				if (!crn.isEmpty()) unitByCrn.put(crn, unit);
+			}
+			sections.add(section);
+			unitOfSection.add(unit);
+		}
+		int[] parent = new int[nrUnits];
+		for (int i = 0; i < nrUnits; i++) parent[i] = i;
+		List<Element> crosslists = new ArrayList<Element>();
+		List<Integer> unitOfCrosslist = new ArrayList<Integer>();
+		List<Element> orphans = new ArrayList<Element>();
+		for (Iterator<?> i = root.elementIterator("CROSSLIST"); i.hasNext(); ) {
+			Element crosslist = (Element)i.next();
+			Integer unit = null;
+			for (Iterator<?> j = crosslist.elementIterator("MEMBER"); j.hasNext(); ) {
+				Integer member = unitByCrn.get(((Element)j.next()).attributeValue("CRN"));
+				if (member == null) continue;
+				if (unit == null)
+					unit = member;
+				else
+					union(parent, unit, member);
+			}
+			if (unit == null) {
+				orphans.add(crosslist);
+			} else {
+				crosslists.add(crosslist);
+				unitOfCrosslist.add(unit);
+			}
+		}
+		Map<Integer, List<Element>> groups = new LinkedHashMap<Integer, List<Element>>();
+		for (int i = 0; i < sections.size(); i++) {
+			int unit = find(parent, unitOfSection.get(i));
+			List<Element> group = groups.get(unit);
+			if (group == null) {
+				group = new ArrayList<Element>();
+				groups.put(unit, group);
+			}
+			group.add(sections.get(i));
+		}
+		for (int i = 0; i < crosslists.size(); i++)
+			groups.get(find(parent, unitOfCrosslist.get(i))).add(crosslists.get(i));
+		List<List<Element>> units = new ArrayList<List<Element>>(groups.values());
+		if (!orphans.isEmpty()) units.add(orphans);
+		return units;
+	}
+
+	private static int find(int[] parent, int unit) {
+		int root = unit;
+		while (parent[root] != root) root = parent[root];
+		while (parent[unit] != root) {
+			int next = parent[unit];
+			parent[unit] = root;
+			unit = next;
+		}
+		return root;
+	}
+
+	private static void union(int[] parent, int a, int b) {
+		int ra = find(parent, a), rb = find(parent, b);
+		if (ra != rb) parent[rb] = ra;
+	}
+
 }
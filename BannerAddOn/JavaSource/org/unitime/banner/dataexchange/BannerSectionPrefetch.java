@@ -0,0 +1,211 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.dataexchange;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.unitime.banner.model.BannerInstrMethodCohortRestriction;
+import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionClasses;
+import org.unitime.banner.model.BannerSectionToClass;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.model.InstrOfferingConfig;
+import org.unitime.timetable.model.dao.InstrOfferingConfigDAO;
+
+/**
+ * Loads everything that is needed to put a large number of Banner sections into a {@link BannerMessage}
+ * using a few set-based queries: the classes of the sections (see {@link BannerSectionClasses}, with their subparts, configurations, instructors
+ * and committed assignments including rooms), the course offerings, the cross-list memberships and the instructional
+ * method cohort restrictions. The message is then built from the objects that are already in the Hibernate session,
+ * instead of issuing several queries for each section.<br>
+ * <br>
+ * Id lists are split into batches of {@link BannerSectionPrefetch#BATCH_SIZE} to stay within the Oracle limit of an IN list.
+ */
+public class BannerSectionPrefetch {
+	public static final int BATCH_SIZE = 1000;
+
+	private Map<Long, TreeSet<Integer>> iCrossListCrns = new HashMap<Long, TreeSet<Integer>>();
+	private Map<Long, Integer> iSectionsPerClass = new HashMap<Long, Integer>();
+	private Map<Long, ArrayList<BannerInstrMethodCohortRestriction>> iInstrMethodRestrictions = new HashMap<Long, ArrayList<BannerInstrMethodCohortRestriction>>();
+	private Set<Long> iSessionIds = new HashSet<Long>();
+	private int iQueries = 0;
+	private long iTime = 0;
+
+	private BannerSectionPrefetch() {}
+
+	/**
+	 * Prefetch all the data needed to put the given sections into a message. The classes and the cross-list status
+	 * of each section are set on the section directly.
+	 */
+	@SuppressWarnings("unchecked")
+	public static BannerSectionPrefetch prefetch(Collection<BannerSection> bannerSections, Session hibSession) {
+		BannerSectionPrefetch prefetch = new BannerSectionPrefetch();
+		if (bannerSections == null || bannerSections.isEmpty()) return prefetch;
+		long t0 = System.currentTimeMillis();
+
+		Set<Long> classIds = new HashSet<Long>();
+		Set<Long> courseOfferingIds = new HashSet<Long>();
+		Set<Long> configIds = new HashSet<Long>();
+		for (BannerSection bs : bannerSections) {
+			for (BannerSectionToClass bsc : bs.getBannerSectionToClasses()) {
+				if (bsc.getClassId() != null) classIds.add(bsc.getClassId());
+			}
+			if (bs.getBannerConfig().getBannerCourse() != null && bs.getBannerConfig().getBannerCourse().getCourseOfferingId() != null)
+				courseOfferingIds.add(bs.getBannerConfig().getBannerCourse().getCourseOfferingId());
+			if (bs.getBannerConfig().getInstrOfferingConfigId() != null)
+				configIds.add(bs.getBannerConfig().getInstrOfferingConfigId());
+			prefetch.iSessionIds.add(bs.getSession().getUniqueId());
+		}
+
+		// classes with their subparts and configurations
+		prefetch.iQueries += BannerSectionClasses.load(bannerSections, hibSession);
+
+		// class instructors
+		for (List<Long> ids : batches(classIds)) {
+			hibSession.createQuery(
+					"select distinct c from Class_ c left join fetch c.classInstructors ci left join fetch ci.instructor where c.uniqueId in (:ids)")
+					.setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+			prefetch.iQueries ++;
+		}
+
+		// committed assignments with their rooms
+		for (List<Long> ids : batches(classIds)) {
+			hibSession.createQuery(
+					"select distinct a from Assignment a left join fetch a.rooms where a.solution.commited = true and a.clazz.uniqueId in (:ids)")
+					.setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+			prefetch.iQueries ++;
+		}
+
+		// course offerings with their instructional offerings
+		for (List<Long> ids : batches(courseOfferingIds)) {
+			hibSession.createQuery(
+					"select distinct co from CourseOffering co left join fetch co.instructionalOffering where co.uniqueId in (:ids)")
+					.setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+			prefetch.iQueries ++;
+		}
+
+		// configurations (instructional methods)
+		for (List<Long> ids : batches(configIds)) {
+			hibSession.createQuery(
+					"select distinct ioc from InstrOfferingConfig ioc left join fetch ioc.instructionalMethod where ioc.uniqueId in (:ids)")
+					.setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list();
+			prefetch.iQueries ++;
+		}
+
+		// all the banner sections of the classes (cross-lists)
+		for (List<Long> ids : batches(classIds)) {
+			for (Object[] o : (List<Object[]>)hibSession.createQuery(
+					"select bsc.classId, bsc.bannerSection.crn from BannerSectionToClass bsc where bsc.classId in (:ids)")
+					.setParameterList("ids", ids).setFlushMode(FlushMode.MANUAL).list()) {
+				Long classId = (Long)o[0];
+				Integer crn = (Integer)o[1];
+				Integer count = prefetch.iSectionsPerClass.get(classId);
+				prefetch.iSectionsPerClass.put(classId, count == null ? 1 : count + 1);
+				TreeSet<Integer> crns = prefetch.iCrossListCrns.get(classId);
+				if (crns == null) {
+					crns = new TreeSet<Integer>();
+					prefetch.iCrossListCrns.put(classId, crns);
+				}
+				if (crn != null) crns.add(crn);
+			}
+			prefetch.iQueries ++;
+		}
+
+		// instructional method cohort restrictions
+		for (Long sessionId : prefetch.iSessionIds) {
+			for (BannerInstrMethodCohortRestriction r : BannerInstrMethodCohortRestriction.findAllWithTerm(sessionId, hibSession)) {
+				ArrayList<BannerInstrMethodCohortRestriction> restrictions = prefetch.iInstrMethodRestrictions.get(r.getInstructionalMethod().getUniqueId());
+				if (restrictions == null) {
+					restrictions = new ArrayList<BannerInstrMethodCohortRestriction>();
+					prefetch.iInstrMethodRestrictions.put(r.getInstructionalMethod().getUniqueId(), restrictions);
+				}
+				restrictions.add(r);
+			}
+			prefetch.iQueries ++;
+		}
+
+		for (BannerSection bs : bannerSections) {
+			boolean crossListed = false;
+			for (BannerSectionToClass bsc : bs.getBannerSectionToClasses()) {
+				Integer count = prefetch.iSectionsPerClass.get(bsc.getClassId());
+				if (count != null && count > 1) crossListed = true;
+			}
+			bs.initCrossListed(crossListed);
+		}
+
+		prefetch.iTime = System.currentTimeMillis() - t0;
+		Debug.info("Prefetched " + bannerSections.size() + " banner sections (" + classIds.size() + " classes) using " + prefetch.iQueries + " queries in " + prefetch.iTime + " ms.");
+		return prefetch;
+	}
+
+	private static List<List<Long>> batches(Collection<Long> ids) {
+		List<List<Long>> batches = new ArrayList<List<Long>>();
+		List<Long> batch = null;
+		for (Long id : ids) {
+			if (batch == null || batch.size() >= BATCH_SIZE) {
+				batch = new ArrayList<Long>(BATCH_SIZE);
+				batches.add(batch);
+			}
+			batch.add(id);
+		}
+		return batches;
+	}
+
+	/**
+	 * CRNs of all the sections that share a class with the given section, null if the section has not been prefetched.
+	 */
+	public TreeSet<Integer> getCrossListedCrns(BannerSection bannerSection) {
+		TreeSet<Integer> crns = new TreeSet<Integer>();
+		for (BannerSectionToClass bsc : bannerSection.getBannerSectionToClasses()) {
+			TreeSet<Integer> classCrns = iCrossListCrns.get(bsc.getClassId());
+			if (classCrns == null) return null;
+			crns.addAll(classCrns);
+		}
+		return crns;
+	}
+
+	/**
+	 * Instructional method cohort restrictions of the given section, null if the section has not been prefetched.
+	 */
+	public ArrayList<BannerInstrMethodCohortRestriction> getInstrMethodCohortRestrictions(BannerSection bannerSection, Session hibSession) {
+		if (!iSessionIds.contains(bannerSection.getSession().getUniqueId())) return null;
+		ArrayList<BannerInstrMethodCohortRestriction> restrictions = new ArrayList<BannerInstrMethodCohortRestriction>();
+		InstrOfferingConfig ioc = InstrOfferingConfigDAO.getInstance().get(bannerSection.getBannerConfig().getInstrOfferingConfigId(), hibSession);
+		if (ioc != null && ioc.getEffectiveInstructionalMethod() != null) {
+			ArrayList<BannerInstrMethodCohortRestriction> imRestrictions = iInstrMethodRestrictions.get(ioc.getEffectiveInstructionalMethod().getUniqueId());
+			if (imRestrictions != null) restrictions.addAll(imRestrictions);
+		}
+		return restrictions;
+	}
+
+	public int getQueryCount() { return iQueries; }
+
+	public long getTime() { return iTime; }
+}
@@ -0,0 +1,148 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+
+package org.unitime.banner.dataexchange;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+
+/**
+ * Compact list of the sections and cross-lists of a sent SCHEDULE packet, stored with the {@link org.unitime.banner.model.QueueOut}
+ * message when it is posted (see {@link org.unitime.banner.model.QueueOut#updateMetadata()}). The response of the packet is then
+ * matched with the sent elements using the manifest, without reading and parsing the XML of the sent packet.<br>
+ * <br>
+ * The first line contains the TERM_CODE, ACTION, BATCH_ID, CHUNK and CHUNKS attributes of the packet, each following
+ * line describes one sent element (in the order of the packet): element name, ACTION, CRN, EXTERNAL_ID, SUBJ_CODE, CRSE_NUMB,
+ * CAMP_CODE, and GROUP. The values are separated by tabs, a missing value is an empty string.
+ */
+public class BannerSentManifest {
+	private static String sRootName = "SCHEDULE";
+	private static String[] sRootAttributes = new String[] { "TERM_CODE", "ACTION", "BATCH_ID", "CHUNK", "CHUNKS" };
+	private static String[] sElementAttributes = new String[] { "ACTION", "CRN", "EXTERNAL_ID", "SUBJ_CODE", "CRSE_NUMB", "CAMP_CODE", "GROUP" };
+
+	private String[] iHeader;
+	private List<Entry> iEntries = new ArrayList<Entry>();
+
+	private BannerSentManifest(String[] header) {
+		iHeader = header;
+	}
+
+	/**
+	 * Manifest of the given packet, null if the document is not a SCHEDULE packet.
+	 */
+	public static String create(Document document) {
+		if (document == null || document.getRootElement() == null || !sRootName.equalsIgnoreCase(document.getRootElement().getName())) return null;
+		Element root = document.getRootElement();
+		StringBuffer ret = new StringBuffer();
+		append(ret, root, null, sRootAttributes);
+		for (Iterator<?> i = root.elementIterator(); i.hasNext(); ) {
+			Element element = (Element)i.next();
+			ret.append("\n");
+			append(ret, element, element.getName(), sElementAttributes);
+		}
+		return ret.toString();
+	}
+
+	private static void append(StringBuffer buffer, Element element, String name, String[] attributes) {
+		boolean first = true;
+		if (name != null) {
+			buffer.append(clean(name));
+			first = false;
+		}
+		for (String attribute: attributes) {
+			if (!first) buffer.append("\t");
+			String value = element.attributeValue(attribute);
+			if (value != null) buffer.append(clean(value));
+			first = false;
+		}
+	}
+
+	private static String clean(String value) {
+		return value.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+	}
+
+	/**
+	 * Parse the stored manifest, null if there is none.
+	 */
+	public static BannerSentManifest parse(String manifest) {
+		if (manifest == null || manifest.isEmpty()) return null;
+		String[] lines = manifest.split("\n");
+		BannerSentManifest ret = new BannerSentManifest(split(lines[0], sRootAttributes.length));
+		for (int i = 1; i < lines.length; i++)
+			ret.iEntries.add(new Entry(i - 1, split(lines[i], 1 + sElementAttributes.length)));
+		return ret;
+	}
+
+	private static String[] split(String line, int length) {
+		String[] values = line.split("\t", -1);
+		String[] ret = new String[length];
+		for (int i = 0; i < length; i++)
+			ret[i] = (i < values.length && !values[i].isEmpty() ? values[i] : null);
+		return ret;
+	}
+
+	public String getTermCode() { return iHeader[0]; }
+	public String getAction() { return iHeader[1]; }
+	public String getBatchId() { return iHeader[2]; }
+	public String getChunk() { return iHeader[3]; }
+	public String getChunks() { return iHeader[4]; }
+	public List<Entry> getEntries() { return iEntries; }
+
+	/**
+	 * Banner section ids (EXTERNAL_ID attributes) of the sent sections.
+	 */
+	public List<Long> getBannerSectionIds() {
+		List<Long> ret = new ArrayList<Long>();
+		for (Entry entry: iEntries) {
+			if (entry.isSection() && entry.getExternalId() != null) {
+				try {
+					ret.add(Long.valueOf(entry.getExternalId()));
+				} catch (NumberFormatException e) {}
+			}
+		}
+		return ret;
+	}
+
+	public static class Entry {
+		private int iPosition;
+		private String[] iValues;
+
+		private Entry(int position, String[] values) {
+			iPosition = position;
+			iValues = values;
+		}
+
+		public int getPosition() { return iPosition; }
+		public String getElementName() { return iValues[0]; }
+		public boolean isSection() { return "SECTION".equals(getElementName()); }
+		public boolean isCrossList() { return "CROSSLIST".equals(getElementName()); }
+		public String getAction() { return iValues[1]; }
+		public String getCrn() { return iValues[2]; }
+		public String getExternalId() { return iValues[3]; }
+		public String getSubject() { return iValues[4]; }
+		public String getCourse() { return iValues[5]; }
+		public String getCampus() { return iValues[6]; }
+		public String getGroup() { return iValues[7]; }
+	}
+}
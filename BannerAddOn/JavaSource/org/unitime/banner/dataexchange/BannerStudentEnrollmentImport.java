@@ -32,6 +32,7 @@ import java.util.TreeSet;
 
 import org.dom4j.Element;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionClasses;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.dataexchange.BaseImport;
 import org.unitime.timetable.dataexchange.StudentEnrollmentImport.Pair;
@@ -91,7 +92,9 @@ public class BannerStudentEnrollmentImport extends BaseImport {
 				CourseOffering co = (CourseOffering) it.next();
 				courses.put(co.getUniqueId(), co);
 			}
-	 		for (Iterator<?> it = BannerSection.findAll(session.getUniqueId()).iterator(); it.hasNext();) {
+			List<BannerSection> bannerSections = BannerSection.findAll(session.getUniqueId());
+			BannerSectionClasses.load(bannerSections, getHibSession());
+	 		for (Iterator<?> it = bannerSections.iterator(); it.hasNext();) {
 				BannerSection bs = (BannerSection) it.next();
 				if (bs.getCrn() == null) continue;
 				Set<Class_> bsClasses = bs.getClasses(getHibSession());
@@ -26,9 +26,14 @@ import java.util.ArrayList;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 
 import org.dom4j.Element;
+import org.hibernate.FlushMode;
 import org.unitime.banner.model.BannerResponse;
+import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionClasses;
 import org.unitime.banner.model.Queue;
 import org.unitime.banner.model.QueueIn;
 import org.unitime.banner.model.QueueOut;
@@ -38,6 +43,7 @@ import org.unitime.banner.queueprocessor.exception.LoggableException;
 import org.unitime.commons.Debug;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.dataexchange.BaseImport;
+import org.unitime.timetable.model.CourseOffering;
 
 
 /**
@@ -50,7 +56,24 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 	private static String bannerResponseName = "MESSAGE";
 	private Long iQueueId;
 	private String iSentTermCode;
+	private String iBatchId;
 	private boolean iSaveNoChangeMessages;
+	private BannerResponseInserter iInserter;
+	private int iSaved = 0;
+	private boolean iRethrowFailures = false;
+	
+	private static ThreadLocal<DateFormat> sActivityDateFormat = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("MM/dd/yyyy H:m:s");
+		}
+	};
+	private static ThreadLocal<DateFormat> sEndTimestampFormat = new ThreadLocal<DateFormat>() {
+		@Override
+		protected DateFormat initialValue() {
+			return new SimpleDateFormat("yyyy-MM-dd H:m:s");
+		}
+	};
 
 	public Long getQueueId() {
 		return iQueueId;
@@ -68,27 +91,73 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 		this.iSentTermCode = sentTermCode;
 	}
 
+	/**
+	 * When set, a response that fails to be stored is rolled back and the failure is passed on to the caller (so that the response can be
+	 * stored again), instead of only being logged.
+	 */
+	public void setRethrowFailures(boolean rethrowFailures) {
+		iRethrowFailures = rethrowFailures;
+	}
+
 	public ReceiveBannerResponseMessage() {
 		super();
 		iSaveNoChangeMessages = ApplicationProperties.getProperty("banner.queue.saveNoChangeResponses", "true") == "true";
+		iInserter = new BannerResponseInserter(Integer.parseInt(ApplicationProperties.getProperty("banner.queue.responseBatchSize", "50")));
+	}
+	
+	private static Date parseDate(ThreadLocal<DateFormat> format, String dateStr) {
+		try {
+			return format.get().parse(dateStr);
+		} catch (ParseException e) {
+			e.printStackTrace();
+			return null;
+		}
+	}
+	
+	/**
+	 * Save the given response. Every <code>banner.queue.responseBatchSize</code> (defaults to 50) saved responses are inserted
+	 * using one JDBC batch (see {@link BannerResponseInserter}), the responses are not kept in the session.
+	 */
+	private void saveResponse(BannerResponse resp) {
+		iInserter.add(resp, getHibSession());
+		iSaved++;
+	}
+	
+	private void flushResponses() {
+		iInserter.flush(getHibSession());
 	}
 
 	public static void receiveResponseDocument(QueueIn queueIn) throws LoggableException  {
+		receiveResponseDocument(queueIn, null);
+	}
+	
+	/**
+	 * Store the given response in UniTime and mark it as processed. When a claimed status is given, the message has been claimed by this worker
+	 * and it is only marked as processed while the claim holds (see {@link QueueInDAO#complete(QueueIn, String)}). A claimed response that
+	 * fails to be stored is not marked as processed, the failure is thrown instead.
+	 * @return false when the response was claimed, but the claim has been lost before it could be marked as processed
+	 */
+	public static boolean receiveResponseDocument(QueueIn queueIn, String claimedStatus) throws LoggableException  {
 		Element rootElement = queueIn.getXml().getRootElement();
 		if (rootElement.getName().equalsIgnoreCase(rootName)){
 			try {
 				ReceiveBannerResponseMessage rbrm = new ReceiveBannerResponseMessage();
 				rbrm.setQueueId(queueIn.getMatchId());
+				rbrm.setRethrowFailures(claimedStatus != null);
 				rbrm.loadXml(rootElement);
 				queueIn.setProcessDate(new Date());
 				queueIn.setStatus(Queue.STATUS_PROCESSED);
-				QueueInDAO.getInstance().getSession().update(queueIn);
+				if (claimedStatus == null)
+					QueueInDAO.getInstance().updateStatus(queueIn);
+				else
+					return QueueInDAO.getInstance().complete(queueIn, claimedStatus);
 			} catch (Exception e) {
 				LoggableException le = new LoggableException(e, queueIn);
 				le.logError();
 				throw le;
 			}
-		} 
+		}
+		return true;
 	}
 	
 	private BannerResponse createInitialBannerResponseFrom(BannerSectionInfoHelper bannerSectionInfo) {
@@ -117,13 +186,7 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 		BannerResponse resp = createInitialBannerResponseFrom(bsi);
 
 		String dateStr = getRequiredStringAttribute(bannerResponseElement, "ACTIVITY_DATE", bannerResponseName);
-		DateFormat df = new SimpleDateFormat("MM/dd/yyyy H:m:s");
-		try {
-			Date aDate = df.parse(dateStr);
-			resp.setActivityDate(aDate);
-		} catch (ParseException e) {
-			e.printStackTrace();
-		}							
+		resp.setActivityDate(parseDate(sActivityDateFormat, dateStr));
 		
 		resp.setSequenceNumber(getRequiredIntegerAttribute(bannerResponseElement, "SEQNO", bannerResponseName));
 		String secNo = getOptionalStringAttribute(bannerResponseElement, "SEQ_NUMB");
@@ -133,13 +196,13 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 		resp.setAction(getOptionalStringAttribute(bannerResponseElement, "ACTION"));
 		resp.setType(getOptionalStringAttribute(bannerResponseElement, "TYPE"));
 		resp.setMessage(getRequiredStringAttribute(bannerResponseElement, "MESSAGE", bannerResponseName));
-		resp.setPacketId(getRequiredStringAttribute(bannerResponseElement, "PACKET_ID", bannerResponseName));
+		resp.setPacketId(iBatchId != null ? iBatchId : getRequiredStringAttribute(bannerResponseElement, "PACKET_ID", bannerResponseName));
 		resp.setQueueId(iQueueId);
 		return(resp);
 
 	}
 	
-	private void processResponseWithNoMatchingSentMessage(Element rootElement)  {
+	private void processResponseWithNoMatchingSentMessage(Element rootElement) throws Exception {
 		try {
 			HashMap<Long, BannerSectionInfoHelper> bannerSections = new HashMap<Long, BannerSectionInfoHelper>();
 			HashMap<String, BannerSectionInfoHelper> bannerCrosslists = new HashMap<String, BannerSectionInfoHelper>();
@@ -149,41 +212,45 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 					Element bannerResponseElement = (Element) eIt.next();
 					BannerSectionInfoHelper bsi = getBannerSectionInfoHelperForResponseElement(bannerResponseElement, bannerSections, bannerCrosslists);
 					BannerResponse resp = createBannerResponseForResponseElement(bannerResponseElement, bsi, bannerSections, bannerCrosslists); 
-					getHibSession().save(resp);
+					saveResponse(resp);
 				}
+				flushResponses();
 				commitTransaction();
 			}
 		} catch (Exception e) {
             fatal("Unable to store response message, reason: "+e.getMessage(),e);
+			iInserter.clear();
 			rollbackTransaction();
+			if (iRethrowFailures) throw e;
 		}
 	}
 		
-	private void processMessageWithMatchingSentMessage(Element rootElement, Element matchingSentRootElement) {
+	private void processMessageWithMatchingSentMessage(Element rootElement, BannerSentManifest manifest) throws Exception {
 		try {
 	 		if (rootElement.getName().equalsIgnoreCase(rootName)) {
 				HashMap<Long, BannerSectionInfoHelper> bannerSections = new HashMap<Long, BannerSectionInfoHelper>();
 				HashMap<String, BannerSectionInfoHelper> bannerCrosslists = new HashMap<String, BannerSectionInfoHelper>();
 				ArrayList<BannerSectionInfoHelper> sentMessages = new ArrayList<BannerSectionInfoHelper>();
 				
-				setSentTermCode(getRequiredStringAttribute(matchingSentRootElement, "TERM_CODE", "SCHEDULE"));
+				setSentTermCode(required(manifest.getTermCode(), "TERM_CODE", "SCHEDULE"));
+				// chunked AUDIT: responses of all packets of the batch are stored under the batch id
+				iBatchId = manifest.getBatchId();
+				if (iBatchId != null)
+					Debug.info("Processing response for packet " + manifest.getChunk() + " of " + manifest.getChunks() + " of batch " + iBatchId);
 				
 				beginTransaction();
-				Iterator<Element> matchingSentMessageElementIterator = matchingSentRootElement.elementIterator();
-				int order = 0;
-				boolean createMessagesForAllSentElements = !BannerMessage.BannerMessageAction.AUDIT.toString().equals(getRequiredStringAttribute(matchingSentRootElement, "ACTION", "SCHEDULE"));
+				boolean createMessagesForAllSentElements = !BannerMessage.BannerMessageAction.AUDIT.toString().equals(required(manifest.getAction(), "ACTION", "SCHEDULE"));
+				prefetch(manifest);
 				if (createMessagesForAllSentElements) {
-					while (matchingSentMessageElementIterator.hasNext()) {
-						Element e = matchingSentMessageElementIterator.next();
-						BannerSectionInfoHelper bsih = getBannerSectionInfoHelperForSentElement(e, bannerSections, bannerCrosslists, order);
-						sentMessages.add(bsih);	
-						order++;
+					for (BannerSentManifest.Entry e: manifest.getEntries()) {
+						BannerSectionInfoHelper bsih = getBannerSectionInfoHelperForSentElement(e, bannerSections, bannerCrosslists);
+						sentMessages.add(bsih);
 					}
 				}
 						
 				int lastMatchedSent = -1;
 				int currentMatchedSent = -1;
-				String packetId = getRequiredStringAttribute(rootElement, "PACKET_ID", rootName);
+				String packetId = (iBatchId != null ? iBatchId : getRequiredStringAttribute(rootElement, "PACKET_ID", rootName));
 				Iterator<Element> responseElementIterator = rootElement.elementIterator();
 				while (responseElementIterator.hasNext()) {
 					Element responseMessage = responseElementIterator.next();
@@ -192,7 +259,7 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 					if (action == null) {
 						createMessagesForAllSentElements = false;
 						BannerResponse resp = createBannerResponseForResponseElement(responseMessage, bsih, bannerSections, bannerCrosslists);
-						getHibSession().save(resp);
+						saveResponse(resp);
 						break;
 					} else {
 						BannerResponse resp = createBannerResponseForResponseElement(responseMessage, bsih, bannerSections, bannerCrosslists);
@@ -209,14 +276,7 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 							}
 						}
 						
-						String dateStr = getRequiredStringAttribute(responseMessage, "ACTIVITY_DATE", bannerResponseName);
-						DateFormat df = new SimpleDateFormat("MM/dd/yyyy H:m:s");
-						Date endTimestamp = null;				
-						try {
-							endTimestamp = df.parse(dateStr);
-						} catch (ParseException e) {
-							e.printStackTrace();
-						}
+						Date endTimestamp = resp.getActivityDate();
 						createNoChangeBannerResponsesForUnmatchedSentMessages(
 								createMessagesForAllSentElements, 
 								sentMessages, 
@@ -225,19 +285,13 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 								endTimestamp,
 								packetId);
 						lastMatchedSent = currentMatchedSent;
-						getHibSession().save(resp);
+						saveResponse(resp);
 						
 					}				
 				}
 							
 				String dateStr = getRequiredStringAttribute(rootElement, "END_TIMESTAMP", rootName);
-				DateFormat df = new SimpleDateFormat("yyyy-MM-dd H:m:s");
-				Date endTimestamp = null;				
-				try {
-					endTimestamp = df.parse(dateStr);
-				} catch (ParseException e) {
-					e.printStackTrace();
-				}
+				Date endTimestamp = parseDate(sEndTimestampFormat, dateStr);
 				
 				createNoChangeBannerResponsesForUnmatchedSentMessages(
 						createMessagesForAllSentElements, 
@@ -247,11 +301,14 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 						endTimestamp,
 						packetId);
 				
+				flushResponses();
 				commitTransaction();
 			}
 		} catch (Exception e) {
 			fatal("Unable to store response message, reason: "+e.getMessage(),e);
+			iInserter.clear();
 			rollbackTransaction();
+			if (iRethrowFailures) throw e;
 		}
 	}
 	
@@ -267,7 +324,7 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 			for (int i = lastMatchedSent + 1 ; i < currentMatchedSent; i++) {
 				BannerResponse noChangeResponse = createNoChangeResponse(sentMessages.get(i), endTimestamp, packetId, i);
 				if (noChangeResponse != null) {
-					getHibSession().save(noChangeResponse);
+					saveResponse(noChangeResponse);
 				}
 			}
 		}
@@ -357,10 +414,9 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 	}
 	
 
-	private BannerSectionInfoHelper getBannerSectionInfoHelperForSentElement(Element sentElement,
+	private BannerSectionInfoHelper getBannerSectionInfoHelperForSentElement(BannerSentManifest.Entry sentElement,
 			HashMap<Long, BannerSectionInfoHelper> bannerSections, 
-			HashMap<String, BannerSectionInfoHelper> bannerCrosslists, 
-			int order) throws Exception {
+			HashMap<String, BannerSectionInfoHelper> bannerCrosslists) throws Exception {
 		String action = null;
 		Integer crn = null;
 		String subj = null;
@@ -368,25 +424,26 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 		String campus = null;
 		String xlistId = null;
 		Long bannerSectionId = null;
+		int order = sentElement.getPosition();
 
 		BannerSectionInfoHelper bsih = null;
 		boolean section = false;
 		boolean crosslist = false;
-		action = getRequiredStringAttribute(sentElement, "ACTION", "SECTION");
-		if (sentElement.getName().equals("SECTION")) {
-			crn = getRequiredIntegerAttribute(sentElement, "CRN", "SECTION");
-			subj = getOptionalStringAttribute(sentElement, "SUBJ_CODE");
-			crs = getOptionalStringAttribute(sentElement, "CRSE_NUMB");
-			campus = getOptionalStringAttribute(sentElement, "CAMP_CODE");
-			bannerSectionId = getOptionalLongAttribute(sentElement, "EXTERNAL_ID");
+		action = required(sentElement.getAction(), "ACTION", "SECTION");
+		if (sentElement.isSection()) {
+			crn = Integer.valueOf(required(sentElement.getCrn(), "CRN", "SECTION"));
+			subj = sentElement.getSubject();
+			crs = sentElement.getCourse();
+			campus = sentElement.getCampus();
+			bannerSectionId = (sentElement.getExternalId() == null ? null : Long.valueOf(sentElement.getExternalId()));
 			bsih = bannerSections.get(bannerSectionId);
 			section = true;
-		} else if (sentElement.getName().equals("CROSSLIST")) {
-			xlistId = getRequiredStringAttribute(sentElement, "GROUP", "CROSSLIST");
+		} else if (sentElement.isCrossList()) {
+			xlistId = required(sentElement.getGroup(), "GROUP", "CROSSLIST");
 			bsih = bannerCrosslists.get(xlistId);
 			crosslist = true;
 		} else {
-			Debug.info("Unknown Banner Message Element Name:  " + sentElement.getName());
+			Debug.info("Unknown Banner Message Element Name:  " + sentElement.getElementName());
 		}
 		if (bsih != null) {
 			bsih.fillInMissingFieldsIfNeeded(crn, subj, crs, xlistId, campus, getSentTermCode(), bannerSectionId);
@@ -432,15 +489,74 @@ public class ReceiveBannerResponseMessage extends BaseImport {
 		return bsih;
 	}
 
+	private static String required(String value, String attribute, String element) throws Exception {
+		if (value == null)
+			throw new Exception("For element '" + element + "' a '" + attribute + "' is required");
+		return value;
+	}
+	
+	/**
+	 * Load the sent sections, their configurations, courses and course offerings, and their classes using a few queries,
+	 * so that the section info helpers of the sent elements and of the responses do not need to load them one by one.
+	 */
+	@SuppressWarnings("unchecked")
+	private void prefetch(BannerSentManifest manifest) {
+		List<Long> sectionIds = manifest.getBannerSectionIds();
+		if (sectionIds.isEmpty()) return;
+		long t0 = System.currentTimeMillis();
+		List<BannerSection> sections = new ArrayList<BannerSection>();
+		for (int i = 0; i < sectionIds.size(); i += BannerSectionClasses.BATCH_SIZE) {
+			sections.addAll(getHibSession().createQuery(
+					"select distinct bs from BannerSection bs left join fetch bs.bannerConfig bc left join fetch bc.bannerCourse where bs.uniqueId in (:ids)")
+					.setParameterList("ids", sectionIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, sectionIds.size())))
+					.setFlushMode(FlushMode.MANUAL).list());
+		}
+		List<Long> offeringIds = new ArrayList<Long>();
+		for (BannerSection bs: sections) {
+			if (bs.getBannerConfig() != null && bs.getBannerConfig().getBannerCourse() != null && bs.getBannerConfig().getBannerCourse().getCourseOfferingId() != null)
+				offeringIds.add(bs.getBannerConfig().getBannerCourse().getCourseOfferingId());
+		}
+		Map<Long, CourseOffering> offerings = new HashMap<Long, CourseOffering>();
+		for (int i = 0; i < offeringIds.size(); i += BannerSectionClasses.BATCH_SIZE) {
+			for (CourseOffering co: (List<CourseOffering>)getHibSession().createQuery(
+					"select co from CourseOffering co left join fetch co.subjectArea where co.uniqueId in (:ids)")
+					.setParameterList("ids", offeringIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, offeringIds.size())))
+					.setFlushMode(FlushMode.MANUAL).list()) {
+				offerings.put(co.getUniqueId(), co);
+			}
+		}
+		for (BannerSection bs: sections) {
+			if (bs.getBannerConfig() != null && bs.getBannerConfig().getBannerCourse() != null) {
+				CourseOffering co = offerings.get(bs.getBannerConfig().getBannerCourse().getCourseOfferingId());
+				if (co != null) bs.getBannerConfig().getBannerCourse().setCourseOffering(co);
+			}
+		}
+		BannerSectionClasses.load(sections, getHibSession());
+		Debug.info("Prefetched " + sections.size() + " sent sections in " + (System.currentTimeMillis() - t0) + " ms.");
+	}
+
 	@Override
 	public void loadXml(Element rootElement) throws Exception {
 		Debug.info("Starting loadxml");
-		QueueOut sentMessage = QueueOutDAO.getInstance().get(iQueueId);
-		if (sentMessage != null) {
-			processMessageWithMatchingSentMessage(rootElement, sentMessage.getXml().getRootElement());
+		long t0 = System.currentTimeMillis();
+		iSaved = 0;
+		Object[] sent = (iQueueId == null ? null : (Object[])QueueOutDAO.getInstance().getSession().createQuery(
+				"select q.uniqueId, q.manifest from QueueOut q where q.uniqueId = :id").setLong("id", iQueueId).uniqueResult());
+		if (sent != null) {
+			BannerSentManifest manifest = BannerSentManifest.parse((String)sent[1]);
+			if (manifest == null) {
+				// posted before the manifest was stored: create it from the sent packet
+				QueueOut sentMessage = QueueOutDAO.getInstance().get(iQueueId);
+				manifest = BannerSentManifest.parse(BannerSentManifest.create(sentMessage.getXml()));
+			}
+			if (manifest == null)
+				throw new Exception("Sent message " + iQueueId + " is not a SCHEDULE packet.");
+			processMessageWithMatchingSentMessage(rootElement, manifest);
 		} else {
 			processResponseWithNoMatchingSentMessage(rootElement);
 		}
+		long time = System.currentTimeMillis() - t0;
+		Debug.info("Stored " + iSaved + " responses in " + time + " ms" + (time > 0 ? " (" + (1000l * iSaved / time) + " responses/s)" : "") + ".");
 		Debug.info("Finishing loadxml");
 	}
 
@@ -30,9 +30,12 @@ import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.unitime.banner.dataexchange.BannerMessage.BannerMessageAction;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionClasses;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.QueueOut;
 import org.unitime.banner.model.dao.QueueOutDAO;
+import org.unitime.banner.queueprocessor.util.ClobTools;
+import org.unitime.banner.queueprocessor.util.QueueNotifier;
 import org.unitime.commons.Debug;
 
 
@@ -57,20 +60,32 @@ public class SendBannerMessage {
         BannerSection bs = bannerSections.get(0);
         BannerSession bannerSession = BannerSession.findBannerSessionForSession(bs.getSession(), hibSession);
         if (BannerSession.shouldSendDataToBannerForSession(bs.getSession(), hibSession) || (bannerSession.isStoreDataForBanner().booleanValue() && BannerMessageAction.AUDIT.equals(bannerMessageAction))){
-			HashMap<String, BannerSection> crosslistMap = new HashMap<String, BannerSection>();
-			for(Iterator<BannerSection> it = bannerSections.iterator(); it.hasNext();){
-				bs = it.next();
-				bannerMessage.addBannerSectionToMessage(bs, bannerMessageAction, hibSession);
-				if (bs.getCrossListIdentifier() != null && !crosslistMap.containsKey(bs.getCrossListIdentifier())){
-					crosslistMap.put(bs.getCrossListIdentifier(), bs);
+			BannerSectionClasses.open(hibSession);
+			try {
+				BannerSectionClasses.load(bannerSections, hibSession);
+				HashMap<String, BannerSection> crosslistMap = new HashMap<String, BannerSection>();
+				for(Iterator<BannerSection> it = bannerSections.iterator(); it.hasNext();){
+					bs = it.next();
+					bannerMessage.addBannerSectionToMessage(bs, bannerMessageAction, hibSession);
+					if (bs.getCrossListIdentifier() != null && !crosslistMap.containsKey(bs.getCrossListIdentifier())){
+						crosslistMap.put(bs.getCrossListIdentifier(), bs);
+					}
 				}
-			}
-			for(String crosslistId : crosslistMap.keySet()){
-				bannerMessage.addBannerCrossListToMessage(crosslistMap.get(crosslistId), bannerMessageAction, hibSession);
+				for(String crosslistId : crosslistMap.keySet()){
+					bannerMessage.addBannerCrossListToMessage(crosslistMap.get(crosslistId), bannerMessageAction, hibSession);
+				}
+			} finally {
+				BannerSectionClasses.close(hibSession);
 			}
         }
 	}
 	public static void sendBannerMessage(List<BannerSection> bannerSections, BannerMessageAction bannerMessageAction, Session hibSession){
+		sendBannerMessage(bannerSections, bannerMessageAction, hibSession, null);
+	}
+	/**
+	 * Send a message containing the given sections, using data that has been already loaded in bulk when the prefetch is provided.
+	 */
+	public static void sendBannerMessage(List<BannerSection> bannerSections, BannerMessageAction bannerMessageAction, Session hibSession, BannerSectionPrefetch prefetch){
         if (bannerSections == null || bannerSections.isEmpty()){
         	return;
         }
@@ -79,6 +94,7 @@ public class SendBannerMessage {
         if (BannerSession.shouldSendDataToBannerForSession(bs.getSession(), hibSession) || (bannerSession.isStoreDataForBanner().booleanValue() && BannerMessageAction.AUDIT.equals(bannerMessageAction))){
 	 		Document document = DocumentHelper.createDocument();
 	 		BannerMessage bm = new BannerMessage(bs.getSession(), bannerMessageAction, true, hibSession, document);
+	 		bm.setPrefetch(prefetch);
 	 		addBannerSectionsToMessage(bannerSections, bannerMessageAction, hibSession, bm);
 			writeOutMessage(document);
         }
@@ -107,12 +123,9 @@ public class SendBannerMessage {
 			Debug.info("no message to send = " + document.asXML());
 			return;
 		}
-		String asxml = document.asXML();
-		if (asxml.length() > 2000) 
-		  Debug.info("message = " + asxml.substring(1,2000) + " ....and more....");
-		else
-		  Debug.info("message = " + asxml);
+		Debug.info("message = " + ClobTools.toLimitedString(document, 2000));
 		outQ.setXml(document);
+		outQ.updateMetadata();
 		outQ.setStatus(QueueOut.STATUS_POSTED);
 		outQ.setPostDate(new Date());
 		Session newSession = QueueOutDAO.getInstance().createNewSession();
@@ -120,6 +133,7 @@ public class SendBannerMessage {
 		newSession.save(outQ);
 		trans.commit();
 		newSession.close();
+		QueueNotifier.notifyPosted();
 	}
 
 //	public static void sendBannerMessage(List<BannerSection> bannerSections,
@@ -25,6 +25,8 @@ import java.util.Enumeration;
 import java.util.List;
 
 import org.springframework.stereotype.Service;
+import org.unitime.banner.server.bannerresponses.BannerResponsesFilterBackend;
+import org.unitime.banner.server.bannerresponses.BannerResponsesFilterBackend.BannerResponseVisitor;
 import org.unitime.banner.server.bannerresponses.BannerResponsesPageBackend;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.export.CSVPrinter;
@@ -34,6 +36,7 @@ import org.unitime.timetable.gwt.resources.BannerGwtMessages;
 import org.unitime.timetable.gwt.shared.BannerResponseInterface;
 import org.unitime.timetable.gwt.shared.BannerResponseInterface.BannerResponsesPageRequest;
 import org.unitime.timetable.model.SubjectArea;
+import org.unitime.timetable.security.rights.Right;
 
 @Service("org.unitime.timetable.export.Exporter:banner-responses.csv")
 public class BannerResponsesExportCSV implements Exporter {
@@ -118,20 +121,52 @@ public class BannerResponsesExportCSV implements Exporter {
 			request.getFilter().addOption("subjectId", subject.getUniqueId().toString());
 		}
 		
-		List<BannerResponseInterface> list = new ArrayList<BannerResponseInterface>();
-		list.addAll(new BannerResponsesPageBackend().execute(request, helper.getSessionContext()));
-		export(request, list, helper);
+		helper.getSessionContext().checkPermission(Right.InstructionalOfferings);
+		export(request, helper);
 	}
 	
-	protected void export(BannerResponsesPageRequest request, List<BannerResponseInterface> list, ExportHelper helper) throws IOException {
-		Printer out = new CSVPrinter(helper, false);
-		helper.setup(out.getContentType(), reference(), false);
-		
+	protected List<Column> getColumns() {
 		List<Column> columns = new ArrayList<Column>();
 		for (BannerResponseInterface.BannerResponsesColumn column: BannerResponseInterface.BannerResponsesColumn.values()) {
 			Column c = new Column(column, 0);
 			columns.add(c);
 		}
+		return columns;
+	}
+	
+	/**
+	 * Number of responses to export: the limit option when set, all matching responses otherwise.
+	 */
+	protected int getLimit(BannerResponsesPageRequest request) {
+		return BannerResponsesFilterBackend.getLimit(request.getFilter().getOptions(), -1);
+	}
+	
+	/**
+	 * Stream the matching responses into the printer, without loading all of them first.
+	 */
+	protected int printResponses(BannerResponsesPageRequest request, ExportHelper helper, final Printer out, final List<Column> columns, final boolean emptyCells) throws IOException {
+		return BannerResponsesPageBackend.bannerResponses(request, helper.getSessionContext(), getLimit(request), new BannerResponseVisitor() {
+			@Override
+			public boolean visit(BannerResponseInterface a) throws IOException {
+				String[] row = new String[columns.size()];
+				for (int i = 0; i < columns.size(); i++) {
+					row[i] = getCell(a, columns.get(i), 0);
+					if (emptyCells && row[i] == null) {
+						row[i] = new String();
+					}
+				}
+				out.printLine(row);
+				out.flush();
+				return true;
+			}
+		});
+	}
+	
+	protected void export(BannerResponsesPageRequest request, ExportHelper helper) throws IOException {
+		Printer out = new CSVPrinter(helper, false);
+		helper.setup(out.getContentType(), reference(), false);
+		
+		List<Column> columns = getColumns();
 		
 		String[] header = new String[columns.size()];
 		for (int i = 0; i < columns.size(); i++)
@@ -139,13 +174,7 @@ public class BannerResponsesExportCSV implements Exporter {
 		out.printHeader(header);
 		out.flush();
 
-		for (BannerResponseInterface a: list) {
-			String[] row = new String[columns.size()];
-			for (int i = 0; i < columns.size(); i++)
-				row[i] = getCell(a, columns.get(i), 0);
-			out.printLine(row);
-			out.flush();
-		}
+		printResponses(request, helper, out, columns, false);
 		
 		out.flush(); out.close();
 	}
@@ -20,7 +20,6 @@
 package org.unitime.banner.export.bannerresponses;
 
 import java.io.IOException;
-import java.util.ArrayList;
 import java.util.List;
 
 import org.springframework.stereotype.Service;
@@ -30,7 +29,6 @@ import org.unitime.timetable.export.PDFPrinter;
 import org.unitime.timetable.export.PDFPrinter.A;
 import org.unitime.timetable.export.PDFPrinter.F;
 import org.unitime.timetable.gwt.shared.BannerResponseInterface;
-import org.unitime.timetable.gwt.shared.BannerResponseInterface.BannerResponsesColumn;
 import org.unitime.timetable.gwt.shared.BannerResponseInterface.BannerResponsesPageRequest;
 
 @Service("org.unitime.timetable.export.Exporter:banner-responses.pdf")
@@ -41,15 +39,11 @@ public class BannerResponsesExportPDF extends BannerResponsesExportCSV implement
 		return "banner-responses.pdf";
 	}
 
-	protected void export(BannerResponsesPageRequest request, List<BannerResponseInterface> list, ExportHelper helper) throws IOException {
+	protected void export(BannerResponsesPageRequest request, ExportHelper helper) throws IOException {
 		PDFPrinter out = new PDFPrinter(helper.getOutputStream(), false);
 		helper.setup(out.getContentType(), reference(), false);
 		
-		List<Column> columns = new ArrayList<Column>();
-		for (BannerResponsesColumn column: BannerResponsesColumn.values()) {
-			Column c = new Column(column, 0);
-			columns.add(c);
-		}
+		List<Column> columns = getColumns();
 		
 		String[] header = new String[columns.size()];
 		for (int i = 0; i < columns.size(); i++)
@@ -57,21 +51,9 @@ public class BannerResponsesExportPDF extends BannerResponsesExportCSV implement
 		out.printHeader(header);
 		out.flush();
 		
-		for (BannerResponseInterface a: list) {
-			String[] row = new String[columns.size()];
-			for (int i = 0; i < columns.size(); i++) {
-				row[i] = getCell(a, columns.get(i), 0);
-				if (row[i] == null) {
-					row[i] = new String();
-				}
-			}
-				
-			
-			out.printLine(row);
-			out.flush();
-		}
+		int count = printResponses(request, helper, out, columns, true);
 		
-		if (list.isEmpty()) {
+		if (count == 0) {
 			A[] row = new A[columns.size()];
 			row[0] = new A(MESSAGES.errorNoData(), F.ITALIC).color("#FF0000");
 			out.printLine(row);
@@ -0,0 +1,230 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.unitime.banner.model.dao.BannerSectionDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Term-scoped cache that resolves a CRN to its course offering id and class ids, so that the student updates do not need
+ * to run two queries for each CRN of each student ({@link BannerSection#findCourseOfferingForCrnAndTermCode(Session, Integer, String)}
+ * and {@link BannerSection#findAllClassesForCrnAndTermCode(Session, Integer, String)}).<br>
+ * <br>
+ * The cache of a term is built with two queries on first use. It is dropped when a Banner section of the term changes (see
+ * {@link BannerSectionIndex#update(BannerSection, Session)}, {@link BannerSection#addClass(org.unitime.timetable.model.Class_, Session)})
+ * and after <code>banner.crnCache.expiration</code> seconds, to pick up changes made by other servers.
+ */
+public class BannerCrnClassCache {
+	private static Map<String, BannerCrnClassCache> sCaches = new ConcurrentHashMap<String, BannerCrnClassCache>();
+	private static Map<Long, String> sTermCodes = new ConcurrentHashMap<Long, String>();
+	private static AtomicLong sHits = new AtomicLong(0);
+
+	private String iBannerTermCode;
+	private long iCreated = System.currentTimeMillis();
+	private Map<Integer, Long> iCourseOfferingIds = new HashMap<Integer, Long>();
+	private Map<Integer, List<Long>> iClassIds = new HashMap<Integer, List<Long>>();
+	private Set<Integer> iAmbiguousCrns = new HashSet<Integer>();
+
+	private BannerCrnClassCache(String bannerTermCode) {
+		iBannerTermCode = bannerTermCode;
+	}
+
+	/**
+	 * The cache is used when <code>banner.crnCache.enabled</code> is set to true.
+	 */
+	public static boolean isEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.crnCache.enabled", "false"));
+	}
+
+	public static long getExpiration() {
+		return 1000l * Integer.parseInt(ApplicationProperties.getProperty("banner.crnCache.expiration", "900"));
+	}
+
+	/**
+	 * Cache of the given Banner term, built if needed. Null when the cache is disabled or failed to load.
+	 */
+	public static BannerCrnClassCache getInstance(String bannerTermCode) {
+		if (bannerTermCode == null || !isEnabled()) return null;
+		BannerCrnClassCache cache = sCaches.get(bannerTermCode);
+		if (cache == null || cache.isExpired()) {
+			synchronized (sCaches) {
+				cache = sCaches.get(bannerTermCode);
+				if (cache == null || cache.isExpired()) {
+					cache = load(bannerTermCode);
+					if (cache == null) {
+						sCaches.remove(bannerTermCode);
+						return null;
+					}
+					sCaches.put(bannerTermCode, cache);
+				}
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Drop the cache of the term of the given section.
+	 */
+	public static void invalidate(BannerSection bannerSection) {
+		if (sCaches.isEmpty()) return;
+		if (bannerSection == null || bannerSection.getSession() == null) {
+			clear();
+			return;
+		}
+		String termCode = sTermCodes.get(bannerSection.getSession().getUniqueId());
+		if (termCode != null) sCaches.remove(termCode);
+	}
+
+	public static void clear() {
+		sCaches.clear();
+	}
+
+	/**
+	 * Number of CRNs resolved from the cache since the start.
+	 */
+	public static long getHitCount() {
+		return sHits.get();
+	}
+
+	private boolean isExpired() {
+		long expiration = getExpiration();
+		return expiration > 0 && System.currentTimeMillis() - iCreated > expiration;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BannerCrnClassCache load(String bannerTermCode) {
+		long t0 = System.currentTimeMillis();
+		BannerCrnClassCache cache = new BannerCrnClassCache(bannerTermCode);
+		Session hibSession = BannerSectionDAO.getInstance().createNewSession();
+		try {
+			for (Long sessionId : (List<Long>)hibSession.createQuery(
+					"select s.session.uniqueId from BannerSession s where s.bannerTermCode = :termCode")
+					.setString("termCode", bannerTermCode).setFlushMode(FlushMode.MANUAL).list()) {
+				sTermCodes.put(sessionId, bannerTermCode);
+			}
+
+			for (Object[] o : (List<Object[]>)hibSession.createQuery(
+					"select distinct bs.crn, co.uniqueId from BannerSession bsess, BannerSection bs, CourseOffering co where " +
+					"bs.session.uniqueId = bsess.session.uniqueId and bsess.bannerTermCode = :termCode and bs.crn is not null and co.uniqueId = bs.bannerConfig.bannerCourse.courseOfferingId")
+					.setString("termCode", bannerTermCode).setFlushMode(FlushMode.MANUAL).list()) {
+				Integer crn = (Integer)o[0];
+				Long previous = cache.iCourseOfferingIds.put(crn, (Long)o[1]);
+				if (previous != null && !previous.equals(o[1])) cache.iAmbiguousCrns.add(crn);
+			}
+
+			for (Object[] o : (List<Object[]>)hibSession.createQuery(
+					"select distinct bs.crn, c.uniqueId from BannerSession bsess, BannerSection bs inner join bs.bannerSectionToClasses as bstc, Class_ c where " +
+					"bs.session.uniqueId = bsess.session.uniqueId and bsess.bannerTermCode = :termCode and bs.crn is not null and bstc.classId = c.uniqueId")
+					.setString("termCode", bannerTermCode).setFlushMode(FlushMode.MANUAL).list()) {
+				Integer crn = (Integer)o[0];
+				List<Long> classIds = cache.iClassIds.get(crn);
+				if (classIds == null) {
+					classIds = new ArrayList<Long>();
+					cache.iClassIds.put(crn, classIds);
+				}
+				classIds.add((Long)o[1]);
+			}
+		} catch (Exception e) {
+			Debug.error("Failed to load CRN cache for Banner Term " + bannerTermCode + ": " + e.getMessage(), e);
+			return null;
+		} finally {
+			hibSession.close();
+		}
+		Debug.info("Loaded CRN cache for Banner Term " + bannerTermCode + ": " + cache.iCourseOfferingIds.size() + " CRNs in " + (System.currentTimeMillis() - t0) + " ms.");
+		return cache;
+	}
+
+	/**
+	 * True if the CRN was found in the term when the cache was built. Unknown CRNs (e.g., of sections created by another server since) are left to the database.
+	 */
+	public boolean contains(Integer crn) {
+		return iCourseOfferingIds.containsKey(crn);
+	}
+
+	/**
+	 * False if the CRN belongs to more than one course offering, the lookup is left to the database (which reports the problem).
+	 */
+	public boolean isResolved(Integer crn) {
+		return !iAmbiguousCrns.contains(crn);
+	}
+
+	/**
+	 * Course offering id of the given CRN, null if the CRN is not in the cache.
+	 */
+	public Long getCourseOfferingId(Integer crn) {
+		sHits.incrementAndGet();
+		return iCourseOfferingIds.get(crn);
+	}
+
+	/**
+	 * Class ids of the given CRN, empty if the CRN is not in the cache.
+	 */
+	public List<Long> getClassIds(Integer crn) {
+		sHits.incrementAndGet();
+		List<Long> classIds = iClassIds.get(crn);
+		if (classIds == null) return Collections.emptyList();
+		return Collections.unmodifiableList(classIds);
+	}
+
+	/**
+	 * Load the course offerings and classes of the given CRNs into the Hibernate session using two queries, so that
+	 * the lookups of the individual CRNs that follow do not hit the database. Does nothing when the cache is disabled.
+	 */
+	public static void preload(String bannerTermCode, Collection<Integer> crns, Session hibSession) {
+		if (crns == null || crns.isEmpty()) return;
+		BannerCrnClassCache cache = getInstance(bannerTermCode);
+		if (cache == null) return;
+		List<Long> courseOfferingIds = new ArrayList<Long>();
+		List<Long> classIds = new ArrayList<Long>();
+		for (Integer crn : crns) {
+			Long courseOfferingId = cache.iCourseOfferingIds.get(crn);
+			if (courseOfferingId != null) courseOfferingIds.add(courseOfferingId);
+			List<Long> ids = cache.iClassIds.get(crn);
+			if (ids != null) classIds.addAll(ids);
+		}
+		for (int i = 0; i < courseOfferingIds.size(); i += BannerSectionClasses.BATCH_SIZE)
+			hibSession.createQuery("from CourseOffering co where co.uniqueId in (:ids)")
+				.setParameterList("ids", courseOfferingIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, courseOfferingIds.size())))
+				.setFlushMode(FlushMode.MANUAL).list();
+		for (int i = 0; i < classIds.size(); i += BannerSectionClasses.BATCH_SIZE)
+			hibSession.createQuery("from Class_ c where c.uniqueId in (:ids)")
+				.setParameterList("ids", classIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, classIds.size())))
+				.setFlushMode(FlushMode.MANUAL).list();
+	}
+
+	public String getBannerTermCode() {
+		return iBannerTermCode;
+	}
+}
@@ -50,4 +50,12 @@ public class BannerInstrMethodCohortRestriction extends BaseBannerInstrMethodCoh
 	    restrictions.addAll(hibSession.createQuery(query).setLong("sessId", acadSessionId).setLong("imId", instructionalMethodId).list());
 	    return(restrictions);
 	}
+
+	@SuppressWarnings("unchecked")
+	public static ArrayList<BannerInstrMethodCohortRestriction> findAllWithTerm(Long acadSessionId, org.hibernate.Session hibSession) {
+	    String query = "from BannerInstrMethodCohortRestriction bimcr where bimcr.session.uniqueId = :sessId";
+	    ArrayList<BannerInstrMethodCohortRestriction> restrictions = new ArrayList<BannerInstrMethodCohortRestriction>();
+	    restrictions.addAll(hibSession.createQuery(query).setLong("sessId", acadSessionId).list());
+	    return(restrictions);
+	}
 }
@@ -25,6 +25,7 @@ import java.sql.CallableStatement;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Enumeration;
 import java.util.HashSet;
 import java.util.Iterator;
@@ -45,6 +46,7 @@ import org.unitime.banner.model.base.BaseBannerSection;
 import org.unitime.banner.model.dao.BannerCourseDAO;
 import org.unitime.banner.model.dao.BannerSectionDAO;
 import org.unitime.banner.model.dao.BannerSessionDAO;
+import org.unitime.banner.util.BannerCrnBlockAllocator;
 import org.unitime.banner.util.BannerCrnValidator;
 import org.unitime.banner.util.DefaultExternalBannerCampusCodeElementHelper;
 import org.unitime.banner.util.DefaultExternalBannerSubjectAreaElementHelper;
@@ -70,6 +72,7 @@ import org.unitime.timetable.model.Solution;
 import org.unitime.timetable.model.SubjectArea;
 import org.unitime.timetable.model.TeachingResponsibility;
 import org.unitime.timetable.model.dao.Class_DAO;
+import org.unitime.timetable.model.dao.CourseOfferingDAO;
 import org.unitime.timetable.model.dao.InstrOfferingConfigDAO;
 import org.unitime.timetable.model.dao._RootDAO;
 import org.unitime.timetable.solver.ClassAssignmentProxy;
@@ -105,6 +108,7 @@ public class BannerSection extends BaseBannerSection {
 /*[CONSTRUCTOR MARKER END]*/
 
 	private HashSet<Class_> classes;
+	private Boolean crossListed;
 	
 	public void addClass(Class_ clazz, Session hibSession){
 		if (clazz == null || clazz.getUniqueId() == null){
@@ -117,6 +121,9 @@ public class BannerSection extends BaseBannerSection {
 		bsc.setBannerSection(this);
 		bsc.setClassId(clazz.getUniqueId());
 		addTobannerSectionToClasses(bsc);
+		crossListed = null;
+		BannerSectionClasses.invalidate(getUniqueId());
+		BannerCrnClassCache.invalidate(this);
 		if (classes == null){
 			classes = new HashSet<Class_>();
 		}
@@ -147,30 +154,41 @@ public class BannerSection extends BaseBannerSection {
 		if (bscToRemove != null) {
 			getBannerSectionToClasses().remove(bscToRemove);
 		}
+		crossListed = null;
+		BannerSectionClasses.invalidate(getUniqueId());
+		BannerCrnClassCache.invalidate(this);
 	}
 
 	
+	@SuppressWarnings("unchecked")
 	private void initClassesIfNecessary(Session hibSession, Class_ clazz){
 		if (classes == null){
+			Session querySession;
+			if (hibSession == null){
+				querySession = Class_DAO.getInstance().getSession();
+			} else {
+				querySession = hibSession;
+			}
+			HashSet<Class_> cached = BannerSectionClasses.getCached(this, querySession);
+			if (cached != null){
+				classes = cached;
+				return;
+			}
 			classes = new HashSet<Class_>();
 			if (getBannerSectionToClasses() != null && !getBannerSectionToClasses().isEmpty()){
-				Session querySession;
-				if (hibSession == null){
-					querySession = Class_DAO.getInstance().getSession();
-				} else {
-					querySession = hibSession;
-				}
+				ArrayList<Long> classIds = new ArrayList<Long>();
 				for(BannerSectionToClass bsc : getBannerSectionToClasses()){
 					if (clazz != null && bsc.getClassId().equals(clazz.getUniqueId())){
 						classes.add(clazz);
 					} else {
-						Class_ c = (Class_)querySession.createQuery("from Class_ c where c.uniqueId = :classId").setLong("classId", bsc.getClassId().longValue()).setFlushMode(FlushMode.MANUAL).uniqueResult();
-						if (c != null){
-							classes.add(c);
-						}
+						classIds.add(bsc.getClassId());
 					}
 				}
+				if (!classIds.isEmpty()){
+					classes.addAll(querySession.createQuery("from Class_ c where c.uniqueId in (:classIds)").setParameterList("classIds", classIds).setFlushMode(FlushMode.MANUAL).list());
+				}
 			}
+			BannerSectionClasses.cache(this, classes, querySession);
 		}		
 	}
 	
@@ -184,6 +202,28 @@ public class BannerSection extends BaseBannerSection {
 		return(classes);
 	}
 
+	/**
+	 * Set the classes of this section when they have been already loaded in bulk (see {@link BannerSectionClasses#load(Collection, Session)}),
+	 * so that they do not need to be looked up one by one. The classes are also put in the session cache when the session is provided (and its cache is open).
+	 */
+	public void initClasses(Collection<Class_> prefetchedClasses, Session hibSession){
+		classes = (prefetchedClasses instanceof HashSet ? (HashSet<Class_>)prefetchedClasses : new HashSet<Class_>(prefetchedClasses));
+		if (hibSession != null){
+			BannerSectionClasses.cache(this, classes, hibSession);
+		}
+	}
+
+	public boolean hasClassesLoaded(){
+		return(classes != null);
+	}
+
+	/**
+	 * Set whether this section is cross-listed when it has been already computed in bulk (see BannerSectionPrefetch), null to recompute.
+	 */
+	public void initCrossListed(Boolean isCrossListed){
+		crossListed = isCrossListed;
+	}
+
 
 	public static BannerSection findBannerSectionForClassAndCourseExternalId(Class_ clazz, String courseExternalId, Session hibSession, org.unitime.timetable.model.Session acadSession){
 		return((BannerSection)hibSession
@@ -223,6 +263,9 @@ public class BannerSection extends BaseBannerSection {
 	}
 
 	public boolean isCrossListedSection(Session hibSession){
+		if (crossListed != null){
+			return(crossListed.booleanValue());
+		}
 		boolean isCrossListed = false;
 		for (BannerSectionToClass bsc : getBannerSectionToClasses()){
 			if (countBannerSectionsFor(bsc.getClassId(), hibSession) > 1){
@@ -343,6 +386,12 @@ public class BannerSection extends BaseBannerSection {
 		Integer crn = null;
 		BannerCrnValidator bannerCrnValidator = new BannerCrnValidator();
 		BannerSession bs = BannerSession.findBannerSessionForSession(acadSession, hibSession);
+		if (BannerCrnBlockAllocator.isEnabled()){
+			BannerCrnBlockAllocator allocator = BannerCrnBlockAllocator.getInstance(bs);
+			if (allocator != null){
+				return(allocator.nextCrn(hibSession));
+			}
+		}
 		do {
 			crn = findNextUnusedCrnInUniTimeFor(acadSession, hibSession);
 			if (crn == null){
@@ -395,6 +444,17 @@ public class BannerSection extends BaseBannerSection {
 	
 	public static boolean isSectionIndexUniqueForCourse(org.unitime.timetable.model.Session acadSession, CourseOffering courseOffering,
 			Session hibSession, String sectionId) {
+		if (BannerSectionIndex.isEnabled()){
+			BannerSectionIndex index = BannerSectionIndex.getInstance(acadSession.getUniqueId(), hibSession);
+			if (index != null){
+				if (index.isSectionIndexUsed(acadSession.getUniqueId(), courseOffering, sectionId)){
+					return(false);
+				}
+				if (index.verifySectionIndex(acadSession.getUniqueId(), courseOffering, sectionId, hibSession)){
+					return(true);
+				}
+			}
+		}
 		int sectionExists = 0;
 		@SuppressWarnings("rawtypes")
 		SessionImplementor session = (SessionImplementor)new _RootDAO().getSession();
@@ -427,6 +487,15 @@ public class BannerSection extends BaseBannerSection {
 	
 	public static String findNextUnusedSectionIndexFor(org.unitime.timetable.model.Session acadSession, CourseOffering courseOffering,
 			Session hibSession) {
+		if (BannerSectionIndex.isEnabled()){
+			BannerSectionIndex index = BannerSectionIndex.getInstance(acadSession.getUniqueId(), hibSession);
+			if (index != null){
+				String sectionId = index.nextSectionIndex(acadSession.getUniqueId(), courseOffering, hibSession);
+				if (sectionId != null && index.verifySectionIndex(acadSession.getUniqueId(), courseOffering, sectionId, hibSession)){
+					return(sectionId);
+				}
+			}
+		}
 		String nextSectionId = null;
 		@SuppressWarnings("rawtypes")
 		SessionImplementor session = (SessionImplementor)new _RootDAO().getSession();
@@ -459,6 +528,15 @@ public class BannerSection extends BaseBannerSection {
 	}
 
 	public static String findNextUnusedLinkIdentifierFor(org.unitime.timetable.model.Session acadSession, CourseOffering courseOffering, Session hibSession) {
+		if (BannerSectionIndex.isEnabled()){
+			BannerSectionIndex index = BannerSectionIndex.getInstance(acadSession.getUniqueId(), hibSession);
+			if (index != null){
+				String linkId = index.nextLinkIdentifier(acadSession.getUniqueId(), courseOffering, hibSession);
+				if (linkId != null && index.verifyLinkIdentifier(acadSession.getUniqueId(), courseOffering, linkId, hibSession)){
+					return(linkId);
+				}
+			}
+		}
 		String nextLinkId = null;
 		@SuppressWarnings("rawtypes")
 		SessionImplementor session = (SessionImplementor)new _RootDAO().getSession();
@@ -532,6 +610,24 @@ public class BannerSection extends BaseBannerSection {
 		return(hs);
 	}
 
+	@SuppressWarnings("unchecked")
+	public static List<BannerSection> findBannerSectionsForSolutions(
+			Collection<Solution> solutions, Session hibSession) {
+		List<Long> solutionIds = new ArrayList<Long>();
+		for (Solution solution : solutions){
+			solutionIds.add(solution.getUniqueId());
+		}
+		if (solutionIds.isEmpty()){
+			return(new Vector<BannerSection>());
+		}
+		return((List<BannerSection>)hibSession
+			.createQuery("select distinct bsc.bannerSection from BannerSectionToClass as bsc, Assignment a where a.solution.uniqueId in (:solutionIds) and bsc.classId = a.clazz.uniqueId")
+			.setParameterList("solutionIds", solutionIds)
+			.setFlushMode(FlushMode.MANUAL)
+			.setCacheable(false)
+			.list());
+	}
+
 	@SuppressWarnings("unchecked")
 	public static void removeOrphanedBannerSections(Session hibSession){
 		String orphanedBannerCoursesQuery = "select distinct bs from BannerSection bs where bs.bannerConfig.bannerCourse.courseOfferingId not in ( select co.uniqueId from CourseOffering co )";
@@ -548,6 +644,7 @@ public class BannerSection extends BaseBannerSection {
 		.list();
 		for (BannerSection bs : orphanedBannerCourses){
 			SendBannerMessage.sendBannerMessage(bs, BannerMessageAction.DELETE, hibSession);
+			BannerSectionIndex.remove(bs, hibSession);
 			orphanedCourses.add(bs.getBannerConfig().getBannerCourse());
 		}
 		for(BannerCourse bc : orphanedCourses){
@@ -587,6 +684,7 @@ public class BannerSection extends BaseBannerSection {
 					}
 				}
 				bs.getBannerConfig().getBannerSections().remove(bs);
+				BannerSectionIndex.remove(bs, hibSession);
 			}
 		}
 		for(BannerConfig bc : parentList){		
@@ -705,12 +803,14 @@ public class BannerSection extends BaseBannerSection {
 	public void assignNewSectionIndex(Session hibSession){
 		this.setSectionIndex(BannerSection.findNextUnusedSectionIndexFor(this.getSession(), this.getBannerConfig().getBannerCourse().getCourseOffering(hibSession), hibSession));
 		hibSession.update(this);
+		BannerSectionIndex.update(this, hibSession);
 		updateClassSuffixForClassesIfNecessary(hibSession);
 	}
 	
 	public void assignNewCrn(Session hibSession){	
 		this.setCrn(BannerSection.findNextUnusedCrnFor(this.getSession(), hibSession));
 		hibSession.update(this);
+		BannerSectionIndex.update(this, hibSession);
 		updateClassSuffixForClassesIfNecessary(hibSession);
 	}
 	
@@ -1182,6 +1282,17 @@ public class BannerSection extends BaseBannerSection {
     
     @SuppressWarnings("unchecked")
 	public static List<Class_> findAllClassesForCrnAndTermCode(Session hibSession, Integer crn, String termCode){
+    	BannerCrnClassCache cache = BannerCrnClassCache.getInstance(termCode);
+    	if (cache != null && cache.contains(crn)){
+    		List<Class_> classes = new ArrayList<Class_>();
+    		for (Long classId : cache.getClassIds(crn)){
+    			Class_ c = Class_DAO.getInstance().get(classId, hibSession);
+    			if (c != null){
+    				classes.add(c);
+    			}
+    		}
+    		return(classes);
+    	}
     	return (hibSession.
 			createQuery("select distinct c from BannerSession bsess, BannerSection bs inner join bs.bannerSectionToClasses as bstc, Class_ c where " +
 					"bs.session.uniqueId=bsess.session.uniqueId and bsess.bannerTermCode = :termCode and bs.crn = :crn and bstc.classId = c.uniqueId").
@@ -1208,6 +1319,10 @@ public class BannerSection extends BaseBannerSection {
     }
   
     public static CourseOffering findCourseOfferingForCrnAndTermCode(Session hibSession, Integer crn, String termCode){
+    	BannerCrnClassCache cache = BannerCrnClassCache.getInstance(termCode);
+    	if (cache != null && cache.contains(crn) && cache.isResolved(crn)){
+    		return(CourseOfferingDAO.getInstance().get(cache.getCourseOfferingId(crn), hibSession));
+    	}
     	return ((CourseOffering)hibSession.
 			createQuery("select distinct co from BannerSession bsess, BannerSection bs, CourseOffering co where " +
 					"bs.session.uniqueId=bsess.session.uniqueId and bsess.bannerTermCode = :termCode and bs.crn = :crn and co.uniqueId = bs.bannerConfig.bannerCourse.courseOfferingId").
@@ -1415,7 +1530,10 @@ public class BannerSection extends BaseBannerSection {
 	}
 	
 	public ArrayList<BannerCohortRestriction> getAllBannerCohortRestrictions(Session hibSession) {
-		ArrayList<BannerInstrMethodCohortRestriction> imRestrictions = getAllBannerInstrMethodCohortRestriction(hibSession);
+		return(getAllBannerCohortRestrictions(getAllBannerInstrMethodCohortRestriction(hibSession)));
+	}
+
+	public ArrayList<BannerCohortRestriction> getAllBannerCohortRestrictions(ArrayList<BannerInstrMethodCohortRestriction> imRestrictions) {
 		ArrayList<BannerCohortRestriction> lastSentCohortRestrictions = getAllLastSentCohortRestrictions();
 		return(mergeBannerCohortRestrictions(lastSentCohortRestrictions, imRestrictions));
 	}
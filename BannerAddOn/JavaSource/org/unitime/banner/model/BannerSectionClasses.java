@@ -0,0 +1,188 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.model;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.unitime.timetable.model.Class_;
+import org.unitime.timetable.model.dao.Class_DAO;
+
+/**
+ * Resolves the classes of Banner sections in bulk and keeps them in a cache that is scoped to the Hibernate session,
+ * so that {@link BannerSection#getClasses(Session)} does not need to query the database again for a section whose classes
+ * have already been loaded in the same session (e.g., when the section has been evicted and loaded again).<br>
+ * <br>
+ * The cache is only kept between {@link BannerSectionClasses#open(Session)} and {@link BannerSectionClasses#close(Session)},
+ * which the caller (e.g., an export) calls in a finally block, so that no classes are held after the work is done.
+ * A cached entry is only used while its classes are still attached to the session, so clearing the session
+ * invalidates it. Entries of a section are dropped when its classes are changed.
+ */
+public class BannerSectionClasses {
+	public static final int BATCH_SIZE = 1000;
+
+	private static Map<Session, Scope> sCache = new HashMap<Session, Scope>();
+
+	private BannerSectionClasses() {}
+
+	/**
+	 * Start caching the classes of the sections loaded in the given session, to be followed by {@link BannerSectionClasses#close(Session)}.
+	 * Nested calls for the same session share the cache.
+	 */
+	public static void open(Session hibSession) {
+		if (hibSession == null) return;
+		synchronized (sCache) {
+			Scope scope = sCache.get(hibSession);
+			if (scope == null) {
+				scope = new Scope();
+				sCache.put(hibSession, scope);
+			}
+			scope.iUsers ++;
+		}
+	}
+
+	/**
+	 * Stop caching the classes for the given session, the cache is dropped when the outermost {@link BannerSectionClasses#open(Session)} is closed.
+	 */
+	public static void close(Session hibSession) {
+		if (hibSession == null) return;
+		synchronized (sCache) {
+			Scope scope = sCache.get(hibSession);
+			if (scope != null && --scope.iUsers <= 0)
+				sCache.remove(hibSession);
+		}
+	}
+
+	private static Map<Long, HashSet<Class_>> getCache(Session hibSession) {
+		synchronized (sCache) {
+			Scope scope = sCache.get(hibSession);
+			return (scope == null ? null : scope.iClasses);
+		}
+	}
+
+	/**
+	 * Classes of the given section from the session cache, null if not cached (or no longer valid).
+	 */
+	public static HashSet<Class_> getCached(BannerSection bannerSection, Session hibSession) {
+		if (bannerSection.getUniqueId() == null || hibSession == null) return null;
+		Map<Long, HashSet<Class_>> cache = getCache(hibSession);
+		if (cache == null) return null;
+		synchronized (cache) {
+			HashSet<Class_> classes = cache.get(bannerSection.getUniqueId());
+			if (classes == null) return null;
+			for (Class_ c : classes) {
+				if (!hibSession.contains(c)) {
+					cache.clear();
+					return null;
+				}
+			}
+			return classes;
+		}
+	}
+
+	/**
+	 * Put the classes of the given section into the session cache, nothing is cached when the cache is not open for the session.
+	 */
+	public static void cache(BannerSection bannerSection, HashSet<Class_> classes, Session hibSession) {
+		if (bannerSection.getUniqueId() == null || hibSession == null) return;
+		Map<Long, HashSet<Class_>> cache = getCache(hibSession);
+		if (cache == null) return;
+		synchronized (cache) {
+			cache.put(bannerSection.getUniqueId(), classes);
+		}
+	}
+
+	/**
+	 * Drop the cached classes of the given section in all sessions.
+	 */
+	public static void invalidate(Long bannerSectionId) {
+		if (bannerSectionId == null) return;
+		List<Map<Long, HashSet<Class_>>> caches = null;
+		synchronized (sCache) {
+			caches = new ArrayList<Map<Long, HashSet<Class_>>>();
+			for (Scope scope : sCache.values())
+				caches.add(scope.iClasses);
+		}
+		for (Map<Long, HashSet<Class_>> cache : caches) {
+			synchronized (cache) {
+				cache.remove(bannerSectionId);
+			}
+		}
+	}
+
+	/**
+	 * Load the classes of all the given sections that do not have them loaded yet, using one query per {@link BannerSectionClasses#BATCH_SIZE} classes.
+	 * @return number of queries executed
+	 */
+	@SuppressWarnings("unchecked")
+	public static int load(Collection<BannerSection> bannerSections, Session hibSession) {
+		if (hibSession == null) hibSession = Class_DAO.getInstance().getSession();
+		List<BannerSection> sections = new ArrayList<BannerSection>();
+		List<Long> classIds = new ArrayList<Long>();
+		for (BannerSection bs : bannerSections) {
+			if (bs.hasClassesLoaded()) continue;
+			HashSet<Class_> cached = getCached(bs, hibSession);
+			if (cached != null) {
+				bs.initClasses(cached, null);
+				continue;
+			}
+			sections.add(bs);
+			if (bs.getBannerSectionToClasses() != null)
+				for (BannerSectionToClass bsc : bs.getBannerSectionToClasses())
+					if (bsc.getClassId() != null) classIds.add(bsc.getClassId());
+		}
+		if (sections.isEmpty()) return 0;
+
+		int queries = 0;
+		Map<Long, Class_> classes = new HashMap<Long, Class_>();
+		for (int i = 0; i < classIds.size(); i += BATCH_SIZE) {
+			for (Class_ c : (List<Class_>)hibSession.createQuery(
+					"select distinct c from Class_ c left join fetch c.schedulingSubpart ss left join fetch ss.instrOfferingConfig where c.uniqueId in (:classIds)")
+					.setParameterList("classIds", classIds.subList(i, Math.min(i + BATCH_SIZE, classIds.size())))
+					.setFlushMode(FlushMode.MANUAL).list()) {
+				classes.put(c.getUniqueId(), c);
+			}
+			queries ++;
+		}
+
+		for (BannerSection bs : sections) {
+			HashSet<Class_> sectionClasses = new HashSet<Class_>();
+			if (bs.getBannerSectionToClasses() != null)
+				for (BannerSectionToClass bsc : bs.getBannerSectionToClasses()) {
+					Class_ c = classes.get(bsc.getClassId());
+					if (c != null) sectionClasses.add(c);
+				}
+			bs.initClasses(sectionClasses, hibSession);
+		}
+		return queries;
+	}
+
+	private static class Scope {
+		private int iUsers = 0;
+		private Map<Long, HashSet<Class_>> iClasses = new HashMap<Long, HashSet<Class_>>();
+	}
+}
@@ -0,0 +1,615 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.unitime.banner.model.dao.BannerSectionDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.CourseOffering;
+import org.unitime.timetable.model.SubjectArea;
+
+/**
+ * In-memory index of the section indexes, link identifiers, cross-list identifiers and CRNs that are used by the Banner
+ * sections of a Banner term. It answers the same questions as the section_processor and cross_list_processor
+ * procedures (using the same rules: a course is identified by its Banner subject and the first five characters of its
+ * course number, identifiers come from the banner_cross_list_provider table) without a database call per lookup.<br>
+ * <br>
+ * The index of a term is loaded on first use with a few queries and then kept up to date as the sections are changed
+ * ({@link BannerSectionIndex#update(BannerSection, Session)}, {@link BannerSectionIndex#remove(BannerSection, Session)}). When
+ * the session has an active transaction, the changes are only applied once the transaction is committed (and dropped when it
+ * is rolled back). Values that are handed out are reserved until a section claims them, so that two sections created before
+ * a flush do not get the same value; reservations that are not claimed are released when the transaction completes.
+ * Both methods also drop the {@link BannerCrnClassCache} of the term.<br>
+ * <br>
+ * Unless <code>banner.sectionIndex.verify</code> is set to false, each value is also checked against the database (catching changes
+ * made by another server or by a save path that does not update the index) and the index of the term is dropped (and the stored
+ * procedure used instead) when they disagree.
+ */
+public class BannerSectionIndex {
+	private static Map<String, BannerSectionIndex> sIndexes = new ConcurrentHashMap<String, BannerSectionIndex>();
+	private static Map<Long, String> sTermCodes = new ConcurrentHashMap<Long, String>();
+	private static Map<Transaction, PendingChanges> sPendingChanges = new ConcurrentHashMap<Transaction, PendingChanges>();
+	private static final long PENDING_TIMEOUT = 3600000l;
+
+	private String iBannerTermCode;
+	private Map<Long, BannerSession> iBannerSessions = new HashMap<Long, BannerSession>();
+	private TreeSet<String> iProviderIds = new TreeSet<String>();
+	private Map<Long, Entry> iEntries = new HashMap<Long, Entry>();
+	private Map<String, Map<String, Integer>> iSectionIndexes = new HashMap<String, Map<String, Integer>>();
+	private Map<String, Map<String, Integer>> iLinkIds = new HashMap<String, Map<String, Integer>>();
+	private Map<String, Integer> iCrossListIds = new HashMap<String, Integer>();
+	private BitSet iCrns = new BitSet();
+	private Map<String, Set<String>> iReservedSectionIndexes = new HashMap<String, Set<String>>();
+	private Map<String, Set<String>> iReservedLinkIds = new HashMap<String, Set<String>>();
+	private Set<String> iReservedCrossListIds = new HashSet<String>();
+
+	private BannerSectionIndex(String bannerTermCode) {
+		iBannerTermCode = bannerTermCode;
+	}
+
+	/**
+	 * The index is used when <code>banner.sectionIndex.enabled</code> is set to true.
+	 */
+	public static boolean isEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.sectionIndex.enabled", "false"));
+	}
+
+	/**
+	 * Values handed out by the index are checked against the database unless <code>banner.sectionIndex.verify</code> is set to false.
+	 */
+	public static boolean isVerificationEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.sectionIndex.verify", "true"));
+	}
+
+	/**
+	 * Index of the Banner term of the given academic session, loaded if needed. Null if the session has no Banner session or the index failed to load.
+	 */
+	public static BannerSectionIndex getInstance(Long acadSessionId, Session hibSession) {
+		if (acadSessionId == null) return null;
+		String termCode = sTermCodes.get(acadSessionId);
+		if (termCode == null) {
+			BannerSession bs = BannerSession.findBannerSessionForSession(acadSessionId, hibSession);
+			if (bs == null || bs.getBannerTermCode() == null) return null;
+			termCode = bs.getBannerTermCode();
+			sTermCodes.put(acadSessionId, termCode);
+		}
+		BannerSectionIndex index = sIndexes.get(termCode);
+		if (index == null) {
+			synchronized (sIndexes) {
+				index = sIndexes.get(termCode);
+				if (index == null) {
+					index = load(termCode);
+					if (index == null) return null;
+					sIndexes.put(termCode, index);
+				}
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * Used CRNs of the given Banner term, null if the index of the term is not loaded.
+	 */
+	public static BitSet getUsedCrns(String bannerTermCode) {
+		BannerSectionIndex index = (bannerTermCode == null ? null : sIndexes.get(bannerTermCode));
+		if (index == null) return null;
+		synchronized (index) {
+			return (BitSet)index.iCrns.clone();
+		}
+	}
+
+	/**
+	 * Drop the index of the given Banner term, it will be loaded again when needed.
+	 */
+	public static void invalidate(String bannerTermCode) {
+		if (bannerTermCode != null) sIndexes.remove(bannerTermCode);
+	}
+
+	/**
+	 * Drop all indexes (e.g., after a roll forward or when Banner sessions have been changed).
+	 */
+	public static void clear() {
+		sIndexes.clear();
+		sTermCodes.clear();
+	}
+
+	/**
+	 * Record the current section index, link identifier, cross-list identifier and CRN of the given section. Does nothing when the index of its term is not loaded.
+	 * When the session has an active transaction, the index is only updated after the transaction is committed.
+	 */
+	public static void update(BannerSection bannerSection, Session hibSession) {
+		BannerCrnClassCache.invalidate(bannerSection);
+		BannerSectionIndex index = getLoadedIndex(bannerSection);
+		if (index == null) return;
+		CourseOffering co = null;
+		if (bannerSection.getBannerConfig() != null && bannerSection.getBannerConfig().getBannerCourse() != null)
+			co = bannerSection.getBannerConfig().getBannerCourse().getCourseOffering(hibSession);
+		Entry entry = new Entry(index.getCourseKey(bannerSection.getSession().getUniqueId(), co == null ? null : co.getSubjectArea(), co == null ? null : co.getCourseNbr()),
+				rtrim(bannerSection.getSectionIndex()), rtrim(bannerSection.getLinkIdentifier()), rtrim(bannerSection.getCrossListIdentifier()), bannerSection.getCrn());
+		PendingChanges pending = getPendingChanges(hibSession);
+		if (pending != null)
+			pending.iChanges.add(new Change(index.iBannerTermCode, bannerSection, entry));
+		else
+			index.put(bannerSection.getUniqueId(), entry);
+	}
+
+	/**
+	 * Forget the given (deleted) section. Does nothing when the index of its term is not loaded.
+	 * When the session has an active transaction, the section is only removed from the index after the transaction is committed.
+	 */
+	public static void remove(BannerSection bannerSection, Session hibSession) {
+		BannerCrnClassCache.invalidate(bannerSection);
+		BannerSectionIndex index = getLoadedIndex(bannerSection);
+		if (index == null || bannerSection.getUniqueId() == null) return;
+		PendingChanges pending = getPendingChanges(hibSession);
+		if (pending != null) {
+			pending.iChanges.add(new Change(index.iBannerTermCode, bannerSection, null));
+		} else {
+			synchronized (index) {
+				index.removeEntry(bannerSection.getUniqueId());
+			}
+		}
+	}
+
+	/**
+	 * Changes of the given session's active transaction, null when there is no active transaction (changes are applied right away).
+	 */
+	private static PendingChanges getPendingChanges(Session hibSession) {
+		if (hibSession == null) return null;
+		Transaction tx = hibSession.getTransaction();
+		if (tx == null || !tx.isActive()) return null;
+		PendingChanges pending = sPendingChanges.get(tx);
+		if (pending == null) {
+			releaseAbandoned();
+			pending = new PendingChanges(tx);
+			tx.registerSynchronization(pending);
+			sPendingChanges.put(tx, pending);
+		}
+		return pending;
+	}
+
+	/**
+	 * Release reservations of transactions that never completed (e.g., the session was closed without a commit or a rollback).
+	 */
+	private static void releaseAbandoned() {
+		long now = System.currentTimeMillis();
+		for (Iterator<PendingChanges> i = sPendingChanges.values().iterator(); i.hasNext(); ) {
+			PendingChanges pending = i.next();
+			if (now - pending.iCreated > PENDING_TIMEOUT) {
+				i.remove();
+				pending.release();
+			}
+		}
+	}
+
+	private static BannerSectionIndex getLoadedIndex(BannerSection bannerSection) {
+		if (bannerSection == null || bannerSection.getSession() == null) return null;
+		String termCode = sTermCodes.get(bannerSection.getSession().getUniqueId());
+		return (termCode == null ? null : sIndexes.get(termCode));
+	}
+
+	@SuppressWarnings("unchecked")
+	private static BannerSectionIndex load(String bannerTermCode) {
+		long t0 = System.currentTimeMillis();
+		BannerSectionIndex index = new BannerSectionIndex(bannerTermCode);
+		Session hibSession = BannerSectionDAO.getInstance().createNewSession();
+		try {
+			for (BannerSession bs : (List<BannerSession>)hibSession.createQuery(
+					"from BannerSession s where s.bannerTermCode = :termCode")
+					.setString("termCode", bannerTermCode).setFlushMode(FlushMode.MANUAL).list()) {
+				index.iBannerSessions.put(bs.getSession().getUniqueId(), bs);
+			}
+
+			for (Object id : hibSession.createSQLQuery("select cross_list_identifier from banner_cross_list_provider").list()) {
+				if (id != null) index.iProviderIds.add(rtrim(id.toString()));
+			}
+
+			Map<Long, String> courseKeys = new HashMap<Long, String>();
+			for (Object[] o : (List<Object[]>)hibSession.createQuery(
+					"select bs.uniqueId, bs.session.uniqueId, co.subjectArea, co.courseNbr from BannerSection bs, CourseOffering co, BannerSession s " +
+					"where s.bannerTermCode = :termCode and bs.session.uniqueId = s.session.uniqueId and co.uniqueId = bs.bannerConfig.bannerCourse.courseOfferingId")
+					.setString("termCode", bannerTermCode).setFlushMode(FlushMode.MANUAL).list()) {
+				courseKeys.put((Long)o[0], index.getCourseKey((Long)o[1], (SubjectArea)o[2], (String)o[3]));
+			}
+
+			for (Object[] o : (List<Object[]>)hibSession.createQuery(
+					"select bs.uniqueId, bs.sectionIndex, bs.linkIdentifier, bs.crossListIdentifier, bs.crn from BannerSection bs, BannerSession s " +
+					"where s.bannerTermCode = :termCode and bs.session.uniqueId = s.session.uniqueId")
+					.setString("termCode", bannerTermCode).setFlushMode(FlushMode.MANUAL).list()) {
+				Long id = (Long)o[0];
+				index.put(id, courseKeys.get(id), (String)o[1], (String)o[2], (String)o[3], (Integer)o[4]);
+			}
+		} catch (Exception e) {
+			Debug.error("Failed to load banner section index for Banner Term " + bannerTermCode + ": " + e.getMessage(), e);
+			return null;
+		} finally {
+			hibSession.close();
+		}
+		Debug.info("Loaded banner section index for Banner Term " + bannerTermCode + ": " + index.iEntries.size() + " sections in " + (System.currentTimeMillis() - t0) + " ms.");
+		return index;
+	}
+
+	private String getCourseKey(Long acadSessionId, SubjectArea subjectArea, String courseNbr) {
+		if (subjectArea == null || courseNbr == null) return null;
+		String subject = BannerSection.getExternalSubjectAreaElementHelper().getBannerSubjectAreaAbbreviation(subjectArea, iBannerSessions.get(acadSessionId));
+		if (subject == null) return null;
+		return rtrim(subject) + "|" + rtrim(courseNbr.length() > 5 ? courseNbr.substring(0, 5) : courseNbr);
+	}
+
+	private static String rtrim(String value) {
+		if (value == null) return null;
+		int len = value.length();
+		while (len > 0 && Character.isWhitespace(value.charAt(len - 1))) len --;
+		return value.substring(0, len);
+	}
+
+	private void put(Long bannerSectionId, String courseKey, String sectionIndex, String linkId, String crossListId, Integer crn) {
+		put(bannerSectionId, new Entry(courseKey, rtrim(sectionIndex), rtrim(linkId), rtrim(crossListId), crn));
+	}
+
+	private synchronized void put(Long bannerSectionId, Entry entry) {
+		if (bannerSectionId != null) {
+			removeEntry(bannerSectionId);
+			iEntries.put(bannerSectionId, entry);
+		}
+		if (entry.iCourseKey != null) {
+			if (entry.iSectionIndex != null) {
+				increment(iSectionIndexes, entry.iCourseKey, entry.iSectionIndex);
+				unreserve(iReservedSectionIndexes, entry.iCourseKey, entry.iSectionIndex);
+			}
+			if (entry.iLinkId != null) {
+				increment(iLinkIds, entry.iCourseKey, entry.iLinkId);
+				unreserve(iReservedLinkIds, entry.iCourseKey, entry.iLinkId);
+			}
+		}
+		if (entry.iCrossListId != null) {
+			Integer count = iCrossListIds.get(entry.iCrossListId);
+			iCrossListIds.put(entry.iCrossListId, count == null ? 1 : count + 1);
+			iReservedCrossListIds.remove(entry.iCrossListId);
+		}
+		if (entry.iCrn != null && entry.iCrn >= 0) iCrns.set(entry.iCrn);
+	}
+
+	private void removeEntry(Long bannerSectionId) {
+		Entry entry = iEntries.remove(bannerSectionId);
+		if (entry == null) return;
+		if (entry.iCourseKey != null) {
+			if (entry.iSectionIndex != null) decrement(iSectionIndexes, entry.iCourseKey, entry.iSectionIndex);
+			if (entry.iLinkId != null) decrement(iLinkIds, entry.iCourseKey, entry.iLinkId);
+		}
+		if (entry.iCrossListId != null) {
+			Integer count = iCrossListIds.get(entry.iCrossListId);
+			if (count == null || count <= 1) iCrossListIds.remove(entry.iCrossListId);
+			else iCrossListIds.put(entry.iCrossListId, count - 1);
+		}
+		if (entry.iCrn != null && entry.iCrn >= 0) iCrns.clear(entry.iCrn);
+	}
+
+	private static void increment(Map<String, Map<String, Integer>> counts, String courseKey, String value) {
+		Map<String, Integer> values = counts.get(courseKey);
+		if (values == null) {
+			values = new HashMap<String, Integer>();
+			counts.put(courseKey, values);
+		}
+		Integer count = values.get(value);
+		values.put(value, count == null ? 1 : count + 1);
+	}
+
+	private static void decrement(Map<String, Map<String, Integer>> counts, String courseKey, String value) {
+		Map<String, Integer> values = counts.get(courseKey);
+		if (values == null) return;
+		Integer count = values.get(value);
+		if (count == null || count <= 1) values.remove(value);
+		else values.put(value, count - 1);
+	}
+
+	private static void reserve(Map<String, Set<String>> reserved, String courseKey, String value) {
+		Set<String> values = reserved.get(courseKey);
+		if (values == null) {
+			values = new HashSet<String>();
+			reserved.put(courseKey, values);
+		}
+		values.add(value);
+	}
+
+	private static void unreserve(Map<String, Set<String>> reserved, String courseKey, String value) {
+		Set<String> values = reserved.get(courseKey);
+		if (values != null) values.remove(value);
+	}
+
+	private static boolean isUsed(Map<String, Map<String, Integer>> counts, Map<String, Set<String>> reserved, String courseKey, String value) {
+		Map<String, Integer> values = counts.get(courseKey);
+		if (values != null && values.containsKey(value)) return true;
+		Set<String> reservedValues = reserved.get(courseKey);
+		return reservedValues != null && reservedValues.contains(value);
+	}
+
+	private static boolean isNumeric(String sectionIndex) {
+		if (sectionIndex == null || sectionIndex.trim().isEmpty()) return false;
+		for (int i = 0; i < sectionIndex.length(); i++) {
+			char ch = sectionIndex.charAt(i);
+			if (ch != ' ' && (ch < '0' || ch > '9')) return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Section index following the given numeric one (section_processor.set_next_999), null after 998.<br>
+	 * Deviation: for 999 (or more), set_next_999 formats the next number with to_char(.., '099'), which overflows to '####'
+	 * that is then used as the section index. Null is returned instead, so that the first free section index is used.
+	 */
+	private static String nextNumeric(String sectionIndex) {
+		int section;
+		try {
+			section = Integer.parseInt(sectionIndex.trim());
+		} catch (NumberFormatException e) {
+			return null;
+		}
+		if (section == 998) return null;
+		if (section > 998) return null; // set_next_999 would return '####'
+		return String.format("%03d", section + 1);
+	}
+
+	/**
+	 * Remember the reservation, so that it can be released when the transaction completes without a section claiming the value.
+	 * Cross-list identifiers use a null map.
+	 */
+	private void addReservation(Session hibSession, Map<String, Set<String>> reserved, String courseKey, String value) {
+		PendingChanges pending = getPendingChanges(hibSession);
+		if (pending != null) pending.add(new Reservation(this, reserved, courseKey, value));
+	}
+
+	private synchronized void release(Reservation reservation) {
+		if (reservation.iReserved == null)
+			iReservedCrossListIds.remove(reservation.iValue);
+		else
+			unreserve(reservation.iReserved, reservation.iCourseKey, reservation.iValue);
+	}
+
+	/**
+	 * True if the given section index is used (or reserved) by a section of the given course in the term (section_processor.section_exists).
+	 */
+	public synchronized boolean isSectionIndexUsed(Long acadSessionId, CourseOffering courseOffering, String sectionIndex) {
+		String courseKey = getCourseKey(acadSessionId, courseOffering.getSubjectArea(), courseOffering.getCourseNbr());
+		return isUsed(iSectionIndexes, iReservedSectionIndexes, courseKey, rtrim(sectionIndex));
+	}
+
+	/**
+	 * Next unused section index of the given course (section_processor.get_section): the one after the highest numeric section index,
+	 * or the first free one from 001 when 998 has been reached. The returned section index is reserved.
+	 */
+	public synchronized String nextSectionIndex(Long acadSessionId, CourseOffering courseOffering, Session hibSession) {
+		String courseKey = getCourseKey(acadSessionId, courseOffering.getSubjectArea(), courseOffering.getCourseNbr());
+		if (courseKey == null) return null;
+		String max = null;
+		Map<String, Integer> used = iSectionIndexes.get(courseKey);
+		if (used != null)
+			for (String sectionIndex : used.keySet())
+				if (isNumeric(sectionIndex) && (max == null || sectionIndex.compareTo(max) > 0)) max = sectionIndex;
+		Set<String> reserved = iReservedSectionIndexes.get(courseKey);
+		if (reserved != null)
+			for (String sectionIndex : reserved)
+				if (isNumeric(sectionIndex) && (max == null || sectionIndex.compareTo(max) > 0)) max = sectionIndex;
+		String section = nextNumeric(max == null ? "000" : max);
+		while (section != null && isUsed(iSectionIndexes, iReservedSectionIndexes, courseKey, section))
+			section = nextNumeric(section);
+		if (section == null) {
+			for (int i = 1; i <= 999; i++) {
+				String s = String.format("%03d", i);
+				if (!isUsed(iSectionIndexes, iReservedSectionIndexes, courseKey, s)) {
+					section = s; break;
+				}
+			}
+		}
+		if (section == null) {
+			Debug.error("No section number is available (" + courseKey + ")");
+			return null;
+		}
+		reserve(iReservedSectionIndexes, courseKey, section);
+		addReservation(hibSession, iReservedSectionIndexes, courseKey, section);
+		return section;
+	}
+
+	/**
+	 * First link identifier that is not used by the given course in the term, skipping identifiers starting with a digit or having 0 as the
+	 * second character (section_processor.get_link_identifier). The returned identifier is reserved.
+	 */
+	public synchronized String nextLinkIdentifier(Long acadSessionId, CourseOffering courseOffering, Session hibSession) {
+		String courseKey = getCourseKey(acadSessionId, courseOffering.getSubjectArea(), courseOffering.getCourseNbr());
+		if (courseKey == null) return null;
+		for (String id : iProviderIds) {
+			if (id.isEmpty() || Character.isDigit(id.charAt(0)) || (id.length() > 1 && id.charAt(1) == '0')) continue;
+			if (isUsed(iLinkIds, iReservedLinkIds, courseKey, id)) continue;
+			reserve(iReservedLinkIds, courseKey, id);
+			addReservation(hibSession, iReservedLinkIds, courseKey, id);
+			return id;
+		}
+		Debug.error("No unused link identifier is available (" + courseKey + ")");
+		return null;
+	}
+
+	/**
+	 * First cross-list identifier that is not used in the term (cross_list_processor.get_cross_list_id). The returned identifier is reserved.
+	 */
+	public synchronized String nextCrossListIdentifier(Session hibSession) {
+		for (String id : iProviderIds) {
+			if (iCrossListIds.containsKey(id) || iReservedCrossListIds.contains(id)) continue;
+			iReservedCrossListIds.add(id);
+			addReservation(hibSession, null, null, id);
+			return id;
+		}
+		Debug.error("No unused cross list identifier is available (" + iBannerTermCode + ")");
+		return null;
+	}
+
+	/**
+	 * Check that no section of the given course in the term uses the given section index in the database. Always true when the verification is disabled.
+	 */
+	public boolean verifySectionIndex(Long acadSessionId, CourseOffering courseOffering, String sectionIndex, Session hibSession) {
+		return verify(acadSessionId, courseOffering, "sectionIndex", sectionIndex, hibSession);
+	}
+
+	/**
+	 * Check that no section of the given course in the term uses the given link identifier in the database. Always true when the verification is disabled.
+	 */
+	public boolean verifyLinkIdentifier(Long acadSessionId, CourseOffering courseOffering, String linkId, Session hibSession) {
+		return verify(acadSessionId, courseOffering, "linkIdentifier", linkId, hibSession);
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean verify(Long acadSessionId, CourseOffering courseOffering, String property, String value, Session hibSession) {
+		if (!isVerificationEnabled()) return true;
+		String courseKey = getCourseKey(acadSessionId, courseOffering.getSubjectArea(), courseOffering.getCourseNbr());
+		for (Object[] o : (List<Object[]>)hibSession.createQuery(
+				"select bs.session.uniqueId, co.subjectArea, co.courseNbr from BannerSection bs, CourseOffering co, BannerSession s " +
+				"where s.bannerTermCode = :termCode and bs.session.uniqueId = s.session.uniqueId and co.uniqueId = bs.bannerConfig.bannerCourse.courseOfferingId " +
+				"and trim(bs." + property + ") = :value")
+				.setString("termCode", iBannerTermCode).setString("value", value).setFlushMode(FlushMode.MANUAL).list()) {
+			if (courseKey != null && courseKey.equals(getCourseKey((Long)o[0], (SubjectArea)o[1], (String)o[2]))) {
+				Debug.info("Banner section index for Banner Term " + iBannerTermCode + " is out of date (" + property + " " + value + " of " + courseKey + " is used), reloading.");
+				invalidate(iBannerTermCode);
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Check that no section of the term uses the given cross-list identifier in the database. Always true when the verification is disabled.
+	 */
+	public boolean verifyCrossListIdentifier(String crossListId, Session hibSession) {
+		if (!isVerificationEnabled()) return true;
+		Number count = (Number)hibSession.createQuery(
+				"select count(bs) from BannerSection bs, BannerSession s where s.bannerTermCode = :termCode and bs.session.uniqueId = s.session.uniqueId and trim(bs.crossListIdentifier) = :value")
+				.setString("termCode", iBannerTermCode).setString("value", crossListId).setFlushMode(FlushMode.MANUAL).uniqueResult();
+		if (count != null && count.intValue() > 0) {
+			Debug.info("Banner section index for Banner Term " + iBannerTermCode + " is out of date (cross list identifier " + crossListId + " is used), reloading.");
+			invalidate(iBannerTermCode);
+			return false;
+		}
+		return true;
+	}
+
+	public String getBannerTermCode() {
+		return iBannerTermCode;
+	}
+
+	private static class Change {
+		private String iBannerTermCode;
+		private BannerSection iBannerSection;
+		private Entry iEntry;
+
+		private Change(String bannerTermCode, BannerSection bannerSection, Entry entry) {
+			iBannerTermCode = bannerTermCode; iBannerSection = bannerSection; iEntry = entry;
+		}
+
+		private void apply() {
+			BannerCrnClassCache.invalidate(iBannerSection);
+			// the index may have been reloaded since the change was recorded
+			BannerSectionIndex index = sIndexes.get(iBannerTermCode);
+			if (index == null) return;
+			if (iEntry != null) {
+				index.put(iBannerSection.getUniqueId(), iEntry);
+			} else if (iBannerSection.getUniqueId() != null) {
+				synchronized (index) {
+					index.removeEntry(iBannerSection.getUniqueId());
+				}
+			}
+		}
+	}
+
+	private static class Reservation {
+		private BannerSectionIndex iIndex;
+		private Map<String, Set<String>> iReserved;
+		private String iCourseKey, iValue;
+
+		private Reservation(BannerSectionIndex index, Map<String, Set<String>> reserved, String courseKey, String value) {
+			iIndex = index; iReserved = reserved; iCourseKey = courseKey; iValue = value;
+		}
+	}
+
+	/**
+	 * Index changes and reservations made within a transaction. The changes are applied when the transaction is committed,
+	 * the reservations are released when it completes (values claimed by a committed section stay used).
+	 */
+	private static class PendingChanges implements Synchronization {
+		private Transaction iTransaction;
+		private long iCreated = System.currentTimeMillis();
+		private List<Change> iChanges = new ArrayList<Change>();
+		private List<Reservation> iReservations = new ArrayList<Reservation>();
+
+		private PendingChanges(Transaction transaction) {
+			iTransaction = transaction;
+		}
+
+		@Override
+		public void beforeCompletion() {}
+
+		@Override
+		public void afterCompletion(int status) {
+			sPendingChanges.remove(iTransaction);
+			if (status == Status.STATUS_COMMITTED)
+				for (Change change : iChanges)
+					change.apply();
+			release();
+		}
+
+		private synchronized void add(Reservation reservation) {
+			iReservations.add(reservation);
+		}
+
+		private void release() {
+			List<Reservation> reservations;
+			synchronized (this) {
+				reservations = new ArrayList<Reservation>(iReservations);
+				iReservations.clear();
+			}
+			for (Reservation reservation : reservations)
+				reservation.iIndex.release(reservation);
+		}
+	}
+
+	private static class Entry {
+		private String iCourseKey, iSectionIndex, iLinkId, iCrossListId;
+		private Integer iCrn;
+
+		private Entry(String courseKey, String sectionIndex, String linkId, String crossListId, Integer crn) {
+			iCourseKey = courseKey; iSectionIndex = sectionIndex; iLinkId = linkId; iCrossListId = crossListId; iCrn = crn;
+		}
+	}
+}
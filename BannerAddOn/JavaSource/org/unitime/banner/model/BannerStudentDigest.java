@@ -0,0 +1,46 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+
+package org.unitime.banner.model;
+
+import org.unitime.banner.model.base.BaseBannerStudentDigest;
+
+
+/**
+ * Digest of the last student record (of the student updates) that was applied to the given student and Banner term,
+ * see {@link org.unitime.banner.onlinesectioning.BannerStudentUpdatesDigest}.
+ */
+public class BannerStudentDigest extends BaseBannerStudentDigest {
+	private static final long serialVersionUID = 1L;
+
+/*[CONSTRUCTOR MARKER BEGIN]*/
+	public BannerStudentDigest () {
+		super();
+	}
+
+	/**
+	 * Constructor for primary key
+	 */
+	public BannerStudentDigest (java.lang.Long uniqueId) {
+		super(uniqueId);
+	}
+/*[CONSTRUCTOR MARKER END]*/
+
+}
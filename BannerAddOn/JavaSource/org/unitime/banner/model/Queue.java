@@ -20,7 +20,20 @@
 
 package org.unitime.banner.model;
 
+import java.lang.management.ManagementFactory;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+
 import org.unitime.banner.model.base.BaseQueue;
+import org.unitime.banner.queueprocessor.util.ClobTools;
+import org.unitime.timetable.ApplicationProperties;
 
 
 
@@ -42,6 +55,8 @@ public abstract class Queue extends BaseQueue {
 	public static final String STATUS_FAILED = "FAILED";
 	// posted message is being processed
 	public static final String STATUS_PROCESSING = "PROCESSING";
+	// received response is being stored in UniTime (asynchronous response ingestion)
+	public static final String STATUS_INGESTING = "INGESTING";
 
 /*[CONSTRUCTOR MARKER BEGIN]*/
 	public Queue () {
@@ -57,5 +72,112 @@ public abstract class Queue extends BaseQueue {
 /*[CONSTRUCTOR MARKER END]*/
 
 	public abstract String getQueueType();
+	
+	private static String sWorkerId = null;
+	
+	/**
+	 * Messages are claimed using a conditional update (see {@link org.unitime.banner.model.dao.QueueOutDAO#claim(QueueOut, String, String)}),
+	 * so that multiple queue processors or solver servers can read the same queue, when <code>queueprocessor.claim.enabled</code> is set to true.
+	 */
+	public static boolean isClaimEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("queueprocessor.claim.enabled", "false"));
+	}
+	
+	/**
+	 * Time in milliseconds for which a claimed message stays with its worker. A message that is not finished
+	 * by then is put back and can be claimed again.
+	 */
+	public static long getLeaseTime() {
+		return 1000l * Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.claim.lease", "3600"));
+	}
+	
+	/**
+	 * Lease expiration of a message claimed now.
+	 */
+	public static Date getLeaseExpiration() {
+		return new Date(System.currentTimeMillis() + getLeaseTime());
+	}
+	
+	/**
+	 * Time in milliseconds between two checks for messages with an expired lease (see {@link #isReclaimDue(String)}).
+	 */
+	public static long getReclaimInterval() {
+		return 1000l * Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.claim.reclaimInterval", "300"));
+	}
+	
+	private static Map<String, Long> sLastReclaim = new HashMap<String, Long>();
+	
+	/**
+	 * True when messages with an expired lease should be put back now: the leases of the messages that are being processed are renewed
+	 * (see {@link org.unitime.banner.queueprocessor.LeaseRenewal}), so the expired ones only need to be looked for once in a while
+	 * (and on the first call after a start).
+	 * @param key identification of the claimed messages (e.g., entity name and claimed status)
+	 */
+	public static boolean isReclaimDue(String key) {
+		long now = System.currentTimeMillis();
+		synchronized (sLastReclaim) {
+			Long last = sLastReclaim.get(key);
+			if (last != null && now - last < getReclaimInterval()) return false;
+			sLastReclaim.put(key, now);
+			return true;
+		}
+	}
+	
+	/**
+	 * Identification of this JVM (process id and host name), stored with the claimed messages.
+	 */
+	public static synchronized String getLocalWorkerId() {
+		if (sWorkerId == null) {
+			String id = ApplicationProperties.getProperty("queueprocessor.claim.workerId");
+			if (id == null || id.isEmpty())
+				id = ManagementFactory.getRuntimeMXBean().getName();
+			sWorkerId = (id.length() > 40 ? id.substring(0, 40) : id);
+		}
+		return sWorkerId;
+	}
+
+	private static String[] sTermAttributes = new String[] { "termCode", "TERM_CODE", "term", "session" };
+	
+	private static String getTermCode(Element element) {
+		for (String attribute: sTermAttributes) {
+			String term = element.attributeValue(attribute);
+			if (term != null && !term.isEmpty()) return term;
+		}
+		return null;
+	}
+	
+	/**
+	 * Fill in the message type (name of the root element), the term code, the number of students, and the size of the message
+	 * from the XML document, so that the cleanup and the queue checks can use the indexed columns instead of reading the XML.
+	 * The term code is taken from the root element or, when all the child elements are of the same term, from the child elements.
+	 * To be called whenever the XML document of the message is set or changed.
+	 */
+	public void updateMetadata() {
+		Document document = getXml();
+		if (document == null || document.getRootElement() == null) {
+			setMessageType(null);
+			setTermCode(null);
+			setStudentCount(null);
+			setByteSize(null);
+			return;
+		}
+		Element root = document.getRootElement();
+		String termCode = getTermCode(root);
+		Set<String> terms = new HashSet<String>();
+		int students = 0;
+		for (Iterator<?> i = root.elementIterator(); i.hasNext(); ) {
+			Element element = (Element)i.next();
+			if ("student".equalsIgnoreCase(element.getName())) students++;
+			if (termCode == null) {
+				String term = getTermCode(element);
+				if (term != null) terms.add(term);
+			}
+		}
+		if (termCode == null && terms.size() == 1) termCode = terms.iterator().next();
+		setMessageType(root.getName().length() > 40 ? root.getName().substring(0, 40) : root.getName());
+		setTermCode(termCode == null || termCode.length() > 20 ? null : termCode);
+		setStudentCount(students);
+		setByteSize(ClobTools.documentSize(document));
+	}
 
-}
\ No newline at end of file
+}
@@ -20,6 +20,7 @@
 
 package org.unitime.banner.model;
 
+import org.unitime.banner.dataexchange.BannerSentManifest;
 import org.unitime.banner.model.base.BaseQueueOut;
 
 
@@ -52,5 +53,15 @@ public class QueueOut extends BaseQueueOut {
 	public String getQueueType() {
 		return QUEUE_TYPE;
 	}
+	
+	/**
+	 * Also store the manifest of a SCHEDULE packet (see {@link BannerSentManifest}), so that the response can be matched
+	 * with the sent sections and cross-lists without parsing the sent XML.
+	 */
+	@Override
+	public void updateMetadata() {
+		super.updateMetadata();
+		setManifest(BannerSentManifest.create(getXml()));
+	}
 
 }
\ No newline at end of file
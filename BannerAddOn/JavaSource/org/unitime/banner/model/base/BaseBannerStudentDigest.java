@@ -0,0 +1,103 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.banner.model.base;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import org.unitime.banner.model.BannerStudentDigest;
+
+/**
+ * Do not change this class. It has been automatically generated using ant create-model.
+ * @see org.unitime.commons.ant.CreateBaseModelFromXml
+ */
+public abstract class BaseBannerStudentDigest implements Serializable {
+	private static final long serialVersionUID = 1L;
+
+	private Long iUniqueId;
+	private String iBannerTermCode;
+	private String iExternalId;
+	private String iDigest;
+	private String iEnrollmentDigest;
+	private Date iAppliedDate;
+
+
+	public static String PROP_UNIQUEID = "uniqueId";
+	public static String PROP_TERM_CODE = "bannerTermCode";
+	public static String PROP_EXTERNAL_ID = "externalId";
+	public static String PROP_DIGEST = "digest";
+	public static String PROP_ENROLLMENT_DIGEST = "enrollmentDigest";
+	public static String PROP_APPLIED_DATE = "appliedDate";
+
+	public BaseBannerStudentDigest() {
+		initialize();
+	}
+
+	public BaseBannerStudentDigest(Long uniqueId) {
+		setUniqueId(uniqueId);
+		initialize();
+	}
+
+	protected void initialize() {}
+
+	public Long getUniqueId() { return iUniqueId; }
+	public void setUniqueId(Long uniqueId) { iUniqueId = uniqueId; }
+
+	public String getBannerTermCode() { return iBannerTermCode; }
+	public void setBannerTermCode(String bannerTermCode) { iBannerTermCode = bannerTermCode; }
+
+	public String getExternalId() { return iExternalId; }
+	public void setExternalId(String externalId) { iExternalId = externalId; }
+
+	public String getDigest() { return iDigest; }
+	public void setDigest(String digest) { iDigest = digest; }
+
+	public String getEnrollmentDigest() { return iEnrollmentDigest; }
+	public void setEnrollmentDigest(String enrollmentDigest) { iEnrollmentDigest = enrollmentDigest; }
+
+	public Date getAppliedDate() { return iAppliedDate; }
+	public void setAppliedDate(Date appliedDate) { iAppliedDate = appliedDate; }
+
+	public boolean equals(Object o) {
+		if (o == null || !(o instanceof BannerStudentDigest)) return false;
+		if (getUniqueId() == null || ((BannerStudentDigest)o).getUniqueId() == null) return false;
+		return getUniqueId().equals(((BannerStudentDigest)o).getUniqueId());
+	}
+
+	public int hashCode() {
+		if (getUniqueId() == null) return super.hashCode();
+		return getUniqueId().hashCode();
+	}
+
+	public String toString() {
+		return "BannerStudentDigest["+getUniqueId()+"]";
+	}
+
+	public String toDebugString() {
+		return "BannerStudentDigest[" +
+			"\n	AppliedDate: " + getAppliedDate() +
+			"\n	BannerTermCode: " + getBannerTermCode() +
+			"\n	Digest: " + getDigest() +
+			"\n	EnrollmentDigest: " + getEnrollmentDigest() +
+			"\n	ExternalId: " + getExternalId() +
+			"\n	UniqueId: " + getUniqueId() +
+			"]";
+	}
+}
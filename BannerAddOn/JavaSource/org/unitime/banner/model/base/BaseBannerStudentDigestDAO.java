@@ -0,0 +1,42 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.banner.model.base;
+
+import org.unitime.banner.model.BannerStudentDigest;
+import org.unitime.banner.model.dao._RootDAO;
+import org.unitime.banner.model.dao.BannerStudentDigestDAO;
+
+/**
+ * Do not change this class. It has been automatically generated using ant create-model.
+ * @see org.unitime.commons.ant.CreateBaseModelFromXml
+ */
+public abstract class BaseBannerStudentDigestDAO extends _RootDAO<BannerStudentDigest,Long> {
+
+	private static BannerStudentDigestDAO sInstance;
+
+	public static BannerStudentDigestDAO getInstance() {
+		if (sInstance == null) sInstance = new BannerStudentDigestDAO();
+		return sInstance;
+	}
+
+	public Class<BannerStudentDigest> getReferenceClass() {
+		return BannerStudentDigest.class;
+	}
+}
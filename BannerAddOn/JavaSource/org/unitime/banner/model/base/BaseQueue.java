@@ -37,6 +37,12 @@ public abstract class BaseQueue implements Serializable {
 	private String iStatus;
 	private Date iPostDate;
 	private Date iProcessDate;
+	private String iWorkerId;
+	private Date iLeaseExpires;
+	private String iTermCode;
+	private String iMessageType;
+	private Integer iStudentCount;
+	private Long iByteSize;
 
 
 	public static String PROP_UNIQUEID = "uniqueId";
@@ -44,6 +50,12 @@ public abstract class BaseQueue implements Serializable {
 	public static String PROP_STATUS = "status";
 	public static String PROP_POSTDATE = "postDate";
 	public static String PROP_PROCESSDATE = "processDate";
+	public static String PROP_WORKER_ID = "workerId";
+	public static String PROP_LEASE_EXPIRES = "leaseExpires";
+	public static String PROP_TERM_CODE = "termCode";
+	public static String PROP_MESSAGE_TYPE = "messageType";
+	public static String PROP_STUDENT_COUNT = "studentCount";
+	public static String PROP_BYTE_SIZE = "byteSize";
 
 	public BaseQueue() {
 		initialize();
@@ -71,6 +83,24 @@ public abstract class BaseQueue implements Serializable {
 	public Date getProcessDate() { return iProcessDate; }
 	public void setProcessDate(Date processDate) { iProcessDate = processDate; }
 
+	public String getWorkerId() { return iWorkerId; }
+	public void setWorkerId(String workerId) { iWorkerId = workerId; }
+
+	public Date getLeaseExpires() { return iLeaseExpires; }
+	public void setLeaseExpires(Date leaseExpires) { iLeaseExpires = leaseExpires; }
+
+	public String getTermCode() { return iTermCode; }
+	public void setTermCode(String termCode) { iTermCode = termCode; }
+
+	public String getMessageType() { return iMessageType; }
+	public void setMessageType(String messageType) { iMessageType = messageType; }
+
+	public Integer getStudentCount() { return iStudentCount; }
+	public void setStudentCount(Integer studentCount) { iStudentCount = studentCount; }
+
+	public Long getByteSize() { return iByteSize; }
+	public void setByteSize(Long byteSize) { iByteSize = byteSize; }
+
 	public boolean equals(Object o) {
 		if (o == null || !(o instanceof Queue)) return false;
 		if (getUniqueId() == null || ((Queue)o).getUniqueId() == null) return false;
@@ -90,7 +120,11 @@ public abstract class BaseQueue implements Serializable {
 		return "Queue[" +
 			"\n	PostDate: " + getPostDate() +
 			"\n	ProcessDate: " + getProcessDate() +
+			"\n	ByteSize: " + getByteSize() +
+			"\n	MessageType: " + getMessageType() +
 			"\n	Status: " + getStatus() +
+			"\n	StudentCount: " + getStudentCount() +
+			"\n	TermCode: " + getTermCode() +
 			"\n	UniqueId: " + getUniqueId() +
 			"\n	Xml: " + getXml() +
 			"]";
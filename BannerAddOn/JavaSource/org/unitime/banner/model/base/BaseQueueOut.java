@@ -33,9 +33,15 @@ public abstract class BaseQueueOut extends Queue implements Serializable {
 	private static final long serialVersionUID = 1L;
 
 	private Date iPickupDate;
+	private String iManifest;
+	private Integer iRetryCount;
+	private Date iRetryAfter;
 
 
 	public static String PROP_PICKUPDATE = "pickupDate";
+	public static String PROP_MANIFEST = "manifest";
+	public static String PROP_RETRY_COUNT = "retryCount";
+	public static String PROP_RETRY_AFTER = "retryAfter";
 
 	public BaseQueueOut() {
 		initialize();
@@ -51,6 +57,15 @@ public abstract class BaseQueueOut extends Queue implements Serializable {
 	public Date getPickupDate() { return iPickupDate; }
 	public void setPickupDate(Date pickupDate) { iPickupDate = pickupDate; }
 
+	public String getManifest() { return iManifest; }
+	public void setManifest(String manifest) { iManifest = manifest; }
+
+	public Integer getRetryCount() { return iRetryCount; }
+	public void setRetryCount(Integer retryCount) { iRetryCount = retryCount; }
+
+	public Date getRetryAfter() { return iRetryAfter; }
+	public void setRetryAfter(Date retryAfter) { iRetryAfter = retryAfter; }
+
 	public boolean equals(Object o) {
 		if (o == null || !(o instanceof QueueOut)) return false;
 		if (getUniqueId() == null || ((QueueOut)o).getUniqueId() == null) return false;
@@ -68,9 +83,12 @@ public abstract class BaseQueueOut extends Queue implements Serializable {
 
 	public String toDebugString() {
 		return "QueueOut[" +
+			"\n	Manifest: " + getManifest() +
 			"\n	PickupDate: " + getPickupDate() +
 			"\n	PostDate: " + getPostDate() +
 			"\n	ProcessDate: " + getProcessDate() +
+			"\n	RetryAfter: " + getRetryAfter() +
+			"\n	RetryCount: " + getRetryCount() +
 			"\n	Status: " + getStatus() +
 			"\n	UniqueId: " + getUniqueId() +
 			"\n	Xml: " + getXml() +
@@ -20,14 +20,19 @@
 
 package org.unitime.banner.model.dao;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.unitime.banner.model.Queue;
 import org.unitime.banner.model.QueueIn;
 import org.unitime.banner.model.base.BaseQueueInDAO;
 import org.unitime.banner.queueprocessor.exception.LoggableException;
+import org.unitime.commons.Debug;
 
 
 
@@ -95,4 +100,215 @@ public class QueueInDAO extends BaseQueueInDAO {
 		return null;
 	}
 
-}
\ No newline at end of file
+	/**
+	 * Update status and process date of the given message without writing its XML again.
+	 */
+	public void updateStatus(QueueIn item) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			session.createQuery(
+					"update QueueIn set status = :status, processDate = :processDate where uniqueId = :queueId")
+					.setString("status", item.getStatus())
+					.setTimestamp("processDate", item.getProcessDate())
+					.setLong("queueId", item.getUniqueId())
+					.executeUpdate();
+			tx.commit();
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Store the status and process date of a message claimed by this worker (e.g., when it has been processed) and drop the claim.
+	 * The update is conditional: it only matches while the message is still claimed by this worker with the given claimed status.
+	 * @return false when the claim has been lost in the meantime (the lease expired and the message was put back or claimed by another worker), nothing is stored then
+	 */
+	public boolean complete(QueueIn item, String claimedStatus) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			int updated = session.createQuery(
+					"update QueueIn set status = :status, processDate = :processDate, workerId = null, leaseExpires = null " +
+					"where uniqueId = :queueId and status = :claimed and workerId = :workerId")
+					.setString("status", item.getStatus())
+					.setTimestamp("processDate", item.getProcessDate())
+					.setLong("queueId", item.getUniqueId())
+					.setString("claimed", claimedStatus)
+					.setString("workerId", Queue.getLocalWorkerId())
+					.executeUpdate();
+			tx.commit();
+			if (updated == 0) return false;
+			item.setWorkerId(null);
+			item.setLeaseExpires(null);
+			return true;
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Put a message claimed by this worker back to the given status, so that it can be claimed again.
+	 */
+	public void release(QueueIn item, String status) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			session.createQuery(
+					"update QueueIn set status = :status, workerId = null, leaseExpires = null where uniqueId = :queueId and status = :claimed and workerId = :workerId")
+					.setString("status", status)
+					.setLong("queueId", item.getUniqueId())
+					.setString("claimed", item.getStatus())
+					.setString("workerId", Queue.getLocalWorkerId())
+					.executeUpdate();
+			tx.commit();
+			item.setStatus(status);
+			item.setWorkerId(null);
+			item.setLeaseExpires(null);
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Put the messages whose lease has expired (their worker died or got stuck) from the claimed status back to the given status.
+	 * @return number of messages put back
+	 */
+	public int reclaimExpired(String claimedStatus, String status) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			int updated = session.createQuery(
+					"update QueueIn set status = :status, workerId = null, leaseExpires = null where status = :claimed and leaseExpires < :now")
+					.setString("status", status)
+					.setString("claimed", claimedStatus)
+					.setTimestamp("now", new Date())
+					.executeUpdate();
+			tx.commit();
+			if (updated > 0)
+				Debug.info("Lease expired on " + updated + " " + claimedStatus + " queue in entries, status changed back to " + status + ".");
+			return updated;
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Claim the given message for this worker (see {@link Queue#getLocalWorkerId()}) using a conditional update that changes its status
+	 * from the given status to the claimed status.
+	 * The caller renews the lease of a message that takes long to process.
+	 * @return false if the message does not have the given status anymore (e.g., it has been claimed by another worker)
+	 */
+	public boolean claim(QueueIn item, String status, String claimedStatus) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			Date lease = Queue.getLeaseExpiration();
+			int updated = session.createQuery(
+					"update QueueIn set status = :claimed, workerId = :workerId, leaseExpires = :lease where uniqueId = :queueId and status = :status")
+					.setString("claimed", claimedStatus)
+					.setString("workerId", Queue.getLocalWorkerId())
+					.setTimestamp("lease", lease)
+					.setLong("queueId", item.getUniqueId())
+					.setString("status", status)
+					.executeUpdate();
+			tx.commit();
+			if (updated == 0) return false;
+			item.setStatus(claimedStatus);
+			item.setWorkerId(Queue.getLocalWorkerId());
+			item.setLeaseExpires(lease);
+			return true;
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Unique ids of up to the given number of Banner responses (messages with a match id) of the given status, ordered by unique id.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<Long> findResponseIds(String status, int maxResults) throws LoggableException {
+		Session session = createNewSession();
+		try {
+			return (List<Long>)session.createQuery("select uniqueId from QueueIn where status = :status and matchId is not null order by uniqueId")
+					.setString("status", status)
+					.setMaxResults(maxResults)
+					.list();
+		} catch (HibernateException e) {
+			throw new LoggableException(e);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Claim up to the given number of messages of the given status (ordered by unique id) for this worker (see {@link Queue#getLocalWorkerId()}).
+	 * Each message is claimed by a conditional update that changes its status to the claimed status, so a message is never returned to two workers.
+	 * Messages taken by other workers are skipped, messages with an expired lease are put back first (at most once per
+	 * <code>queueprocessor.claim.reclaimInterval</code>). The caller renews the leases of the claimed messages.
+	 */
+	@SuppressWarnings("unchecked")
+	public List<QueueIn> claim(String status, String claimedStatus, int maxMessages) throws LoggableException {
+		if (Queue.isReclaimDue("QueueIn:" + claimedStatus))
+			reclaimExpired(claimedStatus, status);
+		List<QueueIn> ret = new ArrayList<QueueIn>();
+		Session session = createNewSession();
+		try {
+			while (ret.size() < maxMessages) {
+				List<Long> candidates = session.createQuery("select uniqueId from QueueIn where status = :status order by uniqueId")
+						.setString("status", status)
+						.setMaxResults(maxMessages - ret.size())
+						.list();
+				if (candidates.isEmpty()) break;
+				for (Long queueId: candidates) {
+					Transaction tx = session.beginTransaction();
+					try {
+						Date lease = Queue.getLeaseExpiration();
+						int updated = session.createQuery(
+								"update QueueIn set status = :claimed, workerId = :workerId, leaseExpires = :lease where uniqueId = :queueId and status = :status")
+								.setString("claimed", claimedStatus)
+								.setString("workerId", Queue.getLocalWorkerId())
+								.setTimestamp("lease", lease)
+								.setLong("queueId", queueId)
+								.setString("status", status)
+								.executeUpdate();
+						tx.commit();
+						if (updated > 0) {
+							QueueIn qi = (QueueIn)session.get(QueueIn.class, queueId);
+							if (qi != null) ret.add(qi);
+						}
+					} catch (HibernateException e) {
+						tx.rollback();
+						throw e;
+					}
+				}
+			}
+		} catch (HibernateException e) {
+			throw new LoggableException(e);
+		} finally {
+			session.close();
+		}
+		return ret;
+	}
+
+}
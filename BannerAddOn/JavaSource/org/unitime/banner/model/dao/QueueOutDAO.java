@@ -20,14 +20,20 @@
 
 package org.unitime.banner.model.dao;
 
+import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.hibernate.HibernateException;
 import org.hibernate.Query;
+import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.hibernate.type.IntegerType;
+import org.unitime.banner.model.Queue;
 import org.unitime.banner.model.QueueOut;
 import org.unitime.banner.model.base.BaseQueueOutDAO;
 import org.unitime.banner.queueprocessor.exception.LoggableException;
+import org.unitime.commons.Debug;
 
 
 
@@ -119,4 +125,229 @@ public class QueueOutDAO extends BaseQueueOutDAO {
         }
 		return (list == null || list.isEmpty() ? null : list.get(0));
 	}
-}
\ No newline at end of file
+	
+	/**
+	 * Update status, pickup and process dates of the given message without writing its XML again.
+	 */
+	public void updateStatus(QueueOut item) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			session.createQuery(
+					"update QueueOut set status = :status, pickupDate = :pickupDate, processDate = :processDate where uniqueId = :queueId")
+					.setString("status", item.getStatus())
+					.setTimestamp("pickupDate", item.getPickupDate())
+					.setTimestamp("processDate", item.getProcessDate())
+					.setLong("queueId", item.getUniqueId())
+					.executeUpdate();
+			tx.commit();
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Store the number of failed attempts and the time of the next attempt of the given message, so that they survive a restart of the queue processor.
+	 */
+	public void updateRetry(QueueOut item) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			session.createQuery(
+					"update QueueOut set retryCount = :retryCount, retryAfter = :retryAfter where uniqueId = :queueId")
+					.setParameter("retryCount", item.getRetryCount(), IntegerType.INSTANCE)
+					.setTimestamp("retryAfter", item.getRetryAfter())
+					.setLong("queueId", item.getUniqueId())
+					.executeUpdate();
+			tx.commit();
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Claim the given message for this worker (see {@link Queue#getLocalWorkerId()}): the status is changed from the given status to the claimed
+	 * status by a conditional update, the lease expiration and pickup date are set. Returns false when the message has been changed
+	 * (e.g., claimed by another worker) in the meantime. The caller renews the lease of a message that takes long to process.
+	 */
+	public boolean claim(QueueOut item, String status, String claimedStatus) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			Date now = new Date();
+			Date lease = Queue.getLeaseExpiration();
+			int updated = session.createQuery(
+					"update QueueOut set status = :claimed, workerId = :workerId, leaseExpires = :lease, pickupDate = :now where uniqueId = :queueId and status = :status")
+					.setString("claimed", claimedStatus)
+					.setString("workerId", Queue.getLocalWorkerId())
+					.setTimestamp("lease", lease)
+					.setTimestamp("now", now)
+					.setLong("queueId", item.getUniqueId())
+					.setString("status", status)
+					.executeUpdate();
+			tx.commit();
+			if (updated == 0) return false;
+			item.setStatus(claimedStatus);
+			item.setWorkerId(Queue.getLocalWorkerId());
+			item.setLeaseExpires(lease);
+			item.setPickupDate(now);
+			return true;
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Store the status, pickup and process dates of a message claimed by this worker (e.g., when it has been processed) and drop the claim.
+	 * The update is conditional: it only matches while the message is still claimed by this worker with the given claimed status.
+	 * @return false when the claim has been lost in the meantime (the lease expired and the message was put back or claimed by another worker), nothing is stored then
+	 */
+	public boolean complete(QueueOut item, String claimedStatus) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			int updated = session.createQuery(
+					"update QueueOut set status = :status, pickupDate = :pickupDate, processDate = :processDate, workerId = null, leaseExpires = null " +
+					"where uniqueId = :queueId and status = :claimed and workerId = :workerId")
+					.setString("status", item.getStatus())
+					.setTimestamp("pickupDate", item.getPickupDate())
+					.setTimestamp("processDate", item.getProcessDate())
+					.setLong("queueId", item.getUniqueId())
+					.setString("claimed", claimedStatus)
+					.setString("workerId", Queue.getLocalWorkerId())
+					.executeUpdate();
+			tx.commit();
+			if (updated == 0) return false;
+			item.setWorkerId(null);
+			item.setLeaseExpires(null);
+			return true;
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Update status, pickup and process dates of the given message only when it still has the expected status (e.g., it has not been
+	 * claimed by another worker since it was released).
+	 * @return false when the message does not have the expected status anymore, nothing is stored then
+	 */
+	public boolean updateStatus(QueueOut item, String expectedStatus) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			int updated = session.createQuery(
+					"update QueueOut set status = :status, pickupDate = :pickupDate, processDate = :processDate where uniqueId = :queueId and status = :expected")
+					.setString("status", item.getStatus())
+					.setTimestamp("pickupDate", item.getPickupDate())
+					.setTimestamp("processDate", item.getProcessDate())
+					.setLong("queueId", item.getUniqueId())
+					.setString("expected", expectedStatus)
+					.executeUpdate();
+			tx.commit();
+			return updated > 0;
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Put a message claimed by this worker back to the given status, so that it can be claimed again.
+	 */
+	public void release(QueueOut item, String status) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			session.createQuery(
+					"update QueueOut set status = :status, workerId = null, leaseExpires = null where uniqueId = :queueId and status = :claimed and workerId = :workerId")
+					.setString("status", status)
+					.setLong("queueId", item.getUniqueId())
+					.setString("claimed", item.getStatus())
+					.setString("workerId", Queue.getLocalWorkerId())
+					.executeUpdate();
+			tx.commit();
+			item.setStatus(status);
+			item.setWorkerId(null);
+			item.setLeaseExpires(null);
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, item);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Put the messages whose lease has expired (their worker died or got stuck) from the claimed status back to the given status.
+	 * @return number of messages put back
+	 */
+	public int reclaimExpired(String claimedStatus, String status) throws LoggableException {
+		Session session = createNewSession();
+		Transaction tx = null;
+		try {
+			tx = session.beginTransaction();
+			int updated = session.createQuery(
+					"update QueueOut set status = :status, workerId = null, leaseExpires = null where status = :claimed and leaseExpires < :now")
+					.setString("status", status)
+					.setString("claimed", claimedStatus)
+					.setTimestamp("now", new Date())
+					.executeUpdate();
+			tx.commit();
+			if (updated > 0)
+				Debug.info("Lease expired on " + updated + " " + claimedStatus + " queue out entries, status changed back to " + status + ".");
+			return updated;
+		} catch (HibernateException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e);
+		} finally {
+			session.close();
+		}
+	}
+	
+	/**
+	 * Claim the first message of the given status, see {@link #claim(QueueOut, String, String)}. Messages taken by other workers
+	 * are skipped. Messages with an expired lease are put back first (at most once per <code>queueprocessor.claim.reclaimInterval</code>).
+	 */
+	@SuppressWarnings("unchecked")
+	public QueueOut claimFirstByStatus(String status, String claimedStatus) throws LoggableException {
+		if (Queue.isReclaimDue("QueueOut:" + claimedStatus))
+			reclaimExpired(claimedStatus, status);
+		while (true) {
+			List<QueueOut> candidates = new ArrayList<QueueOut>();
+			Session session = createNewSession();
+			try {
+				candidates = session.createQuery("from QueueOut where status = :status order by uniqueId")
+						.setString("status", status)
+						.setMaxResults(10)
+						.list();
+			} catch (HibernateException e) {
+				throw new LoggableException(e);
+			} finally {
+				session.close();
+			}
+			if (candidates.isEmpty()) return null;
+			for (QueueOut item: candidates)
+				if (claim(item, status, claimedStatus)) return item;
+		}
+	}
+}
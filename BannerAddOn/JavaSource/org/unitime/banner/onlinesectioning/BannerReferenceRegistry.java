@@ -0,0 +1,213 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.onlinesectioning;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Locks and a create-if-absent cache for the reference entities (academic areas, classifications, majors, student groups,
+ * advisors, etc.) that {@link BannerUpdateStudentAction} creates on the fly when the student updates run in multiple threads.<br>
+ * <br>
+ * The locks are taken from a fixed number of stripes (<code>banner.studentUpdates.lockStripes</code>), the time spent waiting
+ * for a lock is counted for each entity type. The cache maps the academic session and the external id (or code) of an entity
+ * to its unique id, so that an entity that already exists can be found without a lock and without a database query. It is used when
+ * <code>banner.studentUpdates.referenceCache.enabled</code> is set to true and it is dropped for an academic session when
+ * an update of that session fails or after <code>banner.studentUpdates.referenceCache.expiration</code> seconds.
+ */
+public class BannerReferenceRegistry {
+	private static volatile ReentrantLock[] sStripes = null;
+	private static Map<Type, Statistics> sStatistics = new EnumMap<Type, Statistics>(Type.class);
+	private static Map<Long, SessionCache> sCaches = new ConcurrentHashMap<Long, SessionCache>();
+
+	public static enum Type {
+		AREA("Area"),
+		CLASSIFICATION("Classification"),
+		MAJOR("Major"),
+		CONCENTRATION("Concentration"),
+		DEGREE("Degree"),
+		PROGRAM("Program"),
+		GROUP_TYPE("Group Type"),
+		GROUP("Group"),
+		ADVISOR("Advisor"),
+		;
+		private String iLabel;
+		Type(String label) { iLabel = label; }
+		public String getLabel() { return iLabel; }
+	}
+	
+	static {
+		for (Type type: Type.values())
+			sStatistics.put(type, new Statistics());
+	}
+
+	public static boolean isCacheEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.studentUpdates.referenceCache.enabled", "false"));
+	}
+
+	public static long getCacheExpiration() {
+		return 1000l * Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.referenceCache.expiration", "900"));
+	}
+
+	private static ReentrantLock[] getStripes() {
+		ReentrantLock[] stripes = sStripes;
+		if (stripes == null) {
+			synchronized (BannerReferenceRegistry.class) {
+				if (sStripes == null) {
+					int nrStripes = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.lockStripes", "64")));
+					stripes = new ReentrantLock[nrStripes];
+					for (int i = 0; i < nrStripes; i++)
+						stripes[i] = new ReentrantLock();
+					sStripes = stripes;
+				}
+				stripes = sStripes;
+			}
+		}
+		return stripes;
+	}
+
+	private static String key(Type type, Long sessionId, String... key) {
+		StringBuffer ret = new StringBuffer(type.name());
+		ret.append("|").append(sessionId);
+		for (String k: key)
+			ret.append("|").append(k);
+		return ret.toString();
+	}
+
+	private static Statistics getStatistics(Type type) {
+		return sStatistics.get(type);
+	}
+
+	/**
+	 * Acquire the lock of the given entity. The returned lock must be released using {@link ReentrantLock#unlock()}.
+	 * @param sessionId academic session id, null for entities that are not session dependent
+	 */
+	public static ReentrantLock lock(Type type, Long sessionId, String... key) {
+		ReentrantLock[] stripes = getStripes();
+		ReentrantLock lock = stripes[(key(type, sessionId, key).hashCode() & 0x7fffffff) % stripes.length];
+		Statistics stats = getStatistics(type);
+		stats.iAcquired.increment();
+		if (!lock.tryLock()) {
+			long t0 = System.nanoTime();
+			lock.lock();
+			stats.iContended.increment();
+			stats.iWaitNanos.add(System.nanoTime() - t0);
+		}
+		return lock;
+	}
+
+	/**
+	 * Unique id of the given entity, null if not cached (or when the cache is disabled).
+	 */
+	public static Long getId(Type type, Long sessionId, String... key) {
+		if (sessionId == null || !isCacheEnabled()) return null;
+		SessionCache cache = sCaches.get(sessionId);
+		if (cache == null) return null;
+		if (cache.isExpired()) {
+			sCaches.remove(sessionId);
+			return null;
+		}
+		Long id = cache.iIds.get(key(type, sessionId, key));
+		if (id != null) getStatistics(type).iCacheHits.increment();
+		return id;
+	}
+
+	/**
+	 * Remember the unique id of the given entity. Only entities that are committed to the database should be put in the cache.
+	 */
+	public static void putId(Type type, Long sessionId, Long id, String... key) {
+		if (sessionId == null || id == null || !isCacheEnabled()) return;
+		SessionCache cache = sCaches.get(sessionId);
+		if (cache == null || cache.isExpired()) {
+			cache = new SessionCache();
+			sCaches.put(sessionId, cache);
+		}
+		cache.iIds.put(key(type, sessionId, key), id);
+	}
+
+	/**
+	 * Forget the cached entities of the given academic session (e.g., when an update failed).
+	 */
+	public static void clear(Long sessionId) {
+		if (sessionId != null) sCaches.remove(sessionId);
+	}
+
+	public static void clear() {
+		sCaches.clear();
+	}
+
+	/**
+	 * Lock statistics of the given type: number of locks acquired, number of locks that had to wait, total wait time in milliseconds, and cache hits.
+	 */
+	public static long[] getStatisticsSnapshot(Type type) {
+		Statistics stats = getStatistics(type);
+		return new long[] { stats.iAcquired.sum(), stats.iContended.sum(), stats.iWaitNanos.sum() / 1000000l, stats.iCacheHits.sum() };
+	}
+
+	/**
+	 * Describe the lock waits and cache hits since the given snapshot (see {@link #getStatisticsSnapshot()}), null if there were none.
+	 */
+	public static String getStatisticsDiff(Map<Type, long[]> snapshot) {
+		StringBuffer ret = new StringBuffer();
+		for (Type type: Type.values()) {
+			long[] now = getStatisticsSnapshot(type);
+			long[] before = (snapshot == null ? null : snapshot.get(type));
+			long acquired = now[0] - (before == null ? 0 : before[0]);
+			long contended = now[1] - (before == null ? 0 : before[1]);
+			long wait = now[2] - (before == null ? 0 : before[2]);
+			long hits = now[3] - (before == null ? 0 : before[3]);
+			if (acquired == 0 && hits == 0) continue;
+			if (ret.length() > 0) ret.append(", ");
+			ret.append(type.getLabel() + ": " + acquired + " locks (" + contended + " waited " + wait + " ms)");
+			if (hits > 0) ret.append(", " + hits + " cache hits");
+		}
+		return (ret.length() == 0 ? null : ret.toString());
+	}
+
+	public static Map<Type, long[]> getStatisticsSnapshot() {
+		Map<Type, long[]> ret = new EnumMap<Type, long[]>(Type.class);
+		for (Type type: Type.values())
+			ret.put(type, getStatisticsSnapshot(type));
+		return ret;
+	}
+
+	private static class Statistics {
+		private LongAdder iAcquired = new LongAdder();
+		private LongAdder iContended = new LongAdder();
+		private LongAdder iWaitNanos = new LongAdder();
+		private LongAdder iCacheHits = new LongAdder();
+	}
+
+	private static class SessionCache {
+		private long iCreated = System.currentTimeMillis();
+		private Map<String, Long> iIds = new ConcurrentHashMap<String, Long>();
+
+		private boolean isExpired() {
+			long expiration = getCacheExpiration();
+			return expiration > 0 && System.currentTimeMillis() - iCreated > expiration;
+		}
+	}
+}
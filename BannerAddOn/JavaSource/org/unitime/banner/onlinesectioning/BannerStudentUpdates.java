@@ -21,15 +21,35 @@ package org.unitime.banner.onlinesectioning;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiFunction;
+import java.util.function.LongBinaryOperator;
 
 import org.apache.commons.logging.LogFactory;
 import org.dom4j.Document;
@@ -37,16 +57,19 @@ import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
 import org.hibernate.CacheMode;
 import org.hibernate.Transaction;
+import org.unitime.banner.model.BannerCrnClassCache;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.BannerSession.FutureSessionUpdateMode;
 import org.unitime.banner.model.Queue;
 import org.unitime.banner.model.QueueIn;
 import org.unitime.banner.model.QueueOut;
+import org.unitime.banner.model.dao.BannerSessionDAO;
 import org.unitime.banner.model.dao.QueueInDAO;
 import org.unitime.banner.onlinesectioning.BannerUpdateStudentAction.Change;
 import org.unitime.banner.onlinesectioning.BannerUpdateStudentAction.OfferingCheck;
 import org.unitime.banner.onlinesectioning.BannerUpdateStudentAction.Status;
 import org.unitime.banner.onlinesectioning.BannerUpdateStudentAction.UpdateResult;
+import org.unitime.banner.queueprocessor.LeaseRenewal;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.dataexchange.BaseImport;
 import org.unitime.timetable.dataexchange.DataExchangeHelper;
@@ -67,6 +90,23 @@ import org.unitime.timetable.spring.SpringApplicationContextHolder;
  * @author Tomas Muller
  */
 public class BannerStudentUpdates extends BaseImport implements MessageHandler {
+	private static ThreadPoolExecutor sExecutor = null;
+	private static AtomicInteger sThreadCounter = new AtomicInteger(0);
+	private static final LongBinaryOperator MIN = new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long a, long b) { return Math.min(a, b); }
+	};
+	private static final LongBinaryOperator MAX = new LongBinaryOperator() {
+		@Override
+		public long applyAsLong(long a, long b) { return Math.max(a, b); }
+	};
+	private static final BiFunction<OfferingCheck, OfferingCheck, OfferingCheck> MERGE_CHECKS = new BiFunction<OfferingCheck, OfferingCheck, OfferingCheck>() {
+		@Override
+		public OfferingCheck apply(OfferingCheck check, OfferingCheck other) {
+			check.merge(other);
+			return check;
+		}
+	};
 	private SolverContainer<OnlineSectioningServer> iContainer;
 
 	public BannerStudentUpdates(SolverContainer<OnlineSectioningServer> container) {
@@ -80,7 +120,58 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 			iContainer = ((SolverServerService)SpringApplicationContextHolder.getBean("solverServerService")).getOnlineStudentSchedulingContainer();
 	}
 	
+	/**
+	 * Thread pool that processes the students of all student updates messages, with <code>banner.studentUpdates.nrThreads</code> threads.
+	 * Idle threads are released after a minute.
+	 */
+	protected static synchronized ExecutorService getExecutor() {
+		int nrThreads = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.nrThreads", "1")));
+		if (sExecutor == null || sExecutor.isShutdown()) {
+			sExecutor = new ThreadPoolExecutor(nrThreads, nrThreads, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "BannerStudentUpdates-" + sThreadCounter.incrementAndGet());
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			sExecutor.allowCoreThreadTimeOut(true);
+		} else if (sExecutor.getMaximumPoolSize() != nrThreads) {
+			if (nrThreads > sExecutor.getMaximumPoolSize()) {
+				sExecutor.setMaximumPoolSize(nrThreads);
+				sExecutor.setCorePoolSize(nrThreads);
+			} else {
+				sExecutor.setCorePoolSize(nrThreads);
+				sExecutor.setMaximumPoolSize(nrThreads);
+			}
+		}
+		return sExecutor;
+	}
+	
+	/**
+	 * Stop the thread pool, waiting up to a minute for the students that are being processed.
+	 */
+	public static void shutdownExecutor() {
+		ThreadPoolExecutor executor = null;
+		synchronized (BannerStudentUpdates.class) {
+			executor = sExecutor;
+			sExecutor = null;
+		}
+		if (executor == null) return;
+		executor.shutdown();
+		try {
+			if (!executor.awaitTermination(60, TimeUnit.SECONDS))
+				executor.shutdownNow();
+		} catch (InterruptedException e) {
+			executor.shutdownNow();
+		}
+	}
+	
 	protected XmlMessage getMessage() throws Exception {
+		if (Queue.isClaimEnabled()) {
+			List<XmlMessage> messages = getMessages(1);
+			return (messages.isEmpty() ? null : messages.get(0));
+		}
 		org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
 		Transaction tx = hibSession.beginTransaction();
 		try {
@@ -92,8 +183,11 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 			XmlMessage ret = null;
 			
 			if (qi != null) {
-				qi.setStatus(Queue.STATUS_PROCESSING);
-				hibSession.update(qi);
+				// only the status is written, not the XML
+				hibSession.createQuery("update QueueIn set status = :status where uniqueId = :id")
+						.setString("status", Queue.STATUS_PROCESSING)
+						.setLong("id", qi.getUniqueId())
+						.executeUpdate();
 				ret = new XmlMessage(qi.getUniqueId(), qi.getPostDate(), qi.getXml());
 			}
 
@@ -108,7 +202,24 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 		}
 	}
 	
-	protected void updateMessage(XmlMessage message, String status) throws Exception {
+	/**
+	 * Store the status of a processed message.
+	 * @return false when the message was claimed, but the claim has been lost in the meantime (the status is not stored then)
+	 */
+	protected boolean updateMessage(XmlMessage message, String status) throws Exception {
+		if (Queue.isClaimEnabled()) {
+			// only store the status while the message is still claimed by this worker
+			LeaseRenewal.getInstance().unregister("QueueIn", message.getQueueId());
+			QueueIn qi = new QueueIn(message.getQueueId());
+			qi.setStatus(status);
+			qi.setProcessDate(new Date());
+			if (!QueueInDAO.getInstance().complete(qi, Queue.STATUS_PROCESSING)) {
+				error("Message #" + message.getQueueId() + " is no longer " + Queue.STATUS_PROCESSING + " by " + Queue.getLocalWorkerId() +
+						" (its lease expired), status " + status + " was not stored.");
+				return false;
+			}
+			return true;
+		}
 		org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
 		Transaction tx = hibSession.beginTransaction();
 		try {
@@ -127,9 +238,15 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 		} finally {
 			hibSession.close();
 		}
+		return true;
 	}
 	
 	public void pollMessage() {
+		int maxMessages = Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.maxMessages", "1"));
+		if (maxMessages > 1) {
+			pollMessages(maxMessages);
+			return;
+		}
 		try {
 			while (true) {
 				XmlMessage message = getMessage();
@@ -139,8 +256,8 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 				
 				try {
 					processMessage(message.getContent().getRootElement());
-					info("Message #" + message.getQueueId() + " processed.");
-					updateMessage(message, Queue.STATUS_PROCESSED);
+					if (updateMessage(message, Queue.STATUS_PROCESSED))
+						info("Message #" + message.getQueueId() + " processed.");
 				} catch (Exception e) {
 					updateMessage(message, Queue.STATUS_FAILED);
 					error("Failed to process message #" + message.getQueueId() +": " + e.getMessage(), e);
@@ -154,6 +271,311 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 
 	}
 	
+	/**
+	 * Keep up to the given number of messages in progress and process their student records together on the shared thread pool.
+	 * The records are grouped by student (Banner term and external id) into lanes, the records of a student are processed by one thread
+	 * at a time in message order (see {@link StudentLanes}). Students are interleaved across the messages, so that a small message is not
+	 * stuck behind a large one. Each message is finished (and marked as processed) as soon as its last record is done, and newly READY
+	 * messages are taken in as soon as there is room for them, while the records of the other messages are still being processed.
+	 */
+	protected void pollMessages(int maxMessages) {
+		long pollInterval = Math.max(10l, Long.parseLong(ApplicationProperties.getProperty("banner.studentUpdates.pollInterval", "1000")));
+		StudentLanes lanes = new StudentLanes();
+		try {
+			while (true) {
+				int room = maxMessages - lanes.getMessageCount();
+				List<XmlMessage> messages = (room > 0 ? getMessages(room) : new ArrayList<XmlMessage>());
+				if (messages.isEmpty()) {
+					// nothing new: finish when all the messages are done, otherwise wait for a message to finish (or for the poll interval)
+					if (!lanes.await(pollInterval)) break;
+					continue;
+				}
+				
+				for (XmlMessage message: messages) {
+					info("Processing message #" + message.getQueueId() + " posted at " + message.getCreated());
+					try {
+						MessageProcessor processor = new MessageProcessor(message);
+						processor.prepare();
+						if (processor.iStudentElements.isEmpty())
+							processor.complete();
+						else
+							lanes.add(processor);
+					} catch (Exception e) {
+						updateMessage(message, Queue.STATUS_FAILED);
+						error("Failed to process message #" + message.getQueueId() +": " + e.getMessage(), e);
+					}
+				}
+			}
+		} catch (Exception ex) {
+			error("Failed to process messages: " + ex.getMessage(), ex);
+			try {
+				// let the messages that are already in progress finish
+				while (lanes.await(pollInterval));
+			} catch (InterruptedException e) {}
+		}
+	}
+	
+	@SuppressWarnings("unchecked")
+	protected List<XmlMessage> getMessages(int maxMessages) throws Exception {
+		if (Queue.isClaimEnabled()) {
+			List<XmlMessage> ret = new ArrayList<XmlMessage>();
+			for (QueueIn qi: QueueInDAO.getInstance().claim(QueueIn.STATUS_READY, Queue.STATUS_PROCESSING, maxMessages)) {
+				// the lease is renewed until the message is finished, see updateMessage
+				LeaseRenewal.getInstance().register("QueueIn", qi.getUniqueId(), Queue.STATUS_PROCESSING);
+				ret.add(new XmlMessage(qi.getUniqueId(), qi.getPostDate(), qi.getXml()));
+			}
+			return ret;
+		}
+		org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+		Transaction tx = hibSession.beginTransaction();
+		try {
+			List<XmlMessage> ret = new ArrayList<XmlMessage>();
+			List<Long> ids = new ArrayList<Long>();
+			for (QueueIn qi: (List<QueueIn>)hibSession.createQuery("from QueueIn where status = :status order by uniqueId")
+					.setString("status", QueueIn.STATUS_READY)
+					.setMaxResults(maxMessages)
+					.list()) {
+				ids.add(qi.getUniqueId());
+				ret.add(new XmlMessage(qi.getUniqueId(), qi.getPostDate(), qi.getXml()));
+			}
+			if (!ids.isEmpty())
+				// only the status is written, not the XML
+				hibSession.createQuery("update QueueIn set status = :status where uniqueId in (:ids)")
+						.setString("status", Queue.STATUS_PROCESSING)
+						.setParameterList("ids", ids)
+						.executeUpdate();
+			tx.commit();
+			return ret;
+		} catch (Exception e) {
+			tx.rollback();
+			throw e;
+		} finally {
+			hibSession.close();
+		}
+	}
+	
+	protected static class StudentRecord {
+		private MessageProcessor iProcessor;
+		private Element iStudentElement;
+		private Lane iLane;
+		
+		StudentRecord(MessageProcessor processor, Element studentElement, Lane lane) {
+			iProcessor = processor;
+			iStudentElement = studentElement;
+			iLane = lane;
+		}
+	}
+	
+	/**
+	 * Records of one student: the records of the messages in progress and the ones that are waiting to be processed.
+	 */
+	protected static class Lane {
+		private String iKey;
+		private List<StudentRecord> iRecords = new ArrayList<StudentRecord>();
+		private List<StudentRecord> iPending = new ArrayList<StudentRecord>();
+		private boolean iBusy = false;
+		
+		Lane(String key) { iKey = key; }
+		
+		boolean hasOtherMessage(MessageProcessor processor) {
+			for (StudentRecord record: iRecords)
+				if (record.iProcessor != processor) return true;
+			return false;
+		}
+	}
+	
+	/**
+	 * Feeds the student records of the messages in progress to the shared thread pool, with up to <code>banner.studentUpdates.nrThreads</code>
+	 * threads. A thread takes up to <code>banner.studentUpdates.chunkSize</code> students that are not being processed by another thread
+	 * and processes their waiting records, so that the records of a student are processed one by one in the order of the messages.
+	 * Records of messages that are added later are picked up by the running threads, there is no barrier between the messages.
+	 */
+	protected class StudentLanes {
+		private Map<String, Lane> iLanes = new HashMap<String, Lane>();
+		private List<Lane> iReady = new LinkedList<Lane>();
+		private Map<MessageProcessor, List<StudentRecord>> iProcessors = new HashMap<MessageProcessor, List<StudentRecord>>();
+		private int iNrThreads, iChunkSize, iActiveThreads = 0, iAnonymous = 0;
+		
+		StudentLanes() {
+			iNrThreads = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.nrThreads", "1")));
+			iChunkSize = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.chunkSize", "10")));
+		}
+		
+		/**
+		 * Number of messages in progress.
+		 */
+		synchronized int getMessageCount() {
+			return iProcessors.size();
+		}
+		
+		/**
+		 * Wait until a message is finished or the given time has elapsed.
+		 * @return false when there are no messages in progress
+		 */
+		synchronized boolean await(long timeout) throws InterruptedException {
+			if (iProcessors.isEmpty()) return false;
+			wait(timeout);
+			return true;
+		}
+		
+		/**
+		 * Add the records of a (prepared) message, start more threads when needed.
+		 */
+		synchronized void add(MessageProcessor processor) {
+			List<StudentRecord> records = new ArrayList<StudentRecord>();
+			List<Lane> ready = new ArrayList<Lane>();
+			for (Element studentElement: processor.iStudentElements) {
+				String key = processor.getStudentKey(studentElement);
+				if (key == null) key = "#" + (iAnonymous++);
+				Lane lane = iLanes.get(key);
+				if (lane == null) {
+					lane = new Lane(key);
+					iLanes.put(key, lane);
+				}
+				if (lane.hasOtherMessage(processor)) {
+					// students with records in more than one message in progress are always processed
+					for (StudentRecord other: lane.iRecords)
+						other.iProcessor.ignoreDigest(other.iStudentElement);
+					processor.ignoreDigest(studentElement);
+				}
+				StudentRecord record = new StudentRecord(processor, studentElement, lane);
+				lane.iRecords.add(record);
+				lane.iPending.add(record);
+				if (!lane.iBusy && lane.iPending.size() == 1) ready.add(lane);
+				records.add(record);
+			}
+			// interleave the students of the new message with the waiting ones, so that it is not stuck behind a large message
+			if (iReady.isEmpty()) {
+				iReady.addAll(ready);
+			} else {
+				ListIterator<Lane> i = iReady.listIterator();
+				for (Lane lane: ready) {
+					if (i.hasNext()) i.next();
+					i.add(lane);
+				}
+			}
+			iProcessors.put(processor, records);
+			info("Processing " + records.size() + " students of message #" + (processor.iMessage == null ? null : processor.iMessage.getQueueId()) +
+					", " + iProcessors.size() + " messages in progress.");
+			startThreads();
+		}
+		
+		/**
+		 * Start more threads when there are students waiting and not all the threads are running.
+		 */
+		private void startThreads() {
+			if (iActiveThreads >= iNrThreads || iActiveThreads >= iReady.size()) return;
+			ExecutorService executor = getExecutor();
+			while (iActiveThreads < iNrThreads && iActiveThreads < iReady.size()) {
+				iActiveThreads ++;
+				executor.submit(new LaneWorker());
+			}
+		}
+		
+		/**
+		 * Take the next chunk of students to process, null when there is nothing more to do (the calling thread ends then).
+		 */
+		synchronized List<Lane> next() {
+			if (iReady.isEmpty()) {
+				iActiveThreads --;
+				return null;
+			}
+			List<Lane> chunk = new ArrayList<Lane>();
+			while (!iReady.isEmpty() && chunk.size() < iChunkSize) {
+				Lane lane = iReady.remove(0);
+				lane.iBusy = true;
+				chunk.add(lane);
+			}
+			return chunk;
+		}
+		
+		/**
+		 * Take the waiting records of a student of the chunk.
+		 */
+		synchronized List<StudentRecord> take(Lane lane) {
+			List<StudentRecord> records = new ArrayList<StudentRecord>(lane.iPending);
+			lane.iPending.clear();
+			return records;
+		}
+		
+		/**
+		 * The chunk has been processed, students with more records waiting are made available again.
+		 */
+		synchronized void release(List<Lane> chunk) {
+			for (Lane lane: chunk) {
+				lane.iBusy = false;
+				if (!lane.iPending.isEmpty())
+					iReady.add(lane);
+				else if (lane.iRecords.isEmpty())
+					iLanes.remove(lane.iKey);
+			}
+			startThreads();
+		}
+		
+		/**
+		 * A message has been finished, forget its records.
+		 */
+		synchronized void finished(MessageProcessor processor) {
+			List<StudentRecord> records = iProcessors.remove(processor);
+			if (records != null)
+				for (StudentRecord record: records) {
+					Lane lane = record.iLane;
+					lane.iRecords.remove(record);
+					if (lane.iRecords.isEmpty() && !lane.iBusy && lane.iPending.isEmpty())
+						iLanes.remove(lane.iKey);
+				}
+			notifyAll();
+		}
+		
+		protected class LaneWorker implements Runnable {
+			private Map<MessageProcessor, MessageProcessor.Worker> iWorkers = new LinkedHashMap<MessageProcessor, MessageProcessor.Worker>();
+			
+			@Override
+			public void run() {
+				org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+				try {
+					List<Lane> chunk = null;
+					while ((chunk = next()) != null) {
+						List<StudentRecord> taken = new ArrayList<StudentRecord>();
+						try {
+							for (Lane lane: chunk) {
+								for (StudentRecord record: take(lane)) {
+									taken.add(record);
+									MessageProcessor.Worker worker = iWorkers.get(record.iProcessor);
+									if (worker == null) {
+										worker = record.iProcessor.new Worker();
+										iWorkers.put(record.iProcessor, worker);
+									}
+									worker.processStudent(record.iStudentElement, hibSession, true);
+								}
+							}
+						} catch (Exception e) {
+							error("Failed to process student records: " + e.getMessage(), e);
+						} finally {
+							// batched students are updated at the end of each chunk, a message is finished only after that
+							for (MessageProcessor.Worker worker: iWorkers.values()) {
+								try {
+									worker.flushPending();
+								} catch (Exception e) {
+									error("Failed to update students: " + e.getMessage(), e);
+								}
+							}
+							for (StudentRecord record: taken)
+								if (record.iProcessor.recordProcessed()) {
+									iWorkers.remove(record.iProcessor);
+									finished(record.iProcessor);
+								}
+							release(chunk);
+						}
+					}
+				} finally {
+					hibSession.close();
+					_RootDAO.closeCurrentThreadSessions();
+				}
+			}
+		}
+	}
+	
 	public void processMessage(Element message) {
 		new MessageProcessor(message).process();
 	}
@@ -337,13 +759,23 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 	}
 	
 	protected class MessageProcessor {
-		long iMaxElementTime = 0, iMinElementTime = 0;
-		int iElementCount = 0;
+		LongAccumulator iMaxElementTime = new LongAccumulator(MAX, 0), iMinElementTime = new LongAccumulator(MIN, Long.MAX_VALUE);
+		LongAdder iElementCount = new LongAdder();
 		boolean iTrimLeadingZerosFromExternalId = ApplicationProperty.DataExchangeTrimLeadingZerosFromExternalIds.isTrue();
-		int iNrThreads;
-		Iterator<?> iStudentElementIterator;
+		int iNrThreads, iBatchSize;
+		List<Element> iStudentElements = new ArrayList<Element>();
+		ConcurrentLinkedQueue<List<Element>> iChunks = new ConcurrentLinkedQueue<List<Element>>();
 		int iStudentElementCount = 0;
 		boolean iCheckSkipStudent;
+		BannerStudentUpdatesPrefetch iPrefetch = null;
+		BannerStudentUpdatesDigest iDigest = null;
+		Map<Element, String> iDigests = null;
+		Set<Element> iUnchanged = Collections.synchronizedSet(Collections.newSetFromMap(new IdentityHashMap<Element, Boolean>()));
+		Map<Element, BannerUpdateStudentAction> iActions = null;
+		long iStartTime, iCrnHits;
+		Map<BannerReferenceRegistry.Type, long[]> iLockStats;
+		XmlMessage iMessage = null;
+		AtomicInteger iRemaining;
 		
 		Set<String> iFailedStudents = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
 		Set<String> iProblemStudents = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
@@ -354,47 +786,231 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 		
 		Set<UpdateRequest> iUpdateRequests = Collections.newSetFromMap(new ConcurrentHashMap<UpdateRequest, Boolean>());
 		Map<Long, Set<Long>> iSession2studentIds = new HashMap<Long, Set<Long>>();
-		Map<Long, List<OfferingCheck>> iSession2OfferingChecks = new HashMap<Long, List<OfferingCheck>>();
+		ConcurrentMap<Long, ConcurrentMap<Long, OfferingCheck>> iSession2OfferingChecks = new ConcurrentHashMap<Long, ConcurrentMap<Long, OfferingCheck>>();
+		ConcurrentMap<Long, ConcurrentLinkedQueue<FutureUpdate>> iFutureUpdates = null;
 		
 		MessageProcessor(Element rootElement) {
 			for (Iterator<?> i = rootElement.elementIterator("student"); i.hasNext(); ) {
+				iStudentElements.add((Element)i.next());
 				iStudentElementCount ++;
-				i.next();
 			}
 			iNrThreads = Math.min(
 					Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.nrThreads", "1")),
 					1 + iStudentElementCount / 10);
-			iStudentElementIterator = rootElement.elementIterator("student");
 			iCheckSkipStudent = "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.studentUpdates.checkSkipStudents", "true"));
+			iRemaining = new AtomicInteger(iStudentElementCount);
+			iBatchSize = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.batchSize", "1")));
+			if ("true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.studentUpdates.futurePass.enabled", "false")))
+				iFutureUpdates = new ConcurrentHashMap<Long, ConcurrentLinkedQueue<FutureUpdate>>();
 		}
 		
-		public void process() {
-			org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+		MessageProcessor(XmlMessage message) {
+			this(message.getContent().getRootElement());
+			iMessage = message;
+		}
+		
+		/**
+		 * Student records of the same student share the same key: Banner term and (trimmed) external id.
+		 */
+		protected String getStudentKey(Element studentElement) {
+			String externalId = studentElement.attributeValue("externalId");
+			String bannerSession = studentElement.attributeValue("session");
+			if (externalId == null || bannerSession == null) return null;
+			while (iTrimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+			return bannerSession + "|" + externalId;
+		}
+		
+		/**
+		 * Process the given student record even when it has not changed, and do not keep its digest.
+		 */
+		protected void ignoreDigest(Element studentElement) {
+			iUnchanged.remove(studentElement);
+			if (iDigest != null) {
+				String externalId = studentElement.attributeValue("externalId");
+				String bannerSession = studentElement.attributeValue("session");
+				if (externalId == null || bannerSession == null) return;
+				while (iTrimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+				iDigest.ignore(bannerSession, externalId);
+			}
+		}
+		
+		/**
+		 * Called by the multi-message scheduler when a student record is processed, the message is finished with the last one.
+		 * @return true when the message has been finished
+		 */
+		protected boolean recordProcessed() {
+			if (iRemaining.decrementAndGet() > 0) return false;
+			complete();
+			return true;
+		}
+		
+		/**
+		 * Finish the message and report its status back to the queue.
+		 */
+		protected void complete() {
 			try {
-				long start = System.currentTimeMillis();
-				if (iNrThreads <= 1 || iStudentElementCount < 10) {
+				finish();
+				if (iMessage != null && updateMessage(iMessage, Queue.STATUS_PROCESSED))
+					info("Message #" + iMessage.getQueueId() + " processed.");
+			} catch (Exception e) {
+				if (iMessage != null) {
+					error("Failed to process message #" + iMessage.getQueueId() +": " + e.getMessage(), e);
+					try {
+						updateMessage(iMessage, Queue.STATUS_FAILED);
+					} catch (Exception f) {
+						error("Failed to update message #" + iMessage.getQueueId() + ": " + f.getMessage(), f);
+					}
+				}
+			}
+		}
+		
+		/**
+		 * Create the update actions of all students of the message and load everything they reference into a shared lookup.
+		 * The actions are kept so that the message is only parsed once.
+		 */
+		protected void prefetch(org.hibernate.Session hibSession) {
+			BannerStudentUpdatesPrefetch prefetch = new BannerStudentUpdatesPrefetch();
+			Map<Element, BannerUpdateStudentAction> actions = new IdentityHashMap<Element, BannerUpdateStudentAction>();
+			for (Element studentElement: iStudentElements) {
+				if (iUnchanged.contains(studentElement)) continue;
+				String externalId = studentElement.attributeValue("externalId");
+				String bannerSession = studentElement.attributeValue("session");
+				if (externalId == null || bannerSession == null) continue;
+				while (iTrimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+				BannerUpdateStudentAction update = generateUpdateAction(studentElement, externalId, bannerSession, iTrimLeadingZerosFromExternalId);
+				actions.put(studentElement, update);
+				if (update != null) update.collect(prefetch);
+			}
+			try {
+				prefetch.load(hibSession);
+				iPrefetch = prefetch;
+				info("Prefetched " + prefetch.getStudentCount() + " existing students in " + prefetch.getSessionCount() + " academic sessions in " + prefetch.getLoadTime() + " milliseconds.");
+			} catch (Exception e) {
+				error("Failed to prefetch student data: " + e.getMessage(), e);
+			}
+			iActions = actions;
+		}
+		
+		public void process() {
+			prepare();
+			if (iNrThreads <= 1 || iStudentElementCount < 10) {
+				org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+				try {
 					Worker worker = new Worker();
-					while (iStudentElementIterator.hasNext()) {
-						Element studentElement = (Element) iStudentElementIterator.next();
+					for (Element studentElement: iStudentElements)
 						worker.processStudent(studentElement, hibSession, false);
+					worker.flushPending();
+				} finally {
+					hibSession.close();
+				}
+			} else {
+				// students are handed out to the workers in chunks
+				int chunkSize = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.chunkSize", "10")));
+				for (int i = 0; i < iStudentElements.size(); i += chunkSize)
+					iChunks.add(iStudentElements.subList(i, Math.min(i + chunkSize, iStudentElements.size())));
+				ExecutorService executor = getExecutor();
+				List<Future<?>> workers = new ArrayList<Future<?>>();
+				for (int i = 0; i < iNrThreads; i++)
+					workers.add(executor.submit(new Worker()));
+				for (Future<?> worker: workers) {
+					try {
+						worker.get();
+					} catch (InterruptedException e) {
+					} catch (ExecutionException e) {
+						error("Student updates worker failed: " + e.getCause().getMessage(), e.getCause());
 					}
-				} else {
-					List<Thread> workers = new ArrayList<Thread>();
-					for (int i = 0; i < iNrThreads; i++) {
-						Thread t = new Thread(new Worker());
-						t.setName("BannerStudentUpdates-" + (1 + i));
-						workers.add(t);
-					}
-					for (Thread worker: workers) worker.start();
-					for (Thread worker: workers) {
-						try {
-							worker.join();
-						} catch (InterruptedException e) {}
-					}
 				}
-				for (Map.Entry<Long, List<OfferingCheck>> e: iSession2OfferingChecks.entrySet()) {
+			}
+			finish();
+		}
+		
+		/**
+		 * Start the clock and prefetch the data of the message (when enabled).
+		 */
+		protected void prepare() {
+			iStartTime = System.currentTimeMillis();
+			iCrnHits = BannerCrnClassCache.getHitCount();
+			iLockStats = BannerReferenceRegistry.getStatisticsSnapshot();
+			if (BannerStudentUpdatesDigest.isEnabled()) {
+				org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+				try {
+					digest(hibSession);
+				} finally {
+					hibSession.close();
+				}
+			}
+			if (BannerStudentUpdatesPrefetch.isEnabled()) {
+				org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+				try {
+					prefetch(hibSession);
+				} finally {
+					hibSession.close();
+				}
+			}
+		}
+		
+		/**
+		 * Compute the digests of the student records of the message and find the ones that have not changed since they were last applied.
+		 */
+		protected void digest(org.hibernate.Session hibSession) {
+			BannerStudentUpdatesDigest digest = new BannerStudentUpdatesDigest();
+			List<Element> studentElements = new ArrayList<Element>();
+			for (Element studentElement: iStudentElements) {
+				String externalId = studentElement.attributeValue("externalId");
+				String bannerSession = studentElement.attributeValue("session");
+				if (externalId == null || bannerSession == null) continue;
+				while (iTrimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+				studentElements.add(studentElement);
+				digest.addStudent(bannerSession, externalId, studentElement);
+			}
+			Map<String, Integer> records = new HashMap<String, Integer>();
+			for (Element studentElement: studentElements) {
+				String key = getStudentKey(studentElement);
+				Integer count = records.get(key);
+				records.put(key, count == null ? 1 : count + 1);
+			}
+			try {
+				digest.load(hibSession);
+				// the digests include the UniTime mapping of the CRNs, which is loaded above
+				Map<Element, String> digests = new IdentityHashMap<Element, String>();
+				for (Element studentElement: studentElements)
+					digests.put(studentElement, digest.digest(studentElement.attributeValue("session"), studentElement));
+				for (Map.Entry<Element, String> e: digests.entrySet()) {
+					// a student with more than one record in the message is always processed
+					if (records.get(getStudentKey(e.getKey())) > 1) continue;
+					String externalId = e.getKey().attributeValue("externalId");
+					while (iTrimLeadingZerosFromExternalId && externalId.startsWith("0")) externalId = externalId.substring(1);
+					if (digest.isUnchanged(e.getKey().attributeValue("session"), externalId, e.getValue()))
+						iUnchanged.add(e.getKey());
+				}
+				iDigest = digest;
+				iDigests = digests;
+				info(iUnchanged.size() + " of " + digests.size() + " student records have not changed since they were last applied (checked in " + digest.getLoadTime() + " milliseconds).");
+			} catch (Exception e) {
+				error("Failed to load student digests: " + e.getMessage(), e);
+			}
+		}
+		
+		/**
+		 * Run the offering checks, log the statistics and notify the online sectioning servers about the changed students.
+		 */
+		protected void finish() {
+			processFutureUpdates();
+			if (iDigest != null) {
+				// digests are only kept for the students that were processed without failures and problems
+				Set<String> skip = new HashSet<String>(iFailedStudents);
+				skip.addAll(iProblemStudents);
+				for (String student: iFailedFutureStudents)
+					skip.add(student.indexOf(" (") >= 0 ? student.substring(0, student.indexOf(" (")) : student);
+				for (String student: iProblemFutureStudents)
+					skip.add(student.indexOf(" (") >= 0 ? student.substring(0, student.indexOf(" (")) : student);
+				iDigest.save(skip);
+			}
+			org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+			try {
+				for (Map.Entry<Long, ConcurrentMap<Long, OfferingCheck>> e: iSession2OfferingChecks.entrySet()) {
 					Long sessionId = e.getKey();
-					List<OfferingCheck> offeringChecks = e.getValue();
+					Collection<OfferingCheck> offeringChecks = e.getValue().values();
 					try {
 						OnlineSectioningServer server = (iContainer == null ? null : iContainer.getSolver(sessionId.toString()));
 						if (server != null && server.isReady()) {
@@ -408,13 +1024,20 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 					}
 				}
 				long end = System.currentTimeMillis();
-				info(iUpdatedStudents.size() + " student records updated in " + (end - start)+ " milliseconds (" + iNrThreads + " threads used).");
+				info(iUpdatedStudents.size() + " student records updated in " + (end - iStartTime)+ " milliseconds (" + iNrThreads + " threads used).");
 				info(iFailedStudents.size() + " student records failed to update.");
 				info(iProblemStudents.size() + " student records were updated, but had problems.");
-				if (iElementCount > 0) {
-					info("Minimum milliseconds required to process a record = " + iMinElementTime);
-					info("Maximum milliseconds required to process a record = " + iMaxElementTime);
-					info("Average milliseconds required to process a record = " + ((end - start)/iElementCount));
+				if (!iUnchanged.isEmpty())
+					info(iUnchanged.size() + " student records were skipped as unchanged.");
+				if (iElementCount.sum() > 0) {
+					info("Minimum milliseconds required to process a record = " + iMinElementTime.get());
+					info("Maximum milliseconds required to process a record = " + iMaxElementTime.get());
+					info("Average milliseconds required to process a record = " + ((end - iStartTime)/iElementCount.sum()));
+					if (BannerCrnClassCache.isEnabled())
+						info("CRN lookups served from the CRN cache = " + (BannerCrnClassCache.getHitCount() - iCrnHits));
+					String locks = BannerReferenceRegistry.getStatisticsDiff(iLockStats);
+					if (locks != null)
+						info("Reference entity locks: " + locks);
 				}
 				if (!iUpdatedFutureStudents.isEmpty())
 					info(iUpdatedFutureStudents.size() + " future student records updated.");
@@ -445,6 +1068,7 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 					}
 					QueueOut out = new QueueOut();
 					out.setXml(document);
+					out.updateMetadata();
 					out.setStatus(QueueOut.STATUS_READY);
 					out.setPostDate(new Date());
 					hibSession.save(out);
@@ -458,6 +1082,7 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 		
 		protected class Worker implements Runnable {
 			Map<String, List<BannerSession>> iSession2ids = new HashMap<String, List<BannerSession>>();
+			Map<Long, List<PendingUpdate>> iPending = new HashMap<Long, List<PendingUpdate>>();
 			
 			public Worker() {}
 			
@@ -465,14 +1090,12 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 		    public void run() {
 				org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
 				try {
-					while (true) {
-						Element studentElement = null;
-						synchronized (iStudentElementIterator) {
-							if (!iStudentElementIterator.hasNext()) break;
-							studentElement = (Element)iStudentElementIterator.next();
-						}
-						processStudent(studentElement, hibSession, true);
+					List<Element> chunk = null;
+					while ((chunk = iChunks.poll()) != null) {
+						for (Element studentElement: chunk)
+							processStudent(studentElement, hibSession, true);
 					}
+					flushPending();
 				} finally {
 					hibSession.close();
 					_RootDAO.closeCurrentThreadSessions();
@@ -491,6 +1114,9 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 			}
 			
 			protected boolean hasStudent(BannerSession session, String externalId, org.hibernate.Session hibSession) {
+				// the prefetch may miss a student created since it was loaded, only a hit can be trusted
+				if (iPrefetch != null && iPrefetch.hasStudent(session.getSession().getUniqueId(), externalId))
+					return true;
 				return ((Number)hibSession.createQuery(
 						"select count(s) from Student s where s.externalUniqueId = :externalId and s.session = :sessionId"
 						).setString("externalId", externalId).setLong("sessionId", session.getSession().getUniqueId())
@@ -512,11 +1138,21 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 						error("[" + externalId + "] No session was given for a student.");
 						return;
 					}
+					if (iUnchanged.contains(studentElement)) {
+						debug("[" + externalId + "] Skipping unchanged student record.");
+						return;
+					}
+					if (iDigest != null) iDigest.applied(bannerSession, externalId, iDigests.get(studentElement));
 					List<BannerSession> sessionIds = getBannerSessions(bannerSession, hibSession);
 					
-					BannerUpdateStudentAction update = generateUpdateAction(studentElement, externalId, bannerSession, iTrimLeadingZerosFromExternalId);
+					BannerUpdateStudentAction update = null;
+					if (iActions != null && iActions.containsKey(studentElement))
+						update = iActions.get(studentElement);
+					else
+						update = generateUpdateAction(studentElement, externalId, bannerSession, iTrimLeadingZerosFromExternalId);
 					if (update == null) return;
 					if (locking) update.withLocking();
+					if (iPrefetch != null) update.withPrefetch(iPrefetch);
 					
 					for (BannerSession bs: sessionIds) {
 						if (!update.isApplicable(bs)) {
@@ -538,6 +1174,10 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 								} finally {
 									_RootDAO.closeCurrentThreadSessions();
 								}
+							} else if (iBatchSize > 1) {
+								// updated together with other students of the session, see flushPending()
+								addPending(sessionId, new PendingUpdate(studentElement, externalId, bannerSession, bs, update));
+								continue;
 							} else {
 								OnlineSectioningHelper h = new OnlineSectioningHelper(QueueInDAO.getInstance().createNewSession(), user(), CacheMode.REFRESH);
 								try {
@@ -548,107 +1188,308 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 									h.getHibSession().close();
 								}
 							}
-							if (result != null) {
-								switch (result.getStatus()) {
-								case OK:
-									iUpdatedStudents.add(externalId);
-									break;
-								case FAILURE:
-									iFailedStudents.add(externalId);
-									break;
-								case PROBLEM:
-									iProblemStudents.add(externalId);
-									break;
-								case NO_CHANGE:
-								}
-							}
 						} catch (Exception e) {
 							error("[" + externalId + "] Failed to update student: " + e.getMessage(), e);
 							iFailedStudents.add(externalId);
 						}
-						// Update future terms as needed
-						if (result != null && (result.getStatus() == Status.OK || result.getStatus() == Status.PROBLEM) &&
-								result.has(Change.CREATED, Change.DEMOGRAPHICS, Change.GROUPS, Change.ADVISORS)) {
-							if (bs.getFutureSessionUpdateMode() == FutureSessionUpdateMode.SEND_REQUEST && bs.getFutureSession() != null) {
-								iUpdateRequests.add(new UpdateRequest(externalId, bs.getFutureSession().getBannerTermCode()));
-							} else if (bs.getFutureSessionUpdateMode() == FutureSessionUpdateMode.DIRECT_UPDATE) {
+						studentUpdated(studentElement, externalId, bannerSession, bs, update, result);
+					}
+				} finally {
+					updateElementCount(t0);
+				}
+			}
+			
+			/**
+			 * Record the result of a student update and update the future sessions as needed.
+			 */
+			protected void studentUpdated(Element studentElement, String externalId, String bannerSession, BannerSession bs, BannerUpdateStudentAction update, UpdateResult result) {
+				if (result == null) return;
+				if (iPrefetch != null && result.has(Change.CREATED))
+					iPrefetch.studentCreated(bs.getSession().getUniqueId(), externalId, result.getStudentId());
+				switch (result.getStatus()) {
+				case OK:
+					iUpdatedStudents.add(externalId);
+					break;
+				case FAILURE:
+					iFailedStudents.add(externalId);
+					break;
+				case PROBLEM:
+					iProblemStudents.add(externalId);
+					break;
+				case NO_CHANGE:
+				}
+				// Update future terms as needed
+				if ((result.getStatus() == Status.OK || result.getStatus() == Status.PROBLEM) &&
+						result.has(Change.CREATED, Change.DEMOGRAPHICS, Change.GROUPS, Change.ADVISORS)) {
+					if (bs.getFutureSessionUpdateMode() == FutureSessionUpdateMode.SEND_REQUEST && bs.getFutureSession() != null) {
+						iUpdateRequests.add(new UpdateRequest(externalId, bs.getFutureSession().getBannerTermCode()));
+					} else if (bs.getFutureSessionUpdateMode() == FutureSessionUpdateMode.DIRECT_UPDATE) {
+						if (iFutureUpdates != null || iBatchSize > 1) {
+							// future sessions are updated with an action of their own, the update action may still be waiting for other campuses
+							if (bs.getFutureSession() == null) return;
+							BannerUpdateStudentAction futureUpdate = generateUpdateAction(studentElement, externalId, bannerSession, iTrimLeadingZerosFromExternalId);
+							if (iPrefetch != null) futureUpdate.withPrefetch(iPrefetch);
+							if (iFutureUpdates != null) {
+								// updated in a separate pass, see processFutureUpdates()
+								addFutureUpdate(iFutureUpdates, new FutureUpdate(externalId, bs.getFutureSession().getUniqueId(), futureUpdate));
+							} else {
 								BannerSession future = bs.getFutureSession();
 								while (future != null) {
-									update.forStudent(externalId, future.getBannerTermCode()).skipClassUpdates();
-									sessionId = future.getSession().getUniqueId();
+									UpdateResult futureResult = updateFutureStudent(externalId, future, futureUpdate);
+									future = nextFutureSession(future, futureResult);
+								}
+							}
+						} else {
+							BannerSession future = bs.getFutureSession();
+							while (future != null) {
+								UpdateResult futureResult = updateFutureStudent(externalId, future, update);
+								future = nextFutureSession(future, futureResult);
+							}
+						}
+					}
+				}
+			}
+			
+			protected void addPending(Long sessionId, PendingUpdate update) {
+				List<PendingUpdate> pending = iPending.get(sessionId);
+				if (pending == null) {
+					pending = new ArrayList<PendingUpdate>();
+					iPending.put(sessionId, pending);
+				} else {
+					// a student can only be updated once in a batch
+					for (PendingUpdate p: pending)
+						if (p.iExternalId.equals(update.iExternalId)) {
+							flushPending(sessionId);
+							pending = new ArrayList<PendingUpdate>();
+							iPending.put(sessionId, pending);
+							break;
+						}
+				}
+				pending.add(update);
+				if (pending.size() >= iBatchSize) flushPending(sessionId);
+			}
+			
+			/**
+			 * Update the waiting students of the given academic session using one helper, one Hibernate session and one transaction
+			 * (see {@link BannerUpdateStudentAction#execute(List, Long, OnlineSectioningHelper)}).
+			 */
+			protected void flushPending(Long sessionId) {
+				List<PendingUpdate> pending = iPending.remove(sessionId);
+				if (pending == null || pending.isEmpty()) return;
+				List<BannerUpdateStudentAction> updates = new ArrayList<BannerUpdateStudentAction>();
+				for (PendingUpdate p: pending) updates.add(p.iUpdate);
+				List<UpdateResult> results = null;
+				OnlineSectioningHelper h = new OnlineSectioningHelper(QueueInDAO.getInstance().createNewSession(), user(), CacheMode.REFRESH);
+				try {
+					h.addMessageHandler(BannerStudentUpdates.this);
+					results = BannerUpdateStudentAction.execute(updates, sessionId, h);
+				} catch (Exception e) {
+					error("Failed to update " + pending.size() + " students: " + e.getMessage(), e);
+					for (PendingUpdate p: pending) iFailedStudents.add(p.iExternalId);
+					return;
+				} finally {
+					h.getHibSession().close();
+				}
+				for (int i = 0; i < pending.size(); i++) {
+					PendingUpdate p = pending.get(i);
+					UpdateResult result = results.get(i);
+					if (!result.isQueued()) notifyStudentChanged(sessionId, result);
+					try {
+						studentUpdated(p.iStudentElement, p.iExternalId, p.iBannerSession, p.iSession, p.iUpdate, result);
+					} catch (Exception e) {
+						error("[" + p.iExternalId + "] Failed to update student: " + e.getMessage(), e);
+						iFailedStudents.add(p.iExternalId);
+					}
+				}
+			}
+			
+			/**
+			 * Update all waiting students.
+			 */
+			protected void flushPending() {
+				for (Long sessionId: new ArrayList<Long>(iPending.keySet()))
+					flushPending(sessionId);
+			}
+		}
+		
+		/**
+		 * Update the student in the given future session (demographics only, class updates are skipped).
+		 * @return result of the update, null when the update failed
+		 */
+		protected UpdateResult updateFutureStudent(String externalId, BannerSession future, BannerUpdateStudentAction update) {
+			update.forStudent(externalId, future.getBannerTermCode()).skipClassUpdates();
+			Long sessionId = future.getSession().getUniqueId();
+			try {
+				UpdateResult result = null;
+				OnlineSectioningServer server = (iContainer == null ? null : iContainer.getSolver(sessionId.toString()));
+				if (server != null && server.isReady()) {
+					try {
+						result = server.execute(update, user());
+						checkForOfferingChecks(sessionId, result);
+					} finally {
+						_RootDAO.closeCurrentThreadSessions();
+					}
+				} else {
+					OnlineSectioningHelper h = new OnlineSectioningHelper(QueueInDAO.getInstance().createNewSession(), user(), CacheMode.REFRESH);
+					try {
+						h.addMessageHandler(BannerStudentUpdates.this);
+						result = update.execute(sessionId, h);
+						notifyStudentChanged(sessionId, result);
+					} finally {
+						h.getHibSession().close();
+					}
+				}
+				switch (result.getStatus()) {
+				case OK:
+					iUpdatedFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
+					break;
+				case FAILURE:
+					iFailedFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
+					break;
+				case PROBLEM:
+					iProblemFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
+					break;
+				case NO_CHANGE:
+				}
+				return result;
+			} catch (Exception e) {
+				error("[" + externalId + "] Failed to update future student: " + e.getMessage(), e);
+				iFailedFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
+				return null;
+			}
+		}
+		
+		/**
+		 * The future session that is to be updated next (after the given future session has been updated), null if there is none.
+		 */
+		protected BannerSession nextFutureSession(BannerSession future, UpdateResult result) {
+			if (result == null) return null;
+			if (result.getStatus() != Status.OK && result.getStatus() != Status.PROBLEM) return null;
+			if (!result.has(Change.CREATED, Change.DEMOGRAPHICS, Change.GROUPS, Change.ADVISORS)) return null;
+			if (future.getFutureSessionUpdateMode() != FutureSessionUpdateMode.DIRECT_UPDATE) return null;
+			return future.getFutureSession();
+		}
+		
+		protected void addFutureUpdate(ConcurrentMap<Long, ConcurrentLinkedQueue<FutureUpdate>> futureUpdates, FutureUpdate update) {
+			ConcurrentLinkedQueue<FutureUpdate> updates = futureUpdates.get(update.getBannerSessionId());
+			if (updates == null) {
+				updates = new ConcurrentLinkedQueue<FutureUpdate>();
+				ConcurrentLinkedQueue<FutureUpdate> previous = futureUpdates.putIfAbsent(update.getBannerSessionId(), updates);
+				if (previous != null) updates = previous;
+			}
+			updates.add(update);
+		}
+		
+		/**
+		 * Update the students in their future sessions, once the current sessions are done. The updates are grouped by the
+		 * future session and processed in chunks on the shared thread pool, the updates of one student in the order in which
+		 * they were received. Students that need to be updated in the next future session are collected for the next round.
+		 * The calling thread takes part in the processing, so the pass can be started from a pool thread as well.
+		 */
+		protected void processFutureUpdates() {
+			if (iFutureUpdates == null || iFutureUpdates.isEmpty()) return;
+			long t0 = System.currentTimeMillis();
+			int nrThreads = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.nrThreads", "1")));
+			int chunkSize = Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.chunkSize", "10")));
+			int count = 0;
+			ConcurrentMap<Long, ConcurrentLinkedQueue<FutureUpdate>> level = iFutureUpdates;
+			while (!level.isEmpty()) {
+				ConcurrentMap<Long, ConcurrentLinkedQueue<FutureUpdate>> next = new ConcurrentHashMap<Long, ConcurrentLinkedQueue<FutureUpdate>>();
+				ConcurrentLinkedQueue<List<List<FutureUpdate>>> chunks = new ConcurrentLinkedQueue<List<List<FutureUpdate>>>();
+				for (ConcurrentLinkedQueue<FutureUpdate> updates: level.values()) {
+					Map<String, List<FutureUpdate>> students = new LinkedHashMap<String, List<FutureUpdate>>();
+					for (FutureUpdate update: updates) {
+						List<FutureUpdate> studentUpdates = students.get(update.getExternalId());
+						if (studentUpdates == null) {
+							studentUpdates = new ArrayList<FutureUpdate>();
+							students.put(update.getExternalId(), studentUpdates);
+						}
+						studentUpdates.add(update);
+						if (nrThreads > 1) update.getAction().withLocking();
+						count ++;
+					}
+					List<List<FutureUpdate>> chunk = new ArrayList<List<FutureUpdate>>();
+					for (List<FutureUpdate> studentUpdates: students.values()) {
+						chunk.add(studentUpdates);
+						if (chunk.size() >= chunkSize) {
+							chunks.add(chunk);
+							chunk = new ArrayList<List<FutureUpdate>>();
+						}
+					}
+					if (!chunk.isEmpty()) chunks.add(chunk);
+				}
+				CountDownLatch done = new CountDownLatch(chunks.size());
+				ExecutorService executor = getExecutor();
+				for (int i = 1; i < Math.min(nrThreads, chunks.size()); i++)
+					executor.submit(new FutureUpdateWorker(chunks, next, done));
+				new FutureUpdateWorker(chunks, next, done).run();
+				try {
+					done.await();
+				} catch (InterruptedException e) {
+					break;
+				}
+				level = next;
+			}
+			iFutureUpdates.clear();
+			info(count + " future student records processed in " + (System.currentTimeMillis() - t0) + " milliseconds.");
+		}
+		
+		/**
+		 * Processes chunks of future session updates, see {@link MessageProcessor#processFutureUpdates()}.
+		 */
+		protected class FutureUpdateWorker implements Runnable {
+			private ConcurrentLinkedQueue<List<List<FutureUpdate>>> iChunks;
+			private ConcurrentMap<Long, ConcurrentLinkedQueue<FutureUpdate>> iNext;
+			private CountDownLatch iDone;
+			
+			FutureUpdateWorker(ConcurrentLinkedQueue<List<List<FutureUpdate>>> chunks, ConcurrentMap<Long, ConcurrentLinkedQueue<FutureUpdate>> next, CountDownLatch done) {
+				iChunks = chunks; iNext = next; iDone = done;
+			}
+			
+			@Override
+			public void run() {
+				org.hibernate.Session hibSession = QueueInDAO.getInstance().createNewSession();
+				try {
+					List<List<FutureUpdate>> chunk = null;
+					while ((chunk = iChunks.poll()) != null) {
+						try {
+							for (List<FutureUpdate> updates: chunk) {
+								for (FutureUpdate update: updates) {
+									BannerSession future = null;
 									try {
-										OnlineSectioningServer server = (iContainer == null ? null : iContainer.getSolver(sessionId.toString()));
-										if (server != null && server.isReady()) {
-											try {
-												result = server.execute(update, user());
-												checkForOfferingChecks(sessionId, result);
-											} finally {
-												_RootDAO.closeCurrentThreadSessions();
-											}
-										} else {
-											OnlineSectioningHelper h = new OnlineSectioningHelper(QueueInDAO.getInstance().createNewSession(), user(), CacheMode.REFRESH);
-											try {
-												h.addMessageHandler(BannerStudentUpdates.this);
-												result = update.execute(sessionId, h);
-												notifyStudentChanged(sessionId, result);
-											} finally {
-												h.getHibSession().close();
-											}
-										}
-										switch (result.getStatus()) {
-										case OK:
-											iUpdatedFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
-											break;
-										case FAILURE:
-											iFailedFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
-											break;
-										case PROBLEM:
-											iProblemFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
-											break;
-										case NO_CHANGE:
-										}
+										future = BannerSessionDAO.getInstance().get(update.getBannerSessionId(), hibSession);
+										if (future == null) continue;
+										UpdateResult result = updateFutureStudent(update.getExternalId(), future, update.getAction());
+										BannerSession following = nextFutureSession(future, result);
+										if (following != null)
+											addFutureUpdate(iNext, new FutureUpdate(update.getExternalId(), following.getUniqueId(), update.getAction()));
 									} catch (Exception e) {
-										error("[" + externalId + "] Failed to update future student: " + e.getMessage(), e);
-										iFailedFutureStudents.add(externalId + " (" + future.getBannerTermCode() + ")");
-										break;
+										error("[" + update.getExternalId() + "] Failed to update future student: " + e.getMessage(), e);
+										iFailedFutureStudents.add(update.getExternalId() + " (" + (future == null ? update.getBannerSessionId() : future.getBannerTermCode()) + ")");
 									}
-										
-									if (result.getStatus() != Status.OK && result.getStatus() != Status.PROBLEM) break;
-									if (!result.has(Change.CREATED, Change.DEMOGRAPHICS, Change.GROUPS, Change.ADVISORS)) break;
-									if (future.getFutureSessionUpdateMode() != FutureSessionUpdateMode.DIRECT_UPDATE) {
-										if (future.getFutureSessionUpdateMode() == FutureSessionUpdateMode.DIRECT_UPDATE)
-											iUpdateRequests.add(new UpdateRequest(externalId, future.getFutureSession().getBannerTermCode()));	
-										break;
-									}
-									future = future.getFutureSession();
 								}
 							}
+						} finally {
+							iDone.countDown();
 						}
 					}
 				} finally {
-					updateElementCount(t0);
+					hibSession.close();
+					_RootDAO.closeCurrentThreadSessions();
 				}
 			}
 		}
 		
 		protected void checkForOfferingChecks(Long sessionId, UpdateResult result) {
 			if (result != null && result.hasOfferingChecks()) {
-				synchronized (iSession2OfferingChecks) {
-					List<OfferingCheck> checks = iSession2OfferingChecks.get(sessionId);
-					if (checks == null) {
-						checks = new ArrayList<OfferingCheck>();
-						iSession2OfferingChecks.put(sessionId, checks);
-					}
-					for (OfferingCheck ch: result.getOfferingChecks()) {
-						boolean added = false;
-						for (OfferingCheck check: checks) {
-							if (check.merge(ch)) { added = true; break; }
-						}
-						if (!added) {
-							checks.add(ch);
-						}
-					}
+				ConcurrentMap<Long, OfferingCheck> checks = iSession2OfferingChecks.get(sessionId);
+				if (checks == null) {
+					checks = new ConcurrentHashMap<Long, OfferingCheck>();
+					ConcurrentMap<Long, OfferingCheck> previous = iSession2OfferingChecks.putIfAbsent(sessionId, checks);
+					if (previous != null) checks = previous;
 				}
+				for (OfferingCheck ch: result.getOfferingChecks())
+					checks.merge(ch.getOfferingId(), ch, MERGE_CHECKS);
 			}
 		}
 		
@@ -667,15 +1508,9 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 		
 		protected void updateElementCount(long t0) {
 			long time = (System.currentTimeMillis() - t0);
-			synchronized (iStudentElementIterator) {
-				if (iElementCount == 0 || time < iMinElementTime) {
-					iMinElementTime = time;
-				}
-				if (iElementCount == 0 || time > iMaxElementTime) {
-					iMaxElementTime = time;
-				}
-				iElementCount ++;
-			}
+			iMinElementTime.accumulate(time);
+			iMaxElementTime.accumulate(time);
+			iElementCount.increment();
 		}
 	}
 
@@ -747,6 +1582,38 @@ public class BannerStudentUpdates extends BaseImport implements MessageHandler {
 		public Document getContent() { return iContent; }
 	}
 	
+	protected static class PendingUpdate {
+		private Element iStudentElement;
+		private String iExternalId;
+		private String iBannerSession;
+		private BannerSession iSession;
+		private BannerUpdateStudentAction iUpdate;
+		
+		PendingUpdate(Element studentElement, String externalId, String bannerSession, BannerSession session, BannerUpdateStudentAction update) {
+			iStudentElement = studentElement;
+			iExternalId = externalId;
+			iBannerSession = bannerSession;
+			iSession = session;
+			iUpdate = update;
+		}
+	}
+	
+	protected static class FutureUpdate {
+		private String iExternalId;
+		private Long iBannerSessionId;
+		private BannerUpdateStudentAction iAction;
+		
+		FutureUpdate(String externalId, Long bannerSessionId, BannerUpdateStudentAction action) {
+			iExternalId = externalId;
+			iBannerSessionId = bannerSessionId;
+			iAction = action;
+		}
+		
+		public String getExternalId() { return iExternalId; }
+		public Long getBannerSessionId() { return iBannerSessionId; }
+		public BannerUpdateStudentAction getAction() { return iAction; }
+	}
+	
 	protected static class UpdateRequest {
 		private String iBannerTerm;
 		private String iExternalId;
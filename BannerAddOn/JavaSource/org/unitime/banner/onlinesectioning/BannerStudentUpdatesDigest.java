@@ -0,0 +1,437 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.onlinesectioning;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.dom4j.Attribute;
+import org.dom4j.Element;
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.unitime.banner.model.BannerSectionClasses;
+import org.unitime.banner.model.BannerStudentDigest;
+import org.unitime.banner.model.dao.BannerStudentDigestDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Digests of the student records of the student updates that were last applied, so that a record that has not changed since
+ * (Banner keeps sending the whole population) can be skipped before any database work.<br>
+ * <br>
+ * The digest is a SHA-256 hash of the student element with its attributes sorted and white space trimmed, together with the
+ * course offering and class ids that the CRNs of the record are mapped to in UniTime. A record is therefore processed again when
+ * the enrollment it maps to has changed on the UniTime side (e.g., a CRN was assigned to a different section, a class was added
+ * to or removed from a section, or the term was rolled forward), even when Banner sends the same record. It is kept in the
+ * <code>banner_student_digest</code> table for each Banner term and student external id. A stored digest is not used
+ * (and the record is processed again) when
+ * <ul>
+ * <li>the student no longer exists in any academic session of the term,</li>
+ * <li>the student has been changed in UniTime since the digest was stored (there is an online sectioning log record of the student
+ * in an academic session of the term that was not made by the student updates),</li>
+ * <li>the class enrollments of the student in the academic sessions of the term differ from the ones at the time the digest was stored
+ * (this catches the changes that are not logged, e.g., student updates made with no online sectioning server, data imports, or
+ * changes made directly in the database),</li>
+ * <li>the digest is older than <code>banner.studentUpdates.digest.maxAge</code> days, or</li>
+ * <li><code>banner.studentUpdates.digest.forceRefresh</code> is set to true.</li>
+ * </ul>
+ * A digest is only stored for a record that was processed without failures and problems. Digests that have not been applied for
+ * <code>banner.studentUpdates.digest.purgeAge</code> days (defaults to the max age) are deleted, at most once a day.
+ */
+public class BannerStudentUpdatesDigest {
+	private Map<String, Set<String>> iTerm2ExternalIds = new HashMap<String, Set<String>>();
+	private Map<String, Set<Integer>> iTerm2Crns = new HashMap<String, Set<Integer>>();
+	private Map<String, Map<Integer, String>> iTerm2Mappings = new HashMap<String, Map<Integer, String>>();
+	private Map<String, String> iStored = new HashMap<String, String>();
+	private Map<String, String> iApplied = new ConcurrentHashMap<String, String>();
+	private Set<String> iConflicts = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private long iLoadTime = 0;
+	private static long sLastPurge = 0;
+
+	/**
+	 * The digests are used when <code>banner.studentUpdates.digest.enabled</code> is set to true.
+	 */
+	public static boolean isEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.studentUpdates.digest.enabled", "false"));
+	}
+
+	/**
+	 * Process all records (the digests are still stored) when <code>banner.studentUpdates.digest.forceRefresh</code> is set to true.
+	 */
+	public static boolean isForceRefresh() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.studentUpdates.digest.forceRefresh", "false"));
+	}
+
+	/**
+	 * Digests older than the given number of milliseconds are not used (<code>banner.studentUpdates.digest.maxAge</code> in days, 0 for no limit).
+	 */
+	public static long getMaxAge() {
+		return 24l * 3600000l * Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.digest.maxAge", "7"));
+	}
+
+	/**
+	 * Digests that have not been applied for the given number of milliseconds are deleted (<code>banner.studentUpdates.digest.purgeAge</code> in days,
+	 * defaults to <code>banner.studentUpdates.digest.maxAge</code>, 0 to keep all digests).
+	 */
+	public static long getPurgeAge() {
+		return 24l * 3600000l * Integer.parseInt(ApplicationProperties.getProperty("banner.studentUpdates.digest.purgeAge",
+				ApplicationProperties.getProperty("banner.studentUpdates.digest.maxAge", "7")));
+	}
+
+	protected static String key(String termCode, String externalId) {
+		return termCode + "|" + externalId;
+	}
+
+	/**
+	 * Digest of the given student element of the given Banner term, including the UniTime mapping of its CRNs (as loaded by {@link #load(Session)}).
+	 */
+	public String digest(String termCode, Element studentElement) {
+		StringBuilder canonical = new StringBuilder();
+		canonicalize(studentElement, canonical);
+		Map<Integer, String> mappings = iTerm2Mappings.get(termCode);
+		for (Integer crn: new TreeSet<Integer>(getCrns(studentElement))) {
+			String mapping = (mappings == null ? null : mappings.get(crn));
+			canonical.append("[").append(crn).append("=").append(mapping == null ? "" : mapping).append("]");
+		}
+		return sha256(canonical.toString());
+	}
+
+	protected static String sha256(String text) {
+		try {
+			MessageDigest md = MessageDigest.getInstance("SHA-256");
+			byte[] hash = md.digest(text.getBytes(StandardCharsets.UTF_8));
+			StringBuilder ret = new StringBuilder();
+			for (byte b: hash)
+				ret.append(String.format("%02x", b & 0xff));
+			return ret.toString();
+		} catch (Exception e) {
+			Debug.error("Failed to compute student digest: " + e.getMessage(), e);
+			return null;
+		}
+	}
+
+	protected static void canonicalize(Element element, StringBuilder ret) {
+		ret.append("<").append(element.getName());
+		Map<String, String> attributes = new TreeMap<String, String>();
+		for (Iterator<?> i = element.attributeIterator(); i.hasNext(); ) {
+			Attribute attribute = (Attribute)i.next();
+			attributes.put(attribute.getName(), attribute.getValue() == null ? "" : attribute.getValue().trim());
+		}
+		for (Map.Entry<String, String> attribute: attributes.entrySet())
+			ret.append(" ").append(attribute.getKey()).append("=\"").append(attribute.getValue()).append("\"");
+		ret.append(">");
+		for (Iterator<?> i = element.elementIterator(); i.hasNext(); )
+			canonicalize((Element)i.next(), ret);
+		String text = element.getTextTrim();
+		if (text != null) ret.append(text);
+		ret.append("</").append(element.getName()).append(">");
+	}
+
+	/**
+	 * CRNs of the given student element (crn elements of the old Banner update format, external ids of the class elements of the student enrollment format).
+	 */
+	protected static Set<Integer> getCrns(Element studentElement) {
+		Set<Integer> crns = new HashSet<Integer>();
+		for (Iterator<?> i = studentElement.elementIterator("crn"); i.hasNext(); ) {
+			try {
+				crns.add(Integer.valueOf(((Element)i.next()).getTextTrim()));
+			} catch (NumberFormatException e) {}
+		}
+		for (Iterator<?> i = studentElement.elementIterator("class"); i.hasNext(); ) {
+			try {
+				crns.add(Integer.valueOf(((Element)i.next()).attributeValue("externalId")));
+			} catch (NumberFormatException e) {}
+		}
+		return crns;
+	}
+
+	public void addStudent(String termCode, String externalId, Element studentElement) {
+		Set<String> externalIds = iTerm2ExternalIds.get(termCode);
+		if (externalIds == null) {
+			externalIds = new HashSet<String>();
+			iTerm2ExternalIds.put(termCode, externalIds);
+		}
+		externalIds.add(externalId);
+		Set<Integer> crns = iTerm2Crns.get(termCode);
+		if (crns == null) {
+			crns = new HashSet<Integer>();
+			iTerm2Crns.put(termCode, crns);
+		}
+		crns.addAll(getCrns(studentElement));
+	}
+
+	/**
+	 * Load the UniTime mapping of the CRNs of the students collected so far (the course offering and class ids of each CRN).
+	 */
+	@SuppressWarnings("unchecked")
+	protected void loadMappings(Session hibSession) {
+		for (Map.Entry<String, Set<Integer>> entry: iTerm2Crns.entrySet()) {
+			String termCode = entry.getKey();
+			List<Integer> crns = new ArrayList<Integer>(entry.getValue());
+			Map<Integer, Set<String>> ids = new HashMap<Integer, Set<String>>();
+			for (int i = 0; i < crns.size(); i += BannerSectionClasses.BATCH_SIZE) {
+				List<Integer> batch = crns.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, crns.size()));
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select bs.crn, bs.bannerConfig.bannerCourse.courseOfferingId, bstc.classId from BannerSession s, BannerSection bs inner join bs.bannerSectionToClasses as bstc " +
+						"where s.bannerTermCode = :termCode and bs.session.uniqueId = s.session.uniqueId and bs.crn in (:crns)")
+						.setString("termCode", termCode)
+						.setParameterList("crns", batch)
+						.setFlushMode(FlushMode.MANUAL).list()) {
+					Set<String> crnIds = ids.get((Integer)o[0]);
+					if (crnIds == null) {
+						crnIds = new TreeSet<String>();
+						ids.put((Integer)o[0], crnIds);
+					}
+					crnIds.add(o[1] + ":" + o[2]);
+				}
+			}
+			Map<Integer, String> mappings = new HashMap<Integer, String>();
+			for (Map.Entry<Integer, Set<String>> e: ids.entrySet())
+				mappings.put(e.getKey(), e.getValue().toString());
+			iTerm2Mappings.put(termCode, mappings);
+		}
+	}
+
+	/**
+	 * Digests of the current class enrollments of the given students in the academic sessions of the given Banner term
+	 * (a student that does not exist in any of the academic sessions is left out).
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Map<String, String> enrollmentDigests(Session hibSession, String termCode, Collection<String> externalIds) {
+		Map<String, Set<String>> enrollments = new HashMap<String, Set<String>>();
+		for (Object[] o: (List<Object[]>)hibSession.createQuery(
+				"select s.externalUniqueId, s.uniqueId, e.clazz.uniqueId from Student s left outer join s.classEnrollments e, BannerSession bs " +
+				"where bs.session = s.session and bs.bannerTermCode = :termCode and s.externalUniqueId in (:externalIds)")
+				.setString("termCode", termCode)
+				.setParameterList("externalIds", externalIds)
+				.setFlushMode(FlushMode.MANUAL).list()) {
+			Set<String> classes = enrollments.get((String)o[0]);
+			if (classes == null) {
+				classes = new TreeSet<String>();
+				enrollments.put((String)o[0], classes);
+			}
+			classes.add(o[1] + ":" + (o[2] == null ? "" : o[2]));
+		}
+		Map<String, String> digests = new HashMap<String, String>();
+		for (Map.Entry<String, Set<String>> e: enrollments.entrySet())
+			digests.put(e.getKey(), sha256(e.getValue().toString()));
+		return digests;
+	}
+
+	/**
+	 * Load the UniTime mapping of the CRNs and the stored digests of the students collected so far, leaving out the digests that are not to be used.
+	 */
+	@SuppressWarnings("unchecked")
+	public void load(Session hibSession) {
+		long t0 = System.currentTimeMillis();
+		loadMappings(hibSession);
+		if (isForceRefresh()) {
+			iLoadTime = System.currentTimeMillis() - t0;
+			return;
+		}
+		long maxAge = getMaxAge();
+		Date oldest = (maxAge <= 0 ? null : new Date(System.currentTimeMillis() - maxAge));
+		for (Map.Entry<String, Set<String>> entry: iTerm2ExternalIds.entrySet()) {
+			String termCode = entry.getKey();
+			List<String> externalIds = new ArrayList<String>(entry.getValue());
+			for (int i = 0; i < externalIds.size(); i += BannerSectionClasses.BATCH_SIZE) {
+				List<String> batch = externalIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, externalIds.size()));
+				Map<String, Object[]> digests = new HashMap<String, Object[]>();
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select d.externalId, d.digest, d.appliedDate, d.enrollmentDigest from BannerStudentDigest d where d.bannerTermCode = :termCode and d.externalId in (:externalIds)")
+						.setString("termCode", termCode)
+						.setParameterList("externalIds", batch)
+						.setFlushMode(FlushMode.MANUAL).list()) {
+					if (oldest != null && oldest.after((Date)o[2])) continue;
+					digests.put((String)o[0], o);
+				}
+				if (digests.isEmpty()) continue;
+				
+				// students that exist in at least one academic session of the term and whose enrollments have not changed since
+				Map<String, String> enrollments = enrollmentDigests(hibSession, termCode, digests.keySet());
+				for (Iterator<Map.Entry<String, Object[]>> j = digests.entrySet().iterator(); j.hasNext(); ) {
+					Map.Entry<String, Object[]> e = j.next();
+					String enrollment = enrollments.get(e.getKey());
+					if (enrollment == null || !enrollment.equals(e.getValue()[3])) j.remove();
+				}
+				if (digests.isEmpty()) continue;
+				
+				// students that have been changed in UniTime since
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select l.student, max(l.timeStamp) from OnlineSectioningLog l, BannerSession bs where bs.session = l.session and bs.bannerTermCode = :termCode and " +
+						"l.student in (:externalIds) and l.operation != :operation group by l.student")
+						.setString("termCode", termCode)
+						.setParameterList("externalIds", digests.keySet())
+						.setString("operation", new BannerUpdateStudentAction().name())
+						.setFlushMode(FlushMode.MANUAL).list()) {
+					Object[] digest = digests.get((String)o[0]);
+					if (digest != null && o[1] != null && ((Date)o[1]).after((Date)digest[2]))
+						digests.remove((String)o[0]);
+				}
+				
+				for (Object[] digest: digests.values())
+					iStored.put(key(termCode, (String)digest[0]), (String)digest[1]);
+			}
+		}
+		iLoadTime = System.currentTimeMillis() - t0;
+	}
+
+	public long getLoadTime() {
+		return iLoadTime;
+	}
+
+	/**
+	 * True if the given digest matches the one that was last applied (and it can be used).
+	 */
+	public boolean isUnchanged(String termCode, String externalId, String digest) {
+		return digest != null && digest.equals(iStored.get(key(termCode, externalId)));
+	}
+
+	/**
+	 * Remember the digest of a processed record, to be stored by {@link #save(Collection)}. When a student has more than one
+	 * record with different digests, nothing is stored for the student.
+	 */
+	public void applied(String termCode, String externalId, String digest) {
+		if (digest == null) return;
+		String key = key(termCode, externalId);
+		String previous = iApplied.put(key, digest);
+		if (previous != null && !previous.equals(digest)) iConflicts.add(key);
+	}
+
+	/**
+	 * Do not store a digest for the given student (e.g., when the student has records in more than one message that are processed together).
+	 */
+	public void ignore(String termCode, String externalId) {
+		iConflicts.add(key(termCode, externalId));
+	}
+
+	/**
+	 * Store the digests of the processed records, except of the students with the given external ids (e.g., the ones that failed).
+	 */
+	@SuppressWarnings("unchecked")
+	public void save(Collection<String> skipExternalIds) {
+		Map<String, Map<String, String>> term2digests = new HashMap<String, Map<String, String>>();
+		for (Map.Entry<String, String> entry: iApplied.entrySet()) {
+			if (iConflicts.contains(entry.getKey())) continue;
+			int idx = entry.getKey().lastIndexOf('|');
+			String termCode = entry.getKey().substring(0, idx);
+			String externalId = entry.getKey().substring(idx + 1);
+			if (skipExternalIds.contains(externalId)) continue;
+			if (entry.getValue().equals(iStored.get(entry.getKey()))) continue;
+			Map<String, String> digests = term2digests.get(termCode);
+			if (digests == null) {
+				digests = new HashMap<String, String>();
+				term2digests.put(termCode, digests);
+			}
+			digests.put(externalId, entry.getValue());
+		}
+		if (term2digests.isEmpty()) return;
+		Session hibSession = BannerStudentDigestDAO.getInstance().createNewSession();
+		Transaction tx = null;
+		try {
+			tx = hibSession.beginTransaction();
+			Date now = new Date();
+			for (Map.Entry<String, Map<String, String>> entry: term2digests.entrySet()) {
+				String termCode = entry.getKey();
+				Map<String, String> digests = entry.getValue();
+				List<String> externalIds = new ArrayList<String>(digests.keySet());
+				for (int i = 0; i < externalIds.size(); i += BannerSectionClasses.BATCH_SIZE) {
+					List<String> batch = externalIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, externalIds.size()));
+					// the records have been applied (and committed) by now, so these are the enrollments the digests were applied to
+					Map<String, String> enrollments = enrollmentDigests(hibSession, termCode, batch);
+					Set<String> updated = new HashSet<String>();
+					for (BannerStudentDigest d: (List<BannerStudentDigest>)hibSession.createQuery(
+							"from BannerStudentDigest d where d.bannerTermCode = :termCode and d.externalId in (:externalIds)")
+							.setString("termCode", termCode)
+							.setParameterList("externalIds", batch).list()) {
+						d.setDigest(digests.get(d.getExternalId()));
+						d.setEnrollmentDigest(enrollments.get(d.getExternalId()));
+						d.setAppliedDate(now);
+						hibSession.update(d);
+						updated.add(d.getExternalId());
+					}
+					for (String externalId: batch) {
+						if (updated.contains(externalId)) continue;
+						BannerStudentDigest d = new BannerStudentDigest();
+						d.setBannerTermCode(termCode);
+						d.setExternalId(externalId);
+						d.setDigest(digests.get(externalId));
+						d.setEnrollmentDigest(enrollments.get(externalId));
+						d.setAppliedDate(now);
+						hibSession.save(d);
+					}
+					hibSession.flush();
+					hibSession.clear();
+				}
+			}
+			tx.commit();
+		} catch (Exception e) {
+			if (tx != null) tx.rollback();
+			Debug.error("Failed to store student digests: " + e.getMessage(), e);
+		} finally {
+			hibSession.close();
+		}
+		purgeIfDue();
+	}
+
+	/**
+	 * Delete the digests that have not been applied for <code>banner.studentUpdates.digest.purgeAge</code> days, at most once a day.
+	 */
+	public static void purgeIfDue() {
+		long purgeAge = getPurgeAge();
+		if (purgeAge <= 0) return;
+		synchronized (BannerStudentUpdatesDigest.class) {
+			if (System.currentTimeMillis() - sLastPurge < 24l * 3600000l) return;
+			sLastPurge = System.currentTimeMillis();
+		}
+		Session hibSession = BannerStudentDigestDAO.getInstance().createNewSession();
+		Transaction tx = null;
+		try {
+			tx = hibSession.beginTransaction();
+			int deleted = hibSession.createQuery(
+					"delete from BannerStudentDigest where appliedDate < :oldest")
+					.setTimestamp("oldest", new Date(System.currentTimeMillis() - purgeAge))
+					.executeUpdate();
+			tx.commit();
+			if (deleted > 0)
+				Debug.info("Purged " + deleted + " student digests that have not been applied for " + (purgeAge / (24l * 3600000l)) + " days.");
+		} catch (Exception e) {
+			if (tx != null) tx.rollback();
+			Debug.error("Failed to purge student digests: " + e.getMessage(), e);
+		} finally {
+			hibSession.close();
+		}
+	}
+}
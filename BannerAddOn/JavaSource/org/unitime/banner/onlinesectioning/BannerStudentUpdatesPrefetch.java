@@ -0,0 +1,277 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.onlinesectioning;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.FlushMode;
+import org.hibernate.Session;
+import org.unitime.banner.model.BannerCrnClassCache;
+import org.unitime.banner.model.BannerSectionClasses;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Read-only lookup of the students, academic areas, classifications, majors, minors, student groups and advisors
+ * referenced by a student updates message. It is filled by {@link BannerStudentUpdates.MessageProcessor} before the workers
+ * are started, using a few set-based queries per academic session, so that {@link BannerUpdateStudentAction} does not need
+ * to look these up one student at a time.<br>
+ * <br>
+ * Only the unique ids are kept (the entities are loaded by id into the Hibernate session of each update). A value that is
+ * not in the lookup (e.g., an academic area created by another student of the same message) is looked up in the database as before.
+ */
+public class BannerStudentUpdatesPrefetch {
+	private Map<String, Set<String>> iTerm2ExternalIds = new HashMap<String, Set<String>>();
+	private Map<String, Set<Integer>> iTerm2Crns = new HashMap<String, Set<Integer>>();
+	private Set<String> iGroupExternalIds = new HashSet<String>();
+	private Set<String> iAdvisorExternalIds = new HashSet<String>();
+	private Map<Long, SessionLookup> iLookups = new HashMap<Long, SessionLookup>();
+	private long iLoadTime = 0;
+
+	/**
+	 * The prefetch is used when <code>banner.studentUpdates.prefetch</code> is set to true.
+	 */
+	public static boolean isEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.studentUpdates.prefetch", "false"));
+	}
+
+	protected void addStudent(String termCode, String externalId) {
+		Set<String> externalIds = iTerm2ExternalIds.get(termCode);
+		if (externalIds == null) {
+			externalIds = new HashSet<String>();
+			iTerm2ExternalIds.put(termCode, externalIds);
+		}
+		externalIds.add(externalId);
+	}
+
+	protected void addCrn(String termCode, Integer crn) {
+		Set<Integer> crns = iTerm2Crns.get(termCode);
+		if (crns == null) {
+			crns = new HashSet<Integer>();
+			iTerm2Crns.put(termCode, crns);
+		}
+		crns.add(crn);
+	}
+
+	protected void addGroup(String externalId) {
+		if (externalId != null) iGroupExternalIds.add(externalId);
+	}
+
+	protected void addAdvisor(String externalId) {
+		if (externalId != null) iAdvisorExternalIds.add(externalId);
+	}
+
+	/**
+	 * Load the lookup for all academic sessions of the Banner terms collected so far.
+	 */
+	@SuppressWarnings("unchecked")
+	public void load(Session hibSession) {
+		long t0 = System.currentTimeMillis();
+		for (Map.Entry<String, Set<String>> entry: iTerm2ExternalIds.entrySet()) {
+			String termCode = entry.getKey();
+			List<String> externalIds = new ArrayList<String>(entry.getValue());
+			for (Long sessionId: (List<Long>)hibSession.createQuery(
+					"select bs.session.uniqueId from BannerSession bs where bs.bannerTermCode = :termCode")
+					.setString("termCode", termCode).setFlushMode(FlushMode.MANUAL).list()) {
+				SessionLookup lookup = new SessionLookup();
+				for (int i = 0; i < externalIds.size(); i += BannerSectionClasses.BATCH_SIZE) {
+					for (Object[] o: (List<Object[]>)hibSession.createQuery(
+							"select s.externalUniqueId, s.uniqueId from Student s where s.session.uniqueId = :sessionId and s.externalUniqueId in (:externalIds)")
+							.setLong("sessionId", sessionId)
+							.setParameterList("externalIds", externalIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, externalIds.size())))
+							.setFlushMode(FlushMode.MANUAL).list())
+						lookup.iStudents.put((String)o[0], (Long)o[1]);
+				}
+				lookup.load(hibSession, sessionId, new ArrayList<String>(iGroupExternalIds), new ArrayList<String>(iAdvisorExternalIds));
+				iLookups.put(sessionId, lookup);
+			}
+			// warm up the CRN cache of the term (does nothing when the CRN cache is disabled)
+			if (iTerm2Crns.containsKey(termCode))
+				BannerCrnClassCache.getInstance(termCode);
+		}
+		iLoadTime = System.currentTimeMillis() - t0;
+	}
+
+	public long getLoadTime() {
+		return iLoadTime;
+	}
+
+	public int getStudentCount() {
+		int count = 0;
+		for (SessionLookup lookup: iLookups.values())
+			count += lookup.iStudents.size();
+		return count;
+	}
+
+	public int getSessionCount() {
+		return iLookups.size();
+	}
+
+	/**
+	 * True if the academic session was loaded.
+	 */
+	public boolean hasSession(Long sessionId) {
+		return iLookups.containsKey(sessionId);
+	}
+
+	/**
+	 * True if the student existed when the lookup was loaded or has been created since (see {@link #studentCreated(Long, String, Long)}).
+	 * A student that is not found may have been created by an update that has not been recorded yet, so a miss needs to be checked in the database.
+	 */
+	public boolean hasStudent(Long sessionId, String externalId) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		return lookup != null && lookup.iStudents.containsKey(externalId);
+	}
+
+	public Long getStudentId(Long sessionId, String externalId) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		return (lookup == null ? null : lookup.iStudents.get(externalId));
+	}
+
+	/**
+	 * Record a student that has been created after the lookup was loaded (e.g., by another message of the same batch).
+	 */
+	public void studentCreated(Long sessionId, String externalId, Long studentId) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		if (lookup != null && externalId != null && studentId != null)
+			lookup.iStudents.put(externalId, studentId);
+	}
+
+	/**
+	 * Academic area matching the given external id or, when there is none, the given abbreviation.
+	 */
+	public Long getAcademicAreaId(Long sessionId, String area) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		if (lookup == null) return null;
+		Long id = lookup.iAreasByExternalId.get(area);
+		return (id != null ? id : lookup.iAreasByAbbv.get(area));
+	}
+
+	/**
+	 * Academic classification matching the given external id or, when there is none, the given code.
+	 */
+	public Long getAcademicClassificationId(Long sessionId, String clasf) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		if (lookup == null) return null;
+		Long id = lookup.iClassificationsByExternalId.get(clasf);
+		return (id != null ? id : lookup.iClassificationsByCode.get(clasf));
+	}
+
+	/**
+	 * Major matching the given external ids of the major and of the academic area or, when there is none, the given major code and area abbreviation.
+	 */
+	public Long getPosMajorId(Long sessionId, String area, String major) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		if (lookup == null) return null;
+		Long id = lookup.iMajorsByExternalId.get(area + "|" + major);
+		return (id != null ? id : lookup.iMajorsByCode.get(area + "|" + major));
+	}
+
+	/**
+	 * Minor matching the given external id or, when there is none, the given code.
+	 */
+	public Long getPosMinorId(Long sessionId, String minor) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		if (lookup == null) return null;
+		Long id = lookup.iMinorsByExternalId.get(minor);
+		return (id != null ? id : lookup.iMinorsByCode.get(minor));
+	}
+
+	public Long getStudentGroupId(Long sessionId, String externalId) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		return (lookup == null ? null : lookup.iGroups.get(externalId));
+	}
+
+	public Long getAdvisorId(Long sessionId, String externalId, Long roleId) {
+		SessionLookup lookup = iLookups.get(sessionId);
+		return (lookup == null ? null : lookup.iAdvisors.get(externalId + "|" + roleId));
+	}
+
+	private static class SessionLookup {
+		private Map<String, Long> iStudents = new ConcurrentHashMap<String, Long>();
+		private Map<String, Long> iAreasByExternalId = new HashMap<String, Long>();
+		private Map<String, Long> iAreasByAbbv = new HashMap<String, Long>();
+		private Map<String, Long> iClassificationsByExternalId = new HashMap<String, Long>();
+		private Map<String, Long> iClassificationsByCode = new HashMap<String, Long>();
+		private Map<String, Long> iMajorsByExternalId = new HashMap<String, Long>();
+		private Map<String, Long> iMajorsByCode = new HashMap<String, Long>();
+		private Map<String, Long> iMinorsByExternalId = new HashMap<String, Long>();
+		private Map<String, Long> iMinorsByCode = new HashMap<String, Long>();
+		private Map<String, Long> iGroups = new HashMap<String, Long>();
+		private Map<String, Long> iAdvisors = new HashMap<String, Long>();
+
+		@SuppressWarnings("unchecked")
+		private void load(Session hibSession, Long sessionId, List<String> groupExternalIds, List<String> advisorExternalIds) {
+			// areas, classifications, majors and minors are loaded for the whole academic session (there are not many of these)
+			for (Object[] o: (List<Object[]>)hibSession.createQuery(
+					"select a.externalUniqueId, a.academicAreaAbbreviation, a.uniqueId from AcademicArea a where a.session.uniqueId = :sessionId")
+					.setLong("sessionId", sessionId).setFlushMode(FlushMode.MANUAL).list()) {
+				put(iAreasByExternalId, (String)o[0], (Long)o[2]);
+				put(iAreasByAbbv, (String)o[1], (Long)o[2]);
+			}
+			for (Object[] o: (List<Object[]>)hibSession.createQuery(
+					"select c.externalUniqueId, c.code, c.uniqueId from AcademicClassification c where c.session.uniqueId = :sessionId")
+					.setLong("sessionId", sessionId).setFlushMode(FlushMode.MANUAL).list()) {
+				put(iClassificationsByExternalId, (String)o[0], (Long)o[2]);
+				put(iClassificationsByCode, (String)o[1], (Long)o[2]);
+			}
+			for (Object[] o: (List<Object[]>)hibSession.createQuery(
+					"select a.externalUniqueId, a.academicAreaAbbreviation, m.externalUniqueId, m.code, m.uniqueId from PosMajor m inner join m.academicAreas a where m.session.uniqueId = :sessionId")
+					.setLong("sessionId", sessionId).setFlushMode(FlushMode.MANUAL).list()) {
+				if (o[0] != null && o[2] != null) put(iMajorsByExternalId, o[0] + "|" + o[2], (Long)o[4]);
+				if (o[1] != null && o[3] != null) put(iMajorsByCode, o[1] + "|" + o[3], (Long)o[4]);
+			}
+			for (Object[] o: (List<Object[]>)hibSession.createQuery(
+					"select m.externalUniqueId, m.code, m.uniqueId from PosMinor m where m.session.uniqueId = :sessionId")
+					.setLong("sessionId", sessionId).setFlushMode(FlushMode.MANUAL).list()) {
+				put(iMinorsByExternalId, (String)o[0], (Long)o[2]);
+				put(iMinorsByCode, (String)o[1], (Long)o[2]);
+			}
+			// student groups and advisors are only loaded when referenced by the message
+			for (int i = 0; i < groupExternalIds.size(); i += BannerSectionClasses.BATCH_SIZE) {
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select g.externalUniqueId, g.uniqueId from StudentGroup g where g.session.uniqueId = :sessionId and g.externalUniqueId in (:externalIds)")
+						.setLong("sessionId", sessionId)
+						.setParameterList("externalIds", groupExternalIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, groupExternalIds.size())))
+						.setFlushMode(FlushMode.MANUAL).list())
+					put(iGroups, (String)o[0], (Long)o[1]);
+			}
+			for (int i = 0; i < advisorExternalIds.size(); i += BannerSectionClasses.BATCH_SIZE) {
+				for (Object[] o: (List<Object[]>)hibSession.createQuery(
+						"select a.externalUniqueId, a.role.roleId, a.uniqueId from Advisor a where a.session.uniqueId = :sessionId and a.externalUniqueId in (:externalIds)")
+						.setLong("sessionId", sessionId)
+						.setParameterList("externalIds", advisorExternalIds.subList(i, Math.min(i + BannerSectionClasses.BATCH_SIZE, advisorExternalIds.size())))
+						.setFlushMode(FlushMode.MANUAL).list())
+					put(iAdvisors, o[0] + "|" + o[1], (Long)o[2]);
+			}
+		}
+
+		private static void put(Map<String, Long> map, String key, Long id) {
+			// keep the first match, like the single-row lookups do
+			if (key != null && !map.containsKey(key)) map.put(key, id);
+		}
+	}
+}
@@ -40,6 +40,7 @@ public class BannerStudentUpdatesService implements InitializingBean, Disposable
 	public void destroy() throws Exception {
 		if (iPoller != null)
 			iPoller.interrupt();
+		BannerStudentUpdates.shutdownExecutor();
 	}
 
 	@Override
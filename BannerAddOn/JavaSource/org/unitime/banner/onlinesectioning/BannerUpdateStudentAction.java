@@ -32,6 +32,7 @@ import java.util.Map;
 import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.TreeSet;
+import java.util.concurrent.locks.ReentrantLock;
 
 import javax.naming.Context;
 import javax.naming.NamingEnumeration;
@@ -44,8 +45,10 @@ import javax.naming.directory.SearchResult;
 
 import org.hibernate.CacheMode;
 import org.hibernate.FlushMode;
+import org.unitime.banner.model.BannerCrnClassCache;
 import org.unitime.banner.model.BannerSection;
 import org.unitime.banner.model.BannerSession;
+import org.unitime.banner.onlinesectioning.BannerReferenceRegistry.Type;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.defaults.ApplicationProperty;
 import org.unitime.timetable.gwt.shared.OnlineSectioningInterface.WaitListMode;
@@ -82,7 +85,13 @@ import org.unitime.timetable.model.StudentEnrollmentMessage;
 import org.unitime.timetable.model.StudentGroup;
 import org.unitime.timetable.model.StudentGroupType;
 import org.unitime.timetable.model.StudentNote;
+import org.unitime.timetable.model.StudentSectioningQueue;
 import org.unitime.timetable.model.dao.AcademicAreaDAO;
+import org.unitime.timetable.model.dao.AcademicClassificationDAO;
+import org.unitime.timetable.model.dao.AdvisorDAO;
+import org.unitime.timetable.model.dao.PosMajorDAO;
+import org.unitime.timetable.model.dao.PosMinorDAO;
+import org.unitime.timetable.model.dao.StudentGroupDAO;
 import org.unitime.timetable.model.dao.SessionDAO;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningAction;
 import org.unitime.timetable.onlinesectioning.OnlineSectioningHelper;
@@ -131,6 +140,7 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 	private boolean iResetWaitList = false;
 	private boolean iDelayOfferingChecks = true;
 	private Set<String> iCampusCodes = null;
+	private transient BannerStudentUpdatesPrefetch iPrefetch = null;
 	
 	public BannerUpdateStudentAction() {
 		iOverrideTypes = ApplicationProperties.getProperty("banner.overrides.regexp");
@@ -236,6 +246,24 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		return this;
 	}
 	
+	public BannerUpdateStudentAction withPrefetch(BannerStudentUpdatesPrefetch prefetch) {
+		iPrefetch = prefetch;
+		return this;
+	}
+	
+	/**
+	 * Register the student, groups, advisors and CRNs of this update with the given prefetch.
+	 */
+	protected void collect(BannerStudentUpdatesPrefetch prefetch) {
+		prefetch.addStudent(iTermCode, iExternalId);
+		for (String[] g: iGroups)
+			prefetch.addGroup(g[0]);
+		for (String[] a: iAdvisors)
+			prefetch.addAdvisor(a[0]);
+		for (Integer crn: iCRNs)
+			prefetch.addCrn(iTermCode, crn);
+	}
+	
 	public boolean isApplicable(BannerSession bs) {
 		if (bs.getStudentCampus() == null || bs.getStudentCampus().isEmpty()) return true;
 		if (iCampusCodes == null || iCampusCodes.isEmpty()) return true;
@@ -472,6 +500,7 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 			helper.error("Student update failed: " + e.getMessage(), e);
 			helper.getAction().setResult(OnlineSectioningLog.Action.ResultType.FAILURE);
 			result.setStatus(Status.FAILURE);
+			BannerReferenceRegistry.clear(server.getAcademicSession().getUniqueId());
 			return result;
 		} finally {
 			for (OnlineSectioningLog.Message m: helper.getLog().getMessageList())
@@ -491,38 +520,14 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		helper.beginTransaction();
 		UpdateResult result = new UpdateResult();
 		try {
-			iSession = SessionDAO.getInstance().get(sessionId, helper.getHibSession());
-			BannerSession bs = BannerSession.findBannerSessionForSession(sessionId, helper.getHibSession());
-			iCampus = (bs == null ? iSession.getAcademicInitiative() : bs.getBannerCampus());
-			iStudentCampus = (bs == null ? null : bs.getStudentCampus());
-			
-			Student student = getStudent(helper);
-			result.setStudentId(student.getUniqueId());
-			if (result.getStudentId() == null) result.add(Change.CREATED);
-			
-			if (updateStudentDemographics(student, helper, result))
-				result.add(Change.DEMOGRAPHICS);
-			
-			if (updateStudentGroups(student, helper))
-				result.add(Change.GROUPS);
-			
-			if (updateAdvisors(student, helper))
-				result.add(Change.ADVISORS);
-
-			if (result.hasChanges())
-				helper.getHibSession().update(student);
-
-			if (iUpdateClasses && updateStudentOverrides(student, null, helper, result))
-				result.add(Change.OVERRIDES);
-
-			if (iUpdateClasses && updateClassEnrollments(student, getEnrollments(helper, result), helper))
-				result.add(Change.CLASSES);
+			update(sessionId, helper, result);
 			
 			helper.commitTransaction();
 		} catch (Exception e) {
 			helper.rollbackTransaction();
 			helper.error("Student update failed: " + e.getMessage(), e);
 			result.setStatus(Status.FAILURE);
+			BannerReferenceRegistry.clear(sessionId);
 		}
 			
 		if (result.getStatus() == Status.OK && !result.hasChanges())
@@ -530,6 +535,84 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		return result;
 	}
 	
+	/**
+	 * Update the student in the given academic session (when there is no online sectioning server), within the current transaction.
+	 * @return the updated student
+	 */
+	protected Student update(Long sessionId, OnlineSectioningHelper helper, UpdateResult result) {
+		iSession = SessionDAO.getInstance().get(sessionId, helper.getHibSession());
+		BannerSession bs = BannerSession.findBannerSessionForSession(sessionId, helper.getHibSession());
+		iCampus = (bs == null ? iSession.getAcademicInitiative() : bs.getBannerCampus());
+		iStudentCampus = (bs == null ? null : bs.getStudentCampus());
+		
+		Student student = getStudent(helper);
+		result.setStudentId(student.getUniqueId());
+		if (result.getStudentId() == null) result.add(Change.CREATED);
+		
+		if (updateStudentDemographics(student, helper, result))
+			result.add(Change.DEMOGRAPHICS);
+		
+		if (updateStudentGroups(student, helper))
+			result.add(Change.GROUPS);
+		
+		if (updateAdvisors(student, helper))
+			result.add(Change.ADVISORS);
+
+		if (result.hasChanges())
+			helper.getHibSession().update(student);
+
+		if (iUpdateClasses && updateStudentOverrides(student, null, helper, result))
+			result.add(Change.OVERRIDES);
+
+		if (iUpdateClasses && updateClassEnrollments(student, getEnrollments(helper, result), helper))
+			result.add(Change.CLASSES);
+		
+		return student;
+	}
+	
+	/**
+	 * Update the given students of the given academic session (when there is no online sectioning server) in one transaction,
+	 * sharing the helper and its Hibernate session. The changed students are put in the student sectioning queue within the same
+	 * transaction (see {@link UpdateResult#isQueued()}). When the transaction fails, it is rolled back and the students are updated one by one
+	 * using {@link #execute(Long, OnlineSectioningHelper)}. The given updates must be of different students.
+	 */
+	public static List<UpdateResult> execute(List<BannerUpdateStudentAction> updates, Long sessionId, OnlineSectioningHelper helper) {
+		List<UpdateResult> results = new ArrayList<UpdateResult>();
+		if (updates.size() > 1) {
+			helper.getHibSession().setFlushMode(FlushMode.COMMIT);
+			helper.getHibSession().setCacheMode(CacheMode.REFRESH);
+			helper.beginTransaction();
+			try {
+				Set<Long> studentIds = new HashSet<Long>();
+				for (BannerUpdateStudentAction update: updates) {
+					UpdateResult result = new UpdateResult();
+					Student student = update.update(sessionId, helper, result);
+					if (result.hasChanges() && student.getUniqueId() != null)
+						studentIds.add(student.getUniqueId());
+					results.add(result);
+				}
+				if (!studentIds.isEmpty())
+					StudentSectioningQueue.studentChanged(helper.getHibSession(), null, sessionId, studentIds);
+				helper.commitTransaction();
+				for (UpdateResult result: results) {
+					result.setQueued(true);
+					if (result.getStatus() == Status.OK && !result.hasChanges())
+						result.setStatus(Status.NO_CHANGE);
+				}
+				return results;
+			} catch (Exception e) {
+				helper.rollbackTransaction();
+				helper.getHibSession().clear();
+				BannerReferenceRegistry.clear(sessionId);
+				helper.info("Update of " + updates.size() + " students failed (" + e.getMessage() + "), updating the students one by one.");
+				results.clear();
+			}
+		}
+		for (BannerUpdateStudentAction update: updates)
+			results.add(update.execute(sessionId, helper));
+		return results;
+	}
+	
 	protected Long getStudentId(Long sessionId) {
 		org.hibernate.Session hibSession = SessionDAO.getInstance().createNewSession();
 		try {
@@ -562,12 +645,38 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		return student;
 	}
 	
+	/**
+	 * Reference entity that is known to exist (see {@link BannerReferenceRegistry}), returned without a database query.
+	 */
+	protected <T> T getCached(OnlineSectioningHelper helper, Class<T> clazz, Type type, String... key) {
+		Long id = BannerReferenceRegistry.getId(type, iSession.getUniqueId(), key);
+		return (id == null ? null : helper.getHibSession().load(clazz, id));
+	}
+	
+	protected AcademicArea findAcademicArea(OnlineSectioningHelper helper, String area) {
+		Long id = (iPrefetch == null ? null : iPrefetch.getAcademicAreaId(iSession.getUniqueId(), area));
+		if (id != null) {
+			AcademicArea aa = AcademicAreaDAO.getInstance().get(id, helper.getHibSession());
+			if (aa != null) {
+				BannerReferenceRegistry.putId(Type.AREA, iSession.getUniqueId(), aa.getUniqueId(), area);
+				return aa;
+			}
+		}
+		AcademicArea aa = AcademicArea.findByExternalId(helper.getHibSession(), iSession.getUniqueId(), area);
+		if (aa == null)
+			aa = AcademicArea.findByAbbv(helper.getHibSession(), iSession.getUniqueId(), area);
+		if (aa != null)
+			BannerReferenceRegistry.putId(Type.AREA, iSession.getUniqueId(), aa.getUniqueId(), area);
+		return aa;
+	}
+	
 	protected AcademicArea getAcademicArea(OnlineSectioningHelper helper, String area) {
+		AcademicArea cached = getCached(helper, AcademicArea.class, Type.AREA, area);
+		if (cached != null) return cached;
 		if (iLocking) {
-			synchronized (("Area:" + iSession.getReference() + ":" + area).intern()) {
-				AcademicArea aa = AcademicArea.findByExternalId(helper.getHibSession(), iSession.getUniqueId(), area);
-				if (aa != null) return aa;
-				aa = AcademicArea.findByAbbv(helper.getHibSession(), iSession.getUniqueId(), area);
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.AREA, iSession.getUniqueId(), area);
+			try {
+				AcademicArea aa = findAcademicArea(helper, area);
 				if (aa != null) return aa;
 				aa = new AcademicArea();
 				aa.setPosMajors(new HashSet<PosMajor>());
@@ -579,17 +688,18 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 				try {
 					aa.setUniqueId((Long)hibSession.save(aa));
 					hibSession.flush();
+					BannerReferenceRegistry.putId(Type.AREA, iSession.getUniqueId(), aa.getUniqueId(), area);
 				} finally {
 					hibSession.close();
 				}
 				helper.info("Added Academic Area:  " + area);
 				helper.getHibSession().update(aa);
 				return aa;
+			} finally {
+				lock.unlock();
 			}
 		} else {
-			AcademicArea aa = AcademicArea.findByExternalId(helper.getHibSession(), iSession.getUniqueId(), area);
-			if (aa == null)
-				aa = AcademicArea.findByAbbv(helper.getHibSession(), iSession.getUniqueId(), area);
+			AcademicArea aa = findAcademicArea(helper, area);
 			if (aa == null){
 				aa = new AcademicArea();
 				aa.setPosMajors(new HashSet<PosMajor>());
@@ -604,12 +714,30 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		}
 	}
 	
+	protected AcademicClassification findAcademicClassification(OnlineSectioningHelper helper, String clasf) {
+		Long id = (iPrefetch == null ? null : iPrefetch.getAcademicClassificationId(iSession.getUniqueId(), clasf));
+		if (id != null) {
+			AcademicClassification ac = AcademicClassificationDAO.getInstance().get(id, helper.getHibSession());
+			if (ac != null) {
+				BannerReferenceRegistry.putId(Type.CLASSIFICATION, iSession.getUniqueId(), ac.getUniqueId(), clasf);
+				return ac;
+			}
+		}
+		AcademicClassification ac = AcademicClassification.findByExternalId(helper.getHibSession(), iSession.getUniqueId(), clasf);
+		if (ac == null)
+			ac = AcademicClassification.findByCode(helper.getHibSession(), iSession.getUniqueId(), clasf);
+		if (ac != null)
+			BannerReferenceRegistry.putId(Type.CLASSIFICATION, iSession.getUniqueId(), ac.getUniqueId(), clasf);
+		return ac;
+	}
+	
 	protected AcademicClassification getAcademicClassification(OnlineSectioningHelper helper, String clasf) {
+		AcademicClassification cached = getCached(helper, AcademicClassification.class, Type.CLASSIFICATION, clasf);
+		if (cached != null) return cached;
 		if (iLocking) {
-			synchronized (("Clasf:" + iSession.getReference() + ":" + clasf).intern()) {
-				AcademicClassification ac = AcademicClassification.findByExternalId(helper.getHibSession(), iSession.getUniqueId(), clasf);
-				if (ac != null) return ac;
-				ac = AcademicClassification.findByCode(helper.getHibSession(), iSession.getUniqueId(), clasf);
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.CLASSIFICATION, iSession.getUniqueId(), clasf);
+			try {
+				AcademicClassification ac = findAcademicClassification(helper, clasf);
 				if (ac != null) return ac;
 				ac = new AcademicClassification();
 				ac.setCode(clasf);
@@ -620,17 +748,18 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 				try {
 					ac.setUniqueId((Long)hibSession.save(ac));
 					hibSession.flush();
+					BannerReferenceRegistry.putId(Type.CLASSIFICATION, iSession.getUniqueId(), ac.getUniqueId(), clasf);
 				} finally {
 					hibSession.close();
 				}
 				helper.info("Added Academic Classification:  " + clasf);
 				helper.getHibSession().update(ac);
 				return ac;
+			} finally {
+				lock.unlock();
 			}
 		} else {
-			AcademicClassification ac = AcademicClassification.findByExternalId(helper.getHibSession(), iSession.getUniqueId(), clasf);
-			if (ac == null)
-				ac = AcademicClassification.findByCode(helper.getHibSession(), iSession.getUniqueId(), clasf);
+			AcademicClassification ac = findAcademicClassification(helper, clasf);
 			if (ac == null){
 				ac = new AcademicClassification();
 				ac.setCode(clasf);
@@ -644,12 +773,30 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		}
 	}
 	
+	protected PosMajor findPosMajor(OnlineSectioningHelper helper, String area, String major) {
+		Long id = (iPrefetch == null ? null : iPrefetch.getPosMajorId(iSession.getUniqueId(), area, major));
+		if (id != null) {
+			PosMajor posMajor = PosMajorDAO.getInstance().get(id, helper.getHibSession());
+			if (posMajor != null) {
+				BannerReferenceRegistry.putId(Type.MAJOR, iSession.getUniqueId(), posMajor.getUniqueId(), area, major);
+				return posMajor;
+			}
+		}
+		PosMajor posMajor = PosMajor.findByExternalIdAcadAreaExternalId(helper.getHibSession(), iSession.getUniqueId(), major, area);
+		if (posMajor == null)
+			posMajor = PosMajor.findByCodeAcadAreaAbbv(helper.getHibSession(), iSession.getUniqueId(), major, area);
+		if (posMajor != null)
+			BannerReferenceRegistry.putId(Type.MAJOR, iSession.getUniqueId(), posMajor.getUniqueId(), area, major);
+		return posMajor;
+	}
+	
 	protected PosMajor getPosMajor(OnlineSectioningHelper helper, AcademicArea aa, String area, String major) {
+		PosMajor cached = getCached(helper, PosMajor.class, Type.MAJOR, area, major);
+		if (cached != null) return cached;
 		if (iLocking) {
-			synchronized (("Major:" + iSession.getReference() + ":" + area + ":" + major).intern()) {
-				PosMajor posMajor = PosMajor.findByExternalIdAcadAreaExternalId(helper.getHibSession(), iSession.getUniqueId(), major, area);
-				if (posMajor != null) return posMajor;
-				posMajor = PosMajor.findByCodeAcadAreaAbbv(helper.getHibSession(), iSession.getUniqueId(), major, area);
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.MAJOR, iSession.getUniqueId(), area, major);
+			try {
+				PosMajor posMajor = findPosMajor(helper, area, major);
 				if (posMajor != null) return posMajor;
 				posMajor = new PosMajor();
 				posMajor.setCode(major);
@@ -662,17 +809,18 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 					aa.addToposMajors(posMajor);
 					posMajor.setUniqueId((Long)hibSession.save(posMajor));
 					hibSession.flush();
+					BannerReferenceRegistry.putId(Type.MAJOR, iSession.getUniqueId(), posMajor.getUniqueId(), area, major);
 				} finally {
 					hibSession.close();
 				}
 				helper.getHibSession().update(posMajor);
 				helper.info("Added Major:  " + major + " to Academic Area:  " + area);
 				return posMajor;
+			} finally {
+				lock.unlock();
 			}
 		} else {
-			PosMajor posMajor = PosMajor.findByExternalIdAcadAreaExternalId(helper.getHibSession(), iSession.getUniqueId(), major, area);
-			if (posMajor == null)
-				posMajor = PosMajor.findByCodeAcadAreaAbbv(helper.getHibSession(), iSession.getUniqueId(), major, area);
+			PosMajor posMajor = findPosMajor(helper, area, major);
 			if (posMajor == null) {
 				posMajor = new PosMajor();
 				posMajor.setCode(major);
@@ -739,10 +887,16 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
     }
 	
 	protected PosMajorConcentration getPosMajorConcentration(OnlineSectioningHelper helper, PosMajor posMajor, String area, String major, String concentration) {
+		PosMajorConcentration cached = getCached(helper, PosMajorConcentration.class, Type.CONCENTRATION, area, major, concentration);
+		if (cached != null) return cached;
 		if (iLocking) {
-			synchronized (("Concentration:" + iSession.getReference() + ":" + area + ":" + major + ":" + concentration).intern()) {
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.CONCENTRATION, iSession.getUniqueId(), area, major, concentration);
+			try {
 				PosMajorConcentration conc = findPosMajorConcentration(helper.getHibSession(), iSession.getUniqueId(), area, major, concentration);
-				if (conc != null) return conc;
+				if (conc != null) {
+					BannerReferenceRegistry.putId(Type.CONCENTRATION, iSession.getUniqueId(), conc.getUniqueId(), area, major, concentration);
+					return conc;
+				}
 				conc = new PosMajorConcentration();
 				conc.setExternalUniqueId(concentration);
 				conc.setCode(concentration);
@@ -753,15 +907,20 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 					posMajor.addToconcentrations(conc);
 					conc.setUniqueId((Long)hibSession.save(conc));
 					hibSession.flush();
+					BannerReferenceRegistry.putId(Type.CONCENTRATION, iSession.getUniqueId(), conc.getUniqueId(), area, major, concentration);
 				} finally {
 					hibSession.close();
 				}
 				helper.getHibSession().update(conc);
 				helper.info("Added Concentration:  " + concentration + " to Major:  " + area + "/" + major);
 				return conc;
+			} finally {
+				lock.unlock();
 			}
 		} else {
 			PosMajorConcentration conc = findPosMajorConcentration(helper.getHibSession(), iSession.getUniqueId(), area, major, concentration);
+			if (conc != null)
+				BannerReferenceRegistry.putId(Type.CONCENTRATION, iSession.getUniqueId(), conc.getUniqueId(), area, major, concentration);
 			if (conc == null) {
 				conc = new PosMajorConcentration();
 				conc.setExternalUniqueId(concentration);
@@ -797,10 +956,16 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
     }
 	
 	protected Degree getDegree(OnlineSectioningHelper helper, String degree) {
+		Degree cached = getCached(helper, Degree.class, Type.DEGREE, degree);
+		if (cached != null) return cached;
 		if (iLocking) {
-			synchronized (("Degree:" + iSession.getReference() + ":" + degree).intern()) {
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.DEGREE, iSession.getUniqueId(), degree);
+			try {
 				Degree deg = findDegree(helper.getHibSession(), iSession.getUniqueId(), degree);
-				if (deg != null) return deg;
+				if (deg != null) {
+					BannerReferenceRegistry.putId(Type.DEGREE, iSession.getUniqueId(), deg.getUniqueId(), degree);
+					return deg;
+				}
 				deg = new Degree();
 				deg.setExternalUniqueId(degree);
 				deg.setReference(degree);
@@ -810,15 +975,20 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 				try {
 					deg.setUniqueId((Long)hibSession.save(deg));
 					hibSession.flush();
+					BannerReferenceRegistry.putId(Type.DEGREE, iSession.getUniqueId(), deg.getUniqueId(), degree);
 				} finally {
 					hibSession.close();
 				}
 				helper.getHibSession().update(deg);
 				helper.info("Added Degree:  " + degree);
 				return deg;
+			} finally {
+				lock.unlock();
 			}
 		} else {
 			Degree deg = findDegree(helper.getHibSession(), iSession.getUniqueId(), degree);
+			if (deg != null)
+				BannerReferenceRegistry.putId(Type.DEGREE, iSession.getUniqueId(), deg.getUniqueId(), degree);
 			if (deg == null) {
 				deg = new Degree();
 				deg.setExternalUniqueId(degree);
@@ -853,10 +1023,16 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
     }
 	
 	protected Program getProgram(OnlineSectioningHelper helper, String program) {
+		Program cached = getCached(helper, Program.class, Type.PROGRAM, program);
+		if (cached != null) return cached;
 		if (iLocking) {
-			synchronized (("Program:" + iSession.getReference() + ":" + program).intern()) {
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.PROGRAM, iSession.getUniqueId(), program);
+			try {
 				Program prog = findProgram(helper.getHibSession(), iSession.getUniqueId(), program);
-				if (prog != null) return prog;
+				if (prog != null) {
+					BannerReferenceRegistry.putId(Type.PROGRAM, iSession.getUniqueId(), prog.getUniqueId(), program);
+					return prog;
+				}
 				prog = new Program();
 				prog.setExternalUniqueId(program);
 				prog.setReference(program);
@@ -866,15 +1042,20 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 				try {
 					prog.setUniqueId((Long)hibSession.save(prog));
 					hibSession.flush();
+					BannerReferenceRegistry.putId(Type.PROGRAM, iSession.getUniqueId(), prog.getUniqueId(), program);
 				} finally {
 					hibSession.close();
 				}
 				helper.getHibSession().update(prog);
 				helper.info("Added Program:  " + program);
 				return prog;
+			} finally {
+				lock.unlock();
 			}
 		} else {
 			Program prog = findProgram(helper.getHibSession(), iSession.getUniqueId(), program);
+			if (prog != null)
+				BannerReferenceRegistry.putId(Type.PROGRAM, iSession.getUniqueId(), prog.getUniqueId(), program);
 			if (prog == null) {
 				prog = new Program();
 				prog.setExternalUniqueId(program);
@@ -1003,7 +1184,12 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 					}
 				}
 				
-				PosMinor posMinor = findPosMinor(helper.getHibSession(), iSession.getUniqueId(), acm.getMinor());
+				PosMinor posMinor = null;
+				Long minorId = (iPrefetch == null ? null : iPrefetch.getPosMinorId(iSession.getUniqueId(), acm.getMinor()));
+				if (minorId != null)
+					posMinor = PosMinorDAO.getInstance().get(minorId, helper.getHibSession());
+				if (posMinor == null)
+					posMinor = findPosMinor(helper.getHibSession(), iSession.getUniqueId(), acm.getMinor());
 				if (posMinor == null) {
 					helper.warn("Minor " + acm.getMinor() + " does not exist.");
 					continue aac;
@@ -1043,7 +1229,8 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 	
 	protected StudentGroupType getStudentGroupType(OnlineSectioningHelper helper, String name) {
 		if (iLocking) {
-			synchronized (("GroupType:" + name).intern()) {
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.GROUP_TYPE, null, name);
+			try {
 				StudentGroupType type = StudentGroupType.findByReference(name, helper.getHibSession());
 				if (type != null) return type;
 				if (type == null && "SPORT".equals(name)) {
@@ -1073,6 +1260,8 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 					helper.getHibSession().update(type);
 				}
 				return type;
+			} finally {
+				lock.unlock();
 			}
 		} else {
 			StudentGroupType type = StudentGroupType.findByReference(name, helper.getHibSession());
@@ -1098,10 +1287,28 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		}
 	}
 	
+	protected StudentGroup findStudentGroup(OnlineSectioningHelper helper, String externalId) {
+		StudentGroup cached = getCached(helper, StudentGroup.class, Type.GROUP, externalId);
+		if (cached != null) return cached;
+		Long id = (iPrefetch == null ? null : iPrefetch.getStudentGroupId(iSession.getUniqueId(), externalId));
+		if (id != null) {
+			StudentGroup sg = StudentGroupDAO.getInstance().get(id, helper.getHibSession());
+			if (sg != null) {
+				BannerReferenceRegistry.putId(Type.GROUP, iSession.getUniqueId(), sg.getUniqueId(), externalId);
+				return sg;
+			}
+		}
+		StudentGroup sg = StudentGroup.findByExternalId(helper.getHibSession(), externalId, iSession.getUniqueId());
+		if (sg != null)
+			BannerReferenceRegistry.putId(Type.GROUP, iSession.getUniqueId(), sg.getUniqueId(), externalId);
+		return sg;
+	}
+	
 	protected StudentGroup getStudentGroup(OnlineSectioningHelper helper, StudentGroupType type, String[] g) {
 		if (iLocking) {
-			synchronized (("Group:" + g[0]).intern()) {
-				StudentGroup sg = StudentGroup.findByExternalId(helper.getHibSession(), g[0], iSession.getUniqueId());
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.GROUP, iSession.getUniqueId(), g[0]);
+			try {
+				StudentGroup sg = findStudentGroup(helper, g[0]);
 				if (sg == null) {
 					sg = new StudentGroup();
 					sg.setExternalUniqueId(g[0]);
@@ -1113,6 +1320,7 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 						sg.setType(g[4] == null ? null : StudentGroupType.findByReference(g[4], hibSession));
 						sg.setUniqueId((Long)hibSession.save(sg));
 						hibSession.flush();
+						BannerReferenceRegistry.putId(Type.GROUP, iSession.getUniqueId(), sg.getUniqueId(), g[0]);
 					} finally {
 						hibSession.close();
 					}
@@ -1140,9 +1348,11 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 					}
 				}
 				return sg;
+			} finally {
+				lock.unlock();
 			}
 		} else {
-			StudentGroup sg = StudentGroup.findByExternalId(helper.getHibSession(), g[0], iSession.getUniqueId());
+			StudentGroup sg = findStudentGroup(helper, g[0]);
 			if (sg == null) {
 				sg = new StudentGroup();
 				sg.setExternalUniqueId(g[0]);
@@ -1639,6 +1849,7 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 	
 	public Map<CourseOffering, List<Class_>> getEnrollments(OnlineSectioningHelper helper, UpdateResult result) {
 		Map<CourseOffering, List<Class_>> enrollments = new HashMap<CourseOffering, List<Class_>>();
+		BannerCrnClassCache.preload(iTermCode, iCRNs, helper.getHibSession());
 		for (Integer crn: iCRNs) {
 			CourseOffering co = BannerSection.findCourseOfferingForCrnAndTermCode(helper.getHibSession(), crn, iTermCode);
 			if (co == null) {
@@ -1669,6 +1880,24 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		return enrollments;
 	}
 	
+	protected Advisor findAdvisor(OnlineSectioningHelper helper, String externalId, Roles role) {
+		Long id = (iPrefetch == null ? null : iPrefetch.getAdvisorId(iSession.getUniqueId(), externalId, role.getRoleId()));
+		if (id != null) {
+			Advisor advisor = AdvisorDAO.getInstance().get(id, helper.getHibSession());
+			if (advisor != null) {
+				BannerReferenceRegistry.putId(Type.ADVISOR, iSession.getUniqueId(), advisor.getUniqueId(), externalId, role.getRoleId().toString());
+				return advisor;
+			}
+		}
+		Advisor advisor = (Advisor)helper.getHibSession().createQuery(
+				"from Advisor where externalUniqueId = :externalId and role.roleId = :roleId and session.uniqueId = :sessionId")
+				.setString("externalId", externalId).setLong("roleId", role.getRoleId()).setLong("sessionId", iSession.getUniqueId())
+				.setCacheable(true).setMaxResults(1).uniqueResult();
+		if (advisor != null)
+			BannerReferenceRegistry.putId(Type.ADVISOR, iSession.getUniqueId(), advisor.getUniqueId(), externalId, role.getRoleId().toString());
+		return advisor;
+	}
+	
 	protected Advisor getAdvisor(OnlineSectioningHelper helper, String externalId, String type) {
 		Roles role = null;
 		if (type != null && !type.isEmpty())
@@ -1679,12 +1908,12 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 			helper.warn("No advisor role found for " + type);
 			return null;
 		}
+		Advisor cached = getCached(helper, Advisor.class, Type.ADVISOR, externalId, role.getRoleId().toString());
+		if (cached != null) return cached;
 		if (iLocking) {
-			synchronized (("Advisor:" + externalId).intern()) {
-				Advisor advisor = (Advisor)helper.getHibSession().createQuery(
-						"from Advisor where externalUniqueId = :externalId and role.roleId = :roleId and session.uniqueId = :sessionId")
-						.setString("externalId", externalId).setLong("roleId", role.getRoleId()).setLong("sessionId", iSession.getUniqueId())
-						.setCacheable(true).setMaxResults(1).uniqueResult();
+			ReentrantLock lock = BannerReferenceRegistry.lock(Type.ADVISOR, iSession.getUniqueId(), externalId);
+			try {
+				Advisor advisor = findAdvisor(helper, externalId, role);
 				if (advisor != null) return advisor;
 				advisor = new Advisor();
 				advisor.setExternalUniqueId(externalId);
@@ -1700,18 +1929,18 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 				try {
 					advisor.setUniqueId((Long)hibSession.save(advisor));
 					hibSession.flush();
+					BannerReferenceRegistry.putId(Type.ADVISOR, iSession.getUniqueId(), advisor.getUniqueId(), externalId, role.getRoleId().toString());
 				} finally {
 					hibSession.close();
 				}
 				helper.info("Added Advisor:  " + advisor.getExternalUniqueId() + " - " + advisor.getRole().getReference() + " to session " + iSession.academicInitiativeDisplayString());
 				helper.getHibSession().update(advisor);
 				return advisor;
+			} finally {
+				lock.unlock();
 			}
 		} else {
-			Advisor advisor = (Advisor)helper.getHibSession().createQuery(
-					"from Advisor where externalUniqueId = :externalId and role.roleId = :roleId and session.uniqueId = :sessionId")
-					.setString("externalId", externalId).setLong("roleId", role.getRoleId()).setLong("sessionId", iSession.getUniqueId())
-					.setCacheable(true).setMaxResults(1).uniqueResult();
+			Advisor advisor = findAdvisor(helper, externalId, role);
 			if (advisor == null) {
 				advisor = new Advisor();
 				advisor.setExternalUniqueId(externalId);
@@ -1871,6 +2100,7 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 		private int iChanges = 0;
 		private Long iStudentId = null;
 		private List<OfferingCheck> iOfferingChecks = null;
+		private boolean iQueued = false;
 		
 		public Status getStatus() { return iStatus; }
 		public void setStatus(Status status) { iStatus = status; }
@@ -1903,6 +2133,10 @@ public class BannerUpdateStudentAction implements OnlineSectioningAction<BannerU
 			iOfferingChecks.add(check);
 		}
 		public Collection<OfferingCheck> getOfferingChecks() { return iOfferingChecks; }
+		
+		/** True if the student has already been put in the student sectioning queue (batched update) */
+		public boolean isQueued() { return iQueued; }
+		public void setQueued(boolean queued) { iQueued = queued; }
 	}
 
 	public static class Pair {
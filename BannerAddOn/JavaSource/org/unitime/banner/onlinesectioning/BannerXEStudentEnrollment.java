@@ -34,6 +34,7 @@ import java.util.TreeSet;
 import org.dom4j.Document;
 import org.dom4j.DocumentHelper;
 import org.dom4j.Element;
+import org.unitime.banner.model.BannerCrnClassCache;
 import org.unitime.banner.model.BannerSection;
 import org.unitime.banner.model.QueueOut;
 import org.unitime.banner.onlinesectioning.BannerUpdateStudentAction.Pair;
@@ -87,6 +88,7 @@ public class BannerXEStudentEnrollment extends XEStudentEnrollment {
 		}
 		QueueOut out = new QueueOut();
 		out.setXml(document);
+		out.updateMetadata();
 		out.setStatus(QueueOut.STATUS_READY);
 		out.setPostDate(new Date());
 		helper.getHibSession().save(out);
@@ -98,6 +100,12 @@ public class BannerXEStudentEnrollment extends XEStudentEnrollment {
 		Map<CourseOffering, List<Class_>> enrollments = new HashMap<CourseOffering, List<Class_>>();
 		AcademicSessionInfo session = server.getAcademicSession();
 		String termCode = getBannerTerm(session);
+		if (BannerCrnClassCache.isEnabled()) {
+			List<Integer> crns = new ArrayList<Integer>();
+			for (XEInterface.Registration reg: registration)
+				if (reg.isRegistered()) crns.add(Integer.parseInt(reg.courseReferenceNumber));
+			BannerCrnClassCache.preload(termCode, crns, helper.getHibSession());
+		}
 		for (XEInterface.Registration reg: registration) {
 			if (!reg.isRegistered()) continue;
 			CourseOffering co = BannerSection.findCourseOfferingForCrnAndTermCode(helper.getHibSession(), Integer.parseInt(reg.courseReferenceNumber), termCode);
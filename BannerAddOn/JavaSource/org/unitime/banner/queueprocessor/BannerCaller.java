@@ -112,6 +112,7 @@ public abstract class BannerCaller {
 		Document outDoc = null;
 		try {
 			outDoc = ClobTools.clobToDocument(clob);
+			ClobTools.free(clob);
 			
 		} catch (Exception ex) {
 			Debug.info("***************************************");
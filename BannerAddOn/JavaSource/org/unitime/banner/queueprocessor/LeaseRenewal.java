@@ -0,0 +1,150 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor;
+
+import java.util.Date;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import org.hibernate.HibernateException;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.unitime.banner.model.Queue;
+import org.unitime.banner.model.dao.QueueOutDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Keeps the leases of the messages claimed by this worker (see {@link Queue#getLocalWorkerId()}) from expiring while they are being processed,
+ * so that a long message (e.g., a large AUDIT packet or a batch of student updates) is not put back and processed a second time.<br>
+ * <br>
+ * Every third of <code>queueprocessor.claim.lease</code>, the lease expiration of each registered message is moved forward by a conditional
+ * update that only matches while the message is still claimed by this worker with the claimed status. A message whose lease cannot be renewed
+ * (it has been finished, released, or reclaimed in the meantime) is dropped. A message is renewed for at most <code>queueprocessor.claim.maxLease</code>
+ * seconds, so that a message that a stuck worker never finishes is eventually put back.
+ */
+public class LeaseRenewal {
+	private static LeaseRenewal sInstance = null;
+
+	private ScheduledExecutorService iExecutor;
+	private Map<String, Lease> iLeases = new ConcurrentHashMap<String, Lease>();
+
+	private LeaseRenewal() {
+		long period = Math.max(1000l, Queue.getLeaseTime() / 3);
+		iExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "QueueLeaseRenewal");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		iExecutor.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				renew();
+			}
+		}, period, period, TimeUnit.MILLISECONDS);
+	}
+
+	public static synchronized LeaseRenewal getInstance() {
+		if (sInstance == null)
+			sInstance = new LeaseRenewal();
+		return sInstance;
+	}
+
+	/**
+	 * Maximal time in milliseconds for which the lease of a message is renewed.
+	 */
+	public static long getMaxLeaseTime() {
+		return 1000l * Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.claim.maxLease", "86400"));
+	}
+
+	/**
+	 * Start renewing the lease of a message that has just been claimed by this worker.
+	 * @param entity entity name (QueueOut or QueueIn)
+	 */
+	public void register(String entity, Long queueId, String claimedStatus) {
+		iLeases.put(entity + ":" + queueId, new Lease(entity, queueId, claimedStatus));
+	}
+
+	/**
+	 * Stop renewing the lease of a message (it has been finished or released).
+	 */
+	public void unregister(String entity, Long queueId) {
+		iLeases.remove(entity + ":" + queueId);
+	}
+
+	public int getLeaseCount() {
+		return iLeases.size();
+	}
+
+	protected void renew() {
+		if (iLeases.isEmpty()) return;
+		Session session = QueueOutDAO.getInstance().createNewSession();
+		try {
+			long now = System.currentTimeMillis();
+			long maxLease = getMaxLeaseTime();
+			Date expiration = Queue.getLeaseExpiration();
+			for (Map.Entry<String, Lease> entry: iLeases.entrySet()) {
+				Lease lease = entry.getValue();
+				if (now - lease.iClaimed > maxLease) {
+					Debug.error(lease.iEntity + " " + lease.iQueueId + " has been " + lease.iClaimedStatus + " for more than " + (maxLease / 1000) + " seconds, its lease is no longer renewed.");
+					iLeases.remove(entry.getKey(), lease);
+					continue;
+				}
+				Transaction tx = session.beginTransaction();
+				try {
+					int updated = session.createQuery(
+							"update " + lease.iEntity + " set leaseExpires = :lease where uniqueId = :queueId and workerId = :workerId and status = :claimed")
+							.setTimestamp("lease", expiration)
+							.setLong("queueId", lease.iQueueId)
+							.setString("workerId", Queue.getLocalWorkerId())
+							.setString("claimed", lease.iClaimedStatus)
+							.executeUpdate();
+					tx.commit();
+					if (updated == 0) iLeases.remove(entry.getKey(), lease);
+				} catch (HibernateException e) {
+					tx.rollback();
+					Debug.error("Failed to renew lease of " + lease.iEntity + " " + lease.iQueueId + ": " + e.getMessage(), e);
+				}
+			}
+		} catch (Exception e) {
+			Debug.error("Failed to renew leases: " + e.getMessage(), e);
+		} finally {
+			session.close();
+		}
+	}
+
+	private static class Lease {
+		private String iEntity, iClaimedStatus;
+		private Long iQueueId;
+		private long iClaimed = System.currentTimeMillis();
+
+		private Lease(String entity, Long queueId, String claimedStatus) {
+			iEntity = entity; iQueueId = queueId; iClaimedStatus = claimedStatus;
+		}
+	}
+}
@@ -0,0 +1,319 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
+import org.unitime.banner.model.QueueOut;
+import org.unitime.banner.model.dao.QueueOutDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Worker pool mode of the queue processor.<br>
+ * <br>
+ * Posted messages are split into partitions so that two messages that touch the same partition key
+ * (Banner term code and CRN or cross-list group, or just the term code when <code>queueprocessor.partitioning=term</code>)
+ * always end up in the same partition. Partitions are processed in parallel by <code>queueprocessor.workers</code> threads,
+ * messages of a partition are processed one by one in the order in which they were posted.<br>
+ * <br>
+ * When a message fails, the rest of its partition is postponed for <code>queueprocessor.errorsleepinterval</code> seconds
+ * while the other partitions continue. After <code>queueprocessor.maxRetries</code> failed attempts (if set to a positive number)
+ * the message is moved into the {@link QueueOut#STATUS_FAILED} state. The number of failed attempts and the time of the next attempt
+ * are stored with the message, so a restart of the queue processor neither resets the retry count nor the postponement.
+ */
+public class PartitionedQueueDispatcher {
+	public static enum Partitioning {
+		SECTION,
+		TERM,
+	}
+
+	private int iNrWorkers;
+	private Partitioning iPartitioning;
+	private int iMaxRetries;
+	private long iErrorSleepInterval;
+	private ExecutorService iExecutor;
+
+	public PartitionedQueueDispatcher(int nrWorkers, long errorSleepInterval) {
+		iNrWorkers = nrWorkers;
+		iErrorSleepInterval = errorSleepInterval;
+		iPartitioning = Partitioning.valueOf(ApplicationProperties.getProperty("queueprocessor.partitioning", Partitioning.SECTION.name()).toUpperCase());
+		iMaxRetries = Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.maxRetries", "0"));
+		iExecutor = Executors.newFixedThreadPool(iNrWorkers, new ThreadFactory() {
+			private AtomicInteger iCount = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "QueueProcessorWorker-" + iCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		Debug.info("Workers       : " + iNrWorkers);
+		Debug.info("Partitioning  : " + iPartitioning);
+		Debug.info("Max Retries   : " + (iMaxRetries <= 0 ? "unlimited" : String.valueOf(iMaxRetries)));
+	}
+
+	public int getNrWorkers() { return iNrWorkers; }
+
+	public Partitioning getPartitioning() { return iPartitioning; }
+
+	/**
+	 * Process the given list of posted messages (ordered by their post date) and wait until all of them are processed or postponed.
+	 */
+	public void dispatch(List<QueueOut> outList) throws InterruptedException {
+		long t0 = System.currentTimeMillis();
+		List<Partition> partitions = createPartitions(outList);
+		Debug.info("*** Dispatching " + outList.size() + " queue entries in " + partitions.size() + " partitions to " + iNrWorkers + " workers.");
+
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+		for (Partition partition: partitions) {
+			if (partition.isPostponed()) {
+				Debug.info("Partition " + partition + " is postponed until " + new Date(partition.getRetryAfter()) + ", backlog: " + partition.size());
+				continue;
+			}
+			futures.add(iExecutor.submit(partition));
+		}
+		for (Future<?> future: futures) {
+			try {
+				future.get();
+			} catch (Exception e) {
+				Debug.error(e);
+			}
+		}
+
+		int processed = 0, failed = 0, backlog = 0;
+		for (Partition partition: partitions) {
+			processed += partition.getProcessed();
+			failed += partition.getFailed();
+			backlog += partition.getBacklog();
+			if (partition.getProcessed() > 0 || partition.getFailed() > 0 || partition.getBacklog() > 0)
+				Debug.info("Partition " + partition + ": processed " + partition.getProcessed() + ", failed " + partition.getFailed() +
+						", backlog " + partition.getBacklog() + ", " + partition.getThroughput() + " msg/s");
+		}
+		long time = System.currentTimeMillis() - t0;
+		Debug.info("*** Processed " + processed + " queue entries in " + time + " ms (" + (time == 0 ? processed : Math.round(1000.0 * processed / time)) + " msg/s), " +
+				failed + " failed, " + backlog + " left in the backlog.");
+	}
+
+	public void shutdown() {
+		iExecutor.shutdownNow();
+	}
+
+	/**
+	 * Group messages into partitions: two messages sharing a partition key end up in the same partition (union-find over the keys).
+	 */
+	protected List<Partition> createPartitions(List<QueueOut> outList) {
+		Map<String, String> parent = new HashMap<String, String>();
+		Map<QueueOut, Set<String>> keys = new LinkedHashMap<QueueOut, Set<String>>();
+		for (QueueOut item: outList) {
+			Set<String> itemKeys = getPartitionKeys(item);
+			keys.put(item, itemKeys);
+			String first = null;
+			for (String key: itemKeys) {
+				if (!parent.containsKey(key)) parent.put(key, key);
+				if (first == null)
+					first = key;
+				else
+					union(parent, first, key);
+			}
+		}
+		Map<String, Partition> partitions = new LinkedHashMap<String, Partition>();
+		for (Map.Entry<QueueOut, Set<String>> e: keys.entrySet()) {
+			String root = find(parent, e.getValue().iterator().next());
+			Partition partition = partitions.get(root);
+			if (partition == null) {
+				partition = new Partition(root);
+				partitions.put(root, partition);
+			}
+			partition.add(e.getKey());
+		}
+		return new ArrayList<Partition>(partitions.values());
+	}
+
+	private static String find(Map<String, String> parent, String key) {
+		String root = key;
+		while (!root.equals(parent.get(root))) root = parent.get(root);
+		while (!key.equals(root)) {
+			String next = parent.get(key);
+			parent.put(key, root);
+			key = next;
+		}
+		return root;
+	}
+
+	private static void union(Map<String, String> parent, String a, String b) {
+		String ra = find(parent, a), rb = find(parent, b);
+		if (!ra.equals(rb)) parent.put(rb, ra);
+	}
+
+	/**
+	 * Partition keys of a message: the Banner term code combined with the CRN (or external id) of each section
+	 * and the group of each cross-list. When partitioning by term, or when no section or cross-list is present, only the term code is used.
+	 */
+	protected Set<String> getPartitionKeys(QueueOut item) {
+		Set<String> keys = new LinkedHashSet<String>();
+		Document document = item.getXml();
+		Element root = (document == null ? null : document.getRootElement());
+		if (root == null) {
+			keys.add("#" + item.getUniqueId());
+			return keys;
+		}
+		String term = root.attributeValue("TERM_CODE");
+		if (term == null) {
+			keys.add(root.getName());
+			return keys;
+		}
+		if (iPartitioning == Partitioning.SECTION) {
+			for (Iterator<?> i = root.elementIterator(); i.hasNext(); ) {
+				Element element = (Element)i.next();
+				if ("SECTION".equals(element.getName())) {
+					String crn = element.attributeValue("CRN");
+					if (crn == null || crn.isEmpty()) crn = element.attributeValue("EXTERNAL_ID");
+					keys.add(term + ":" + crn);
+				} else if ("CROSSLIST".equals(element.getName())) {
+					keys.add(term + ":X" + element.attributeValue("GROUP"));
+					for (Iterator<?> j = element.elementIterator("MEMBER"); j.hasNext(); ) {
+						keys.add(term + ":" + ((Element)j.next()).attributeValue("CRN"));
+					}
+				}
+			}
+		}
+		if (keys.isEmpty()) keys.add(term);
+		return keys;
+	}
+
+	protected class Partition implements Runnable {
+		private String iKey;
+		private List<QueueOut> iItems = new ArrayList<QueueOut>();
+		private int iProcessed = 0, iFailed = 0, iBacklog = 0;
+		private long iTime = 0;
+
+		Partition(String key) { iKey = key; }
+
+		void add(QueueOut item) { iItems.add(item); }
+
+		int size() { return iItems.size(); }
+
+		List<QueueOut> getItems() { return iItems; }
+
+		long getRetryAfter() {
+			Date retryAfter = iItems.get(0).getRetryAfter();
+			return (retryAfter == null ? 0l : retryAfter.getTime());
+		}
+
+		boolean isPostponed() {
+			if (getRetryAfter() > System.currentTimeMillis()) {
+				iBacklog = iItems.size();
+				return true;
+			}
+			return false;
+		}
+
+		int getProcessed() { return iProcessed; }
+		int getFailed() { return iFailed; }
+		int getBacklog() { return iBacklog; }
+		long getThroughput() { return (iTime == 0 ? iProcessed : Math.round(1000.0 * iProcessed / iTime)); }
+
+		@Override
+		public void run() {
+			long t0 = System.currentTimeMillis();
+			try {
+				for (int i = 0; i < iItems.size(); i++) {
+					QueueOut item = iItems.get(i);
+					boolean success = false;
+					try {
+						if (QueueOut.isClaimEnabled() && !QueueOutDAO.getInstance().claim(item, QueueOut.STATUS_POSTED, QueueOut.STATUS_PROCESSING)) {
+							// claimed by another worker: postpone the rest of the partition to keep the ordering
+							Debug.info("Queue entry " + item.getUniqueId() + " is claimed by another worker, postponing partition " + iKey + ".");
+							iBacklog = iItems.size() - i;
+							return;
+						}
+						Debug.info("Processing ID:" + item.getUniqueId().toString());
+						success = (new QueuedItem(item)).processItem();
+					} catch (Exception ex) {
+						Debug.error(ex);
+					}
+					if (success) {
+						iProcessed ++;
+					} else if (!failed(item)) {
+						// postpone the rest of the partition to keep the ordering
+						iBacklog = iItems.size() - i;
+						return;
+					}
+				}
+			} finally {
+				iTime = System.currentTimeMillis() - t0;
+			}
+		}
+
+		/**
+		 * Record a failed attempt. Returns true when the message has been moved to the failed state and the partition can continue.
+		 */
+		private boolean failed(QueueOut item) {
+			iFailed ++;
+			int failures = (item.getRetryCount() == null ? 1 : item.getRetryCount() + 1);
+			item.setRetryCount(failures);
+			if (iMaxRetries > 0 && failures >= iMaxRetries) {
+				Debug.error("Queue entry " + item.getUniqueId() + " failed " + failures + " times, it will not be processed again.");
+				try {
+					item.setRetryAfter(null);
+					QueueOutDAO.getInstance().updateRetry(item);
+					item.setProcessDate(new Date());
+					item.setStatus(QueueOut.STATUS_FAILED);
+					// the failed message has been put back, make sure it has not been claimed by another worker since
+					if (!QueueOutDAO.getInstance().updateStatus(item, QueueOut.STATUS_POSTED)) {
+						Debug.info("Queue entry " + item.getUniqueId() + " has been claimed by another worker, postponing partition " + iKey + ".");
+						return false;
+					}
+				} catch (Exception e) {
+					Debug.error("Failed to update status of queue entry " + item.getUniqueId() + ": " + e.getMessage(), e);
+					return false;
+				}
+				return true;
+			}
+			item.setRetryAfter(new Date(System.currentTimeMillis() + iErrorSleepInterval));
+			try {
+				QueueOutDAO.getInstance().updateRetry(item);
+			} catch (Exception e) {
+				Debug.error("Failed to store retry of queue entry " + item.getUniqueId() + ": " + e.getMessage(), e);
+			}
+			return false;
+		}
+
+		@Override
+		public String toString() { return iKey; }
+	}
+}
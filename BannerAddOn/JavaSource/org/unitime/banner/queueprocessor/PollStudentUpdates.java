@@ -53,25 +53,49 @@ public class PollStudentUpdates extends BannerCaller {
 
 	public void poll() {
 		if (!pollForStudentUpdates) return;
+		QueueOut qo = null;
+		boolean claimed = false;
 		try {
 			
 			QueueOutDAO qod = QueueOutDAO.getInstance();
-			QueueOut qo = null;
 			if (studentUpdateRequests) {
-				qo = qod.findFirstByStatus(QueueOut.STATUS_READY);
-				if (qo != null) {
-					qo.setPickupDate(new Date());
-					qo.setStatus(QueueOut.STATUS_PICKED_UP);
-					qod.update(qo);
+				if (QueueOut.isClaimEnabled()) {
+					qo = qod.claimFirstByStatus(QueueOut.STATUS_READY, QueueOut.STATUS_PICKED_UP);
+					if (qo != null) {
+						claimed = true;
+						LeaseRenewal.getInstance().register("QueueOut", qo.getUniqueId(), QueueOut.STATUS_PICKED_UP);
+					}
+				} else {
+					qo = qod.findFirstByStatus(QueueOut.STATUS_READY);
+					if (qo != null) {
+						qo.setPickupDate(new Date());
+						qo.setStatus(QueueOut.STATUS_PICKED_UP);
+						qod.updateStatus(qo);
+					}
 				}
 			}
 
-			Document result = callOracleProcess(qo == null ? null : qo.getXml());
+			Document result = null;
+			try {
+				result = callOracleProcess(qo == null ? null : qo.getXml());
+			} catch (Exception e) {
+				// put the claimed request back, so that it can be sent again
+				if (claimed)
+					qod.release(qo, QueueOut.STATUS_READY);
+				throw e;
+			}
 			
 			if (qo != null) {
 				qo.setProcessDate(new Date());
 				qo.setStatus(QueueOut.STATUS_PROCESSED);
-				qod.update(qo);
+				if (!claimed) {
+					qod.updateStatus(qo);
+				} else if (!qod.complete(qo, QueueOut.STATUS_PICKED_UP)) {
+					// the request has been put back (its lease expired) and it will be sent again, the updates are returned then
+					Debug.error("Queue out entry " + qo.getUniqueId() + " is no longer " + QueueOut.STATUS_PICKED_UP + " by " + QueueOut.getLocalWorkerId() +
+							" (its lease expired), the student updates it returned are not stored.");
+					return;
+				}
 			}
 			
 			// Skip null and empty messages
@@ -86,6 +110,7 @@ public class PollStudentUpdates extends BannerCaller {
 				qi.setMatchId(null);
 				qi.setStatus(QueueIn.STATUS_READY);
 				qi.setXml(result);
+				qi.updateMetadata();
 
 				qid.save(qi);
 			} catch (Exception ex) {
@@ -101,6 +126,9 @@ public class PollStudentUpdates extends BannerCaller {
 		} catch (Exception ex) {			
 			LoggableException le = new LoggableException(ex);
 			le.logError();
+		} finally {
+			if (claimed)
+				LeaseRenewal.getInstance().unregister("QueueOut", qo.getUniqueId());
 		}
 
 	}
@@ -111,15 +139,18 @@ public class PollStudentUpdates extends BannerCaller {
 
 		OracleConnector jdbc = getJDBCconnection();
 		
-		Debug.info("\tSending student update request to Banner...");
-		Clob clob = jdbc.requestEnrollmentChanges(request);
-		Debug.info("\tResponse received from Banner.");
-
-		Document outDoc = convertClobToDocument(clob);
-
-		jdbc.cleanup();
-
-		return outDoc;
+		try {
+			Debug.info("\tSending student update request to Banner...");
+			Clob clob = jdbc.requestEnrollmentChanges(request);
+			Debug.info("\tResponse received from Banner.");
+
+			return convertClobToDocument(clob);
+		} catch (SQLException e) {
+			jdbc.invalidate();
+			throw e;
+		} finally {
+			jdbc.cleanup();
+		}
 
 	}
 }
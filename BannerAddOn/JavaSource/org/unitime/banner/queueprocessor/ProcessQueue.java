@@ -27,6 +27,8 @@ import org.unitime.banner.model.QueueOut;
 import org.unitime.banner.model.dao.QueueInDAO;
 import org.unitime.banner.model.dao.QueueOutDAO;
 import org.unitime.banner.queueprocessor.exception.LoggableException;
+import org.unitime.banner.queueprocessor.oracle.OracleConnectionPool;
+import org.unitime.banner.queueprocessor.util.QueueNotifier;
 import org.unitime.commons.Debug;
 import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.timetable.ApplicationProperties;
@@ -43,6 +45,11 @@ public class ProcessQueue {
 	private static long sleep_interval = 10; // in seconds
 	private static long loop_times = -1;
 	private static long error_sleep_interval = 300; // in seconds
+	private static int workers = 1;
+	
+	private PartitionedQueueDispatcher dispatcher = null;
+	
+	private QueueCoalescer coalescer = null;
 
 	public static void main(String[] args) {
 
@@ -63,6 +70,10 @@ public class ProcessQueue {
 			loop_times = Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.looptimes"));
 		}
 		
+		if (ApplicationProperties.getProperty("queueprocessor.workers") != null) {
+			workers = Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.workers"));
+		}
+		
 		String logfilename = ApplicationProperties.getProperty("queueprocessor.logfilename", "queueprocessor.log"); 
 		SolverServerImplementation.configureLogging(
 				logfilename,
@@ -83,9 +94,25 @@ public class ProcessQueue {
 		// Convert sleep_intervals to milliseconds
 		error_sleep_interval = error_sleep_interval * 1000;
 		sleep_interval = sleep_interval * 1000;
+		
+		if (workers > 1) {
+			processQueue.dispatcher = new PartitionedQueueDispatcher(workers, error_sleep_interval);
+		}
+		
+		if (QueueCoalescer.isEnabled()) {
+			processQueue.coalescer = QueueCoalescer.getInstance();
+		}
+		
+		if (ResponseIngestion.isEnabled()) {
+			ResponseIngestion.getInstance();
+		}
+
+		QueueNotifier notifier = QueueNotifier.getInstance();
+		notifier.startListening();
 
 		int count = 1;
 		boolean done = false;
+		boolean notified = false;
 
 		while (!done) {
 
@@ -96,9 +123,13 @@ public class ProcessQueue {
 				lastRunTime = new Date();
 				processQueue.process();
 				pollStudentUpdates.poll();
+			} else if (notified) {
+				// new message has been posted, there is no need to wait for the next poll
+				processQueue.process();
+				notified = false;
 			} else {
 				try {
-					Thread.sleep(sleep_interval);
+					notified = notifier.await(sleep_interval - ((new Date()).getTime() - lastRunTime.getTime()));
 				} catch (InterruptedException e) {
 					e.printStackTrace();
 				}
@@ -115,6 +146,10 @@ public class ProcessQueue {
 				done = true;
 			}
 		}
+		
+		if (ResponseIngestion.isEnabled()) {
+			ResponseIngestion.getInstance().shutdown((int)(error_sleep_interval / 1000));
+		}
 	}
 
 	public static void printUsage() {
@@ -126,6 +161,9 @@ public class ProcessQueue {
 
 		try {
 			qod = new QueueOutDAO();
+			
+			if (ResponseIngestion.isEnabled())
+				ResponseIngestion.getInstance().submitPending();
 
 			boolean error = false;
 			
@@ -134,6 +172,8 @@ public class ProcessQueue {
 			do {
 			
 				try {
+					if (QueueOut.isClaimEnabled() && QueueOut.isReclaimDue("QueueOut:" + QueueOut.STATUS_PROCESSING))
+						qod.reclaimExpired(QueueOut.STATUS_PROCESSING, QueueOut.STATUS_POSTED);
 					outList = qod.findByStatus(QueueOut.STATUS_POSTED);
 					error = false;
 				} catch(Exception ex) {
@@ -143,23 +183,39 @@ public class ProcessQueue {
 					error = true;
 				}
 			} while (error); //Try again if an error occurred
+			
+			if (coalescer != null && !outList.isEmpty()) {
+				outList = coalescer.coalesce(outList);
+			}
 
 			if (outList.size() == 0) {
 				Debug.info("*** No items in Queue to be processed.");
 				return;
 			}
 
+			if (dispatcher != null) {
+				dispatcher.dispatch(outList);
+				OracleConnectionPool.logStatistics();
+				if (ResponseIngestion.isEnabled())
+					ResponseIngestion.getInstance().logStatistics();
+				return;
+			}
+
 			Debug.info("*** Processing " + outList.size()
 					+ " queue entries. ");
 
 			for (int i = 0; i < outList.size(); i++) {
 				try {
-				Debug.info("Processing ID:"
-						+ ((QueueOut) outList.get(i)).getUniqueId().toString());
-
-				(new QueuedItem((QueueOut) outList.get(i))).processItem();
-				
-				
+					if (QueueOut.isClaimEnabled() && !QueueOut.STATUS_PROCESSING.equals(((QueueOut) outList.get(i)).getStatus()) &&
+							!qod.claim((QueueOut) outList.get(i), QueueOut.STATUS_POSTED, QueueOut.STATUS_PROCESSING)) {
+						Debug.info("Skipping ID:"
+								+ ((QueueOut) outList.get(i)).getUniqueId().toString() + " (claimed by another worker)");
+						continue;
+					}
+					Debug.info("Processing ID:"
+							+ ((QueueOut) outList.get(i)).getUniqueId().toString());
+
+					(new QueuedItem((QueueOut) outList.get(i))).processItem();
 				} catch(Exception ex) {
 					//Sleep for the error_sleep_interval and try again
 					Debug.error(ex);
@@ -169,6 +225,9 @@ public class ProcessQueue {
 			}
 
 			Debug.info("*** Processing complete.");
+			OracleConnectionPool.logStatistics();
+			if (ResponseIngestion.isEnabled())
+				ResponseIngestion.getInstance().logStatistics();
 
 		} catch (Exception ex) {
 			LoggableException le = new LoggableException(ex);
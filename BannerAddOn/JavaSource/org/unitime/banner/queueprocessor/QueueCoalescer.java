@@ -0,0 +1,290 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.dom4j.Attribute;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.unitime.banner.model.QueueOut;
+import org.unitime.banner.model.dao.QueueOutDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Merges pending UPDATE packets of the same Banner term before they are sent to Banner.<br>
+ * <br>
+ * Consecutive posted UPDATE packets of a term with the same root attributes (IS_TRANSACTION, CLASS_END_DATE) are combined into one packet
+ * in which each section (by EXTERNAL_ID) and each cross-list (by GROUP) is present only once, with its latest state. The merged packet replaces
+ * the XML of the last packet of the run, the other packets are marked as {@link QueueOut#STATUS_STALE}. A packet of the same term with different
+ * root attributes (or one that cannot be merged at all) closes the run. Packets that are younger than
+ * <code>queueprocessor.coalesce.window</code> seconds are held back until the next run, so that edits made
+ * in quick succession end up in the same packet.
+ */
+public class QueueCoalescer {
+	private long iWindow;
+
+	public QueueCoalescer(long window) {
+		iWindow = window;
+		Debug.info("Coalesce Window: " + (iWindow / 1000));
+	}
+
+	public static boolean isEnabled() {
+		return Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.coalesce.window", "0")) > 0;
+	}
+
+	public static QueueCoalescer getInstance() {
+		return new QueueCoalescer(1000l * Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.coalesce.window", "0")));
+	}
+
+	/**
+	 * Coalesce the given list of posted messages (ordered by their post date).
+	 * @return messages that should be processed now, in the original order
+	 */
+	public List<QueueOut> coalesce(List<QueueOut> outList) {
+		long now = System.currentTimeMillis();
+		List<QueueOut> ret = new ArrayList<QueueOut>();
+		List<List<QueueOut>> runs = new ArrayList<List<QueueOut>>();
+		Map<String, List<QueueOut>> open = new HashMap<String, List<QueueOut>>();
+		Map<String, String> openKeys = new HashMap<String, String>();
+		Set<String> heldTerms = new HashSet<String>();
+		int held = 0, stale = 0;
+		for (QueueOut item: outList) {
+			String term = getTermCode(item);
+			if (term != null && (heldTerms.contains(term) || (item.getPostDate() != null && now - item.getPostDate().getTime() < iWindow))) {
+				// too recent (or after a recent packet of the same term), keep it for the next run
+				heldTerms.add(term);
+				held ++;
+				continue;
+			}
+			ret.add(item);
+			if (term != null && isCoalescable(item)) {
+				String key = getRunKey(item);
+				List<QueueOut> run = open.get(term);
+				if (run == null || !key.equals(openKeys.get(term))) {
+					// a packet with different root attributes closes the current run of its term
+					run = new ArrayList<QueueOut>();
+					open.put(term, run);
+					openKeys.put(term, key);
+					runs.add(run);
+				}
+				run.add(item);
+			} else if (term != null) {
+				// a packet that cannot be merged closes the current run of its term
+				open.remove(term);
+				openKeys.remove(term);
+			}
+		}
+		Map<QueueOut, QueueOut> replaced = new HashMap<QueueOut, QueueOut>();
+		Set<QueueOut> superseded = new HashSet<QueueOut>();
+		for (List<QueueOut> run: runs) {
+			if (run.size() <= 1) continue;
+			QueueOut merged = merge(run);
+			if (merged != null) {
+				// the merged packet takes the place of the first packet of the run
+				replaced.put(run.get(0), merged);
+				superseded.addAll(run.subList(1, run.size()));
+				stale += run.size() - 1;
+			}
+			// when the merge fails, the packets of the run stay where they are and are sent one by one
+		}
+		if (!replaced.isEmpty()) {
+			List<QueueOut> coalesced = new ArrayList<QueueOut>(ret.size() - stale);
+			for (QueueOut item: ret) {
+				QueueOut merged = replaced.get(item);
+				if (merged != null)
+					coalesced.add(merged);
+				else if (!superseded.contains(item))
+					coalesced.add(item);
+			}
+			ret = coalesced;
+		}
+		if (held > 0 || stale > 0)
+			Debug.info("*** Coalesced " + stale + " queue entries, " + held + " held back for the next run.");
+		return ret;
+	}
+
+	protected String getTermCode(QueueOut item) {
+		Document document = item.getXml();
+		if (document == null || document.getRootElement() == null) return null;
+		return document.getRootElement().attributeValue("TERM_CODE");
+	}
+
+	/**
+	 * Packets can only be merged when they have the same root attributes that are not about the contained sections.
+	 */
+	protected String getRunKey(QueueOut item) {
+		Element root = item.getXml().getRootElement();
+		return root.attributeValue("TERM_CODE") + "|" + root.attributeValue("IS_TRANSACTION") + "|" + root.attributeValue("CLASS_END_DATE");
+	}
+
+	/**
+	 * Only regular UPDATE packets created by UniTime can be merged.
+	 */
+	protected boolean isCoalescable(QueueOut item) {
+		Document document = item.getXml();
+		if (document == null || document.getRootElement() == null) return false;
+		Element root = document.getRootElement();
+		return "SCHEDULE".equals(root.getName()) &&
+				"UniTime".equals(root.attributeValue("ORIGIN")) &&
+				"UPDATE".equals(root.attributeValue("ACTION")) &&
+				"UPDATE".equals(root.attributeValue("MODE")) &&
+				root.attributeValue("BATCH_ID") == null;
+	}
+
+	/**
+	 * Merge the given run of packets into the last one, mark the others stale.
+	 * @return the merged packet, null when the packets could not be merged
+	 */
+	protected QueueOut merge(List<QueueOut> run) {
+		QueueOut last = run.get(run.size() - 1);
+		Document document = mergeDocuments(run);
+
+		List<Long> staleIds = new ArrayList<Long>();
+		for (QueueOut item: run)
+			if (!item.equals(last)) staleIds.add(item.getUniqueId());
+
+		Session hibSession = QueueOutDAO.getInstance().createNewSession();
+		Transaction tx = null;
+		try {
+			tx = hibSession.beginTransaction();
+			// lock the last packet and make sure it has not been picked up in the meantime
+			QueueOut current = (QueueOut)hibSession.get(QueueOut.class, last.getUniqueId(), LockOptions.UPGRADE);
+			if (current == null || !QueueOut.STATUS_POSTED.equals(current.getStatus())) {
+				tx.rollback();
+				Debug.info("Queue entry " + last.getUniqueId() + " has been picked up in the meantime, entries " + staleIds + " are not merged.");
+				return null;
+			}
+			Date now = new Date();
+			int updated = hibSession.createQuery("update QueueOut set status = :status, processDate = :now where uniqueId in (:ids) and status = :posted")
+				.setString("status", QueueOut.STATUS_STALE)
+				.setString("posted", QueueOut.STATUS_POSTED)
+				.setTimestamp("now", now)
+				.setParameterList("ids", staleIds)
+				.executeUpdate();
+			if (updated != staleIds.size()) {
+				// some of the packets have been picked up by another worker
+				tx.rollback();
+				Debug.info("Only " + updated + " of the queue entries " + staleIds + " are still posted, they are not merged into " + last.getUniqueId() + ".");
+				return null;
+			}
+			hibSession.evict(current);
+			current.setXml(document);
+			current.updateMetadata();
+			hibSession.update(current);
+			tx.commit();
+			last.setXml(document);
+			last.updateMetadata();
+			for (QueueOut item: run) {
+				if (!item.equals(last)) {
+					item.setStatus(QueueOut.STATUS_STALE);
+					item.setProcessDate(now);
+				}
+			}
+			Debug.info("Queue entries " + staleIds + " merged into " + last.getUniqueId() + " (" + document.getRootElement().elements("SECTION").size() + " sections, " + document.getRootElement().elements("CROSSLIST").size() + " cross-lists)");
+			return last;
+		} catch (Exception e) {
+			if (tx != null) tx.rollback();
+			Debug.error("Failed to merge queue entries " + staleIds + " into " + last.getUniqueId() + ": " + e.getMessage(), e);
+			return null;
+		} finally {
+			hibSession.close();
+		}
+	}
+
+	/**
+	 * Combine the XML of the given run of packets, each section and cross-list with its latest state (the root attributes are taken from the last packet).
+	 */
+	protected Document mergeDocuments(List<QueueOut> run) {
+		QueueOut last = run.get(run.size() - 1);
+		Map<String, Element> sections = new LinkedHashMap<String, Element>();
+		Map<String, Element> crosslists = new LinkedHashMap<String, Element>();
+		for (QueueOut item: run) {
+			for (Iterator<?> i = item.getXml().getRootElement().elementIterator(); i.hasNext(); ) {
+				Element element = (Element)i.next();
+				if ("SECTION".equals(element.getName())) {
+					String id = element.attributeValue("EXTERNAL_ID");
+					Element previous = sections.remove(id);
+					Element section = element.createCopy();
+					if (previous != null) keepRemovedRestrictions(previous, section);
+					sections.put(id, section);
+				} else if ("CROSSLIST".equals(element.getName())) {
+					String group = element.attributeValue("GROUP");
+					crosslists.remove(group);
+					crosslists.put(group, element.createCopy());
+				}
+			}
+		}
+
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("SCHEDULE");
+		for (Iterator<?> i = last.getXml().getRootElement().attributeIterator(); i.hasNext(); ) {
+			Attribute attribute = (Attribute)i.next();
+			root.addAttribute(attribute.getName(), attribute.getValue());
+		}
+		for (Element section: sections.values()) root.add(section);
+		for (Element crosslist: crosslists.values()) root.add(crosslist);
+		return document;
+	}
+
+	/**
+	 * Restrictions that were removed in a superseded packet are only sent once (the last sent restrictions are updated when the packet is created),
+	 * make sure they are not lost by the merge.
+	 */
+	private void keepRemovedRestrictions(Element previous, Element section) {
+		for (Iterator<?> i = previous.elementIterator("RESTRICTION"); i.hasNext(); ) {
+			Element oldRestriction = (Element)i.next();
+			String type = oldRestriction.attributeValue("TYPE");
+			Element newRestriction = null;
+			for (Iterator<?> j = section.elementIterator("RESTRICTION"); j.hasNext(); ) {
+				Element r = (Element)j.next();
+				if (type != null && type.equals(r.attributeValue("TYPE"))) { newRestriction = r; break; }
+			}
+			Set<String> present = new HashSet<String>();
+			if (newRestriction != null)
+				for (Iterator<?> j = newRestriction.elementIterator("RESTRICT"); j.hasNext(); )
+					present.add(((Element)j.next()).getTextTrim());
+			for (Iterator<?> j = oldRestriction.elementIterator("RESTRICT"); j.hasNext(); ) {
+				Element restrict = (Element)j.next();
+				if (!"Y".equals(restrict.attributeValue("REMOVE")) || present.contains(restrict.getTextTrim())) continue;
+				if (newRestriction == null) {
+					newRestriction = section.addElement("RESTRICTION");
+					newRestriction.addAttribute("TYPE", type);
+					newRestriction.addAttribute("STATUS", oldRestriction.attributeValue("STATUS"));
+				}
+				newRestriction.add(restrict.createCopy());
+			}
+		}
+	}
+}
@@ -52,14 +52,26 @@ public class QueuedItem extends BannerCaller {
 		qod = new QueueOutDAO();
 	}
 
-	public void processItem() throws SQLException, Exception {
+	/**
+	 * Send the message to Banner and store the response.
+	 * A claimed message (claimed by {@link ProcessQueue} or {@link PartitionedQueueDispatcher} right before it is handed over) has its lease
+	 * renewed while it is being processed.
+	 * @return true when the message has been processed and its status stored
+	 */
+	public boolean processItem() throws SQLException, Exception {
+
+		// a claimed message keeps its status (and the pickup date set by the claim) until it is processed
+		boolean claimed = QueueOut.STATUS_PROCESSING.equals(item.getStatus());
+		if (claimed)
+			LeaseRenewal.getInstance().register("QueueOut", item.getUniqueId(), QueueOut.STATUS_PROCESSING);
 
 		try {
 
-			item.setPickupDate(new Date());
-			item.setStatus(QueueOut.STATUS_POSTED);
-
-			qod.update(item);
+			if (!claimed) {
+				item.setPickupDate(new Date());
+				item.setStatus(QueueOut.STATUS_POSTED);
+				qod.updateStatus(item);
+			}
 
 			Document result = callOracleProcess(item.getXml());
 
@@ -72,11 +84,17 @@ public class QueuedItem extends BannerCaller {
 				qi.setMatchId(item.getUniqueId());
 				qi.setStatus(QueueIn.STATUS_POSTED);
 				qi.setXml(result);
-
-				qid.save(qi);
-				
-				// Process in UniTime
-				ReceiveBannerResponseMessage.receiveResponseDocument(qi);
+				qi.updateMetadata();
+
+				if (ResponseIngestion.isEnabled()) {
+					// Store the response, it is processed in UniTime by the response ingestion workers
+					ResponseIngestion.getInstance().post(qi);
+				} else {
+					qid.save(qi);
+					
+					// Process in UniTime
+					ReceiveBannerResponseMessage.receiveResponseDocument(qi);
+				}
 				
 			} catch (Exception ex) {
 				LoggableException le = new LoggableException(ex, qi);
@@ -87,7 +105,16 @@ public class QueuedItem extends BannerCaller {
 			item.setProcessDate(new Date());
 			item.setStatus(QueueOut.STATUS_PROCESSED);
 
-			qod.update(item);
+			if (claimed) {
+				if (!qod.complete(item, QueueOut.STATUS_PROCESSING)) {
+					Debug.error("Queue out entry " + item.getUniqueId() + " is no longer " + QueueOut.STATUS_PROCESSING + " by " + QueueOut.getLocalWorkerId() +
+							" (its lease expired), status " + item.getStatus() + " was not stored.");
+					return false;
+				}
+			} else {
+				qod.updateStatus(item);
+			}
+			return true;
 
 		} catch(SQLException sqlEx) {
 			throw sqlEx;				
@@ -102,8 +129,19 @@ public class QueuedItem extends BannerCaller {
 			
 			LoggableException le = new LoggableException(ex, item);
 			le.logError();
+		} finally {
+			if (claimed)
+				LeaseRenewal.getInstance().unregister("QueueOut", item.getUniqueId());
+			// not processed: put the claimed message back so that it can be retried
+			if (QueueOut.STATUS_PROCESSING.equals(item.getStatus())) {
+				try {
+					qod.release(item, QueueOut.STATUS_POSTED);
+				} catch (LoggableException le) {
+					le.logError();
+				}
+			}
 		}
-
+		return false;
 	}
 
 	private Document callOracleProcess(Document xml)
@@ -112,15 +150,18 @@ public class QueuedItem extends BannerCaller {
 
 		OracleConnector jdbc = getJDBCconnection();
 
-		Debug.info("\t" + item.getUniqueId() + ": Sending request to Banner...");
-		Clob clob = jdbc.processUnitimePacket(xml);
-		Debug.info("\t" + item.getUniqueId() + ": Response received from Banner.");
-
-		Document outDoc = convertClobToDocument(clob);
-		
-		jdbc.cleanup();
-
-		return outDoc;
+		try {
+			Debug.info("\t" + item.getUniqueId() + ": Sending request to Banner...");
+			Clob clob = jdbc.processUnitimePacket(xml);
+			Debug.info("\t" + item.getUniqueId() + ": Response received from Banner.");
+
+			return convertClobToDocument(clob);
+		} catch (SQLException e) {
+			jdbc.invalidate();
+			throw e;
+		} finally {
+			jdbc.cleanup();
+		}
 
 	}
 
@@ -0,0 +1,316 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ * 
+*/
+package org.unitime.banner.queueprocessor;
+
+import java.util.Collections;
+import java.util.Date;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.unitime.banner.dataexchange.ReceiveBannerResponseMessage;
+import org.unitime.banner.model.Queue;
+import org.unitime.banner.model.QueueIn;
+import org.unitime.banner.model.dao.QueueInDAO;
+import org.unitime.banner.queueprocessor.exception.LoggableException;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.dao._RootDAO;
+
+/**
+ * Asynchronous ingestion of the Banner responses, used when <code>queueprocessor.responseWorkers</code> is set to a positive number.<br>
+ * <br>
+ * The thread that calls Banner ({@link QueuedItem}) only stores the response as a {@link QueueIn} message in the {@link Queue#STATUS_POSTED}
+ * state and hands it over to this pool, so that the next packet can be sent to Banner while the response is being stored in UniTime.
+ * A worker claims the response by changing its status to {@link Queue#STATUS_INGESTING} (with a lease of <code>queueprocessor.claim.lease</code> seconds
+ * that is renewed while the response is being stored, see {@link LeaseRenewal}), stores it using {@link ReceiveBannerResponseMessage}, and marks it
+ * as {@link Queue#STATUS_PROCESSED} (or {@link Queue#STATUS_FAILED}) by a conditional update that only matches while the worker still holds the claim.<br>
+ * <br>
+ * The packet sent to Banner is marked as processed as soon as the response is stored as a message, so a response that fails to be stored is not
+ * sent to Banner again. Instead, it is put back and stored again up to <code>queueprocessor.responseRetries</code> times (the attempts are counted
+ * in memory, so they start over after a restart) before it is left in the {@link Queue#STATUS_FAILED} state.<br>
+ * <br>
+ * At most <code>queueprocessor.responseQueueSize</code> responses are waiting for a worker, a thread handing over another response waits until
+ * there is room. Responses left behind (e.g., by a restart of the queue processor), put back for a retry, or with an expired lease are picked up
+ * by {@link #submitPending()}.
+ */
+public class ResponseIngestion {
+	private static ResponseIngestion sInstance = null;
+
+	private int iQueueSize;
+	private ThreadPoolExecutor iExecutor;
+	private Set<Long> iInFlight = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+	private Map<Long, Integer> iAttempts = new ConcurrentHashMap<Long, Integer>();
+	private AtomicInteger iStored = new AtomicInteger(0), iFailed = new AtomicInteger(0);
+	private AtomicLong iWaitTime = new AtomicLong(0);
+
+	public static int getNrWorkers() {
+		return Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.responseWorkers", "0"));
+	}
+
+	public static boolean isEnabled() {
+		return getNrWorkers() > 0;
+	}
+
+	/**
+	 * Number of times a response that failed to be stored is put back and stored again.
+	 */
+	public static int getMaxRetries() {
+		return Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.responseRetries", "3"));
+	}
+
+	public static synchronized ResponseIngestion getInstance() {
+		if (sInstance == null)
+			sInstance = new ResponseIngestion(getNrWorkers(), Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.responseQueueSize", "10"))));
+		return sInstance;
+	}
+
+	ResponseIngestion(int nrWorkers, int queueSize) {
+		iQueueSize = queueSize;
+		iExecutor = new ThreadPoolExecutor(nrWorkers, nrWorkers, 0l, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+			private AtomicInteger iCount = new AtomicInteger(0);
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "ResponseIngestionWorker-" + iCount.incrementAndGet());
+				t.setDaemon(true);
+				return t;
+			}
+		}, new RejectedExecutionHandler() {
+			@Override
+			public void rejectedExecution(Runnable r, ThreadPoolExecutor executor) {
+				if (executor.isShutdown())
+					throw new RejectedExecutionException("Response ingestion has been shut down.");
+				// backpressure: wait until there is room in the queue
+				long t0 = System.currentTimeMillis();
+				try {
+					executor.getQueue().put(r);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RejectedExecutionException(e);
+				} finally {
+					iWaitTime.addAndGet(System.currentTimeMillis() - t0);
+				}
+			}
+		});
+		Debug.info("Response Workers: " + nrWorkers);
+		Debug.info("Response Queue  : " + queueSize);
+	}
+
+	/**
+	 * Store the given (new) response message and hand it over to the workers. Blocks while the queue of waiting responses is full.
+	 */
+	public void post(QueueIn queueIn) throws LoggableException {
+		Session hibSession = QueueInDAO.getInstance().createNewSession();
+		Transaction tx = null;
+		try {
+			tx = hibSession.beginTransaction();
+			hibSession.save(queueIn);
+			tx.commit();
+		} catch (RuntimeException e) {
+			if (tx != null) tx.rollback();
+			throw new LoggableException(e, queueIn);
+		} finally {
+			hibSession.close();
+		}
+		submit(queueIn.getUniqueId());
+	}
+
+	private void submit(Long queueInId) {
+		if (!iInFlight.add(queueInId)) return;
+		try {
+			iExecutor.execute(new Ingest(queueInId));
+		} catch (RejectedExecutionException e) {
+			iInFlight.remove(queueInId);
+			Debug.info("Response " + queueInId + " was not handed over (" + e.getMessage() + "), it will be picked up later.");
+		}
+	}
+
+	/**
+	 * Hand over the responses that are waiting to be stored but are not in the pool (e.g., after a restart or a failed attempt), putting back
+	 * the responses whose lease has expired first (at most once per <code>queueprocessor.claim.reclaimInterval</code>).
+	 */
+	public void submitPending() {
+		try {
+			if (Queue.isReclaimDue("QueueIn:" + Queue.STATUS_INGESTING))
+				QueueInDAO.getInstance().reclaimExpired(Queue.STATUS_INGESTING, Queue.STATUS_POSTED);
+			for (Long queueInId: QueueInDAO.getInstance().findResponseIds(Queue.STATUS_POSTED, iQueueSize + iInFlight.size())) {
+				if (!iInFlight.contains(queueInId)) {
+					Debug.info("Picking up waiting response " + queueInId);
+					submit(queueInId);
+				}
+			}
+		} catch (LoggableException e) {
+			e.logError();
+		}
+	}
+
+	public void logStatistics() {
+		Debug.info("*** Responses stored: " + iStored.get() + ", failed: " + iFailed.get() + ", in progress: " + iInFlight.size() +
+				", waited for a worker: " + iWaitTime.get() + " ms.");
+	}
+
+	/**
+	 * Stop accepting new responses and wait up to the given number of seconds for the responses in progress.
+	 */
+	public void shutdown(int timeout) {
+		iExecutor.shutdown();
+		try {
+			if (!iExecutor.awaitTermination(timeout, TimeUnit.SECONDS))
+				Debug.info(iInFlight.size() + " responses were not stored, they will be picked up when the queue processor is started again.");
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Load the response message with the given id.
+	 */
+	protected QueueIn load(Long queueInId) throws LoggableException {
+		return QueueInDAO.getInstance().get(queueInId);
+	}
+
+	/**
+	 * Claim the given response for this worker, false if it has been taken by another worker.
+	 */
+	protected boolean claim(QueueIn queueIn) throws LoggableException {
+		if (!QueueInDAO.getInstance().claim(queueIn, Queue.STATUS_POSTED, Queue.STATUS_INGESTING)) return false;
+		LeaseRenewal.getInstance().register("QueueIn", queueIn.getUniqueId(), Queue.STATUS_INGESTING);
+		return true;
+	}
+
+	/**
+	 * Store the given (claimed) response in UniTime, a failure to store the response is thrown.
+	 * @return false when the claim has been lost before the response could be marked as processed
+	 */
+	protected boolean store(QueueIn queueIn) throws LoggableException {
+		try {
+			return ReceiveBannerResponseMessage.receiveResponseDocument(queueIn, Queue.STATUS_INGESTING);
+		} finally {
+			LeaseRenewal.getInstance().unregister("QueueIn", queueIn.getUniqueId());
+		}
+	}
+
+	/**
+	 * Give up the claim of the given response, putting it into the given status.
+	 */
+	protected void release(QueueIn queueIn, String status) throws LoggableException {
+		LeaseRenewal.getInstance().unregister("QueueIn", queueIn.getUniqueId());
+		QueueInDAO.getInstance().release(queueIn, status);
+	}
+
+	/**
+	 * Write the status of the given response while the claim holds.
+	 * @return false when the claim has been lost (the status is not stored then)
+	 */
+	protected boolean complete(QueueIn queueIn) throws LoggableException {
+		LeaseRenewal.getInstance().unregister("QueueIn", queueIn.getUniqueId());
+		return QueueInDAO.getInstance().complete(queueIn, Queue.STATUS_INGESTING);
+	}
+
+	protected void closeSessions() {
+		_RootDAO.closeCurrentThreadSessions();
+	}
+
+	class Ingest implements Runnable {
+		private Long iQueueInId;
+
+		Ingest(Long queueInId) { iQueueInId = queueInId; }
+
+		@Override
+		public void run() {
+			QueueIn qi = null;
+			try {
+				qi = load(iQueueInId);
+				if (qi == null || !claim(qi)) {
+					Debug.info("Response " + iQueueInId + " has been taken by another worker.");
+					return;
+				}
+				long t0 = System.currentTimeMillis();
+				boolean stored = store(qi);
+				if (!stored) {
+					Debug.error("Response " + iQueueInId + " is no longer " + Queue.STATUS_INGESTING + " by " + Queue.getLocalWorkerId() +
+							" (its lease expired), status " + qi.getStatus() + " was not stored.");
+				} else if (Queue.STATUS_INGESTING.equals(qi.getStatus())) {
+					// not a schedule response
+					Debug.info("Message " + iQueueInId + " (" + qi.getMessageType() + ") is not a schedule response, it will not be processed.");
+					complete(qi, Queue.STATUS_INVALID);
+					iFailed.incrementAndGet();
+				} else {
+					Debug.info("Response " + iQueueInId + " stored in " + (System.currentTimeMillis() - t0) + " ms.");
+					iAttempts.remove(iQueueInId);
+					iStored.incrementAndGet();
+				}
+			} catch (LoggableException e) {
+				// already logged
+				failed(qi);
+			} catch (Exception e) {
+				new LoggableException(e, qi).logError();
+				failed(qi);
+			} finally {
+				iInFlight.remove(iQueueInId);
+				closeSessions();
+			}
+		}
+
+		/**
+		 * Put the response back to be stored again, or mark it as failed when it has been tried too many times.
+		 */
+		private void failed(QueueIn qi) {
+			iFailed.incrementAndGet();
+			if (qi == null || !Queue.STATUS_INGESTING.equals(qi.getStatus())) return;
+			Integer attempts = iAttempts.get(iQueueInId);
+			attempts = (attempts == null ? 1 : attempts + 1);
+			if (attempts <= getMaxRetries()) {
+				iAttempts.put(iQueueInId, attempts);
+				Debug.info("Response " + iQueueInId + " failed to be stored, it will be tried again (attempt " + attempts + " of " + getMaxRetries() + ").");
+				try {
+					release(qi, Queue.STATUS_POSTED);
+				} catch (LoggableException e) {
+					e.logError();
+				}
+			} else {
+				iAttempts.remove(iQueueInId);
+				complete(qi, Queue.STATUS_FAILED);
+			}
+		}
+
+		private void complete(QueueIn qi, String status) {
+			try {
+				qi.setStatus(status);
+				qi.setProcessDate(new Date());
+				if (!ResponseIngestion.this.complete(qi))
+					Debug.error("Response " + iQueueInId + " is no longer " + Queue.STATUS_INGESTING + " by " + Queue.getLocalWorkerId() +
+							" (its lease expired), status " + status + " was not stored.");
+			} catch (LoggableException e) {
+				e.logError();
+			}
+		}
+	}
+}
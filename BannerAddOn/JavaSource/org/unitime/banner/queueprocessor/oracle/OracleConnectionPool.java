@@ -0,0 +1,322 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor.oracle;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.Map;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Bounded pool of long-lived JDBC connections to Banner, shared by all {@link OracleConnector} instances
+ * that connect to the same url with the same user.<br>
+ * <br>
+ * Connections are validated when borrowed, idle connections are closed after <code>banner.pool.idleTimeout</code>
+ * seconds and connections that failed (e.g., because Banner was restarted) are replaced by new ones.
+ * Wait time and utilization are collected and can be printed using {@link OracleConnectionPool#logStatistics()}.
+ */
+public class OracleConnectionPool {
+	private static Map<String, OracleConnectionPool> sPools = new HashMap<String, OracleConnectionPool>();
+	private static Timer sEvictionTimer = null;
+
+	private String iUrl, iUser, iPassword;
+	private int iMaxSize;
+	private long iMaxWait, iIdleTimeout;
+	private int iValidationTimeout;
+	private Semaphore iPermits;
+	private LinkedList<IdleConnection> iIdle = new LinkedList<IdleConnection>();
+
+	private AtomicInteger iActive = new AtomicInteger(0);
+	private AtomicInteger iPeakActive = new AtomicInteger(0);
+	private AtomicLong iBorrowed = new AtomicLong(0);
+	private AtomicLong iCreated = new AtomicLong(0);
+	private AtomicLong iClosed = new AtomicLong(0);
+	private AtomicLong iValidationFailures = new AtomicLong(0);
+	private AtomicLong iTotalWait = new AtomicLong(0);
+	private AtomicLong iMaxWaitObserved = new AtomicLong(0);
+	private AtomicLong iTimeouts = new AtomicLong(0);
+
+	private OracleConnectionPool(String url, String user, String password) {
+		iUrl = url; iUser = user; iPassword = password;
+		iMaxSize = Integer.parseInt(ApplicationProperties.getProperty("banner.pool.maxSize", "5"));
+		iMaxWait = 1000l * Long.parseLong(ApplicationProperties.getProperty("banner.pool.maxWait", "60"));
+		iIdleTimeout = 1000l * Long.parseLong(ApplicationProperties.getProperty("banner.pool.idleTimeout", "300"));
+		iValidationTimeout = Integer.parseInt(ApplicationProperties.getProperty("banner.pool.validationTimeout", "5"));
+		iPermits = new Semaphore(iMaxSize, true);
+	}
+
+	/**
+	 * Connection pooling can be disabled by setting <code>banner.pool.enabled</code> to false, in which case
+	 * each {@link OracleConnector} opens (and closes) its own connection.
+	 */
+	public static boolean isEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("banner.pool.enabled", "true"));
+	}
+
+	public static synchronized OracleConnectionPool getInstance(String url, String user, String password) {
+		String key = user + "@" + url;
+		OracleConnectionPool pool = sPools.get(key);
+		if (pool == null) {
+			pool = new OracleConnectionPool(url, user, password);
+			sPools.put(key, pool);
+			if (sEvictionTimer == null) {
+				sEvictionTimer = new Timer("BannerConnectionPoolEviction", true);
+				long period = Math.max(1000l, pool.iIdleTimeout / 2);
+				sEvictionTimer.schedule(new TimerTask() {
+					@Override
+					public void run() {
+						evictAll();
+					}
+				}, period, period);
+			}
+		}
+		return pool;
+	}
+
+	/**
+	 * Borrow a connection from the pool, waiting up to <code>banner.pool.maxWait</code> seconds when all connections are in use.
+	 * Idle connections are validated first, a new connection is created when there is no valid idle connection available.
+	 */
+	public Connection borrow() throws SQLException {
+		long t0 = System.currentTimeMillis();
+		try {
+			if (!iPermits.tryAcquire(iMaxWait, TimeUnit.MILLISECONDS)) {
+				iTimeouts.incrementAndGet();
+				throw new SQLException("Timed out after " + iMaxWait + " ms waiting for a connection to " + iUrl + " (" + getStatistics() + ")");
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLException("Interrupted while waiting for a connection to " + iUrl);
+		}
+		long wait = System.currentTimeMillis() - t0;
+		iTotalWait.addAndGet(wait);
+		while (true) {
+			long max = iMaxWaitObserved.get();
+			if (wait <= max || iMaxWaitObserved.compareAndSet(max, wait)) break;
+		}
+
+		try {
+			Connection conn = null;
+			while ((conn = pollIdle()) != null) {
+				if (isValid(conn)) break;
+				iValidationFailures.incrementAndGet();
+				close(conn);
+			}
+			if (conn == null) conn = open();
+			iBorrowed.incrementAndGet();
+			int active = iActive.incrementAndGet();
+			while (true) {
+				int peak = iPeakActive.get();
+				if (active <= peak || iPeakActive.compareAndSet(peak, active)) break;
+			}
+			return conn;
+		} catch (SQLException e) {
+			iPermits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			iPermits.release();
+			throw e;
+		}
+	}
+
+	/**
+	 * Return a connection into the pool. Connections that are closed or that cannot be reset into
+	 * the auto-commit mode are discarded.
+	 */
+	public void release(Connection conn) {
+		if (conn == null) return;
+		iActive.decrementAndGet();
+		try {
+			boolean reusable = false;
+			try {
+				if (!conn.isClosed()) {
+					if (!conn.getAutoCommit()) {
+						conn.rollback();
+						conn.setAutoCommit(true);
+					}
+					reusable = true;
+				}
+			} catch (SQLException e) {
+				Debug.info("Failed to reset a connection to " + iUrl + ", it will be closed: " + e.getMessage());
+			}
+			if (reusable) {
+				synchronized (iIdle) {
+					iIdle.addFirst(new IdleConnection(conn));
+				}
+			} else {
+				close(conn);
+			}
+		} finally {
+			iPermits.release();
+		}
+	}
+
+	/**
+	 * Close a connection that is known to be broken instead of returning it to the pool.
+	 */
+	public void invalidate(Connection conn) {
+		if (conn == null) return;
+		iActive.decrementAndGet();
+		try {
+			close(conn);
+		} finally {
+			iPermits.release();
+		}
+	}
+
+	private Connection pollIdle() {
+		synchronized (iIdle) {
+			IdleConnection idle = iIdle.pollFirst();
+			return (idle == null ? null : idle.getConnection());
+		}
+	}
+
+	private boolean isValid(Connection conn) {
+		try {
+			return !conn.isClosed() && conn.isValid(iValidationTimeout);
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	private Connection open() throws SQLException {
+		Connection conn = DriverManager.getConnection(iUrl, iUser, iPassword);
+		iCreated.incrementAndGet();
+		return conn;
+	}
+
+	private void close(Connection conn) {
+		try {
+			conn.close();
+		} catch (SQLException e) {
+			Debug.info("Failed to close a connection to " + iUrl + ": " + e.getMessage());
+		}
+		iClosed.incrementAndGet();
+	}
+
+	/**
+	 * Close connections that have been idle for more than <code>banner.pool.idleTimeout</code> seconds.
+	 */
+	public void evictIdle() {
+		long now = System.currentTimeMillis();
+		LinkedList<Connection> evicted = new LinkedList<Connection>();
+		synchronized (iIdle) {
+			for (Iterator<IdleConnection> i = iIdle.iterator(); i.hasNext(); ) {
+				IdleConnection idle = i.next();
+				if (now - idle.getIdleSince() >= iIdleTimeout) {
+					evicted.add(idle.getConnection());
+					i.remove();
+				}
+			}
+		}
+		for (Connection conn: evicted)
+			close(conn);
+	}
+
+	/**
+	 * Close all idle connections, e.g., when the application is being shut down.
+	 */
+	public void closeIdle() {
+		Connection conn = null;
+		while ((conn = pollIdle()) != null)
+			close(conn);
+	}
+
+	private static void evictAll() {
+		for (OracleConnectionPool pool: getPools())
+			pool.evictIdle();
+	}
+
+	private static synchronized OracleConnectionPool[] getPools() {
+		return sPools.values().toArray(new OracleConnectionPool[sPools.size()]);
+	}
+
+	public static void closeAll() {
+		for (OracleConnectionPool pool: getPools())
+			pool.closeIdle();
+	}
+
+	public static void logStatistics() {
+		for (OracleConnectionPool pool: getPools())
+			Debug.info("Banner connection pool " + pool.iUser + "@" + pool.iUrl + ": " + pool.getStatistics());
+	}
+
+	public int getMaxSize() { return iMaxSize; }
+	public int getActiveCount() { return iActive.get(); }
+	public int getPeakActiveCount() { return iPeakActive.get(); }
+	public int getIdleCount() { synchronized (iIdle) { return iIdle.size(); } }
+	public long getBorrowCount() { return iBorrowed.get(); }
+	public long getCreatedCount() { return iCreated.get(); }
+	public long getClosedCount() { return iClosed.get(); }
+	public long getValidationFailureCount() { return iValidationFailures.get(); }
+	public long getTimeoutCount() { return iTimeouts.get(); }
+	public long getMaxWaitTime() { return iMaxWaitObserved.get(); }
+	public double getAverageWaitTime() {
+		long borrowed = iBorrowed.get();
+		return (borrowed == 0 ? 0.0 : ((double)iTotalWait.get()) / borrowed);
+	}
+	public double getUtilization() {
+		return ((double)getActiveCount()) / iMaxSize;
+	}
+
+	public String getStatistics() {
+		return "active=" + getActiveCount() + "/" + getMaxSize() +
+				", peak=" + getPeakActiveCount() +
+				", idle=" + getIdleCount() +
+				", borrowed=" + getBorrowCount() +
+				", created=" + getCreatedCount() +
+				", closed=" + getClosedCount() +
+				", invalid=" + getValidationFailureCount() +
+				", timeouts=" + getTimeoutCount() +
+				", avgWait=" + Math.round(getAverageWaitTime()) + "ms" +
+				", maxWait=" + getMaxWaitTime() + "ms";
+	}
+
+	@Override
+	public String toString() {
+		return iUser + "@" + iUrl + " (" + getStatistics() + ")";
+	}
+
+	private static class IdleConnection {
+		private Connection iConnection;
+		private long iIdleSince;
+
+		IdleConnection(Connection connection) {
+			iConnection = connection;
+			iIdleSince = System.currentTimeMillis();
+		}
+
+		Connection getConnection() { return iConnection; }
+		long getIdleSince() { return iIdleSince; }
+	}
+}
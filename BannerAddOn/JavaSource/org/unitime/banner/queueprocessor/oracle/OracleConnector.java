@@ -26,6 +26,13 @@ import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
@@ -41,6 +48,9 @@ public class OracleConnector {
 	private String driver = "oracle.jdbc.driver.OracleDriver";
 	private String url = "jdbc:oracle:thin:@";
 	private Connection conn = null;
+	private OracleConnectionPool pool = null;
+	private static Pattern sAnonymousBlock = Pattern.compile("^\\s*begin\\s+(.*;)\\s*end\\s*;\\s*$", Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
+	private static int sCrnsPerCall = 100;
 
 	public OracleConnector(String urlFormat, String host, String db, String port, String user,
 			String password) throws ClassNotFoundException, SQLException {
@@ -53,7 +63,12 @@ public class OracleConnector {
 		// load the Oracle driver and establish a connection
 		try {
 			Class.forName(driver);
-			conn = DriverManager.getConnection(url, user, password);
+			if (OracleConnectionPool.isEnabled()) {
+				pool = OracleConnectionPool.getInstance(url, user, password);
+				conn = pool.borrow();
+			} else {
+				conn = DriverManager.getConnection(url, user, password);
+			}
 		} catch (ClassNotFoundException ex) {
 			Debug.info("Failed to find driver class: " + driver);
 			throw ex;
@@ -133,6 +148,7 @@ public class OracleConnector {
 			IOException {
 
 		CallableStatement stmt = null;
+		Clob in_packet = null;
 		try {
 			stmt = conn.prepareCall(getBannerStoredProcedureCall());
 		} catch (Exception e1) {
@@ -140,7 +156,8 @@ public class OracleConnector {
 		}
 
 		try {
-		stmt.setClob(1, ClobTools.documentToCLOB(in_clob, conn));
+			in_packet = ClobTools.documentToCLOB(in_clob, conn);
+			stmt.setClob(1, in_packet);
 		} catch(Exception ex) {
 			outputStandardDebugInfo(ex);
 		}
@@ -161,6 +178,7 @@ public class OracleConnector {
 		Clob out_sync_clob = stmt.getClob(3);
 
 		stmt.close();
+		ClobTools.free(in_packet);
 
 		if(out_sync_clob != null) {
 			//Put the "Sync" XML into the IntegrationQueueOut table
@@ -172,6 +190,8 @@ public class OracleConnector {
 				Debug.info("******************************************************************************************************");
 				e.printStackTrace();
 				Debug.info("******************************************************************************************************");
+			} finally {
+				ClobTools.free(out_sync_clob);
 			}
  		}
 		
@@ -196,9 +216,11 @@ public class OracleConnector {
 			outputStandardStudentUpdateDebugInfo(e);
 		}
 		
+		Clob in_request = null;
 		try {
 			if (stmt.getParameterMetaData().getParameterCount() == 2) {
-				stmt.setClob(2, request == null ? null : ClobTools.documentToCLOB(request, conn));
+				in_request = (request == null ? null : ClobTools.documentToCLOB(request, conn));
+				stmt.setClob(2, in_request);
 			}
 		} catch(Exception ex) {
 			outputStandardStudentUpdateDebugInfo(ex);
@@ -213,6 +235,7 @@ public class OracleConnector {
 		Clob out_clob = stmt.getClob(1);
 		
 		stmt.close();
+		ClobTools.free(in_request);
 				
 		return out_clob;
 		
@@ -254,10 +277,90 @@ public class OracleConnector {
 		
 	}
 
+	/**
+	 * Validate a number of CRNs at once. When the CRN validator call is an anonymous block (begin ...; end;), its statement is repeated
+	 * for up to 100 CRNs in one block, so that each block is validated in one round trip. Otherwise, the prepared call is executed for each CRN.
+	 * @return CRN to response map ("N" means the CRN is not used in Banner)
+	 */
+	public Map<Integer, String> validateCrnsWithBanner(String bannerTermCode, Collection<Integer> crns) throws SQLException {
+		Map<Integer, String> results = new HashMap<Integer, String>();
+		String crnValidatorStoredProcedureCall = null;
+		try {
+			crnValidatorStoredProcedureCall = getBannerCrnValidatorStoredProcedureCall();
+		} catch (Exception e) {
+			outputStandardCrnValidatorDebugInfo(e);
+		}
+		if (crnValidatorStoredProcedureCall == null){
+			for (Integer crn : crns)
+				results.put(crn, "N");
+			return results;
+		}
+
+		Matcher matcher = sAnonymousBlock.matcher(crnValidatorStoredProcedureCall);
+		if (matcher.matches() && matcher.group(1).replaceAll("[^?]", "").length() == 3) {
+			String call = matcher.group(1);
+			List<Integer> crnList = new ArrayList<Integer>(crns);
+			for (int i = 0; i < crnList.size(); i += sCrnsPerCall) {
+				List<Integer> block = crnList.subList(i, Math.min(i + sCrnsPerCall, crnList.size()));
+				StringBuffer sql = new StringBuffer("begin ");
+				for (int j = 0; j < block.size(); j++)
+					sql.append(call).append(" ");
+				sql.append("end;");
+				CallableStatement stmt = conn.prepareCall(sql.toString());
+				try {
+					for (int j = 0; j < block.size(); j++) {
+						stmt.setString(3 * j + 1, bannerTermCode);
+						stmt.setInt(3 * j + 2, block.get(j).intValue());
+						stmt.registerOutParameter(3 * j + 3, java.sql.Types.CLOB);
+					}
+					stmt.execute();
+					for (int j = 0; j < block.size(); j++)
+						results.put(block.get(j), stmt.getString(3 * j + 3));
+				} finally {
+					stmt.close();
+				}
+			}
+			return results;
+		}
+
+		CallableStatement stmt = conn.prepareCall(crnValidatorStoredProcedureCall);
+		try {
+			stmt.registerOutParameter(3, java.sql.Types.CLOB);
+			stmt.setString(1, bannerTermCode);
+			for (Integer crn : crns) {
+				stmt.setInt(2, crn.intValue());
+				stmt.execute();
+				results.put(crn, stmt.getString(3));
+			}
+		} finally {
+			stmt.close();
+		}
+		return results;
+	}
+
 	public void cleanup() throws SQLException {
 
-		if (conn != null)
-			conn.close();
+		if (conn != null) {
+			if (pool != null)
+				pool.release(conn);
+			else
+				conn.close();
+			conn = null;
+		}
+	}
+
+	/**
+	 * Discard the underlying connection instead of returning it into the pool (e.g., after a communication failure).
+	 */
+	public void invalidate() throws SQLException {
+
+		if (conn != null) {
+			if (pool != null)
+				pool.invalidate(conn);
+			else
+				conn.close();
+			conn = null;
+		}
 	}
 	
 	private static String getBannerStoredProcedureCall() throws Exception{
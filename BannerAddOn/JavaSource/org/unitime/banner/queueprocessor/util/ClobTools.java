@@ -20,33 +20,187 @@
 
 package org.unitime.banner.queueprocessor.util;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Writer;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.SQLException;
 
 import org.dom4j.Document;
 import org.dom4j.DocumentException;
+import org.dom4j.Element;
 import org.dom4j.io.OutputFormat;
 import org.dom4j.io.SAXReader;
 import org.dom4j.io.XMLWriter;
+import org.unitime.commons.Debug;
 
 /*
  * based on code contributed by Aaron Tyler
  */
 public class ClobTools {
 
+	/**
+	 * Write the document directly into the character stream of a new CLOB, without creating the whole XML string first.
+	 */
 	public static Clob documentToCLOB(Document document, Connection conn) throws IOException, SQLException {
 		Clob clob = conn.createClob();
-		XMLWriter writer = new XMLWriter(clob.setCharacterStream(1l), OutputFormat.createCompactFormat());
+		CountingWriter counter = new CountingWriter(new BufferedWriter(clob.setCharacterStream(1l)));
+		XMLWriter writer = new XMLWriter(counter, OutputFormat.createCompactFormat());
 		writer.write(document);
 		writer.flush(); writer.close();
+		Debug.debug("Written " + counter.getCount() + " characters into the CLOB.");
 		return clob;
 	}
 	
 	public static Document clobToDocument(Clob clob) throws DocumentException, SQLException{
 		SAXReader reader = new SAXReader();
-		Document document = reader.read(clob.getCharacterStream());
+		Document document = reader.read(new BufferedReader(clob.getCharacterStream()));
 		return document;
 	}
+
+	/**
+	 * Number of characters of the compact XML representation of the given element, computed without materializing it as a string.
+	 */
+	public static long elementSize(Element element) {
+		CountingWriter counter = new CountingWriter(NullWriter.INSTANCE);
+		try {
+			XMLWriter writer = new XMLWriter(counter, OutputFormat.createCompactFormat());
+			writer.write(element);
+			writer.flush();
+		} catch (IOException e) {
+		}
+		return counter.getCount();
+	}
+
+	/**
+	 * Number of bytes of the compact UTF-8 XML representation of the given document, computed without materializing it as a string.
+	 */
+	public static long documentSize(Document document) {
+		CountingOutputStream counter = new CountingOutputStream();
+		try {
+			XMLWriter writer = new XMLWriter(counter, OutputFormat.createCompactFormat());
+			writer.write(document);
+			writer.flush();
+		} catch (IOException e) {
+		}
+		return counter.getCount();
+	}
+
+	/**
+	 * XML representation of the document (e.g., for logging) that is truncated after the given number of characters.
+	 * The serialization stops as soon as the limit is reached, the rest of the document is never written.
+	 */
+	public static String toLimitedString(Document document, int limit) {
+		LimitedWriter buffer = new LimitedWriter(limit);
+		try {
+			XMLWriter writer = new XMLWriter(buffer, OutputFormat.createCompactFormat());
+			writer.write(document);
+			writer.flush();
+		} catch (LimitReachedException e) {
+			return buffer.toString() + " ....and more....";
+		} catch (IOException e) {
+		}
+		return buffer.toString();
+	}
+
+	/**
+	 * Release the resources held by a (temporary) CLOB. This is needed when the connection is pooled,
+	 * as temporary LOBs are otherwise only released when the connection is closed.
+	 */
+	public static void free(Clob clob) {
+		if (clob == null) return;
+		try {
+			clob.free();
+		} catch (Exception e) {}
+	}
+
+	private static class CountingWriter extends Writer {
+		private Writer iWriter;
+		private long iCount = 0;
+
+		CountingWriter(Writer writer) { iWriter = writer; }
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			iCount += len;
+			iWriter.write(cbuf, off, len);
+		}
+
+		@Override
+		public void write(String str, int off, int len) throws IOException {
+			iCount += len;
+			iWriter.write(str, off, len);
+		}
+
+		@Override
+		public void flush() throws IOException {
+			iWriter.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			iWriter.close();
+		}
+
+		long getCount() { return iCount; }
+	}
+
+	private static class NullWriter extends Writer {
+		static final NullWriter INSTANCE = new NullWriter();
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {}
+
+		@Override
+		public void flush() throws IOException {}
+
+		@Override
+		public void close() throws IOException {}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private long iCount = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			iCount ++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			iCount += len;
+		}
+
+		long getCount() { return iCount; }
+	}
+
+	private static class LimitReachedException extends IOException {
+		private static final long serialVersionUID = 1L;
+	}
+
+	private static class LimitedWriter extends Writer {
+		private StringBuilder iBuffer = new StringBuilder();
+		private int iLimit;
+
+		LimitedWriter(int limit) { iLimit = limit; }
+
+		@Override
+		public void write(char[] cbuf, int off, int len) throws IOException {
+			int left = iLimit - iBuffer.length();
+			iBuffer.append(cbuf, off, Math.min(left, len));
+			if (len > left) throw new LimitReachedException();
+		}
+
+		@Override
+		public void flush() throws IOException {}
+
+		@Override
+		public void close() throws IOException {}
+
+		@Override
+		public String toString() { return iBuffer.toString(); }
+	}
 }
@@ -0,0 +1,152 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor.util;
+
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.InetAddress;
+import java.net.SocketException;
+
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Wakes up the queue processor when a new message is posted into the outgoing queue, so that
+ * it does not need to wait for the next <code>queueprocessor.sleepinterval</code>.<br>
+ * <br>
+ * Within the same JVM the queue processor is notified directly. A queue processor running in a different
+ * process listens on the UDP port <code>queueprocessor.notify.port</code> (bound to <code>queueprocessor.notify.bindAddress</code>,
+ * localhost by default) and UniTime sends an empty datagram to <code>queueprocessor.notify.host</code> on that port
+ * whenever a message is posted. The notification carries no data, the queue is always read from the database;
+ * a lost notification is picked up by the periodic poll.
+ */
+public class QueueNotifier {
+	private static QueueNotifier sInstance = null;
+
+	private long iGeneration = 0, iLastSeen = 0;
+	private DatagramSocket iSendSocket = null;
+	private Listener iListener = null;
+
+	private QueueNotifier() {}
+
+	public static synchronized QueueNotifier getInstance() {
+		if (sInstance == null)
+			sInstance = new QueueNotifier();
+		return sInstance;
+	}
+
+	private static int getPort() {
+		return Integer.parseInt(ApplicationProperties.getProperty("queueprocessor.notify.port", "0"));
+	}
+
+	/**
+	 * Notify the queue processor that there is a new message in the queue.
+	 * This method never fails: when the notification cannot be delivered, the message will be picked up by the periodic poll.
+	 */
+	public static void notifyPosted() {
+		getInstance().signal();
+		int port = getPort();
+		if (port <= 0) return;
+		try {
+			getInstance().send(InetAddress.getByName(ApplicationProperties.getProperty("queueprocessor.notify.host", "localhost")), port);
+		} catch (Exception e) {
+			Debug.info("Failed to notify the queue processor: " + e.getMessage());
+		}
+	}
+
+	private synchronized void signal() {
+		iGeneration ++;
+		notifyAll();
+	}
+
+	private synchronized void send(InetAddress address, int port) throws IOException {
+		if (iSendSocket == null)
+			iSendSocket = new DatagramSocket();
+		iSendSocket.send(new DatagramPacket(new byte[0], 0, address, port));
+	}
+
+	/**
+	 * Wait for a notification, at most the given number of milliseconds.
+	 * @return true if there has been a notification since the last call
+	 */
+	public synchronized boolean await(long timeout) throws InterruptedException {
+		long end = System.currentTimeMillis() + timeout;
+		while (iGeneration == iLastSeen) {
+			long wait = end - System.currentTimeMillis();
+			if (wait <= 0) return false;
+			wait(wait);
+		}
+		iLastSeen = iGeneration;
+		return true;
+	}
+
+	/**
+	 * Start listening for notifications from other processes (only when <code>queueprocessor.notify.port</code> is set).
+	 */
+	public synchronized void startListening() {
+		int port = getPort();
+		if (port <= 0 || iListener != null) return;
+		try {
+			iListener = new Listener(new DatagramSocket(port, InetAddress.getByName(ApplicationProperties.getProperty("queueprocessor.notify.bindAddress", "localhost"))));
+			iListener.start();
+			Debug.info("Listening for queue notifications on port " + port);
+		} catch (Exception e) {
+			Debug.error("Failed to listen for queue notifications on port " + port + ": " + e.getMessage());
+		}
+	}
+
+	public synchronized void stopListening() {
+		if (iListener != null) {
+			iListener.close();
+			iListener = null;
+		}
+	}
+
+	private class Listener extends Thread {
+		private DatagramSocket iSocket;
+
+		Listener(DatagramSocket socket) {
+			super("QueueNotificationListener");
+			setDaemon(true);
+			iSocket = socket;
+		}
+
+		void close() {
+			iSocket.close();
+		}
+
+		@Override
+		public void run() {
+			DatagramPacket packet = new DatagramPacket(new byte[16], 16);
+			while (!iSocket.isClosed()) {
+				try {
+					iSocket.receive(packet);
+					signal();
+				} catch (SocketException e) {
+					break;
+				} catch (IOException e) {
+					Debug.info("Failed to receive a queue notification: " + e.getMessage());
+				}
+			}
+		}
+	}
+}
@@ -20,6 +20,8 @@
 
 package org.unitime.banner.queueprocessor.util;
 
+import java.util.List;
+
 import org.hibernate.Query;
 import org.unitime.banner.queueprocessor.BannerCaller;
 import org.unitime.banner.queueprocessor.oracle.OracleConnector;
@@ -65,7 +67,7 @@ public class QueueProcessorCheck {
 						BannerCaller.getBannerPort(),
 						BannerCaller.getBannerUser(),
 						BannerCaller.getBannerPassword());
-				mailMessage("UniTime Queue Processor for database " + HibernateUtil.getDatabaseName() + " has " + ct + " unprocessed transactions that are more than "+minutes+" minutes old");
+				mailMessage("UniTime Queue Processor for database " + HibernateUtil.getDatabaseName() + " has " + ct + " unprocessed transactions that are more than "+minutes+" minutes old" + getBacklogSummary(hibSession, minutes));
 				System.exit(33);
 			} catch (Exception e) {
 				if (e.getMessage() != null && e.getMessage().contains("Missing required custom application property")){
@@ -80,6 +82,30 @@ public class QueueProcessorCheck {
 		}
 	}
 	
+	/**
+	 * Breakdown of the unprocessed transactions by message type and term, using the message metadata columns.
+	 */
+	@SuppressWarnings("unchecked")
+	static String getBacklogSummary(org.hibernate.Session hibSession, int minutes) {
+		StringBuffer ret = new StringBuffer();
+		try {
+			for (Object[] o: (List<Object[]>)hibSession.createQuery(
+					"select qo.messageType, qo.termCode, count(qo), sum(qo.studentCount), sum(qo.byteSize)" +
+					" from QueueOut qo" +
+					" where qo.postDate < sysdate - :mins /(24*60)" +
+					" and (qo.pickupDate is null or qo.processDate is null)" +
+					" group by qo.messageType, qo.termCode order by qo.messageType, qo.termCode")
+					.setInteger("mins", minutes).list()) {
+				ret.append("\n  " + (o[0] == null ? "unknown" : o[0]) + (o[1] == null ? "" : " (" + o[1] + ")") + ": " + o[2] + " transactions");
+				if (o[3] != null && ((Number)o[3]).longValue() > 0) ret.append(", " + o[3] + " students");
+				if (o[4] != null) ret.append(", " + o[4] + " bytes");
+			}
+		} catch (Exception e) {
+			return "";
+		}
+		return ret.toString();
+	}
+	
 	static void mailMessage(String msg){
     	try {
            	Email email = Email.createEmail();
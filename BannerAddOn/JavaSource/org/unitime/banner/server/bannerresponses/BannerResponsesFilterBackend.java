@@ -19,6 +19,8 @@
 */
 package org.unitime.banner.server.bannerresponses;
 
+import java.io.IOException;
+import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
 import java.util.Calendar;
@@ -30,6 +32,8 @@ import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
 import org.unitime.banner.model.BannerResponse;
 import org.unitime.banner.model.BannerSection;
 import org.unitime.banner.model.BannerSession;
@@ -40,6 +44,7 @@ import org.unitime.timetable.gwt.command.server.GwtRpcImplements;
 import org.unitime.timetable.gwt.resources.BannerGwtConstants;
 import org.unitime.timetable.gwt.resources.BannerGwtMessages;
 import org.unitime.timetable.gwt.server.Query;
+import org.unitime.timetable.gwt.shared.BannerResponseInterface;
 import org.unitime.timetable.gwt.shared.BannerResponseInterface.BannerResponsesFilterRpcRequest;
 import org.unitime.timetable.gwt.shared.EventInterface.FilterRpcResponse;
 import org.unitime.timetable.gwt.shared.EventInterface.FilterRpcResponse.Entity;
@@ -61,6 +66,7 @@ import org.unitime.timetable.util.Formats;
 public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerResponsesFilterRpcRequest> {
 	protected static BannerGwtMessages MSG = Localization.create(BannerGwtMessages.class);
 	protected static BannerGwtConstants CONSTANTS = Localization.create(BannerGwtConstants.class);
+	private static final int FETCH_SIZE = 1000;
 
 	@Override
 	public FilterRpcResponse execute(BannerResponsesFilterRpcRequest request, SessionContext context) {
@@ -201,20 +207,11 @@ public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerRespons
 		ArrayList<HashSet<String>> allSubjects = new ArrayList<HashSet<String>>();
 		allSubjects.add(subjects);
 		allSubjects.add(bannerSubjects);
-		StringBuffer sb = new StringBuffer();
-		sb.append("select sa ")
-		  .append(" from SubjectArea sa ")
-		  .append(" where sa.session.uniqueId = ")
-		  .append(sessionId)
-		  .append(" and (sa.department.deptCode = '")
-		  .append(dept)
-		  .append("'  or sa.department.abbreviation = '")
-		  .append(dept)
-		  .append("' or sa.department.name like '%")
-		  .append(dept)
-		  .append("%')")
-		  ;
-		for ( SubjectArea sa : (List<SubjectArea>)DepartmentDAO.getInstance().getSession().createQuery(sb.toString()).setCacheable(true).list()) {
+		for ( SubjectArea sa : (List<SubjectArea>)DepartmentDAO.getInstance().getSession().createQuery(
+				"select sa from SubjectArea sa where sa.session.uniqueId = :sessionId and " +
+				"(sa.department.deptCode = :dept or sa.department.abbreviation = :dept or sa.department.name like :name)")
+				.setLong("sessionId", sessionId).setString("dept", dept).setString("name", "%" + dept + "%")
+				.setCacheable(true).list()) {
 			String bannerAbbv = BannerSection.getExternalSubjectAreaElementHelper().getBannerSubjectAreaAbbreviation(sa, null);
 			subjects.add(sa.getSubjectAreaAbbreviation());
 			if (bannerAbbv != sa.getSubjectAreaAbbreviation()) {
@@ -252,51 +249,97 @@ public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerRespons
 		return(allSubjects);
 	}
 	
-	public static class BannerResponsesMatcher implements Query.TermMatcher {
-		private Set<String> iManaged;
-		private BannerResponse iBannerResponse;
+	/**
+	 * Everything the {@link BannerResponsesMatcher} needs that does not depend on the matched response, computed once per request:
+	 * the subject areas of the managed departments and (on first use) the subject areas of each department used in the query.
+	 */
+	public static class BannerResponsesMatcherContext {
 		private Long iSessionId;
+		private Set<String> iManaged;
+		private Map<String, ArrayList<HashSet<String>>> iDeptSubjects = new HashMap<String, ArrayList<HashSet<String>>>();
 		
-		public BannerResponsesMatcher(BannerResponse bannerResponse, Long sessionId, Set<Department> managed) {
-			iBannerResponse = bannerResponse;
+		public BannerResponsesMatcherContext(Long sessionId, Set<Department> managed) {
 			iSessionId = sessionId;
 			iManaged = new HashSet<String>();
-			for (Department d : managed) {
-				for (SubjectArea sa : d.getSubjectAreas()) {
+			for (Department d : managed)
+				for (SubjectArea sa : d.getSubjectAreas())
 					iManaged.add(sa.getSubjectAreaAbbreviation());
-					String bannerAbbv = BannerSection.getExternalSubjectAreaElementHelper().getBannerSubjectAreaAbbreviation(sa, null);
-					if (!bannerAbbv.equals(sa.getSubjectAreaAbbreviation())) {
-						iManaged.add(sa.getSubjectAreaAbbreviation());
-					}
-				}
+		}
+		
+		public boolean isManaged(String subjectAreaAbbreviation) {
+			return iManaged.contains(subjectAreaAbbreviation);
+		}
+		
+		public ArrayList<HashSet<String>> getSubjectsForDept(String dept) {
+			ArrayList<HashSet<String>> subjects = iDeptSubjects.get(dept);
+			if (subjects == null) {
+				subjects = subjectsForDept(dept, iSessionId);
+				iDeptSubjects.put(dept, subjects);
 			}
+			return subjects;
 		}
+	}
+	
+	/**
+	 * Matches the filter text against a Banner response. A single matcher can be reused for all the responses of a request, see {@link #setBannerResponse(BannerResponse)}.
+	 */
+	public static class BannerResponsesMatcher implements Query.TermMatcher {
+		private BannerResponsesMatcherContext iContext;
+		private String iSubjectArea, iDeptCode, iSubjectCode, iCourseNumber;
 		
+		public BannerResponsesMatcher(BannerResponsesMatcherContext context) {
+			iContext = context;
+		}
+		
+		public BannerResponsesMatcher(BannerResponse bannerResponse, Long sessionId, Set<Department> managed) {
+			this(new BannerResponsesMatcherContext(sessionId, managed));
+			setBannerResponse(bannerResponse);
+		}
+		
+		public BannerResponsesMatcher setBannerResponse(BannerResponse bannerResponse) {
+			return setBannerResponse(
+					bannerResponse.getSubjectArea() == null ? null : bannerResponse.getSubjectArea().getSubjectAreaAbbreviation(),
+					bannerResponse.getSubjectArea() == null ? null : bannerResponse.getSubjectArea().getDepartment().getDeptCode(),
+					bannerResponse.getSubjectCode(), bannerResponse.getCourseNumber());
+		}
+		
+		/**
+		 * Match a response that was not loaded as an entity.
+		 * @param subjectArea abbreviation of the subject area of the response, null if not set
+		 * @param deptCode department code of the subject area of the response, null if not set
+		 */
+		public BannerResponsesMatcher setBannerResponse(String subjectArea, String deptCode, String subjectCode, String courseNumber) {
+			iSubjectArea = subjectArea;
+			iDeptCode = deptCode;
+			iSubjectCode = subjectCode;
+			iCourseNumber = courseNumber;
+			return this;
+		}
 
 		@Override
 		public boolean match(String attr, String term) {
 			if (term.isEmpty()) return true;
 			if (attr == null || "dept".equals(attr) || "department".equals(attr)) {
-				if (iBannerResponse.getSubjectArea() != null && iManaged.contains(iBannerResponse.getSubjectArea().getSubjectAreaAbbreviation())) {
-					if (iBannerResponse.getSubjectArea().getDepartment().getDeptCode().equals(term)) {
+				if (iSubjectArea != null && iContext.isManaged(iSubjectArea)) {
+					if (term.equals(iDeptCode)) {
 						return true;
 					}
 				} else {
-					if (iBannerResponse.getSubjectCode() != null) {
-						ArrayList<HashSet<String>> subjects = subjectsForDept(term, iSessionId);
-						if (subjects.get(0).contains(iBannerResponse.getSubjectCode())) {
+					if (iSubjectCode != null) {
+						ArrayList<HashSet<String>> subjects = iContext.getSubjectsForDept(term);
+						if (subjects.get(0).contains(iSubjectCode)) {
 							return true;
 						}
-						if (subjects.get(1).contains(iBannerResponse.getSubjectCode())) {
+						if (subjects.get(1).contains(iSubjectCode)) {
 							return true;
 						}
 					}
 				}
 			}
 			if (attr == null || "subj".equals(attr) || "subject".equals(attr)){
-				if (iManaged.contains(term)
-				&& iBannerResponse.getSubjectArea() != null 
-				&& iBannerResponse.getSubjectArea().getSubjectAreaAbbreviation().equals(term)) {
+				if (iContext.isManaged(term)
+				&& iSubjectArea != null 
+				&& iSubjectArea.equals(term)) {
 					return true;
 				}
 			}
@@ -305,11 +348,11 @@ public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerRespons
 				if (term.contains(" ")) {
 					String subj = term.substring(0, term.lastIndexOf(" "));
 					String crs = term.substring(term.lastIndexOf(" ") + 1);
-					if (iManaged.contains(subj)
-							&& iBannerResponse.getSubjectArea() != null 
-							&& iBannerResponse.getSubjectArea().getSubjectAreaAbbreviation().equals(subj)
-						    && iBannerResponse.getCourseNumber() != null
-						    && iBannerResponse.getCourseNumber().substring(0, (crs.length() > 5 ? 5 : crs.length())).equals(crs.substring(0, (crs.length() > 5 ? 5 : crs.length())))) {
+					if (iContext.isManaged(subj)
+							&& iSubjectArea != null 
+							&& iSubjectArea.equals(subj)
+						    && iCourseNumber != null
+						    && iCourseNumber.substring(0, (crs.length() > 5 ? 5 : crs.length())).equals(crs.substring(0, (crs.length() > 5 ? 5 : crs.length())))) {
 						return true;
 					} 					
 				}
@@ -469,7 +512,7 @@ public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerRespons
 		}
 	}
 		
-	private static String getBannerResponseHqlQuery(Long sessionId, Map<String, Set<String>> options, String ignoreCommand, boolean userIsDeptIndependent, Set<Department> userDepartments) {
+	private static String getBannerResponseHqlQuery(Long sessionId, Map<String, Set<String>> options, String ignoreCommand, boolean userIsDeptIndependent, Set<Department> userDepartments, boolean projection, boolean keyset) {
 		Set<String> subj = (options == null || "subj".equals(ignoreCommand) ? null : options.get("subj"));
 		Set<String> crsNbr = (options == null || "crsnbr".equals(ignoreCommand) ? null : options.get("crsnbr"));
 		Set<String> crn = (options == null || "crn".equals(ignoreCommand) ? null : options.get("crn"));
@@ -483,7 +526,11 @@ public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerRespons
 		Set<String> rspType = (options == null || "rspType".equals(ignoreCommand) ? null : options.get("rspType"));
 
 		StringBuffer sb = new StringBuffer();
-		sb.append("select br from BannerResponse br, BannerSession bs where bs.session.uniqueId = ")
+		if (projection)
+			sb.append("select " + PROJECTION + " from BannerResponse br left join br.subjectArea brsa left join brsa.department brdept, BannerSession bs where bs.session.uniqueId = ");
+		else
+			sb.append("select br from BannerResponse br, BannerSession bs where bs.session.uniqueId = ");
+		sb
 		  .append(sessionId)
 		  .append(" and br.termCode = bs.bannerTermCode")
 		  .append(" and br.crn >= bs.bannerTermCrnProperties.minCrn")
@@ -536,107 +583,93 @@ public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerRespons
 		}		
 		addOrConstraintsIfNeeded(sb, "br", "type", rspTypeList, -1, false, false, true);
 
-		if (from != null && from.size() == 1) {
-			Date date = null;
-			String fromOption = from.iterator().next();
-			try {
-				int dayOfYear = Integer.parseInt(fromOption);
-				date = DateUtils.getDate(SessionDAO.getInstance().get(sessionId).getSessionStartYear(), dayOfYear);
-			} catch (NumberFormatException f) {
-				try {
-					date = Formats.getDateFormat(Formats.Pattern.FILTER_DATE).parse(fromOption);
-				} catch (ParseException p) {}
-			}
-			if (date != null) {
-				sb.append(" and br.activityDate >= :fromDate ");
-			}
+		if (from != null && from.size() == 1 && getFromDate(sessionId, from.iterator().next()) != null) {
+			sb.append(" and br.activityDate >= :fromDate ");
 		}
-		if (to != null && to.size() == 1) {
-			Date last = null;
-			String toOption = to.iterator().next();
-			try {
-				int dayOfYear = Integer.parseInt(toOption);
-				last = DateUtils.getDate(SessionDAO.getInstance().get(sessionId).getSessionStartYear(), dayOfYear);
-			} catch (NumberFormatException f) {
-				try {
-					last = Formats.getDateFormat(Formats.Pattern.FILTER_DATE).parse(toOption);
-				} catch (ParseException p) {}
-				
-			}
-			if (last != null) {
-				sb.append(" and br.activityDate < :toDate ");
-			}
+		if (to != null && to.size() == 1 && getToDate(sessionId, to.iterator().next()) != null) {
+			sb.append(" and br.activityDate < :toDate ");
+		}
+		if (keyset) {
+			sb.append(" and (br.activityDate < :lastDate or (br.activityDate = :lastDate and br.uniqueId > :lastId))");
 		}
 
-		sb.append(" order by br.activityDate desc, br.packetId, br.sequenceNumber");
+		sb.append(" order by br.activityDate desc, br.uniqueId");
 		Debug.info("BannerResponses Search Query:  " +sb.toString());
 		return sb.toString();
 	}
-
-	public static List<BannerResponse> bannerResponses(Long sessionId, Map<String, Set<String>> options, Query query, String ignoreCommand, Set<Department> userDepartments, boolean userIsDeptIndependent) {
-		org.hibernate.Session hibSession = BannerResponseDAO.getInstance().getSession();
-		List<BannerResponse> ret = new ArrayList<BannerResponse>();
-		Set<String> to = (options == null || "to".equals(ignoreCommand) ? null : options.get("to"));
-		Set<String> from = (options == null || "from".equals(ignoreCommand) ? null : options.get("from"));
-		Set<String> limits = null;
-		if (options != null) {
-			limits = options.get("limit");
-		}
-		int limit;
-		if (limits != null && limits.size() == 1) {
-			String limitStr = limits.iterator().next();
+	
+	private static Date getFromDate(Long sessionId, String fromOption) {
+		try {
+			int dayOfYear = Integer.parseInt(fromOption);
+			return DateUtils.getDate(SessionDAO.getInstance().get(sessionId).getSessionStartYear(), dayOfYear);
+		} catch (NumberFormatException f) {
 			try {
-				limit = Integer.parseInt(limitStr);
-			} catch (NumberFormatException e) {
-				limit = 1000;
+				return Formats.getDateFormat(Formats.Pattern.FILTER_DATE).parse(fromOption);
+			} catch (ParseException p) {
+				return null;
 			}
-		} else {
-			limit = 1000;
 		}
-
-		
-		org.hibernate.Query hibQuery = hibSession.createQuery(getBannerResponseHqlQuery(sessionId, options, ignoreCommand, userIsDeptIndependent, userDepartments));
-		if (from != null && from.size() >= 1) {
-			Date date = null;
-			String fromOption = from.iterator().next();
+	}
+	
+	/**
+	 * The day after the to option, the to date is inclusive.
+	 */
+	private static Date getToDate(Long sessionId, String toOption) {
+		Date last = null;
+		try {
+			int dayOfYear = Integer.parseInt(toOption);
+			last = DateUtils.getDate(SessionDAO.getInstance().get(sessionId).getSessionStartYear(), dayOfYear);
+		} catch (NumberFormatException f) {
 			try {
-				int dayOfYear = Integer.parseInt(fromOption);
-				date = DateUtils.getDate(SessionDAO.getInstance().get(sessionId).getSessionStartYear(), dayOfYear);
-			} catch (NumberFormatException f) {
-				try {
-					date = Formats.getDateFormat(Formats.Pattern.FILTER_DATE).parse(fromOption);
-				} catch (ParseException p) {}
-			}
-			if (date != null) {
-				hibQuery.setDate("fromDate", date);
-			}
+				last = Formats.getDateFormat(Formats.Pattern.FILTER_DATE).parse(toOption);
+			} catch (ParseException p) {}
+		}
+		if (last == null) return null;
+		Calendar cal = Calendar.getInstance();
+		cal.setTime(last);
+		cal.add(Calendar.DAY_OF_MONTH, 1);
+		return cal.getTime();
+	}
+	
+	private static void setDateParameters(org.hibernate.Query hibQuery, Long sessionId, Map<String, Set<String>> options, String ignoreCommand) {
+		Set<String> to = (options == null || "to".equals(ignoreCommand) ? null : options.get("to"));
+		Set<String> from = (options == null || "from".equals(ignoreCommand) ? null : options.get("from"));
+		if (from != null && from.size() == 1) {
+			Date date = getFromDate(sessionId, from.iterator().next());
+			if (date != null) hibQuery.setDate("fromDate", date);
 		}
-		if (to != null && to.size() >= 1) {
-			Date last = null;
-			String toOption = to.iterator().next();
+		if (to != null && to.size() == 1) {
+			Date date = getToDate(sessionId, to.iterator().next());
+			if (date != null) hibQuery.setDate("toDate", date);
+		}
+	}
+	
+	/**
+	 * The limit option of the filter, the given default when not set.
+	 */
+	public static int getLimit(Map<String, Set<String>> options, int defaultLimit) {
+		Set<String> limits = (options == null ? null : options.get("limit"));
+		if (limits != null && limits.size() == 1) {
 			try {
-				int dayOfYear = Integer.parseInt(toOption);
-				last = DateUtils.getDate(SessionDAO.getInstance().get(sessionId).getSessionStartYear(), dayOfYear);
-			} catch (NumberFormatException f) {
-				try {
-					last = Formats.getDateFormat(Formats.Pattern.FILTER_DATE).parse(toOption);
-				} catch (ParseException p) {}
-				
-			}
-			if (last != null) {
-				Calendar cal = Calendar.getInstance();
-				cal.setTime(last);
-				cal.add(Calendar.DAY_OF_MONTH, 1);
-				hibQuery.setDate("toDate", cal.getTime());
-			}
+				return Integer.parseInt(limits.iterator().next());
+			} catch (NumberFormatException e) {}
 		}
+		return defaultLimit;
+	}
 
+	public static List<BannerResponse> bannerResponses(Long sessionId, Map<String, Set<String>> options, Query query, String ignoreCommand, Set<Department> userDepartments, boolean userIsDeptIndependent) {
+		org.hibernate.Session hibSession = BannerResponseDAO.getInstance().getSession();
+		List<BannerResponse> ret = new ArrayList<BannerResponse>();
+		
+		org.hibernate.Query hibQuery = hibSession.createQuery(getBannerResponseHqlQuery(sessionId, options, ignoreCommand, userIsDeptIndependent, userDepartments, false, false));
+		setDateParameters(hibQuery, sessionId, options, ignoreCommand);
 
 		@SuppressWarnings("unchecked")
-		List<BannerResponse> bannerResponses = hibQuery.setMaxResults(limit).setCacheable(false).list();
+		List<BannerResponse> bannerResponses = hibQuery.setMaxResults(getLimit(options, 1000)).setCacheable(false).list();
 		
+		BannerResponsesMatcher matcher = (query == null ? null : new BannerResponsesMatcher(new BannerResponsesMatcherContext(sessionId, userDepartments)));
 		for (BannerResponse br: bannerResponses) {
-			if (query != null && !query.match(new BannerResponsesMatcher(br, sessionId, userDepartments))) continue;
+			if (matcher != null && !query.match(matcher.setBannerResponse(br))) continue;
 												
 			ret.add(br);
 		}
@@ -644,6 +677,77 @@ public class BannerResponsesFilterBackend extends FilterBoxBackend<BannerRespons
 		return ret;
 	}
 	
+	/**
+	 * Called for each matching Banner response by {@link BannerResponsesFilterBackend#bannerResponses(Long, Map, Query, String, Set, boolean, Date, Long, int, BannerResponseVisitor)}.
+	 */
+	public static interface BannerResponseVisitor {
+		/**
+		 * @return false to stop the iteration
+		 */
+		public boolean visit(BannerResponseInterface response) throws IOException;
+	}
+	
+	private static final String PROJECTION = "br.uniqueId, br.activityDate, br.termCode, br.crn, br.campus, br.subjectCode, br.courseNumber, br.sectionNumber, br.xlstGroup, " +
+			"br.externalId, br.action, br.type, br.message, br.packetId, br.queueId, br.sequenceNumber, brsa.subjectAreaAbbreviation, brdept.deptCode";
+	
+	/**
+	 * Scroll through the matching Banner responses (ordered by activity date descending and unique id ascending) without loading them as entities,
+	 * so that the memory used does not depend on the number of responses.
+	 * @param lastActivityDate activity date of the last response of the previous page (keyset pagination), null for the first page
+	 * @param lastUniqueId unique id of the last response of the previous page, null for the first page
+	 * @param limit maximal number of responses to visit, -1 for no limit
+	 * @return number of visited responses
+	 */
+	public static int bannerResponses(Long sessionId, Map<String, Set<String>> options, Query query, String ignoreCommand, Set<Department> userDepartments, boolean userIsDeptIndependent,
+			Date lastActivityDate, Long lastUniqueId, int limit, BannerResponseVisitor visitor) throws IOException {
+		boolean keyset = (lastActivityDate != null && lastUniqueId != null);
+		DateFormat df = Localization.getDateFormat(CONSTANTS.timeStampFormat());
+		org.hibernate.Session hibSession = BannerResponseDAO.getInstance().createNewSession();
+		ScrollableResults results = null;
+		try {
+			org.hibernate.Query hibQuery = hibSession.createQuery(getBannerResponseHqlQuery(sessionId, options, ignoreCommand, userIsDeptIndependent, userDepartments, true, keyset));
+			setDateParameters(hibQuery, sessionId, options, ignoreCommand);
+			if (keyset)
+				hibQuery.setTimestamp("lastDate", lastActivityDate).setLong("lastId", lastUniqueId);
+			if (limit > 0 && query == null)
+				hibQuery.setMaxResults(limit);
+			results = hibQuery.setReadOnly(true).setCacheable(false).setFetchSize(FETCH_SIZE).scroll(ScrollMode.FORWARD_ONLY);
+			
+			BannerResponsesMatcher matcher = (query == null ? null : new BannerResponsesMatcher(new BannerResponsesMatcherContext(sessionId, userDepartments)));
+			int count = 0, rows = 0;
+			while (results.next()) {
+				if (++rows % FETCH_SIZE == 0) hibSession.clear();
+				Object[] o = results.get();
+				if (matcher != null && !query.match(matcher.setBannerResponse((String)o[16], (String)o[17], (String)o[5], (String)o[6]))) continue;
+				BannerResponseInterface bri = new BannerResponseInterface();
+				bri.setUniqueId((Long)o[0]);
+				bri.setActivityDate((Date)o[1]);
+				bri.setActivityDateStr(o[1] == null ? null : df.format((Date)o[1]));
+				bri.setTermCode((String)o[2]);
+				bri.setCrn((String)o[3]);
+				bri.setCampus((String)o[4]);
+				bri.setSubjectCode((String)o[5]);
+				bri.setCourseNumber((String)o[6]);
+				bri.setSectionNumber((String)o[7]);
+				bri.setXlstGroup((String)o[8]);
+				bri.setExternalId((String)o[9]);
+				bri.setAction((String)o[10]);
+				bri.setType((String)o[11]);
+				bri.setMessage((String)o[12]);
+				bri.setPacketId((String)o[13]);
+				bri.setQueueId((Long)o[14]);
+				bri.setSequenceNumber((Integer)o[15]);
+				count++;
+				if (!visitor.visit(bri)) break;
+				if (limit > 0 && count >= limit) break;
+			}
+			return count;
+		} finally {
+			if (results != null) results.close();
+			hibSession.close();
+		}
+	}
+	
 	public static List<String> stringOption( Map<String, Set<String>> options, String ignoreCommand, String tag, int length, boolean mustBeInteger) {
 		List<String> strings = new ArrayList<String>();
 		Set<String> strList = (options == null || tag.equals(ignoreCommand) ? null : options.get(tag));
@@ -19,13 +19,13 @@
 */
 package org.unitime.banner.server.bannerresponses;
 
-import java.text.DateFormat;
+import java.io.IOException;
 import java.text.DecimalFormat;
 
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
 import org.unitime.banner.defaults.BannerRelatedSessionAttribute;
-import org.unitime.banner.model.BannerResponse;
+import org.unitime.banner.server.bannerresponses.BannerResponsesFilterBackend.BannerResponseVisitor;
 import org.unitime.localization.impl.Localization;
 import org.unitime.timetable.gwt.command.client.GwtRpcResponseList;
 import org.unitime.timetable.gwt.command.server.GwtRpcImplementation;
@@ -45,7 +45,6 @@ public class BannerResponsesPageBackend implements GwtRpcImplementation<BannerRe
 
 	private static Log sLog = LogFactory.getLog(BannerResponsesPageBackend.class);
 	protected static final BannerGwtConstants CONSTANTS = Localization.create(BannerGwtConstants.class);
-	private static DateFormat sDateFormat = Localization.getDateFormat(CONSTANTS.timeStampFormat());
 	private static DecimalFormat sDF = new DecimalFormat("0.0");
 
 	@Override
@@ -56,34 +55,16 @@ public class BannerResponsesPageBackend implements GwtRpcImplementation<BannerRe
 		try {
 			sLog.debug("findBannerResponse(filter='" + request.getFilter()+"')");
 			Long s0 = System.currentTimeMillis();
-			GwtRpcResponseList<BannerResponseInterface> results = new GwtRpcResponseList<BannerResponseInterface>();
+			final GwtRpcResponseList<BannerResponseInterface> results = new GwtRpcResponseList<BannerResponseInterface>();
 			context.setAttribute(BannerRelatedSessionAttribute.BannerResponsesLastFilter.key(), request.getFilter().toQueryString());
-			for (BannerResponse br: 
-						BannerResponsesFilterBackend
-						  .bannerResponses(
-							context.getUser().getCurrentAcademicSessionId(), 
-							request.getFilter().getOptions(), 
-							new Query(request.getFilter().getText()), null, Department.getUserDepartments(context.getUser()), context.getUser().getCurrentAuthority().hasRight(Right.DepartmentIndependent))) 
-			    {
-				BannerResponseInterface bri = new BannerResponseInterface();
-				bri.setUniqueId(br.getUniqueId());
-				bri.setAction(br.getAction());
-				bri.setActivityDateStr(sDateFormat.format(br.getActivityDate()));
-				bri.setCourseNumber(br.getCourseNumber());
-				bri.setCrn(br.getCrn());
-				bri.setCampus(br.getCampus());
-				bri.setExternalId(br.getExternalId());
-				bri.setMessage(br.getMessage());
-				bri.setPacketId(br.getPacketId());
-				bri.setQueueId(br.getQueueId());
-				bri.setSectionNumber(br.getSectionNumber());
-				bri.setSequenceNumber(br.getSequenceNumber());
-				bri.setSubjectCode(br.getSubjectCode());
-				bri.setTermCode(br.getTermCode());
-				bri.setType(br.getType());
-				bri.setXlstGroup(br.getXlstGroup());
-				results.add(bri);
-			}
+			int limit = (request.getPageSize() != null ? request.getPageSize() : BannerResponsesFilterBackend.getLimit(request.getFilter().getOptions(), 1000));
+			bannerResponses(request, context, limit, new BannerResponseVisitor() {
+				@Override
+				public boolean visit(BannerResponseInterface response) {
+					results.add(response);
+					return true;
+				}
+			});
 			sLog.debug("Found " + results.size() + " banner responses (took " + sDF.format(0.001 * (System.currentTimeMillis() - s0)) +" s).");
 			return results;
 		} catch (PageAccessException e) {
@@ -96,5 +77,20 @@ public class BannerResponsesPageBackend implements GwtRpcImplementation<BannerRe
 		}
 	
 	}
+	
+	/**
+	 * Visit the Banner responses matching the filter of the given request, starting after the last response of the request (if set).
+	 * @param limit maximal number of responses, -1 for no limit
+	 * @return number of visited responses
+	 */
+	public static int bannerResponses(BannerResponsesPageRequest request, SessionContext context, int limit, BannerResponseVisitor visitor) throws IOException {
+		String text = request.getFilter().getText();
+		return BannerResponsesFilterBackend.bannerResponses(
+				context.getUser().getCurrentAcademicSessionId(),
+				request.getFilter().getOptions(),
+				(text == null || text.trim().isEmpty() ? null : new Query(text)), null,
+				Department.getUserDepartments(context.getUser()), context.getUser().getCurrentAuthority().hasRight(Right.DepartmentIndependent),
+				request.getLastActivityDate(), request.getLastUniqueId(), limit, visitor);
+	}
 
 }
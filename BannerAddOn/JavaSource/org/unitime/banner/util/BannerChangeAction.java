@@ -26,11 +26,13 @@ import java.util.Vector;
 
 import org.hibernate.Session;
 import org.hibernate.Transaction;
+import org.unitime.banner.dataexchange.BannerSectionPrefetch;
 import org.unitime.banner.dataexchange.SendBannerMessage;
 import org.unitime.banner.dataexchange.BannerMessage.BannerMessageAction;
 import org.unitime.banner.model.BannerConfig;
 import org.unitime.banner.model.BannerCourse;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionIndex;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.timetable.interfaces.ExternalClassEditAction;
 import org.unitime.timetable.interfaces.ExternalCourseCrosslistAction;
@@ -159,6 +161,11 @@ public class BannerChangeAction implements ExternalClassEditAction,
 			for(CourseOffering co : instructionalOffering.getCourseOfferings()){
 				BannerCourse bc = BannerCourse.findBannerCourseForCourseOffering(co.getUniqueId(), hibSession);		
 				if (bc != null){
+					for(BannerConfig bcfg : bc.getBannerConfigs()){
+						for(BannerSection bs : bcfg.getBannerSections()){
+							BannerSectionIndex.remove(bs, hibSession);
+						}
+					}
 					hibSession.delete(bc);
 				}
 			}
@@ -194,13 +201,13 @@ public class BannerChangeAction implements ExternalClassEditAction,
 	 */
 	public void performExternalSolutionCommitAction(Set<Solution> solutions,
 			Session hibSession) {
-		HashSet<BannerSection> sections = new HashSet<BannerSection>();
-		for(Solution s : solutions){
-			sections.addAll(BannerSection.findBannerSectionsForSolution(s, hibSession));
-		}
 		Vector<BannerSection> bannerSections = new Vector<BannerSection>();
-		bannerSections.addAll(sections);
-		SendBannerMessage.sendBannerMessage(bannerSections, BannerMessageAction.UPDATE, hibSession);
+		bannerSections.addAll(new HashSet<BannerSection>(BannerSection.findBannerSectionsForSolutions(solutions, hibSession)));
+		if (bannerSections.isEmpty()){
+			return;
+		}
+		BannerSectionPrefetch prefetch = BannerSectionPrefetch.prefetch(bannerSections, hibSession);
+		SendBannerMessage.sendBannerMessage(bannerSections, BannerMessageAction.UPDATE, hibSession, prefetch);
 	}
 
 	public void performExternalCourseOfferingRemoveAction(
@@ -210,6 +217,7 @@ public class BannerChangeAction implements ExternalClassEditAction,
 				for(BannerConfig bcfg : bc.getBannerConfigs()){
 					for(BannerSection bs : bcfg.getBannerSections()){
 						SendBannerMessage.sendBannerMessage(bs, BannerMessageAction.DELETE, hibSession);
+						BannerSectionIndex.remove(bs, hibSession);
 					}
 				}
 				hibSession.delete(bc);
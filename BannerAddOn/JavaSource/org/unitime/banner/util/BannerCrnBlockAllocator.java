@@ -0,0 +1,205 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.util;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.hibernate.LockOptions;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.unitime.banner.model.BannerSectionIndex;
+import org.unitime.banner.model.BannerSession;
+import org.unitime.banner.model.BannerTermCrnProperties;
+import org.unitime.banner.model.dao.BannerTermCrnPropertiesDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Hands out new CRNs from blocks that are reserved in advance, instead of calling the CRN generator and the Banner
+ * CRN validator for each section.<br>
+ * <br>
+ * A block of <code>banner.crn.blockSize</code> CRNs is reserved by moving the last CRN of the term's CRN properties
+ * (banner_crn_provider table) past the block while the row is locked, so that the reservation survives a restart and
+ * no other process (including the crn_processor.get_crn procedure) hands out the same CRNs. CRNs already used in UniTime
+ * for the term are skipped (wrapping around to the minimal CRN once the maximal CRN is reached) and the rest of the block
+ * is checked against Banner using one connection. The remaining CRNs are then handed out from memory, each one is checked
+ * against UniTime again before it is returned.<br>
+ * <br>
+ * CRNs of a block that are not handed out before a restart are not reused.
+ */
+public class BannerCrnBlockAllocator {
+	private static Map<String, BannerCrnBlockAllocator> sAllocators = new ConcurrentHashMap<String, BannerCrnBlockAllocator>();
+	private static final int MAX_ATTEMPTS = 100;
+
+	private String iBannerTermCode;
+	private Long iCrnPropertiesId;
+	private LinkedList<Integer> iAvailable = new LinkedList<Integer>();
+
+	private BannerCrnBlockAllocator(String bannerTermCode, Long crnPropertiesId) {
+		iBannerTermCode = bannerTermCode;
+		iCrnPropertiesId = crnPropertiesId;
+	}
+
+	public static int getBlockSize() {
+		return Integer.parseInt(ApplicationProperties.getProperty("banner.crn.blockSize", "0"));
+	}
+
+	/**
+	 * Block allocation is enabled when <code>banner.crn.blockSize</code> is set to a positive number.
+	 */
+	public static boolean isEnabled() {
+		return getBlockSize() > 0;
+	}
+
+	/**
+	 * Allocator of the given banner session, null if the session has no CRN properties (the CRN generator is used instead).
+	 */
+	public static BannerCrnBlockAllocator getInstance(BannerSession bannerSession) {
+		if (bannerSession == null || bannerSession.getBannerTermCrnProperties() == null) return null;
+		BannerCrnBlockAllocator allocator = sAllocators.get(bannerSession.getBannerTermCode());
+		if (allocator == null || !allocator.iCrnPropertiesId.equals(bannerSession.getBannerTermCrnProperties().getUniqueId())) {
+			synchronized (sAllocators) {
+				allocator = sAllocators.get(bannerSession.getBannerTermCode());
+				if (allocator == null || !allocator.iCrnPropertiesId.equals(bannerSession.getBannerTermCrnProperties().getUniqueId())) {
+					allocator = new BannerCrnBlockAllocator(bannerSession.getBannerTermCode(), bannerSession.getBannerTermCrnProperties().getUniqueId());
+					sAllocators.put(bannerSession.getBannerTermCode(), allocator);
+				}
+			}
+		}
+		return allocator;
+	}
+
+	/**
+	 * Forget the CRNs reserved in memory (e.g., when the CRN properties of a term have been changed).
+	 */
+	public static void clear() {
+		sAllocators.clear();
+	}
+
+	/**
+	 * Next unused CRN of the term, null when no CRN is available or when Banner could not be checked.
+	 * Each CRN is checked against the banner sections of the term before it is handed out, skipping CRNs that have been
+	 * assigned since the block was reserved (by another server, a manual change, or the CRN generator).
+	 */
+	public synchronized Integer nextCrn(Session hibSession) {
+		int skipped = 0;
+		for (int attempt = 0; attempt < MAX_ATTEMPTS; ) {
+			Integer crn = iAvailable.poll();
+			if (crn == null) {
+				if (!reserveBlock()) return null;
+				attempt++;
+				continue;
+			}
+			if (isUsed(crn, hibSession)) {
+				skipped++;
+				continue;
+			}
+			if (skipped > 0)
+				Debug.info("Skipped " + skipped + " reserved CRNs of Banner Term " + iBannerTermCode + " that have been used in the meantime.");
+			return crn;
+		}
+		Debug.error("Failed to find an unused CRN for Banner Term " + iBannerTermCode + " in " + MAX_ATTEMPTS + " blocks.");
+		return null;
+	}
+
+	private boolean isUsed(Integer crn, Session hibSession) {
+		BitSet used = BannerSectionIndex.getUsedCrns(iBannerTermCode);
+		if (used != null && used.get(crn)) return true;
+		Number count = (Number)hibSession.createQuery(
+				"select count(bs) from BannerSection bs, BannerSession s where s.bannerTermCode = :termCode and bs.session.uniqueId = s.session.uniqueId and bs.crn = :crn")
+				.setString("termCode", iBannerTermCode).setInteger("crn", crn).uniqueResult();
+		return count.intValue() > 0;
+	}
+
+	public synchronized int getAvailableCount() {
+		return iAvailable.size();
+	}
+
+	@SuppressWarnings("unchecked")
+	private boolean reserveBlock() {
+		int blockSize = getBlockSize();
+		List<Integer> block = new ArrayList<Integer>(blockSize);
+		Session hibSession = BannerTermCrnPropertiesDAO.getInstance().createNewSession();
+		Transaction tx = null;
+		try {
+			tx = hibSession.beginTransaction();
+			BannerTermCrnProperties properties = (BannerTermCrnProperties)hibSession.get(BannerTermCrnProperties.class, iCrnPropertiesId, LockOptions.UPGRADE);
+			if (properties == null) {
+				tx.rollback();
+				return false;
+			}
+			// used CRNs of the term, taken from the banner section index when it is loaded
+			BitSet used = BannerSectionIndex.getUsedCrns(iBannerTermCode);
+			if (used == null) {
+				used = new BitSet();
+				for (Integer usedCrn : (List<Integer>)hibSession.createQuery(
+						"select bs.crn from BannerSection bs, BannerSession s where s.bannerTermCode = :termCode and bs.session.uniqueId = s.session.uniqueId and bs.crn is not null")
+						.setString("termCode", iBannerTermCode).list()) {
+					if (usedCrn >= 0) used.set(usedCrn);
+				}
+			}
+
+			int min = properties.getMinCrn().intValue(), max = properties.getMaxCrn().intValue();
+			int crn = Math.max(properties.getLastCrn().intValue(), min - 1);
+			boolean wrapped = false;
+			for (int checked = 0; block.size() < blockSize && checked <= max - min; checked++) {
+				crn ++;
+				if (crn > max) {
+					crn = min;
+					wrapped = true;
+				}
+				if (!used.get(crn)) block.add(crn);
+			}
+			if (block.isEmpty()) {
+				Debug.error("No unused CRN is available (" + iBannerTermCode + ")");
+				tx.rollback();
+				return false;
+			}
+
+			properties.setLastCrn(crn);
+			if (wrapped) properties.setSearchFlag(true);
+			hibSession.update(properties);
+			tx.commit();
+		} catch (Exception e) {
+			if (tx != null && tx.isActive()) tx.rollback();
+			Debug.error("Failed to reserve CRNs for Banner Term " + iBannerTermCode + ": " + e.getMessage(), e);
+			return false;
+		} finally {
+			hibSession.close();
+		}
+
+		Set<Integer> usedInBanner = new BannerCrnValidator().findCrnsUsedInBannerForTerm(block, iBannerTermCode);
+		if (usedInBanner == null) {
+			Debug.error("Failed to validate whether CRNs " + block.get(0) + " - " + block.get(block.size() - 1) + " already exist in Banner");
+			return false;
+		}
+		block.removeAll(usedInBanner);
+		iAvailable.addAll(block);
+		Debug.info("Reserved CRNs for Banner Term " + iBannerTermCode + ": " + iAvailable.size() + " available" + (usedInBanner.isEmpty() ? "" : ", " + usedInBanner.size() + " already used in Banner") + ".");
+		return true;
+	}
+}
@@ -20,6 +20,10 @@
 package org.unitime.banner.util;
 
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
 
 import org.unitime.banner.queueprocessor.BannerCaller;
 import org.unitime.banner.queueprocessor.oracle.OracleConnector;
@@ -54,7 +58,7 @@ public class BannerCrnValidator extends BannerCaller {
 			Debug.error("Failed to receive response from Banner for CRN: " + crn.toString() + " for Banner Term " + bannerTermCode + ".");
 			e.printStackTrace();
 			try {
-				jdbc.cleanup();
+				jdbc.invalidate();
 			} catch (SQLException e1) {
 				Debug.error("Failed to close connection to Banner after not receiving response from Banner for CRN: " + crn.toString() + " for Banner Term " + bannerTermCode + ".");
 				e1.printStackTrace();
@@ -74,4 +78,60 @@ public class BannerCrnValidator extends BannerCaller {
 		
 		return(result);
 	}
+
+	/**
+	 * Check a number of CRNs at once, using one connection (see {@link OracleConnector#validateCrnsWithBanner(String, Collection)}).
+	 * @return CRNs that are already used in Banner, null if the check failed
+	 */
+	public Set<Integer> findCrnsUsedInBannerForTerm(Collection<Integer> crns, String bannerTermCode) {
+		Set<Integer> used = new HashSet<Integer>();
+		if (crns.isEmpty()){
+			return(used);
+		}
+		String bannerHost = ApplicationProperties.getProperty("banner.host");
+		if ( bannerHost == null || bannerHost.trim().length() == 0){
+			return(used);
+		}
+		String bannerStoredProcedure = ApplicationProperties.getProperty("banner.crnValidator.storedProcedure.call");
+		if ( bannerStoredProcedure == null || bannerStoredProcedure.trim().length() == 0){
+			return(used);
+		}
+		OracleConnector jdbc = getJDBCconnection();
+		if (jdbc == null){
+			Debug.info("No Connection to Banner, skipping Banner check for " + crns.size() + " CRNs for Banner Term " + bannerTermCode);
+			return(used);
+		}
+
+		Debug.info("Sending check for " + crns.size() + " CRNs for Banner Term " + bannerTermCode + " to Banner...");
+		try {
+			for (Map.Entry<Integer, String> e : jdbc.validateCrnsWithBanner(bannerTermCode, crns).entrySet()){
+				if (e.getValue() == null){
+					Debug.error("Failed to validate whether CRN: " + e.getKey() + " already exists in Banner");
+					jdbc.cleanup();
+					return(null);
+				}
+				if (!"N".equals(e.getValue())){
+					used.add(e.getKey());
+				}
+			}
+		} catch (SQLException e) {
+			Debug.error("Failed to receive response from Banner for " + crns.size() + " CRNs for Banner Term " + bannerTermCode + ".");
+			e.printStackTrace();
+			try {
+				jdbc.invalidate();
+			} catch (SQLException e1) {
+				Debug.error("Failed to close connection to Banner after not receiving response from Banner for Banner Term " + bannerTermCode + ".");
+				e1.printStackTrace();
+			}
+			return(null);
+		}
+		Debug.info("Response received from Banner for " + crns.size() + " CRNs for Banner Term " + bannerTermCode + ", " + used.size() + " already used.");
+		try {
+			jdbc.cleanup();
+		} catch (SQLException e) {
+			Debug.error("Failed to close connection to Banner");
+			e.printStackTrace();
+		}
+		return(used);
+	}
 }
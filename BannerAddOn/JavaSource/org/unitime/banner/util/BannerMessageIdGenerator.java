@@ -67,4 +67,8 @@ public class BannerMessageIdGenerator {
     public static void setMessageId(BannerMessage message) {
         message.setMessageId(((Number)getGenerator().generate((SessionImplementor)new _RootDAO().getSession(), message)).longValue());
     }
+    
+    public static Long nextMessageId() {
+    	return ((Number)getGenerator().generate((SessionImplementor)new _RootDAO().getSession(), null)).longValue();
+    }
 }
@@ -36,6 +36,8 @@ import org.unitime.banner.dataexchange.SendBannerMessage;
 import org.unitime.banner.model.BannerConfig;
 import org.unitime.banner.model.BannerCourse;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionIndex;
+import org.unitime.banner.model.dao.BannerSectionDAO;
 import org.unitime.commons.Debug;
 import org.unitime.timetable.ApplicationProperties;
 import org.unitime.timetable.model.Class_;
@@ -85,7 +87,7 @@ public class BannerSectionCrosslistHelper {
 		// if any sections are missing their crossListId, fix them
 		if (needId){
 			if (crossListId == null){
-				crossListId = findNextUnusedCrosslistIdForSession(instructionalOffering.getSession());
+				crossListId = findNextUnusedCrosslistIdForSession(instructionalOffering.getSession(), hibSession);
 			}
 			for(iBS = sections.iterator(); iBS.hasNext();){
 				section = (BannerSection) iBS.next();
@@ -108,6 +110,7 @@ public class BannerSectionCrosslistHelper {
 		hibSession.update(bs);
 		trans.commit();
 		hibSession.flush();
+		BannerSectionIndex.update(bs, hibSession);
 	}
 
 	
@@ -183,6 +186,7 @@ public class BannerSectionCrosslistHelper {
 								bs.setBannerConfig(null);
 								hibSession.update(bc);
 								hibSession.delete(bs);
+								BannerSectionIndex.remove(bs, hibSession);
 							} else {
 								hibSession.update(bs);
 							}
@@ -326,6 +330,22 @@ public class BannerSectionCrosslistHelper {
 	}
 
 	public static String findNextUnusedCrosslistIdForSession(org.unitime.timetable.model.Session acadSession) {
+		return(findNextUnusedCrosslistIdForSession(acadSession, null));
+	}
+
+	public static String findNextUnusedCrosslistIdForSession(org.unitime.timetable.model.Session acadSession, Session hibSession) {
+		if (BannerSectionIndex.isEnabled()){
+			if (hibSession == null){
+				hibSession = BannerSectionDAO.getInstance().getSession();
+			}
+			BannerSectionIndex index = BannerSectionIndex.getInstance(acadSession.getUniqueId(), hibSession);
+			if (index != null){
+				String crosslistId = index.nextCrossListIdentifier(hibSession);
+				if (crosslistId != null && index.verifyCrossListIdentifier(crosslistId, hibSession)){
+					return(crosslistId);
+				}
+			}
+		}
 		String nextCrosslistId = null;
 		@SuppressWarnings("rawtypes")
 		SessionImplementor session = (SessionImplementor)new _RootDAO().getSession();
@@ -0,0 +1,141 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.cpsolver.ifs.util.ToolBox;
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.hibernate.Transaction;
+import org.hibernate.stat.Statistics;
+import org.unitime.banner.dataexchange.BannerMessage;
+import org.unitime.banner.dataexchange.BannerMessage.BannerMessageAction;
+import org.unitime.banner.dataexchange.BannerSectionPrefetch;
+import org.unitime.banner.dataexchange.SendBannerMessage;
+import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionClasses;
+import org.unitime.banner.model.dao.BannerSectionDAO;
+import org.unitime.commons.Debug;
+import org.unitime.commons.hibernate.util.HibernateUtil;
+import org.unitime.timetable.ApplicationProperties;
+import org.unitime.timetable.model.Session;
+
+/**
+ * Compares the number of SQL statements and the time needed to build an UPDATE message for the Banner sections
+ * of an academic session with and without {@link BannerSectionPrefetch}. The results are reported per 1,000 sections.
+ * It also compares loading the classes of the sections one section at a time with {@link BannerSectionClasses#load(java.util.Collection, org.hibernate.Session)}.<br>
+ * <br>
+ * Usage: BannerSectionExportBenchmark initiative year term [number of sections] [iterations]<br>
+ * <br>
+ * The messages are not sent to Banner and all changes (e.g., the last sent restrictions) are rolled back.
+ */
+public class BannerSectionExportBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		ToolBox.configureLogging();
+		HibernateUtil.configureHibernate(ApplicationProperties.getProperties());
+
+		Session session = Session.getSessionUsingInitiativeYearTerm(args[0], args[1], args[2]);
+		int limit = (args.length > 3 ? Integer.parseInt(args[3]) : 1000);
+		int iterations = (args.length > 4 ? Integer.parseInt(args[4]) : 2);
+
+		Statistics stats = BannerSectionDAO.getInstance().getSession().getSessionFactory().getStatistics();
+		stats.setStatisticsEnabled(true);
+
+		for (int i = 1; i <= iterations; i++) {
+			// first iterations only warm up the caches
+			runClasses(session.getUniqueId(), limit, false, i == iterations, stats);
+			runClasses(session.getUniqueId(), limit, true, i == iterations, stats);
+			run(session.getUniqueId(), limit, false, i == iterations, stats);
+			run(session.getUniqueId(), limit, true, i == iterations, stats);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void runClasses(Long sessionId, int limit, boolean batch, boolean report, Statistics stats) {
+		org.hibernate.Session hibSession = BannerSectionDAO.getInstance().createNewSession();
+		try {
+			List<BannerSection> sections = new ArrayList<BannerSection>(hibSession.createQuery(
+					"from BannerSection bs where bs.session.uniqueId = :sessionId order by bs.uniqueId")
+					.setLong("sessionId", sessionId).setMaxResults(limit).list());
+			if (sections.isEmpty()) return;
+
+			stats.clear();
+			long t0 = System.currentTimeMillis();
+			if (batch)
+				BannerSectionClasses.load(sections, hibSession);
+			int classes = 0;
+			for (BannerSection bs : sections)
+				classes += bs.getClasses(hibSession).size();
+			// second pass should be free
+			for (BannerSection bs : sections)
+				bs.getClasses(hibSession);
+			long time = System.currentTimeMillis() - t0;
+			long queries = stats.getPrepareStatementCount();
+
+			if (report) {
+				Debug.info("Banner section classes " + (batch ? "loaded in bulk" : "loaded per section") + ": " + sections.size() + " sections, " +
+						classes + " classes, " + queries + " queries, " + time + " ms (" +
+						Math.round(1000.0 * queries / sections.size()) + " queries and " +
+						Math.round(1000.0 * time / sections.size()) + " ms per 1,000 sections)");
+			}
+		} finally {
+			hibSession.close();
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static void run(Long sessionId, int limit, boolean prefetch, boolean report, Statistics stats) {
+		org.hibernate.Session hibSession = BannerSectionDAO.getInstance().createNewSession();
+		Transaction tx = hibSession.beginTransaction();
+		try {
+			List<BannerSection> sections = new ArrayList<BannerSection>(hibSession.createQuery(
+					"from BannerSection bs where bs.session.uniqueId = :sessionId order by bs.uniqueId")
+					.setLong("sessionId", sessionId).setMaxResults(limit).list());
+			if (sections.isEmpty()) {
+				Debug.info("No banner sections found.");
+				return;
+			}
+
+			stats.clear();
+			long t0 = System.currentTimeMillis();
+			Document document = DocumentHelper.createDocument();
+			BannerMessage message = new BannerMessage(sections.get(0).getSession(), BannerMessageAction.UPDATE, true, hibSession, document);
+			if (prefetch)
+				message.setPrefetch(BannerSectionPrefetch.prefetch(sections, hibSession));
+			SendBannerMessage.addBannerSectionsToMessage(sections, BannerMessageAction.UPDATE, hibSession, message);
+			long time = System.currentTimeMillis() - t0;
+			long queries = stats.getPrepareStatementCount();
+
+			if (report) {
+				Debug.info("Banner section export " + (prefetch ? "with" : "without") + " prefetch: " + sections.size() + " sections, " +
+						queries + " queries, " + time + " ms (" +
+						Math.round(1000.0 * queries / sections.size()) + " queries and " +
+						Math.round(1000.0 * time / sections.size()) + " ms per 1,000 sections)");
+			}
+		} finally {
+			tx.rollback();
+			hibSession.close();
+		}
+	}
+}
@@ -31,6 +31,7 @@ import org.hibernate.Session;
 import org.hibernate.Transaction;
 import org.unitime.banner.model.BannerConfig;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionIndex;
 import org.unitime.commons.Debug;
 import org.unitime.timetable.model.Class_;
 import org.unitime.timetable.model.CourseOffering;
@@ -391,6 +392,7 @@ public class BannerSectionLinkageHelper {
 		hibSession.update(bs);
 		trans.commit();
 		hibSession.flush();
+		BannerSectionIndex.update(bs, hibSession);
 	}
 	
 	
@@ -449,6 +451,7 @@ public class BannerSectionLinkageHelper {
 					bs.setLinkConnector(null);
 					bs.setLinkIdentifier(null);
 					hibSession.update(bs);
+					BannerSectionIndex.update(bs, hibSession);
 				}
 			}
 		}
@@ -33,7 +33,9 @@ import org.unitime.banner.form.RollForwardBannerSessionForm;
 import org.unitime.banner.interfaces.ExternalSessionRollForwardCustomizationInterface;
 import org.unitime.banner.model.BannerConfig;
 import org.unitime.banner.model.BannerCourse;
+import org.unitime.banner.model.BannerCrnClassCache;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionIndex;
 import org.unitime.banner.model.BannerSectionToClass;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.dao.BannerCourseDAO;
@@ -71,6 +73,8 @@ public class BannerSessionRollForward extends SessionRollForward {
 		try {
 			rollForwardBannerSessionData(toSession, fromSession);
 			rollForwardBannerCourseData(toSession);
+			BannerSectionIndex.clear();
+			BannerCrnClassCache.clear();
 			cleanUpBadLinkIdentifiers(toSession);
 			updateClassSuffixes(toSession);
 		} catch (Exception e) {
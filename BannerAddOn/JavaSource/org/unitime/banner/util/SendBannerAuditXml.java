@@ -20,6 +20,7 @@
 
 package org.unitime.banner.util;
 
+import java.util.List;
 import java.util.Properties;
 
 import org.cpsolver.ifs.util.ToolBox;
@@ -97,7 +98,13 @@ public class SendBannerAuditXml {
 		hibSession.close();
 	
 		
-		SendBannerMessage.writeOutMessage(document);
+		int maxSections = Integer.parseInt(ApplicationProperties.getProperty("banner.audit.chunk.maxSections", "0"));
+		long maxSize = Long.parseLong(ApplicationProperties.getProperty("banner.audit.chunk.maxSize", "0"));
+		List<Document> chunks = BannerSectionAuditExport.splitIntoChunks(document, maxSections, maxSize);
+		if (chunks.size() > 1)
+			Debug.info("AUDIT for " + termCode + " split into " + chunks.size() + " packets (batch " + root.attributeValue("PACKET_ID") + ")");
+		for (Document chunk: chunks)
+			SendBannerMessage.writeOutMessage(chunk);
 
 	}
 }
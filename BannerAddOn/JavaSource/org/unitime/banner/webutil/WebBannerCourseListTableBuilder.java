@@ -24,7 +24,9 @@ import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.TreeSet;
@@ -33,9 +35,12 @@ import java.util.Vector;
 import javax.servlet.jsp.JspWriter;
 
 import org.unitime.banner.form.BannerCourseListForm;
+import org.unitime.banner.model.BannerConfig;
 import org.unitime.banner.model.BannerCourse;
 import org.unitime.banner.model.BannerLastSentSectionRestriction;
 import org.unitime.banner.model.BannerSection;
+import org.unitime.banner.model.BannerSectionClasses;
+import org.unitime.banner.model.BannerSectionToClass;
 import org.unitime.banner.model.BannerSession;
 import org.unitime.banner.model.dao.BannerCourseDAO;
 import org.unitime.commons.web.htmlgen.TableCell;
@@ -68,6 +73,8 @@ public class WebBannerCourseListTableBuilder extends
 		WebInstructionalOfferingTableBuilder {
  
 	private Comparator iClassComparator = new ClassComparator(ClassComparator.COMPARE_BY_ITYPE);
+	private Map<Long, BannerSection> iSectionsByClass = new HashMap<Long, BannerSection>();
+	private Long iSectionsBannerCourseId = null;
 
 	/**
 	 * 
@@ -255,6 +262,27 @@ public class WebBannerCourseListTableBuilder extends
         }
     }
 	
+    /**
+     * Load all the sections of the given banner course and their classes at once, instead of looking them up for each class.
+     */
+    private void loadBannerSections(BannerCourse bc) {
+    	if (bc.getUniqueId().equals(iSectionsBannerCourseId)) {
+    		return;
+    	}
+    	iSectionsByClass.clear();
+    	iSectionsBannerCourseId = bc.getUniqueId();
+    	ArrayList<BannerSection> sections = new ArrayList<BannerSection>();
+    	for (BannerConfig bcfg : bc.getBannerConfigs()) {
+    		sections.addAll(bcfg.getBannerSections());
+    	}
+    	BannerSectionClasses.load(sections, Class_DAO.getInstance().getSession());
+    	for (BannerSection bs : sections) {
+    		for (BannerSectionToClass bsc : bs.getBannerSectionToClasses()) {
+    			iSectionsByClass.put(bsc.getClassId(), bs);
+    		}
+    	}
+    }
+	
     private void buildSectionConfigRows(ClassAssignmentProxy classAssignment, TableStream table, BannerCourse bc, Set instrOfferingConfigs, SessionContext sessionContext, boolean printConfigLine) {
         Iterator it = instrOfferingConfigs.iterator();
         InstrOfferingConfig ioc = null;
@@ -265,6 +293,7 @@ public class WebBannerCourseListTableBuilder extends
     }
 
 	protected void buildSectionConfigRow(Vector subpartIds, ClassAssignmentProxy classAssignment, BannerCourse bc, TableStream table, InstrOfferingConfig ioc, SessionContext sessionContext, boolean printConfigLine, boolean clickable) {
+		loadBannerSections(bc);
 	    boolean isHeaderRow = true;
 	    boolean isEditable = sessionContext.hasPermission(ioc, Right.InstrOfferingConfigEdit);
 	    String configName = ioc.getName();
@@ -359,7 +388,10 @@ public class WebBannerCourseListTableBuilder extends
         if (clickable){
             row.setOnClick(subjectOnClickAction(bc.getUniqueId()));
         }
-		BannerSection bs = BannerSection.findBannerSectionForClassAndCourseOffering(c, bc.getCourseOffering(hibSession), hibSession);
+		BannerSection bs = iSectionsByClass.get(c.getUniqueId());
+		if (bs == null){
+			bs = BannerSection.findBannerSectionForClassAndCourseOffering(c, bc.getCourseOffering(hibSession), hibSession);
+		}
 		if (bs == null){
 			return;
 		}
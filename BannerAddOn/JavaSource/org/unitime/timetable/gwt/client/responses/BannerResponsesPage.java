@@ -64,7 +64,8 @@ public class BannerResponsesPage extends SimpleForm {
 	private FilterPanel iFilterPanel;
 	private BannerResponsesFilterBox iFilterBox = null;
 	private BannerResponsesTable iTable;
-	private AriaButton iSearch, iExportCSV, iExportPDF;
+	private AriaButton iSearch, iExportCSV, iExportPDF, iMore;
+	private BannerResponsesPageRequest iLastRequest = null;
 
 	
 	public BannerResponsesPage() {
@@ -121,6 +122,17 @@ public class BannerResponsesPage extends SimpleForm {
 		iTable = new BannerResponsesTable() ;
 		iTable.setVisible(false);
 		addRow(iTable);
+		
+		iMore = new AriaButton(MESSAGES.buttonShowMoreBannerResponses());
+		iMore.addStyleName("unitime-NoPrint");
+		iMore.setVisible(false);
+		iMore.addClickHandler(new ClickHandler() {
+			@Override
+			public void onClick(ClickEvent event) {
+				showMore();
+			}
+		});
+		addRow(iMore);
 
 		
 		LoadingWidget.getInstance().show(MESSAGES.waitLoadingPage());
@@ -179,7 +191,10 @@ public class BannerResponsesPage extends SimpleForm {
 		}
 		LoadingWidget.getInstance().show(MESSAGES.waitLoadingBannerQueueResponses());
 		final BannerResponsesFilterRpcRequest filter = iFilterBox.getElementsRequest();
-		RPC.execute(new BannerResponsesPageRequest(filter), new AsyncCallback<GwtRpcResponseList<BannerResponseInterface>>() {
+		final BannerResponsesPageRequest request = new BannerResponsesPageRequest(filter);
+		request.setPageSize(getPageSize(filter));
+		iMore.setVisible(false);
+		RPC.execute(request, new AsyncCallback<GwtRpcResponseList<BannerResponseInterface>>() {
 			@Override
 			public void onFailure(Throwable caught) {
 				LoadingWidget.getInstance().hide();
@@ -192,12 +207,61 @@ public class BannerResponsesPage extends SimpleForm {
 				LoadingWidget.getInstance().hide();
 				iTable.populate(result);
 				iTable.setVisible(true);
+				pageLoaded(request, result);
 			}
 	
 		});
 	
 	}
 	
+	/**
+	 * Next page of the last search, starting after the last response shown (keyset pagination).
+	 */
+	void showMore() {
+		if (iLastRequest == null) return;
+		LoadingWidget.getInstance().show(MESSAGES.waitLoadingBannerQueueResponses());
+		final BannerResponsesPageRequest request = iLastRequest;
+		RPC.execute(request, new AsyncCallback<GwtRpcResponseList<BannerResponseInterface>>() {
+			@Override
+			public void onFailure(Throwable caught) {
+				LoadingWidget.getInstance().hide();
+				UniTimeNotifications.error(MESSAGES.failedToLoadBannerResponses(caught.getMessage()), caught);
+			}
+	
+			@Override
+			public void onSuccess(GwtRpcResponseList<BannerResponseInterface> result) {
+				LoadingWidget.getInstance().hide();
+				iTable.append(result);
+				pageLoaded(request, result);
+			}
+		});
+	}
+	
+	protected void pageLoaded(BannerResponsesPageRequest request, GwtRpcResponseList<BannerResponseInterface> result) {
+		if (!result.isEmpty() && result.size() >= request.getPageSize()) {
+			BannerResponsesPageRequest next = new BannerResponsesPageRequest(request.getFilter());
+			next.setPageSize(request.getPageSize());
+			next.setLast(result.get(result.size() - 1));
+			iLastRequest = next;
+			iMore.setVisible(true);
+		} else {
+			iLastRequest = null;
+			iMore.setVisible(false);
+		}
+	}
+	
+	/**
+	 * Page size is given by the limit option of the filter, 1000 by default.
+	 */
+	protected int getPageSize(FilterRpcRequest filter) {
+		if (filter.hasOptions() && filter.getOptions().get("limit") != null && filter.getOptions().get("limit").size() == 1) {
+			try {
+				return Integer.parseInt(filter.getOptions().get("limit").iterator().next());
+			} catch (NumberFormatException e) {}
+		}
+		return 1000;
+	}
+	
 	void export(String type) {
 		RoomCookie cookie = RoomCookie.getInstance();
 		String query = "output=" + type;
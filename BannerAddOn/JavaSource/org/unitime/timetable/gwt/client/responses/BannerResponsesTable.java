@@ -88,6 +88,19 @@ public class BannerResponsesTable extends UniTimeTable<BannerResponseInterface>
 		
 	}
 	
+	/**
+	 * Add the next page of responses to the table.
+	 */
+	public void append(GwtRpcResponseList<BannerResponseInterface> results) {
+		int firstRow = getRowCount();
+		for (BannerResponseInterface bannerResponse: results) {
+			addBannerResponse(bannerResponse);
+		}
+		for (int r = firstRow; r < getRowCount(); r++) {
+			getCellFormatter().setVisible(r, 0, false);
+		}
+	}
+	
 	public int addBannerResponse(final BannerResponseInterface attribute) {
 		List<Widget> widgets = new ArrayList<Widget>();
 		
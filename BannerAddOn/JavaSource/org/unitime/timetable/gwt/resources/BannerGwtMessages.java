@@ -110,6 +110,9 @@ public interface BannerGwtMessages extends GwtMessages {
 
 	@DefaultMessage("Loading banner responses ...")
 	String waitLoadingBannerQueueResponses();
+
+	@DefaultMessage("Show More")
+	String buttonShowMoreBannerResponses();
 	
 	@DefaultMessage("Activity Date Not Set.")
 	String warnActivityDateNotSet();
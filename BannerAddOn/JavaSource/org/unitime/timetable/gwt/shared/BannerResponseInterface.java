@@ -21,6 +21,7 @@ package org.unitime.timetable.gwt.shared;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 import org.unitime.timetable.gwt.command.client.GwtRpcRequest;
@@ -37,6 +38,7 @@ public class BannerResponseInterface implements IsSerializable, Comparable<Banne
 	private Long iUniqueId;
 	private Integer iSequenceNumber;
 	private String iActivityDateStr;
+	private Date iActivityDate;
 	private String iTermCode;
 	private String iCrn;
 	private String iCampus;
@@ -60,6 +62,9 @@ public class BannerResponseInterface implements IsSerializable, Comparable<Banne
 	public String getActivityDateStr() { return iActivityDateStr; }
 	public void setActivityDateStr(String activityDateStr) { this.iActivityDateStr = activityDateStr; }
 
+	public Date getActivityDate() { return iActivityDate; }
+	public void setActivityDate(Date activityDate) { this.iActivityDate = activityDate; }
+
 	public String getTermCode() { return iTermCode; }
 	public void setTermCode(String termCode) { this.iTermCode = termCode; }
 
@@ -124,6 +129,9 @@ public class BannerResponseInterface implements IsSerializable, Comparable<Banne
 	public static class BannerResponsesPageRequest implements GwtRpcRequest<GwtRpcResponseList<BannerResponseInterface>>, Serializable {
 		private static final long serialVersionUID = 1L;
 		private BannerResponsesFilterRpcRequest iRequest = null;
+		private Integer iPageSize = null;
+		private Date iLastActivityDate = null;
+		private Long iLastUniqueId = null;
 		
 		public BannerResponsesPageRequest() {
 			iRequest = new BannerResponsesFilterRpcRequest();
@@ -141,6 +149,22 @@ public class BannerResponseInterface implements IsSerializable, Comparable<Banne
 		
 		public BannerResponsesFilterRpcRequest getFilter() { return iRequest; }
 		
+		/**
+		 * Maximal number of responses to return, the limit option of the filter (or 1000) when not set.
+		 */
+		public Integer getPageSize() { return iPageSize; }
+		public void setPageSize(Integer pageSize) { iPageSize = pageSize; }
+		
+		/**
+		 * Return the responses that follow the given response (activity date descending, unique id ascending), null for the first page.
+		 */
+		public Date getLastActivityDate() { return iLastActivityDate; }
+		public Long getLastUniqueId() { return iLastUniqueId; }
+		public void setLast(BannerResponseInterface last) {
+			iLastActivityDate = (last == null ? null : last.getActivityDate());
+			iLastUniqueId = (last == null ? null : last.getUniqueId());
+		}
+		
 		@Override
 		public String toString() {
 			return iRequest.toString();
@@ -0,0 +1,104 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.dataexchange;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+/**
+ * Grouping of the sections of an AUDIT packet with their cross-lists, so that a cross-list is never split between two sub-packets.
+ */
+public class BannerSectionAuditExportTest {
+
+	private static Element root(String... crns) {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("SCHEDULE");
+		for (String crn: crns) {
+			Element section = root.addElement("SECTION");
+			if (crn != null) section.addAttribute("CRN", crn);
+		}
+		return root;
+	}
+
+	private static void crosslist(Element root, String group, String... crns) {
+		Element crosslist = root.addElement("CROSSLIST");
+		crosslist.addAttribute("GROUP", group);
+		for (String crn: crns)
+			crosslist.addElement("MEMBER").addAttribute("CRN", crn);
+	}
+
+	private static List<List<String>> groups(Element root) {
+		List<List<String>> ret = new ArrayList<List<String>>();
+		for (List<Element> unit: BannerSectionAuditExport.groupWithCrossLists(root)) {
+			List<String> group = new ArrayList<String>();
+			for (Element e: unit)
+				group.add("SECTION".equals(e.getName()) ? e.attributeValue("CRN", "-") : "X" + e.attributeValue("GROUP"));
+			ret.add(group);
+		}
+		return ret;
+	}
+
+	@Test
+	public void testSectionsWithoutCrossLists() {
+		Element root = root("1", "2", null, null);
+		assertEquals(Arrays.asList(Arrays.asList("1"), Arrays.asList("2"), Arrays.asList("-"), Arrays.asList("-")), groups(root));
+	}
+
+	@Test
+	public void testCrossListFollowsItsSections() {
+		Element root = root("1", "2", "3", "4");
+		crosslist(root, "A", "1", "3");
+		assertEquals(Arrays.asList(Arrays.asList("1", "3", "XA"), Arrays.asList("2"), Arrays.asList("4")), groups(root));
+	}
+
+	@Test
+	public void testCrossListsSharingASectionAreKeptTogether() {
+		Element root = root("1", "2", "3", "4", "5");
+		crosslist(root, "A", "1", "2");
+		crosslist(root, "B", "4", "5");
+		crosslist(root, "C", "2", "4");
+		assertEquals(Arrays.asList(Arrays.asList("1", "2", "4", "5", "XA", "XB", "XC"), Arrays.asList("3")), groups(root));
+	}
+
+	@Test
+	public void testSectionsSharingACrn() {
+		Element root = root("1", "2", "1");
+		crosslist(root, "A", "1");
+		assertEquals(Arrays.asList(Arrays.asList("1", "1", "XA"), Arrays.asList("2")), groups(root));
+	}
+
+	@Test
+	public void testCrossListWithoutSections() {
+		Element root = root("1");
+		crosslist(root, "A", "7", "8");
+		crosslist(root, "B", "1");
+		crosslist(root, "C");
+		assertEquals(Arrays.asList(Arrays.asList("1", "XB"), Arrays.asList("XA", "XC")), groups(root));
+	}
+}
@@ -0,0 +1,127 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.dataexchange;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+
+/**
+ * The manifest created for a sent SCHEDULE packet parses back into the same sections and cross-lists.
+ */
+public class BannerSentManifestTest {
+
+	private static Document packet() {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("SCHEDULE");
+		root.addAttribute("PACKET_ID", "1234");
+		root.addAttribute("TERM_CODE", "201910");
+		root.addAttribute("ACTION", "UPDATE");
+		root.addAttribute("BATCH_ID", "1200");
+		root.addAttribute("CHUNK", "2");
+		root.addAttribute("CHUNKS", "3");
+		Element section = root.addElement("SECTION");
+		section.addAttribute("ACTION", "UPDATE");
+		section.addAttribute("CRN", "10001");
+		section.addAttribute("EXTERNAL_ID", "501");
+		section.addAttribute("SUBJ_CODE", "MA");
+		section.addAttribute("CRSE_NUMB", "10100");
+		section.addAttribute("CAMP_CODE", "PWL");
+		section.addElement("MEETING").addAttribute("BLDG_CODE", "LWSN");
+		Element other = root.addElement("SECTION");
+		other.addAttribute("ACTION", "DELETE");
+		other.addAttribute("CRN", "10002");
+		other.addAttribute("EXTERNAL_ID", "502");
+		other.addAttribute("SUBJ_CODE", "Tab\tNew\nLine");
+		Element crosslist = root.addElement("CROSSLIST");
+		crosslist.addAttribute("ACTION", "UPDATE");
+		crosslist.addAttribute("GROUP", "XA");
+		crosslist.addElement("MEMBER").addAttribute("CRN", "10001");
+		return document;
+	}
+
+	@Test
+	public void testRoundTrip() {
+		BannerSentManifest manifest = BannerSentManifest.parse(BannerSentManifest.create(packet()));
+		assertEquals("201910", manifest.getTermCode());
+		assertEquals("UPDATE", manifest.getAction());
+		assertEquals("1200", manifest.getBatchId());
+		assertEquals("2", manifest.getChunk());
+		assertEquals("3", manifest.getChunks());
+		assertEquals(3, manifest.getEntries().size());
+
+		BannerSentManifest.Entry section = manifest.getEntries().get(0);
+		assertEquals(0, section.getPosition());
+		assertTrue(section.isSection());
+		assertEquals("UPDATE", section.getAction());
+		assertEquals("10001", section.getCrn());
+		assertEquals("501", section.getExternalId());
+		assertEquals("MA", section.getSubject());
+		assertEquals("10100", section.getCourse());
+		assertEquals("PWL", section.getCampus());
+		assertNull(section.getGroup());
+
+		BannerSentManifest.Entry other = manifest.getEntries().get(1);
+		assertEquals("DELETE", other.getAction());
+		// tabs and new lines in the values do not break the manifest
+		assertEquals("Tab New Line", other.getSubject());
+		assertNull(other.getCourse());
+		assertNull(other.getCampus());
+
+		BannerSentManifest.Entry crosslist = manifest.getEntries().get(2);
+		assertEquals(2, crosslist.getPosition());
+		assertTrue(crosslist.isCrossList());
+		assertEquals("XA", crosslist.getGroup());
+		assertNull(crosslist.getCrn());
+
+		List<Long> ids = manifest.getBannerSectionIds();
+		assertEquals(Arrays.asList(501l, 502l), ids);
+	}
+
+	@Test
+	public void testMissingRootAttributes() {
+		Document document = DocumentHelper.createDocument();
+		document.addElement("SCHEDULE").addAttribute("TERM_CODE", "201910");
+		BannerSentManifest manifest = BannerSentManifest.parse(BannerSentManifest.create(document));
+		assertEquals("201910", manifest.getTermCode());
+		assertNull(manifest.getBatchId());
+		assertNull(manifest.getChunks());
+		assertEquals(0, manifest.getEntries().size());
+	}
+
+	@Test
+	public void testNotASchedulePacket() {
+		Document document = DocumentHelper.createDocument();
+		document.addElement("SCHEDULE_RESPONSE");
+		assertNull(BannerSentManifest.create(document));
+		assertNull(BannerSentManifest.create(null));
+		assertNull(BannerSentManifest.parse(null));
+		assertNull(BannerSentManifest.parse(""));
+	}
+}
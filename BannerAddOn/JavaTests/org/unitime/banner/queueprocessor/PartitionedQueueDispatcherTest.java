@@ -0,0 +1,117 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.After;
+import org.junit.Test;
+import org.unitime.banner.model.QueueOut;
+
+/**
+ * Grouping of the posted packets into partitions: packets that share a section or a cross-list (directly or through
+ * other packets) end up in the same partition, in the order in which they were posted.
+ */
+public class PartitionedQueueDispatcherTest {
+	private PartitionedQueueDispatcher iDispatcher = new PartitionedQueueDispatcher(1, 1000l);
+	private long iNextId = 1;
+
+	@After
+	public void shutdown() {
+		iDispatcher.shutdown();
+	}
+
+	private QueueOut packet(String term, String[] crns, String[]... crosslists) {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("SCHEDULE");
+		if (term != null) root.addAttribute("TERM_CODE", term);
+		for (String crn: crns)
+			root.addElement("SECTION").addAttribute("CRN", crn);
+		for (String[] crosslist: crosslists) {
+			Element element = root.addElement("CROSSLIST");
+			element.addAttribute("GROUP", crosslist[0]);
+			for (int i = 1; i < crosslist.length; i++)
+				element.addElement("MEMBER").addAttribute("CRN", crosslist[i]);
+		}
+		QueueOut item = new QueueOut(iNextId++);
+		item.setXml(document);
+		return item;
+	}
+
+	private List<List<QueueOut>> partitions(QueueOut... items) {
+		List<List<QueueOut>> ret = new ArrayList<List<QueueOut>>();
+		for (PartitionedQueueDispatcher.Partition partition: iDispatcher.createPartitions(Arrays.asList(items)))
+			ret.add(partition.getItems());
+		return ret;
+	}
+
+	@Test
+	public void testIndependentSections() {
+		QueueOut a = packet("201910", new String[] {"1"});
+		QueueOut b = packet("201910", new String[] {"2"});
+		QueueOut c = packet("201910", new String[] {"1"});
+		assertEquals(Arrays.asList(Arrays.asList(a, c), Arrays.asList(b)), partitions(a, b, c));
+	}
+
+	@Test
+	public void testCrossListJoinsPartitions() {
+		QueueOut a = packet("201910", new String[] {"1"});
+		QueueOut b = packet("201910", new String[] {"2"});
+		QueueOut c = packet("201910", new String[] {"3"});
+		QueueOut d = packet("201910", new String[0], new String[] {"X1", "1", "2"});
+		QueueOut e = packet("201910", new String[0], new String[] {"X1"});
+		assertEquals(Arrays.asList(Arrays.asList(a, b, d, e), Arrays.asList(c)), partitions(a, b, c, d, e));
+	}
+
+	@Test
+	public void testPacketWithManySectionsJoinsPartitions() {
+		QueueOut a = packet("201910", new String[] {"1"});
+		QueueOut b = packet("201910", new String[] {"2"});
+		QueueOut c = packet("201910", new String[] {"3"});
+		QueueOut d = packet("201910", new String[] {"4", "1"});
+		QueueOut e = packet("201910", new String[] {"3", "4"});
+		assertEquals(Arrays.asList(Arrays.asList(a, c, d, e), Arrays.asList(b)), partitions(a, b, c, d, e));
+	}
+
+	@Test
+	public void testTermsAreSeparate() {
+		QueueOut a = packet("201910", new String[] {"1"});
+		QueueOut b = packet("201920", new String[] {"1"});
+		QueueOut c = packet("201910", new String[0]);
+		QueueOut d = packet("201910", new String[0]);
+		assertEquals(Arrays.asList(Arrays.asList(a), Arrays.asList(b), Arrays.asList(c, d)), partitions(a, b, c, d));
+	}
+
+	@Test
+	public void testPacketsWithoutTerm() {
+		QueueOut a = packet(null, new String[] {"1"});
+		QueueOut b = packet("201910", new String[] {"1"});
+		QueueOut c = packet(null, new String[] {"2"});
+		assertEquals(Arrays.asList(Arrays.asList(a, c), Arrays.asList(b)), partitions(a, b, c));
+	}
+}
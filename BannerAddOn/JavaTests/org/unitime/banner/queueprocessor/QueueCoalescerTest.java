@@ -0,0 +1,185 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+
+import org.dom4j.Document;
+import org.dom4j.DocumentHelper;
+import org.dom4j.Element;
+import org.junit.Test;
+import org.unitime.banner.model.QueueOut;
+
+/**
+ * Splitting of the posted packets into runs and merging of a run, with the merged packet kept in memory.
+ */
+public class QueueCoalescerTest {
+
+	private static class TestCoalescer extends QueueCoalescer {
+		boolean iFailMerge = false;
+		List<List<QueueOut>> iRuns = new ArrayList<List<QueueOut>>();
+
+		TestCoalescer(long window) {
+			super(window);
+		}
+
+		TestCoalescer() {
+			this(0);
+		}
+
+		@Override
+		protected QueueOut merge(List<QueueOut> run) {
+			iRuns.add(new ArrayList<QueueOut>(run));
+			if (iFailMerge) return null;
+			QueueOut last = run.get(run.size() - 1);
+			last.setXml(mergeDocuments(run));
+			return last;
+		}
+	}
+
+	private static long sNextId = 1;
+
+	private static QueueOut packet(String term, String isTransaction, String... crns) {
+		Document document = DocumentHelper.createDocument();
+		Element root = document.addElement("SCHEDULE");
+		root.addAttribute("PACKET_ID", "P" + sNextId);
+		root.addAttribute("TERM_CODE", term);
+		root.addAttribute("ORIGIN", "UniTime");
+		root.addAttribute("ACTION", "UPDATE");
+		root.addAttribute("MODE", "UPDATE");
+		root.addAttribute("IS_TRANSACTION", isTransaction);
+		for (String crn: crns) {
+			Element section = root.addElement("SECTION");
+			section.addAttribute("EXTERNAL_ID", crn);
+			section.addAttribute("CRN", crn);
+			section.addAttribute("PACKET", "P" + sNextId);
+		}
+		QueueOut item = new QueueOut(sNextId++);
+		item.setPostDate(new Date(0));
+		item.setStatus(QueueOut.STATUS_POSTED);
+		item.setXml(document);
+		return item;
+	}
+
+	private static List<String> sectionPackets(QueueOut item) {
+		List<String> ret = new ArrayList<String>();
+		for (Object section: item.getXml().getRootElement().elements("SECTION"))
+			ret.add(((Element)section).attributeValue("CRN") + "@" + ((Element)section).attributeValue("PACKET"));
+		return ret;
+	}
+
+	@Test
+	public void testRunIsMerged() {
+		TestCoalescer coalescer = new TestCoalescer();
+		QueueOut a = packet("201910", "Y", "1", "2");
+		QueueOut b = packet("201910", "Y", "2", "3");
+		List<QueueOut> ret = coalescer.coalesce(Arrays.asList(a, b));
+		assertEquals(1, ret.size());
+		assertSame(b, ret.get(0));
+		// each section only once, with its latest state
+		assertEquals(Arrays.asList("1@P" + a.getUniqueId(), "2@P" + b.getUniqueId(), "3@P" + b.getUniqueId()), sectionPackets(ret.get(0)));
+	}
+
+	@Test
+	public void testDifferentRootAttributesSplitTheRun() {
+		TestCoalescer coalescer = new TestCoalescer();
+		QueueOut a = packet("201910", "Y", "1");
+		QueueOut b = packet("201910", "N", "1");
+		QueueOut c = packet("201910", "N", "2");
+		List<QueueOut> ret = coalescer.coalesce(Arrays.asList(a, b, c));
+		assertEquals(Arrays.asList(a, c), ret);
+		assertEquals(1, coalescer.iRuns.size());
+		assertEquals(Arrays.asList(b, c), coalescer.iRuns.get(0));
+	}
+
+	@Test
+	public void testRunsOfDifferentTerms() {
+		TestCoalescer coalescer = new TestCoalescer();
+		QueueOut a = packet("201910", "Y", "1");
+		QueueOut b = packet("201920", "Y", "1");
+		QueueOut c = packet("201910", "Y", "2");
+		QueueOut d = packet("201920", "Y", "2");
+		List<QueueOut> ret = coalescer.coalesce(Arrays.asList(a, b, c, d));
+		// the merged packet takes the place of the first packet of its run
+		assertEquals(Arrays.asList(c, d), ret);
+		assertEquals(2, coalescer.iRuns.size());
+	}
+
+	@Test
+	public void testPacketThatCannotBeMergedClosesTheRun() {
+		TestCoalescer coalescer = new TestCoalescer();
+		QueueOut a = packet("201910", "Y", "1");
+		QueueOut b = packet("201910", "Y", "1");
+		b.getXml().getRootElement().addAttribute("BATCH_ID", "B1");
+		QueueOut c = packet("201910", "Y", "1");
+		List<QueueOut> ret = coalescer.coalesce(Arrays.asList(a, b, c));
+		assertEquals(Arrays.asList(a, b, c), ret);
+		assertEquals(0, coalescer.iRuns.size());
+	}
+
+	@Test
+	public void testFailedMergeKeepsThePacketsInPlace() {
+		TestCoalescer coalescer = new TestCoalescer();
+		coalescer.iFailMerge = true;
+		QueueOut a = packet("201910", "Y", "1");
+		QueueOut b = packet("201920", "Y", "1");
+		QueueOut c = packet("201910", "Y", "2");
+		QueueOut d = packet("201910", "Y", "3");
+		List<QueueOut> ret = coalescer.coalesce(Arrays.asList(a, b, c, d));
+		assertEquals(Arrays.asList(a, b, c, d), ret);
+		assertEquals(Arrays.asList(a, c, d), coalescer.iRuns.get(0));
+	}
+
+	@Test
+	public void testRecentPacketsAreHeldBack() {
+		TestCoalescer coalescer = new TestCoalescer(60000l);
+		QueueOut a = packet("201910", "Y", "1");
+		QueueOut b = packet("201910", "Y", "2");
+		b.setPostDate(new Date());
+		QueueOut c = packet("201910", "Y", "3");
+		QueueOut d = packet("201920", "Y", "4");
+		// the packets posted after a recent packet of the same term are held back as well
+		assertEquals(Arrays.asList(a, d), coalescer.coalesce(Arrays.asList(a, b, c, d)));
+		assertEquals(0, coalescer.iRuns.size());
+	}
+
+	@Test
+	public void testRemovedRestrictionsAreKept() {
+		TestCoalescer coalescer = new TestCoalescer();
+		QueueOut a = packet("201910", "Y", "1");
+		Element restriction = ((Element)a.getXml().getRootElement().elements("SECTION").get(0)).addElement("RESTRICTION");
+		restriction.addAttribute("TYPE", "MAJOR");
+		restriction.addElement("RESTRICT").addAttribute("REMOVE", "Y").setText("CS");
+		QueueOut b = packet("201910", "Y", "1");
+		List<QueueOut> ret = coalescer.coalesce(Arrays.asList(a, b));
+		Element section = (Element)ret.get(0).getXml().getRootElement().elements("SECTION").get(0);
+		Element kept = section.element("RESTRICTION");
+		assertEquals("MAJOR", kept.attributeValue("TYPE"));
+		assertEquals("CS", kept.element("RESTRICT").getText());
+		assertEquals("Y", kept.element("RESTRICT").attributeValue("REMOVE"));
+	}
+}
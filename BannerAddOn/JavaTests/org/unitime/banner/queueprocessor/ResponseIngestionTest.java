@@ -0,0 +1,161 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+
+package org.unitime.banner.queueprocessor;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+import org.unitime.banner.model.Queue;
+import org.unitime.banner.model.QueueIn;
+import org.unitime.banner.queueprocessor.exception.LoggableException;
+
+/**
+ * Response ingestion with the queue table kept in memory: a response that fails to be stored goes back to
+ * {@link Queue#STATUS_POSTED} (and is not marked as processed) until it runs out of retries.
+ */
+public class ResponseIngestionTest {
+
+	private static class TestIngestion extends ResponseIngestion {
+		Map<Long, String> iStatus = new HashMap<Long, String>();
+		boolean iFailStore = false, iLoseClaim = false;
+		int iStoreCalls = 0;
+
+		TestIngestion() {
+			super(1, 1);
+		}
+
+		Long post(String status) {
+			Long id = Long.valueOf(iStatus.size() + 1);
+			iStatus.put(id, status);
+			return id;
+		}
+
+		@Override
+		protected QueueIn load(Long queueInId) {
+			if (!iStatus.containsKey(queueInId)) return null;
+			QueueIn qi = new QueueIn(queueInId);
+			qi.setStatus(iStatus.get(queueInId));
+			return qi;
+		}
+
+		@Override
+		protected boolean claim(QueueIn queueIn) {
+			if (!Queue.STATUS_POSTED.equals(iStatus.get(queueIn.getUniqueId()))) return false;
+			iStatus.put(queueIn.getUniqueId(), Queue.STATUS_INGESTING);
+			queueIn.setStatus(Queue.STATUS_INGESTING);
+			return true;
+		}
+
+		@Override
+		protected boolean store(QueueIn queueIn) throws LoggableException {
+			iStoreCalls ++;
+			// as ReceiveBannerResponseMessage.receiveResponseDocument: the response is only marked as processed when it has been stored
+			if (iFailStore)
+				throw new LoggableException(new RuntimeException("Unable to store response message"), queueIn);
+			if (iLoseClaim)
+				iStatus.put(queueIn.getUniqueId(), Queue.STATUS_POSTED);
+			queueIn.setStatus(Queue.STATUS_PROCESSED);
+			return complete(queueIn);
+		}
+
+		@Override
+		protected void release(QueueIn queueIn, String status) {
+			if (Queue.STATUS_INGESTING.equals(iStatus.get(queueIn.getUniqueId())))
+				iStatus.put(queueIn.getUniqueId(), status);
+			queueIn.setStatus(status);
+		}
+
+		@Override
+		protected boolean complete(QueueIn queueIn) {
+			if (!Queue.STATUS_INGESTING.equals(iStatus.get(queueIn.getUniqueId()))) return false;
+			iStatus.put(queueIn.getUniqueId(), queueIn.getStatus());
+			return true;
+		}
+
+		@Override
+		protected void closeSessions() {}
+
+		void ingest(Long queueInId) {
+			new Ingest(queueInId).run();
+		}
+	}
+
+	@Test
+	public void testStoredResponseIsProcessed() {
+		TestIngestion ingestion = new TestIngestion();
+		Long id = ingestion.post(Queue.STATUS_POSTED);
+		ingestion.ingest(id);
+		assertEquals(Queue.STATUS_PROCESSED, ingestion.iStatus.get(id));
+	}
+
+	@Test
+	public void testStoreFailureGoesBackToPosted() {
+		TestIngestion ingestion = new TestIngestion();
+		ingestion.iFailStore = true;
+		Long id = ingestion.post(Queue.STATUS_POSTED);
+		ingestion.ingest(id);
+		assertEquals(1, ingestion.iStoreCalls);
+		assertEquals(Queue.STATUS_POSTED, ingestion.iStatus.get(id));
+
+		// the next attempt succeeds
+		ingestion.iFailStore = false;
+		ingestion.ingest(id);
+		assertEquals(2, ingestion.iStoreCalls);
+		assertEquals(Queue.STATUS_PROCESSED, ingestion.iStatus.get(id));
+	}
+
+	@Test
+	public void testStoreFailureRunsOutOfRetries() {
+		TestIngestion ingestion = new TestIngestion();
+		ingestion.iFailStore = true;
+		Long id = ingestion.post(Queue.STATUS_POSTED);
+		for (int i = 0; i < ResponseIngestion.getMaxRetries(); i++) {
+			ingestion.ingest(id);
+			assertEquals(Queue.STATUS_POSTED, ingestion.iStatus.get(id));
+		}
+		ingestion.ingest(id);
+		assertEquals(Queue.STATUS_FAILED, ingestion.iStatus.get(id));
+		assertEquals(ResponseIngestion.getMaxRetries() + 1, ingestion.iStoreCalls);
+	}
+
+	@Test
+	public void testClaimedResponseIsNotTaken() {
+		TestIngestion ingestion = new TestIngestion();
+		Long id = ingestion.post(Queue.STATUS_INGESTING);
+		ingestion.ingest(id);
+		assertEquals(0, ingestion.iStoreCalls);
+		assertEquals(Queue.STATUS_INGESTING, ingestion.iStatus.get(id));
+	}
+
+	@Test
+	public void testLostClaimIsNotOverwritten() {
+		TestIngestion ingestion = new TestIngestion();
+		// the lease expires while the response is being stored and the response is put back
+		ingestion.iLoseClaim = true;
+		Long id = ingestion.post(Queue.STATUS_POSTED);
+		ingestion.ingest(id);
+		assertEquals(1, ingestion.iStoreCalls);
+		assertEquals(Queue.STATUS_POSTED, ingestion.iStatus.get(id));
+	}
+}
@@ -116,6 +116,7 @@ public class SendColleagueMessage {
 		else
 		  Debug.info("message = " + asxml);
 		outQ.setXml(document);
+		outQ.updateMetadata();
 		outQ.setStatus(QueueOut.STATUS_POSTED);
 		outQ.setPostDate(new Date());
 		Session newSession = QueueOutDAO.getInstance().createNewSession();
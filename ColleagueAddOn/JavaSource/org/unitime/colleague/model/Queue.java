@@ -20,7 +20,14 @@
 
 package org.unitime.colleague.model;
 
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+
+import org.dom4j.Document;
+import org.dom4j.Element;
 import org.unitime.colleague.model.base.BaseQueue;
+import org.unitime.colleague.queueprocessor.util.ClobTools;
 
 
 
@@ -58,4 +65,48 @@ public abstract class Queue extends BaseQueue {
 
 	public abstract String getQueueType();
 
-}
\ No newline at end of file
+	private static String[] sTermAttributes = new String[] { "termCode", "TERM_CODE", "term", "session" };
+	
+	private static String getTermCode(Element element) {
+		for (String attribute: sTermAttributes) {
+			String term = element.attributeValue(attribute);
+			if (term != null && !term.isEmpty()) return term;
+		}
+		return null;
+	}
+	
+	/**
+	 * Fill in the message type (name of the root element), the term code, the number of students, and the size of the message
+	 * from the XML document, so that the cleanup and the queue checks can use the indexed columns instead of reading the XML.
+	 * The term code is taken from the root element or, when all the child elements are of the same term, from the child elements.
+	 * To be called whenever the XML document of the message is set or changed.
+	 */
+	public void updateMetadata() {
+		Document document = getXml();
+		if (document == null || document.getRootElement() == null) {
+			setMessageType(null);
+			setTermCode(null);
+			setStudentCount(null);
+			setByteSize(null);
+			return;
+		}
+		Element root = document.getRootElement();
+		String termCode = getTermCode(root);
+		Set<String> terms = new HashSet<String>();
+		int students = 0;
+		for (Iterator<?> i = root.elementIterator(); i.hasNext(); ) {
+			Element element = (Element)i.next();
+			if ("student".equalsIgnoreCase(element.getName())) students++;
+			if (termCode == null) {
+				String term = getTermCode(element);
+				if (term != null) terms.add(term);
+			}
+		}
+		if (termCode == null && terms.size() == 1) termCode = terms.iterator().next();
+		setMessageType(root.getName().length() > 40 ? root.getName().substring(0, 40) : root.getName());
+		setTermCode(termCode == null || termCode.length() > 20 ? null : termCode);
+		setStudentCount(students);
+		setByteSize(ClobTools.documentSize(document));
+	}
+
+}
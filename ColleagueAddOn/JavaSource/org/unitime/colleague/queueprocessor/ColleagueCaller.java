@@ -265,6 +265,7 @@ public abstract class ColleagueCaller {
 		Document outDoc = null;
 		try {
 			outDoc = ClobTools.clobToDocument(clob);
+			ClobTools.free(clob);
 			
 		} catch (Exception ex) {
 			Debug.info("***************************************");
@@ -77,6 +77,7 @@ public class PollStudentUpdates extends ColleagueCaller {
 			qi.setMatchId(null);
 			qi.setStatus(QueueIn.STATUS_READY);
 			qi.setXml(result);
+			qi.updateMetadata();
 
 			qi.setUniqueId(qid.save(qi));
 			
@@ -89,7 +90,6 @@ public class PollStudentUpdates extends ColleagueCaller {
 						qi.setProcessDate(new Date());
 						qi.setStatus(Queue.STATUS_PROCESSED);
 						QueueInDAO.getInstance().getSession().update(qi);
-						csu.removeOldStudentUpdateMessages(qi.getUniqueId(), qi.getXml().getRootElement(), QueueInDAO.getInstance().getSession());
 					} catch (Exception e) {
 						LoggableException le = new LoggableException(e, qi);
 						le.logError();
@@ -184,15 +184,18 @@ public class PollStudentUpdates extends ColleagueCaller {
 
 		OracleConnector jdbc = getJDBCconnection();
 		
-		Debug.info("\tSending student update request to Colleague...");
-		Clob clob = jdbc.requestEnrollmentChanges(request);
-		Debug.info("\tResponse received from Colleague.");
-
-		Document outDoc = convertClobToDocument(clob);
-
-		jdbc.cleanup();
-
-		return outDoc;
+		try {
+			Debug.info("\tSending student update request to Colleague...");
+			Clob clob = jdbc.requestEnrollmentChanges(request);
+			Debug.info("\tResponse received from Colleague.");
+
+			return convertClobToDocument(clob);
+		} catch (SQLException e) {
+			jdbc.invalidate();
+			throw e;
+		} finally {
+			jdbc.cleanup();
+		}
 
 	}
 }
@@ -29,6 +29,7 @@ import org.unitime.colleague.model.QueueOut;
 import org.unitime.colleague.model.dao.QueueInDAO;
 import org.unitime.colleague.model.dao.QueueOutDAO;
 import org.unitime.colleague.queueprocessor.exception.LoggableException;
+import org.unitime.colleague.queueprocessor.oracle.OracleConnectionPool;
 import org.unitime.commons.Debug;
 import org.unitime.commons.hibernate.util.HibernateUtil;
 import org.unitime.timetable.ApplicationProperties;
@@ -108,6 +109,7 @@ public class ProcessQueue {
 				lastRunTime = new Date();
 				processQueue.process();
 				pollStudentUpdates.poll();
+				QueuePurge.purgeIfDue();
 			} else {
 				try {
 					Thread.sleep(sleep_interval);
@@ -181,6 +183,7 @@ public class ProcessQueue {
 			}
 
 			Debug.info("*** Processing complete.");
+			OracleConnectionPool.logStatistics();
 
 		} catch (Exception ex) {
 			LoggableException le = new LoggableException(ex);
@@ -0,0 +1,188 @@
+/*
+ * Licensed to The Apereo Foundation under one or more contributor license
+ * agreements. See the NOTICE file distributed with this work for
+ * additional information regarding copyright ownership.
+ *
+ * The Apereo Foundation licenses this file to you under the Apache License,
+ * Version 2.0 (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at:
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ *
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+*/
+package org.unitime.colleague.queueprocessor;
+
+import java.util.Date;
+import java.util.List;
+
+import org.hibernate.Query;
+import org.hibernate.Session;
+import org.hibernate.Transaction;
+import org.hibernate.type.IntegerType;
+import org.hibernate.type.LongType;
+import org.unitime.colleague.model.Queue;
+import org.unitime.colleague.model.QueueIn;
+import org.unitime.colleague.model.dao.QueueInDAO;
+import org.unitime.commons.Debug;
+import org.unitime.timetable.ApplicationProperties;
+
+/**
+ * Scheduled removal of old incoming messages, replacing the cleanup that was done after each processed student update message.<br>
+ * <br>
+ * A processed student update message is removed once there is a newer processed student update message of the same term
+ * (messages with students of more than one term have no term code, only the latest of these is kept), and (when <code>colleague.queue.purge.retention</code> is set) processed messages of any type are removed after the given
+ * number of days. The messages are found using the indexed message type and term code columns (see {@link Queue#updateMetadata()})
+ * and deleted in batches of <code>colleague.queue.purge.batchSize</code>, each batch in its own transaction. The purge runs at most
+ * once every <code>colleague.queue.purge.interval</code> seconds, older messages without the metadata are filled in as it goes.
+ */
+public class QueuePurge {
+	private static long sLastRun = 0;
+
+	public static boolean isEnabled() {
+		return "true".equalsIgnoreCase(ApplicationProperties.getProperty("colleague.queue.purge.enabled", "true"));
+	}
+
+	public static long getInterval() {
+		return 1000l * Integer.parseInt(ApplicationProperties.getProperty("colleague.queue.purge.interval", "900"));
+	}
+
+	public static int getBatchSize() {
+		return Math.max(1, Integer.parseInt(ApplicationProperties.getProperty("colleague.queue.purge.batchSize", "500")));
+	}
+
+	public static int getRetentionDays() {
+		return Integer.parseInt(ApplicationProperties.getProperty("colleague.queue.purge.retention", "0"));
+	}
+
+	/**
+	 * Run the purge when enabled and when it has not run for the configured interval.
+	 */
+	public static synchronized void purgeIfDue() {
+		if (!isEnabled()) return;
+		long now = System.currentTimeMillis();
+		if (sLastRun > 0 && now - sLastRun < getInterval()) return;
+		sLastRun = now;
+		try {
+			purge();
+		} catch (Exception e) {
+			Debug.error("Failed to purge old queue messages: " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Remove old processed messages, returns the number of removed messages.
+	 */
+	@SuppressWarnings("unchecked")
+	public static int purge() {
+		long t0 = System.currentTimeMillis();
+		int batchSize = getBatchSize();
+		int deleted = 0;
+		Session hibSession = QueueInDAO.getInstance().createNewSession();
+		try {
+			updateMetadata(hibSession, batchSize);
+
+			for (Object[] o: (List<Object[]>)hibSession.createQuery(
+					"select q.termCode, max(q.uniqueId) from QueueIn q where q.messageType = :type and q.status = :status and q.termCode is not null group by q.termCode")
+					.setString("type", "studentUpdates").setString("status", Queue.STATUS_PROCESSED).list()) {
+				String termCode = (String)o[0];
+				Long lastId = (Long)o[1];
+				int count = delete(hibSession, batchSize,
+						hibSession.createQuery("select q.uniqueId from QueueIn q where q.messageType = :type and q.termCode = :term and q.status = :status and q.uniqueId < :lastId")
+						.setString("type", "studentUpdates").setString("term", termCode).setString("status", Queue.STATUS_PROCESSED).setLong("lastId", lastId));
+				if (count > 0)
+					Debug.info("-- " + count + " old student update messages of term " + termCode + " deleted from QueueIn");
+				deleted += count;
+			}
+
+			// student update messages of more than one term
+			Long lastId = (Long)hibSession.createQuery(
+					"select max(q.uniqueId) from QueueIn q where q.messageType = :type and q.status = :status and q.termCode is null")
+					.setString("type", "studentUpdates").setString("status", Queue.STATUS_PROCESSED).uniqueResult();
+			if (lastId != null) {
+				int count = delete(hibSession, batchSize,
+						hibSession.createQuery("select q.uniqueId from QueueIn q where q.messageType = :type and q.termCode is null and q.status = :status and q.uniqueId < :lastId")
+						.setString("type", "studentUpdates").setString("status", Queue.STATUS_PROCESSED).setLong("lastId", lastId));
+				if (count > 0)
+					Debug.info("-- " + count + " old student update messages of multiple terms deleted from QueueIn");
+				deleted += count;
+			}
+
+			int retention = getRetentionDays();
+			if (retention > 0) {
+				Date before = new Date(System.currentTimeMillis() - retention * 86400000l);
+				int count = delete(hibSession, batchSize,
+						hibSession.createQuery("select q.uniqueId from QueueIn q where q.status = :status and q.processDate < :before")
+						.setString("status", Queue.STATUS_PROCESSED).setTimestamp("before", before));
+				if (count > 0)
+					Debug.info("-- " + count + " messages processed more than " + retention + " days ago deleted from QueueIn");
+				deleted += count;
+			}
+		} finally {
+			hibSession.close();
+		}
+		if (deleted > 0)
+			Debug.info("Queue purge removed " + deleted + " messages in " + (System.currentTimeMillis() - t0) + " ms.");
+		return deleted;
+	}
+
+	/**
+	 * Delete the messages returned by the given query in batches, each batch in its own transaction.
+	 */
+	@SuppressWarnings("unchecked")
+	private static int delete(Session hibSession, int batchSize, Query idQuery) {
+		int deleted = 0;
+		while (true) {
+			List<Long> ids = (List<Long>)idQuery.setMaxResults(batchSize).list();
+			if (ids.isEmpty()) break;
+			Transaction tx = hibSession.beginTransaction();
+			try {
+				deleted += hibSession.createQuery("delete from QueueIn where uniqueId in (:ids)").setParameterList("ids", ids).executeUpdate();
+				tx.commit();
+			} catch (RuntimeException e) {
+				tx.rollback();
+				throw e;
+			}
+			if (ids.size() < batchSize) break;
+		}
+		return deleted;
+	}
+
+	/**
+	 * Fill in the metadata of up to one batch of processed messages that were posted before the metadata columns were added.
+	 */
+	@SuppressWarnings("unchecked")
+	private static void updateMetadata(Session hibSession, int batchSize) {
+		List<QueueIn> messages = (List<QueueIn>)hibSession.createQuery(
+				"from QueueIn q where q.messageType is null and q.status = :status order by q.uniqueId")
+				.setString("status", Queue.STATUS_PROCESSED).setMaxResults(batchSize).list();
+		if (messages.isEmpty()) return;
+		// only the metadata columns are written, the messages are detached so that the XML is not written back
+		hibSession.clear();
+		Transaction tx = hibSession.beginTransaction();
+		try {
+			for (QueueIn qi: messages) {
+				qi.updateMetadata();
+				hibSession.createQuery(
+						"update QueueIn set messageType = :type, termCode = :term, studentCount = :students, byteSize = :size where uniqueId = :id")
+						.setString("type", qi.getMessageType())
+						.setString("term", qi.getTermCode())
+						.setParameter("students", qi.getStudentCount(), IntegerType.INSTANCE)
+						.setParameter("size", qi.getByteSize(), LongType.INSTANCE)
+						.setLong("id", qi.getUniqueId())
+						.executeUpdate();
+			}
+			tx.commit();
+		} catch (RuntimeException e) {
+			tx.rollback();
+			throw e;
+		}
+		Debug.info("-- metadata filled in for " + messages.size() + " messages of QueueIn");
+	}
+}
@@ -84,6 +84,7 @@ public class QueuedItem extends ColleagueCaller {
 				qi.setMatchId(item.getUniqueId());
 				qi.setStatus(QueueIn.STATUS_POSTED);
 				qi.setXml(result);
+				qi.updateMetadata();
 
 				qid.save(qi);
 				
@@ -149,15 +150,18 @@ Debug.info("update item process state, after save");
 
 		OracleConnector jdbc = getJDBCconnection();
 
-		Debug.info("\t" + item.getUniqueId() + ": Sending request to Colleague...");
-		Clob clob = jdbc.processUnitimePacket(xml);
-		Debug.info("\t" + item.getUniqueId() + ": Response received from Colleague.");
-
-		Document outDoc = convertClobToDocument(clob);
-		
-		jdbc.cleanup();
-
-		return outDoc;
+		try {
+			Debug.info("\t" + item.getUniqueId() + ": Sending request to Colleague...");
+			Clob clob = jdbc.processUnitimePacket(xml);
+			Debug.info("\t" + item.getUniqueId() + ": Response received from Colleague.");
+
+			return convertClobToDocument(clob);
+		} catch (SQLException e) {
+			jdbc.invalidate();
+			throw e;
+		} finally {
+			jdbc.cleanup();
+		}
 
 	}
 	
@@ -41,6 +41,7 @@ public class OracleConnector {
 	private String driver = "oracle.jdbc.driver.OracleDriver";
 	private String url = "jdbc:oracle:thin:@";
 	private Connection conn = null;
+	private OracleConnectionPool pool = null;
 
 	public OracleConnector(String host, String db, String port, String user,
 			String password) throws ClassNotFoundException, SQLException {
@@ -51,7 +52,12 @@ public class OracleConnector {
 		// load the Oracle driver and establish a connection
 		try {
 			Class.forName(driver);
-			conn = DriverManager.getConnection(url, user, password);
+			if (OracleConnectionPool.isEnabled()) {
+				pool = OracleConnectionPool.getInstance(url, user, password);
+				conn = pool.borrow();
+			} else {
+				conn = DriverManager.getConnection(url, user, password);
+			}
 		} catch (ClassNotFoundException ex) {
 			Debug.info("Failed to find driver class: " + driver);
 			throw ex;
@@ -131,6 +137,7 @@ public class OracleConnector {
 			IOException {
 
 		CallableStatement stmt = null;
+		Clob in_packet = null;
 		try {
 			stmt = conn.prepareCall(getColleagueStoredProcedureCall());
 		} catch (Exception e1) {
@@ -138,7 +145,8 @@ public class OracleConnector {
 		}
 
 		try {
-		stmt.setClob(1, ClobTools.documentToCLOB(in_clob, conn));
+			in_packet = ClobTools.documentToCLOB(in_clob, conn);
+			stmt.setClob(1, in_packet);
 		} catch(Exception ex) {
 			outputStandardDebugInfo(ex);
 		}
@@ -159,6 +167,7 @@ public class OracleConnector {
 		Clob out_sync_clob = stmt.getClob(3);
 
 		stmt.close();
+		ClobTools.free(in_packet);
 
 		if(out_sync_clob != null) {
 			//Put the "Sync" XML into the IntegrationQueueOut table
@@ -170,6 +179,8 @@ public class OracleConnector {
 				Debug.info("******************************************************************************************************");
 				e.printStackTrace();
 				Debug.info("******************************************************************************************************");
+			} finally {
+				ClobTools.free(out_sync_clob);
 			}
  		}
 		
@@ -194,9 +205,11 @@ public class OracleConnector {
 			outputStandardStudentUpdateDebugInfo(e);
 		}
 		
+		Clob in_request = null;
 		try {
 			if (stmt.getParameterMetaData().getParameterCount() == 2) {
-				stmt.setClob(2, request == null ? null : ClobTools.documentToCLOB(request, conn));
+				in_request = (request == null ? null : ClobTools.documentToCLOB(request, conn));
+				stmt.setClob(2, in_request);
 			}
 		} catch(Exception ex) {
 			outputStandardStudentUpdateDebugInfo(ex);
@@ -211,6 +224,7 @@ public class OracleConnector {
 		Clob out_clob = stmt.getClob(1);
 		
 		stmt.close();
+		ClobTools.free(in_request);
 				
 		return out_clob;
 		
@@ -254,8 +268,27 @@ public class OracleConnector {
 
 	public void cleanup() throws SQLException {
 
-		if (conn != null)
-			conn.close();
+		if (conn != null) {
+			if (pool != null)
+				pool.release(conn);
+			else
+				conn.close();
+			conn = null;
+		}
+	}
+
+	/**
+	 * Discard the underlying connection instead of returning it into the pool (e.g., after a communication failure).
+	 */
+	public void invalidate() throws SQLException {
+
+		if (conn != null) {
+			if (pool != null)
+				pool.invalidate(conn);
+			else
+				conn.close();
+			conn = null;
+		}
 	}
 	
 	private static String getColleagueStoredProcedureCall() throws Exception{
@@ -21,6 +21,7 @@
 package org.unitime.colleague.queueprocessor.util;
 
 import java.io.IOException;
+import java.io.OutputStream;
 import java.sql.Clob;
 import java.sql.Connection;
 import java.sql.SQLException;
@@ -49,4 +50,45 @@ public class ClobTools {
 		Document document = reader.read(clob.getCharacterStream());
 		return document;
 	}
+
+	/**
+	 * Number of bytes of the compact UTF-8 XML representation of the given document, computed without materializing it as a string.
+	 */
+	public static long documentSize(Document document) {
+		CountingOutputStream counter = new CountingOutputStream();
+		try {
+			XMLWriter writer = new XMLWriter(counter, OutputFormat.createCompactFormat());
+			writer.write(document);
+			writer.flush();
+		} catch (IOException e) {
+		}
+		return counter.getCount();
+	}
+
+	/**
+	 * Release the resources held by a (temporary) CLOB. This is needed when the connection is pooled,
+	 * as temporary LOBs are otherwise only released when the connection is closed.
+	 */
+	public static void free(Clob clob) {
+		if (clob == null) return;
+		try {
+			clob.free();
+		} catch (Exception e) {}
+	}
+
+	private static class CountingOutputStream extends OutputStream {
+		private long iCount = 0;
+
+		@Override
+		public void write(int b) throws IOException {
+			iCount ++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			iCount += len;
+		}
+
+		long getCount() { return iCount; }
+	}
 }